@@ -0,0 +1,800 @@
+/**
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util;
+
+import java.io.IOException;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ *    Deleting and copying whole directory trees in parallel.
+ *    <p>
+ *    Each directory is listed with Files.walkFileTree, one level deep so
+ *    we get every entry's attributes without a separate stat, and its
+ *    files are handled in batches and its subdirectories as separate tasks
+ *    on a fork-join pool.  With millions of small files the time goes on
+ *    file system calls, not CPU, so the pool has more threads than there
+ *    are processors.
+ *    <p>
+ *    Symbolic links are never followed: deleting removes the link, and
+ *    copying copies the link.
+ *    <p>
+ *    copyFiles copies an arbitrary set of files on the same pool.
+ */
+public class FileTreeUtils
+{
+    public static final int    DEFAULT_PARALLELISM = Math.max( 4, Runtime.getRuntime().availableProcessors() * 2 );
+
+    /**
+     *    How many files a task handles before splitting the rest off.
+     */
+    private static final int    BATCH_SIZE = 256;
+
+    /**
+     *    How many later failures are attached to the first when carrying on
+     *    after errors.
+     */
+    private static final int    MAX_SUPPRESSED = 100;
+
+    private static ForkJoinPool    _pool;
+
+
+    /**
+     *    Told how far along a delete or copy is, once per batch of files.
+     *    Called from the pool's threads, so it needs to be thread safe.
+     */
+    public interface ProgressListener
+    {
+        public void progress( TreeStats    stats );
+    }
+
+
+    /**
+     *    Running totals for a delete or copy.
+     */
+    public static class TreeStats
+    {
+        private final AtomicLong    _files       = new AtomicLong();
+        private final AtomicLong    _directories = new AtomicLong();
+        private final AtomicLong    _bytes       = new AtomicLong();
+        private final AtomicLong    _failures    = new AtomicLong();
+        private final long          _startMillis = System.currentTimeMillis();
+        private volatile long       _endMillis;
+
+
+        public long getFiles()
+        {
+            return _files.get();
+        }
+
+
+        public long getDirectories()
+        {
+            return _directories.get();
+        }
+
+
+        /**
+         *    @return the total size of the files deleted or copied
+         */
+        public long getBytes()
+        {
+            return _bytes.get();
+        }
+
+
+        /**
+         *    @return how many files or directories couldn't be deleted or
+         *            copied
+         */
+        public long getFailures()
+        {
+            return _failures.get();
+        }
+
+
+        public long getElapsedMillis()
+        {
+            long    end = _endMillis;
+
+            return ( end == 0 ? System.currentTimeMillis() : end ) - _startMillis;
+        }
+
+
+        public double getFilesPerSecond()
+        {
+            return _files.get() * 1000.0 / Math.max( 1, getElapsedMillis() );
+        }
+
+
+        public double getBytesPerSecond()
+        {
+            return _bytes.get() * 1000.0 / Math.max( 1, getElapsedMillis() );
+        }
+
+
+        @Override
+        public String toString()
+        {
+            return "TreeStats{" + getFiles() + " files, " + getDirectories() + " directories, "
+                   + getBytes() + " bytes in " + getElapsedMillis() + "ms}";
+        }
+    }
+
+
+    private FileTreeUtils()
+    {
+        //    Not instantiable
+    }
+
+
+    /**
+     *    The pool used when none is given, with DEFAULT_PARALLELISM threads.
+     */
+    public static synchronized ForkJoinPool getDefaultPool()
+    {
+        if( _pool == null )
+        {
+            _pool = new ForkJoinPool( DEFAULT_PARALLELISM );
+        }
+
+        return _pool;
+    }
+
+
+    public static TreeStats deleteTree( final Path                root,
+                                        final ProgressListener    listener )
+        throws
+            IOException
+    {
+        return deleteTree( root, listener, false, getDefaultPool() );
+    }
+
+
+    public static TreeStats deleteTree( final Path                root,
+                                        final ProgressListener    listener,
+                                        final ForkJoinPool        pool )
+        throws
+            IOException
+    {
+        return deleteTree( root, listener, false, pool );
+    }
+
+
+    public static TreeStats deleteTree( final Path                root,
+                                        final ProgressListener    listener,
+                                        final boolean             keepGoing )
+        throws
+            IOException
+    {
+        return deleteTree( root, listener, keepGoing, getDefaultPool() );
+    }
+
+
+    /**
+     *    Deletes root and everything under it.  Does nothing if root doesn't
+     *    exist.
+     *
+     *    @param listener may be null
+     *    @param keepGoing false to stop at the first file that can't be
+     *                     deleted; true to delete everything that can be,
+     *                     and only then throw the first failure, with later
+     *                     ones attached to it as suppressed exceptions
+     */
+    public static TreeStats deleteTree( final Path                root,
+                                        final ProgressListener    listener,
+                                        final boolean             keepGoing,
+                                        final ForkJoinPool        pool )
+        throws
+            IOException
+    {
+        Walk    walk = new Walk( listener, null, keepGoing );
+
+        BasicFileAttributes    attrs;
+        try
+        {
+            attrs = Files.readAttributes( root, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS );
+        }
+        catch( NoSuchFileException    ex )
+        {
+            return walk.finish();
+        }
+
+        if( attrs.isDirectory() )
+        {
+            pool.invoke( new DeleteDirectory( walk, root ) );
+        }
+        else
+        {
+            walk.deleteFile( root, attrs );
+        }
+
+        walk.checkFailure();
+
+        return walk.finish();
+    }
+
+
+    public static TreeStats copyTree( final Path                source,
+                                      final Path                target,
+                                      final ProgressListener    listener )
+        throws
+            IOException
+    {
+        return copyTree( source, target, listener, getDefaultPool() );
+    }
+
+
+    /**
+     *    Copies source and everything under it to target, which is created
+     *    if it doesn't exist.  Files already there are replaced, and file
+     *    attributes (e.g. modified times) are copied along with the content.
+     *    Stops at the first file that can't be copied.
+     *
+     *    @param listener may be null
+     */
+    public static TreeStats copyTree( final Path                source,
+                                      final Path                target,
+                                      final ProgressListener    listener,
+                                      final ForkJoinPool        pool )
+        throws
+            IOException
+    {
+        Walk    walk = new Walk( listener,
+                                 new CopyOption[] { StandardCopyOption.REPLACE_EXISTING,
+                                                    StandardCopyOption.COPY_ATTRIBUTES,
+                                                    LinkOption.NOFOLLOW_LINKS },
+                                 false );
+
+        BasicFileAttributes    attrs = Files.readAttributes( source, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS );
+
+        if( attrs.isDirectory() )
+        {
+            pool.invoke( new CopyDirectory( walk, source, target ) );
+        }
+        else
+        {
+            walk.copyFile( source, target, attrs );
+        }
+
+        walk.checkFailure();
+
+        return walk.finish();
+    }
+
+
+    public static TreeStats copyFiles( final Map<Path,Path>        files,
+                                       final ProgressListener    listener )
+        throws
+            IOException
+    {
+        return copyFiles( files, listener, getDefaultPool() );
+    }
+
+
+    /**
+     *    Copies many files at once, each with OsUtils.copyFile.  Targets are
+     *    created or replaced; their directories must already exist.  Stops
+     *    at the first file that can't be copied.
+     *
+     *    @param files source to target
+     *    @param listener may be null
+     */
+    public static TreeStats copyFiles( final Map<Path,Path>        files,
+                                       final ProgressListener    listener,
+                                       final ForkJoinPool        pool )
+        throws
+            IOException
+    {
+        Walk    walk = new Walk( listener, null, false );
+
+        pool.invoke( new CopyPairs( walk, new ArrayList<Map.Entry<Path,Path>>( files.entrySet() ) ) );
+
+        walk.checkFailure();
+
+        return walk.finish();
+    }
+
+
+    /**
+     *    The entries directly in a directory, with their attributes.
+     */
+    private static List<Entry> list( final Path    directory )
+        throws
+            IOException
+    {
+        final List<Entry>    entries = new ArrayList<Entry>();
+
+        Files.walkFileTree( directory,
+                            EnumSet.noneOf( FileVisitOption.class ),
+                            1,
+                            new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile( final Path                   file,
+                                              final BasicFileAttributes    attrs )
+            {
+                entries.add( new Entry( file, attrs ) );
+                return FileVisitResult.CONTINUE;
+            }
+
+
+            @Override
+            public FileVisitResult visitFileFailed( final Path           file,
+                                                    final IOException    ex )
+                throws
+                    IOException
+            {
+                throw ex;
+            }
+        } );
+
+        return entries;
+    }
+
+
+    private static final class Entry
+    {
+        final Path                   _path;
+        final BasicFileAttributes    _attrs;
+
+
+        Entry( final Path                   path,
+               final BasicFileAttributes    attrs )
+        {
+            _path  = path;
+            _attrs = attrs;
+        }
+    }
+
+
+    /**
+     *    What is shared by all the tasks of one delete or copy.
+     */
+    private static final class Walk
+    {
+        final TreeStats                       _stats = new TreeStats();
+        final ProgressListener                _listener;
+        final CopyOption[]                    _copyOptions;
+        final boolean                         _keepGoing;
+        final AtomicReference<IOException>    _failure = new AtomicReference<IOException>();
+
+
+        Walk( final ProgressListener    listener,
+              final CopyOption[]        copyOptions,
+              final boolean             keepGoing )
+        {
+            _listener    = listener;
+            _copyOptions = copyOptions;
+            _keepGoing   = keepGoing;
+        }
+
+
+        /**
+         *    @return true once tasks should give up
+         */
+        boolean stopped()
+        {
+            return ! _keepGoing && _failure.get() != null;
+        }
+
+
+        boolean failed()
+        {
+            return _failure.get() != null;
+        }
+
+
+        void fail( final IOException    ex )
+        {
+            _stats._failures.incrementAndGet();
+
+            if( _failure.compareAndSet( null, ex ) || ! _keepGoing )
+            {
+                return;
+            }
+
+            IOException    first = _failure.get();
+
+            synchronized( first )
+            {
+                if( first.getSuppressed().length < MAX_SUPPRESSED )
+                {
+                    first.addSuppressed( ex );
+                }
+            }
+        }
+
+
+        void checkFailure()
+            throws
+                IOException
+        {
+            IOException    ex = _failure.get();
+
+            if( ex != null )
+            {
+                throw ex;
+            }
+        }
+
+
+        void deleteFile( final Path                   file,
+                         final BasicFileAttributes    attrs )
+            throws
+                IOException
+        {
+            Files.delete( file );
+
+            _stats._files.incrementAndGet();
+            _stats._bytes.addAndGet( attrs.size() );
+        }
+
+
+        void copyFile( final Path                   source,
+                       final Path                   target,
+                       final BasicFileAttributes    attrs )
+            throws
+                IOException
+        {
+            Files.copy( source, target, _copyOptions );
+
+            _stats._files.incrementAndGet();
+            _stats._bytes.addAndGet( attrs.size() );
+        }
+
+
+        void reportProgress()
+        {
+            if( _listener != null )
+            {
+                _listener.progress( _stats );
+            }
+        }
+
+
+        TreeStats finish()
+        {
+            _stats._endMillis = System.currentTimeMillis();
+
+            reportProgress();
+
+            return _stats;
+        }
+    }
+
+
+    /**
+     *    Deletes everything in a directory, then the directory.
+     */
+    private static final class DeleteDirectory
+        extends
+            RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Walk    _walk;
+        private final Path    _directory;
+
+
+        DeleteDirectory( final Walk    walk,
+                         final Path    directory )
+        {
+            _walk      = walk;
+            _directory = directory;
+        }
+
+
+        @Override
+        protected void compute()
+        {
+            if( _walk.stopped() )
+            {
+                return;
+            }
+
+            try
+            {
+                List<Entry>              files    = new ArrayList<Entry>();
+                List<RecursiveAction>    subtasks = new ArrayList<RecursiveAction>();
+
+                for( Entry    entry : list( _directory ) )
+                {
+                    if( entry._attrs.isDirectory() )
+                    {
+                        subtasks.add( new DeleteDirectory( _walk, entry._path ) );
+                    }
+                    else
+                    {
+                        files.add( entry );
+                    }
+                }
+
+                for( int start = 0; start < files.size(); start += BATCH_SIZE )
+                {
+                    subtasks.add( new DeleteFiles( _walk,
+                                                   files.subList( start, Math.min( files.size(),
+                                                                                   start + BATCH_SIZE ) ) ) );
+                }
+
+                invokeAll( subtasks );
+
+                if( _walk.stopped() )
+                {
+                    return;
+                }
+
+                Files.delete( _directory );
+                _walk._stats._directories.incrementAndGet();
+            }
+            catch( DirectoryNotEmptyException    ex )
+            {
+                //
+                //    When carrying on after errors, usually because something
+                //    in it couldn't be deleted, which has been counted already.
+                //
+                if( ! _walk.failed() )
+                {
+                    _walk.fail( ex );
+                }
+            }
+            catch( IOException    ex )
+            {
+                _walk.fail( ex );
+            }
+        }
+    }
+
+
+    private static final class DeleteFiles
+        extends
+            RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Walk           _walk;
+        private final List<Entry>    _files;
+
+
+        DeleteFiles( final Walk           walk,
+                     final List<Entry>    files )
+        {
+            _walk  = walk;
+            _files = files;
+        }
+
+
+        @Override
+        protected void compute()
+        {
+            for( Entry    entry : _files )
+            {
+                if( _walk.stopped() )
+                {
+                    return;
+                }
+
+                try
+                {
+                    _walk.deleteFile( entry._path, entry._attrs );
+                }
+                catch( IOException    ex )
+                {
+                    _walk.fail( ex );
+
+                    if( _walk.stopped() )
+                    {
+                        return;
+                    }
+                }
+            }
+
+            _walk.reportProgress();
+        }
+    }
+
+
+    /**
+     *    Creates the target directory, then copies everything into it.
+     */
+    private static final class CopyDirectory
+        extends
+            RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Walk    _walk;
+        private final Path    _source;
+        private final Path    _target;
+
+
+        CopyDirectory( final Walk    walk,
+                       final Path    source,
+                       final Path    target )
+        {
+            _walk   = walk;
+            _source = source;
+            _target = target;
+        }
+
+
+        @Override
+        protected void compute()
+        {
+            if( _walk.stopped() )
+            {
+                return;
+            }
+
+            try
+            {
+                Files.createDirectories( _target );
+                _walk._stats._directories.incrementAndGet();
+
+                List<Entry>              files    = new ArrayList<Entry>();
+                List<RecursiveAction>    subtasks = new ArrayList<RecursiveAction>();
+
+                for( Entry    entry : list( _source ) )
+                {
+                    if( entry._attrs.isDirectory() )
+                    {
+                        subtasks.add( new CopyDirectory( _walk,
+                                                         entry._path,
+                                                         _target.resolve( entry._path.getFileName().toString() ) ) );
+                    }
+                    else
+                    {
+                        files.add( entry );
+                    }
+                }
+
+                for( int start = 0; start < files.size(); start += BATCH_SIZE )
+                {
+                    subtasks.add( new CopyFiles( _walk,
+                                                 _target,
+                                                 files.subList( start, Math.min( files.size(),
+                                                                                 start + BATCH_SIZE ) ) ) );
+                }
+
+                invokeAll( subtasks );
+            }
+            catch( IOException    ex )
+            {
+                _walk.fail( ex );
+            }
+        }
+    }
+
+
+    private static final class CopyFiles
+        extends
+            RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Walk           _walk;
+        private final Path           _target;
+        private final List<Entry>    _files;
+
+
+        CopyFiles( final Walk           walk,
+                   final Path           target,
+                   final List<Entry>    files )
+        {
+            _walk   = walk;
+            _target = target;
+            _files  = files;
+        }
+
+
+        @Override
+        protected void compute()
+        {
+            for( Entry    entry : _files )
+            {
+                if( _walk.stopped() )
+                {
+                    return;
+                }
+
+                try
+                {
+                    _walk.copyFile( entry._path,
+                                    _target.resolve( entry._path.getFileName().toString() ),
+                                    entry._attrs );
+                }
+                catch( IOException    ex )
+                {
+                    _walk.fail( ex );
+                    return;
+                }
+            }
+
+            _walk.reportProgress();
+        }
+    }
+
+
+    /**
+     *    Copies a list of files, splitting it in half until it is down to a
+     *    batch.
+     */
+    private static final class CopyPairs
+        extends
+            RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Walk                          _walk;
+        private final List<Map.Entry<Path,Path>>    _files;
+
+
+        CopyPairs( final Walk                          walk,
+                   final List<Map.Entry<Path,Path>>    files )
+        {
+            _walk  = walk;
+            _files = files;
+        }
+
+
+        @Override
+        protected void compute()
+        {
+            int    size = _files.size();
+
+            if( size > BATCH_SIZE )
+            {
+                invokeAll( new CopyPairs( _walk, _files.subList( 0, size / 2 ) ),
+                           new CopyPairs( _walk, _files.subList( size / 2, size ) ) );
+                return;
+            }
+
+            for( Map.Entry<Path,Path>    entry : _files )
+            {
+                if( _walk.stopped() )
+                {
+                    return;
+                }
+
+                try
+                {
+                    long    bytes = OsUtils.copyFile( entry.getKey(), entry.getValue() );
+
+                    _walk._stats._files.incrementAndGet();
+                    _walk._stats._bytes.addAndGet( bytes );
+                }
+                catch( IOException    ex )
+                {
+                    _walk.fail( ex );
+                    return;
+                }
+            }
+
+            _walk.reportProgress();
+        }
+    }
+}
@@ -10,7 +10,6 @@
 package com.samsix.util;
 
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
@@ -33,15 +32,24 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
 import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.apache.log4j.Logger;
 
-import com.samsix.util.reflect.SimpleMethodInvoker;
 import com.samsix.util.string.StringUtilities;
 
 
@@ -50,9 +58,14 @@ public class OsUtils
 {
     private static Logger logger = null;
 
-    private static Properties       _envVars;
+    private static volatile Map<String,String>    _environment;
     private static boolean          _logResourceProblems     = true;
 
+    /**
+     *    The most copyFile asks transferTo for at once.
+     */
+    public static final long    COPY_CHUNK_SIZE = 64L * 1024 * 1024;
+
     public static String[] IMAGE_EXTENSIONS = new String[] { "bmp", "gif", "jpg", "jpeg", "png", "tif", "tiff" };
 
 
@@ -62,22 +75,12 @@ public class OsUtils
     }
     
     
+    /**
+     *    Deletes the folder and everything in it (see FileTreeUtils.deleteTree).
+     *    Failures are logged, not thrown.
+     */
     public static void deleteFolder(final File folder) {
-        if (! folder.exists() ) {
-            return;
-        }
-        
-        File[] files = folder.listFiles();
-        if(files != null) { //some JVMs return null for empty dirs
-            for(File f: files) {
-                if(f.isDirectory()) {
-                    deleteFolder(f);
-                } else {
-                    f.delete();
-                }
-            }
-        }
-        folder.delete();
+        delete( folder );
     }
     
 
@@ -91,103 +94,58 @@ public class OsUtils
     }
 
 
+    /**
+     *    @return the value of the environment variable from the snapshot
+     *            (see getEnvironment), or null if it isn't set
+     */
     public static String getEnvVar( final String    key )
     {
-        try
-        {
-            if ( new JvmVersionUtils().isVersion6() )
-            {
-                return simpleGetEnvVar( key );
-            }
-
-            return getEnvVars().getProperty( key );
-        }
-        catch ( Throwable    ex )
-        {
-            //
-            //    Don't use logger to report error
-            //    because this code is used before
-            //    logging is set and will lead to
-            //    errors involving top.log not available
-            //    yet when the log4j.properties file is
-            //    parsed.
-            //
-            ex.printStackTrace();
-            return null;
-        }
+        return getEnvironment().get( key );
     }
 
 
-    private static String simpleGetEnvVar( final String  key ) throws UtilException
+    /**
+     *    An unmodifiable snapshot of the environment, taken the first time
+     *    it's asked for.  Names are case insensitive on Windows, as they
+     *    are for System.getenv.
+     */
+    public static Map<String,String> getEnvironment()
     {
-        return (String) SimpleMethodInvoker.invokeStaticMethod( System.class, "getenv", key );
-    }
-
+        Map<String,String>    environment = _environment;
 
-    private static synchronized Properties getEnvVars()
-        throws
-            UtilException
-    {
-        if ( _envVars != null )
+        if ( environment == null )
         {
-            return _envVars;
+            environment = refreshEnvironment();
         }
 
-        Process    process = null;
-        _envVars = new Properties();
-
-        try
-        {
-            if ( OsUtils.isWindows() )
-            {
-                if ( OsUtils.isWindows9x() )
-                {
-                    process = Runtime.getRuntime().exec( "command.com /c set" );
-                }
-                else
-                {
-                    process = Runtime.getRuntime().exec( "cmd.exe /c set" );
-                }
-            }
-            else
-            {
-                //
-                //     Our last hope, we assume Unix
-                //
-                process = Runtime.getRuntime().exec( "env" );
-            }
-
-            BufferedReader bufferedReader = new BufferedReader
-                ( new InputStreamReader( process.getInputStream() ) );
+        return environment;
+    }
 
-            int       idx;
-            String    line;
-            while ( ( line = bufferedReader.readLine() ) != null )
-            {
-                idx = line.indexOf( '=' );
 
-                if ( idx > 0 )
-                {
-                    _envVars.setProperty( line.substring( 0, idx ),
-                                          line.substring( idx + 1 ) );
-                }
-            }
-
-            bufferedReader.close();
+    /**
+     *    Takes a new snapshot of the environment.
+     *
+     *    @return the new snapshot
+     */
+    public static Map<String,String> refreshEnvironment()
+    {
+        Map<String,String>    environment;
 
-            return _envVars;
-        }
-        catch ( Throwable    ex )
+        if ( isWindows() )
         {
-            throw new UtilException( "Cannot retrieve environment variables.", ex );
+            environment = new TreeMap<String,String>( String.CASE_INSENSITIVE_ORDER );
         }
-        finally
+        else
         {
-            if ( process != null )
-            {
-                process.destroy();
-            }
+            environment = new HashMap<String,String>();
         }
+
+        environment.putAll( System.getenv() );
+
+        environment = Collections.unmodifiableMap( environment );
+        _environment = environment;
+
+        return environment;
     }
 
 
@@ -273,22 +231,61 @@ public class OsUtils
             outputStream.println( "Executing [" + commandString + "]..." );
         }
 
-        Process    process;
-        process = Runtime.getRuntime().exec( command );
-
         if ( ! waitToFinish )
         {
+            //
+            //    Left to run on its own, so it isn't counted against the
+            //    shared ProcessRunner's cap (where it could hold a slot for
+            //    as long as we run), and its output is thrown away rather
+            //    than kept.
+            //
+            ProcessRunner.getDefault().launch( new ProcessBuilder( command ) ).whenComplete( new BiConsumer<ProcessResult,Throwable>()
+            {
+                @Override
+                public void accept( final ProcessResult    result,
+                                    final Throwable        ex )
+                {
+                    if ( ex != null )
+                    {
+                        getLogger().error( "Failed running [" + commandString + "]", ex );
+                    }
+                }
+            } );
+
             return;
         }
 
         //
-        //    Read the stdout and stderr streams.
+        //    Goes through the shared ProcessRunner, which caps how many
+        //    children we have running and reads stdout and stderr at the
+        //    same time, so a child that fills its stderr pipe can't hang.
         //
-        String    output;
-        output = StringUtilities.inputStreamToString( process.getInputStream() );
+        CompletableFuture<ProcessResult>    future;
+        future = ProcessRunner.getDefault().run( command );
+
+        ProcessResult    result;
+        try
+        {
+            result = future.get();
+        }
+        catch ( ExecutionException    ex )
+        {
+            if ( ex.getCause() instanceof IOException )
+            {
+                throw (IOException) ex.getCause();
+            }
+
+            throw new IOException( "Can't issue command [" + commandString + "]", ex.getCause() );
+        }
+        catch ( InterruptedException    ex )
+        {
+            future.cancel( true );
+            throw ex;
+        }
+
+        String    output = result.getOutput();
+        String    errMsg = result.getError();
 
-        String    errMsg;
-        errMsg = StringUtilities.inputStreamToString( process.getErrorStream() );
         if ( getLogger().isInfoEnabled() )
         {
             getLogger().info( "Output:  " + output );
@@ -307,16 +304,6 @@ public class OsUtils
         }
 
 
-        //
-        //    Wait for the process to complete.
-        //    Since this *should* just be spooling
-        //    call the process should finish immediately.
-        //
-        //    NOTE: This must happen AFTER the output streams (both error and
-        //    out) are read completely.
-        //
-        process.waitFor();
-
         //
         //    This is to catch any errors that aren't
         //    thrown immediately by the exec command.
@@ -325,7 +312,7 @@ public class OsUtils
         //    Let's throw an exception with the contents of the
         //    stderr stream.
         //
-        if ( process.exitValue() != 0 )
+        if ( result.getExitCode() != 0 )
         {
             //
             //    In case the program doesn't output to stderr but
@@ -466,10 +453,10 @@ public class OsUtils
         Process    process;
         process = Runtime.getRuntime().exec( command );
 
-        StreamRedirector    out = new StreamRedirector( process.getInputStream(),
-                                                        stdout );
-        StreamRedirector    err = new StreamRedirector( process.getErrorStream(),
-                                                        stderr );
+        StreamCopier    out = new StreamCopier( process.getInputStream(),
+                                                stdout );
+        StreamCopier    err = new StreamCopier( process.getErrorStream(),
+                                                stderr );
 
         out.start();
         err.start();
@@ -502,19 +489,20 @@ public class OsUtils
 
 
     /**
-     *    Thread that consumes an InputStream and writes to an OutputStream
-     *    until the InputStream reaches EOF
+     *    Consumes an InputStream and writes to an OutputStream
+     *    until the InputStream reaches EOF, then closes both.
+     *    <p>
+     *    Runs on a thread of its own; StreamCopier does the same job on a
+     *    shared executor.
      */
     public static class StreamRedirector
         extends
             Thread
     {
-        private final static int BUFFER_SIZE = 8192;
-
         private final InputStream     _input;
         private final OutputStream    _output;
 
-        private Throwable             _exception = null;
+        private volatile Throwable    _exception = null;
 
 
         public StreamRedirector( final InputStream     input,
@@ -522,7 +510,7 @@ public class OsUtils
         {
             super( "StreamRedirector [" + input + "]" );
 
-            _input = new BufferedInputStream( input );
+            _input = input;
             _output = output;
         }
 
@@ -530,42 +518,76 @@ public class OsUtils
         @Override
         public void run()
         {
-            final byte buffer[] = new byte[ BUFFER_SIZE ];
+            _exception = redirect( _input, _output );
+        }
 
-            try
-            {
-                int    length;
 
-                while( ( length = _input.read( buffer, 0, BUFFER_SIZE ) ) > 0 )
-                {
-                    _output.write( buffer, 0, length );
-                }
-            }
-            catch( Throwable    ex )
+        public boolean hasException()
+        {
+            return _exception != null;
+        }
+
+
+        public Throwable getException()
+        {
+            return _exception;
+        }
+    }
+
+
+    /**
+     *    Consumes an InputStream and writes to an OutputStream
+     *    until the InputStream reaches EOF, then closes both.
+     *    <p>
+     *    start() runs it on a shared executor (virtual threads where the
+     *    JVM has them) rather than a thread of its own.
+     */
+    public static class StreamCopier
+        implements
+            Runnable
+    {
+        private final InputStream       _input;
+        private final OutputStream      _output;
+        private final CountDownLatch    _done = new CountDownLatch( 1 );
+
+        private volatile Throwable      _exception = null;
+
+
+        public StreamCopier( final InputStream     input,
+                             final OutputStream    output )
+        {
+            _input = input;
+            _output = output;
+        }
+
+
+        public void start()
+        {
+            StreamPump.getExecutor().execute( this );
+        }
+
+
+        /**
+         *    Waits for the input to be used up and both streams closed.
+         */
+        public void join()
+            throws
+                InterruptedException
+        {
+            _done.await();
+        }
+
+
+        @Override
+        public void run()
+        {
+            try
             {
-                _exception = ex;
+                _exception = redirect( _input, _output );
             }
             finally
             {
-                try
-                {
-                    _input.close();
-                }
-                catch( Throwable    ioe )
-                {
-                    Logger.getLogger( getClass() )
-                          .error( "Failed closing input", ioe );
-                }
-
-                try
-                {
-                    _output.close();
-                }
-                catch( Throwable    ioe )
-                {
-                    Logger.getLogger( getClass() )
-                          .error( "Failed closing output", ioe );
-                }
+                _done.countDown();
             }
         }
 
@@ -583,6 +605,49 @@ public class OsUtils
     }
 
 
+    /**
+     *    Copies input to output, then closes both.
+     *
+     *    @return what went wrong copying, or null
+     */
+    private static Throwable redirect( final InputStream     input,
+                                       final OutputStream    output )
+    {
+        Throwable    exception = null;
+
+        try
+        {
+            StreamPump.copy( input, output );
+        }
+        catch( Throwable    ex )
+        {
+            exception = ex;
+        }
+        finally
+        {
+            try
+            {
+                input.close();
+            }
+            catch( Throwable    ioe )
+            {
+                getLogger().error( "Failed closing input", ioe );
+            }
+
+            try
+            {
+                output.close();
+            }
+            catch( Throwable    ioe )
+            {
+                getLogger().error( "Failed closing output", ioe );
+            }
+        }
+
+        return exception;
+    }
+
+
 
     public static boolean isWindows()
     {
@@ -666,32 +731,75 @@ public class OsUtils
         throws
             IOException
     {
-        FileInputStream    inStream = new FileInputStream( in );
-        FileChannel    inChannel = inStream.getChannel();
+        copyFile( Paths.get( in ), Paths.get( out ) );
+    }
 
-        FileOutputStream    outStream = new FileOutputStream( out );
-        FileChannel    outChannel = outStream.getChannel();
+
+    /**
+     *    Copies the file with FileChannel.transferTo, which lets the OS move
+     *    the bytes without them coming through the JVM.  transferTo may copy
+     *    less than asked (on Linux it never copies more than 2GB at a time),
+     *    so it is called in a loop, COPY_CHUNK_SIZE at a time, until the
+     *    whole file is across.  target is created or replaced.
+     *
+     *    @return the number of bytes copied
+     *    @throws IOException if fewer bytes were copied than source holds,
+     *                        e.g. because it was truncated mid-copy
+     */
+    public static long copyFile( final Path    source,
+                                 final Path    target )
+        throws
+            IOException
+    {
+        FileChannel    inChannel = FileChannel.open( source, StandardOpenOption.READ );
 
         try
         {
-            inChannel.transferTo( 0, inChannel.size(), outChannel );
-        }
-        catch ( IOException    ex )
-        {
-            throw ex;
-        }
-        finally
-        {
-            if ( inStream != null )
+            FileChannel    outChannel = FileChannel.open( target,
+                                                          StandardOpenOption.WRITE,
+                                                          StandardOpenOption.CREATE,
+                                                          StandardOpenOption.TRUNCATE_EXISTING );
+
+            try
             {
-                inStream.close();
-            }
+                long    size     = inChannel.size();
+                long    position = 0;
 
-            if ( outStream != null )
+                while( position < size )
+                {
+                    long    count = inChannel.transferTo( position,
+                                                          Math.min( COPY_CHUNK_SIZE, size - position ),
+                                                          outChannel );
+
+                    if( count <= 0 )
+                    {
+                        //
+                        //    transferTo returns 0 at the end of the file, so
+                        //    source has shrunk since we got its size.
+                        //
+                        break;
+                    }
+
+                    position += count;
+                }
+
+                if( position != size || outChannel.size() != size )
+                {
+                    throw new IOException( "Copied " + position + " of " + size + " bytes from ["
+                                           + source + "] to [" + target + "]" );
+                }
+
+                return size;
+            }
+            finally
             {
-                outStream.close();
+                outChannel.close();
             }
         }
+        finally
+        {
+            inChannel.close();
+        }
     }
 
 
@@ -763,28 +871,22 @@ public class OsUtils
     }
 
 
+    /**
+     *    Deletes the file, or the directory and everything in it, in parallel
+     *    (see FileTreeUtils.deleteTree).  Whatever can't be deleted is
+     *    skipped and everything else still is; failures are logged, not
+     *    thrown.
+     */
     public static void delete( final File f )
     {
-        if (!f.isDirectory())
+        try
         {
-            //System.out.println("deleting file: " + f );
-            f.delete();
-            return;
+            FileTreeUtils.deleteTree( f.toPath(), null, true );
         }
-
-        String[] contents = f.list();
-
-        if (contents != null)
+        catch( IOException    ex )
         {
-            for (int i = 0; i < contents.length; i++)
-            {
-                File thisFile = new File(f, contents[i]);
-                delete(thisFile);
-            }
+            getLogger().warn( "Failed to delete [" + f + "]", ex );
         }
-
-        //System.out.println("deleteing dir: " + f );
-        f.delete();
     }
 
 
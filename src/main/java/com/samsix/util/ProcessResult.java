@@ -0,0 +1,110 @@
+/**
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *    What a process run through ProcessRunner left behind.  The output and
+ *    error are only here if ProcessRunner captured them, i.e. it wasn't
+ *    given streams to send them to.
+ */
+public class ProcessResult
+{
+    private static final byte[]    NONE = new byte[0];
+
+    private final List<String>    _command;
+    private final int             _exitCode;
+    private final byte[]          _output;
+    private final byte[]          _error;
+    private final long            _elapsedMillis;
+
+
+    ProcessResult( final List<String>    command,
+                   final int             exitCode,
+                   final byte[]          output,
+                   final byte[]          error,
+                   final long            elapsedMillis )
+    {
+        _command       = Collections.unmodifiableList( command );
+        _exitCode      = exitCode;
+        _output        = output == null ? NONE : output;
+        _error         = error == null ? NONE : error;
+        _elapsedMillis = elapsedMillis;
+    }
+
+
+    public List<String> getCommand()
+    {
+        return _command;
+    }
+
+
+    public int getExitCode()
+    {
+        return _exitCode;
+    }
+
+
+    public boolean isSuccess()
+    {
+        return _exitCode == 0;
+    }
+
+
+    public byte[] getOutputBytes()
+    {
+        return _output;
+    }
+
+
+    public byte[] getErrorBytes()
+    {
+        return _error;
+    }
+
+
+    /**
+     *    stdout in the platform's default charset, which is what child
+     *    processes normally write in.
+     */
+    public String getOutput()
+    {
+        return new String( _output, Charset.defaultCharset() );
+    }
+
+
+    /**
+     *    stderr in the platform's default charset.
+     */
+    public String getError()
+    {
+        return new String( _error, Charset.defaultCharset() );
+    }
+
+
+    /**
+     *    @return from the process being started to it exiting and its
+     *            streams being drained
+     */
+    public long getElapsedMillis()
+    {
+        return _elapsedMillis;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "ProcessResult{" + _command + " exited " + _exitCode + " after " + _elapsedMillis + "ms}";
+    }
+}
@@ -0,0 +1,518 @@
+/**
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+import org.apache.log4j.Logger;
+
+/**
+ *    Runs child processes without letting them pile up.
+ *    <p>
+ *    At most maxProcesses children run at once; anything run beyond that
+ *    waits in a queue (not on a thread) until one finishes.  stdout and
+ *    stderr are always drained at the same time, so a child can't hang
+ *    because it filled one pipe while we were waiting on the other.
+ *    <p>
+ *    A run returns a CompletableFuture.  Cancelling it kills the process,
+ *    or keeps it from being started if it is still queued; if a timeout is
+ *    set, a process that runs longer than that is killed and the future
+ *    fails with a TimeoutException.
+ */
+public class ProcessRunner
+{
+    protected static final Logger logger = Logger.getLogger( ProcessRunner.class );
+
+    private static ProcessRunner    _default;
+
+    private static final ScheduledThreadPoolExecutor    _timer;
+
+    /**
+     *    Where the output of launched processes goes.
+     */
+    private static final OutputStream    DISCARD = new OutputStream()
+    {
+        @Override
+        public void write( final int    b )
+        {
+            //    Discarded
+        }
+
+
+        @Override
+        public void write( final byte[]    bytes,
+                           final int       offset,
+                           final int       length )
+        {
+            //    Discarded
+        }
+    };
+
+    static
+    {
+        _timer = new ScheduledThreadPoolExecutor( 1, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( final Runnable    runnable )
+            {
+                Thread    thread = new Thread( runnable, "ProcessRunner Timer" );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+
+        //
+        //    Most processes finish well within their timeout; don't keep
+        //    them in the queue until it would have gone off.
+        //
+        _timer.setRemoveOnCancelPolicy( true );
+    }
+
+    private final Semaphore           _permits;
+    private final ArrayDeque<Job>     _pending = new ArrayDeque<Job>();
+
+    /**
+     *    Guarded by _pending
+     */
+    private int                       _runningCount;
+
+    private volatile long             _timeoutMillis;
+
+
+    /**
+     *    @param maxProcesses how many children may run at once
+     */
+    public ProcessRunner( final int    maxProcesses )
+    {
+        if( maxProcesses <= 0 )
+        {
+            throw new IllegalArgumentException( "Invalid number of processes: " + maxProcesses );
+        }
+
+        _permits = new Semaphore( maxProcesses );
+    }
+
+
+    /**
+     *    A shared runner allowing twice as many children as there are processors.
+     */
+    public static synchronized ProcessRunner getDefault()
+    {
+        if( _default == null )
+        {
+            _default = new ProcessRunner( Math.max( 2, Runtime.getRuntime().availableProcessors() * 2 ) );
+        }
+
+        return _default;
+    }
+
+
+    /**
+     *    @param timeoutMillis how long a process may run before it is killed;
+     *                         0, the default, for no limit
+     */
+    public void setTimeout( final long    timeoutMillis )
+    {
+        if( timeoutMillis < 0 )
+        {
+            throw new IllegalArgumentException( "Invalid timeout: " + timeoutMillis );
+        }
+
+        _timeoutMillis = timeoutMillis;
+    }
+
+
+    public long getTimeout()
+    {
+        return _timeoutMillis;
+    }
+
+
+    /**
+     *    Runs the command, capturing its output and error.
+     */
+    public CompletableFuture<ProcessResult> run( final String...    command )
+    {
+        return run( new ProcessBuilder( command ), null, null );
+    }
+
+
+    /**
+     *    Runs the process, capturing its output and error.
+     */
+    public CompletableFuture<ProcessResult> run( final ProcessBuilder    builder )
+    {
+        return run( builder, null, null );
+    }
+
+
+    /**
+     *    Runs the process, copying its output and error to the given streams.
+     *    The streams aren't closed.
+     *
+     *    @param stdout null to capture the output in the ProcessResult
+     *    @param stderr null to capture the error in the ProcessResult
+     */
+    public CompletableFuture<ProcessResult> run( final ProcessBuilder    builder,
+                                                 final OutputStream      stdout,
+                                                 final OutputStream      stderr )
+    {
+        Job    job = new Job( builder, stdout, stderr, _timeoutMillis, true );
+
+        synchronized( _pending )
+        {
+            _pending.add( job );
+        }
+
+        dispatch();
+
+        return job._future;
+    }
+
+
+    /**
+     *    Starts a process that is left to run on its own, e.g. a server or a
+     *    viewer.  It is started straight away and doesn't count against
+     *    maxProcesses, since it may run for as long as we do, and it has no
+     *    timeout.  Its output and error are read and thrown away, so it can't
+     *    block on a full pipe.
+     *
+     *    @return completes when the process exits; the ProcessResult has no
+     *            output or error
+     *    @throws IOException if the process can't be started
+     */
+    public CompletableFuture<ProcessResult> launch( final ProcessBuilder    builder )
+        throws
+            IOException
+    {
+        Job    job = new Job( builder, DISCARD, DISCARD, 0, false );
+
+        if( ! job.start() )
+        {
+            try
+            {
+                job._future.join();
+            }
+            catch( CompletionException    ex )
+            {
+                if( ex.getCause() instanceof IOException )
+                {
+                    throw (IOException) ex.getCause();
+                }
+
+                throw new IOException( "Can't start " + builder.command(), ex.getCause() );
+            }
+        }
+
+        return job._future;
+    }
+
+
+    /**
+     *    @return the number of processes waiting to be started
+     */
+    public int getPending()
+    {
+        synchronized( _pending )
+        {
+            return _pending.size();
+        }
+    }
+
+
+    /**
+     *    @return the number of processes running
+     */
+    public int getRunning()
+    {
+        synchronized( _pending )
+        {
+            return _runningCount;
+        }
+    }
+
+
+    private void dispatch()
+    {
+        while( true )
+        {
+            Job    job;
+
+            synchronized( _pending )
+            {
+                if( _pending.isEmpty() || ! _permits.tryAcquire() )
+                {
+                    return;
+                }
+
+                job = _pending.poll();
+                _runningCount++;
+            }
+
+            if( ! job.start() )
+            {
+                synchronized( _pending )
+                {
+                    _runningCount--;
+                }
+
+                _permits.release();
+            }
+        }
+    }
+
+
+    private void finished()
+    {
+        synchronized( _pending )
+        {
+            _runningCount--;
+        }
+
+        _permits.release();
+        dispatch();
+    }
+
+
+    private static void drain( final InputStream     input,
+                               final OutputStream    output )
+        throws
+            IOException
+    {
+        try
+        {
+            StreamPump.copy( input, output );
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+
+    private class Job
+    {
+        final ProcessBuilder                      _builder;
+        final OutputStream                        _stdout;
+        final OutputStream                        _stderr;
+        final long                                _timeoutMillis;
+
+        /**
+         *    Whether it holds one of our permits while it runs
+         */
+        final boolean                             _counted;
+        final CompletableFuture<ProcessResult>    _future   = new CompletableFuture<ProcessResult>();
+        final AtomicBoolean                       _timedOut = new AtomicBoolean();
+
+        volatile Process                          _process;
+        volatile ScheduledFuture<?>               _timeout;
+
+
+        Job( final ProcessBuilder    builder,
+             final OutputStream      stdout,
+             final OutputStream      stderr,
+             final long              timeoutMillis,
+             final boolean           counted )
+        {
+            _builder       = builder;
+            _stdout        = stdout;
+            _stderr        = stderr;
+            _timeoutMillis = timeoutMillis;
+            _counted       = counted;
+
+            _future.whenComplete( new BiConsumer<ProcessResult,Throwable>()
+            {
+                @Override
+                public void accept( final ProcessResult    result,
+                                    final Throwable        ex )
+                {
+                    Process              process = _process;
+                    ScheduledFuture<?>   timeout = _timeout;
+
+                    if( _future.isCancelled() && process != null )
+                    {
+                        process.destroyForcibly();
+                    }
+
+                    if( timeout != null )
+                    {
+                        timeout.cancel( false );
+                    }
+                }
+            } );
+        }
+
+
+        /**
+         *    @return false if the process wasn't started, in which case the
+         *            future has already been completed
+         */
+        boolean start()
+        {
+            if( _future.isDone() )
+            {
+                //
+                //    Cancelled while it was queued
+                //
+                return false;
+            }
+
+            final long       startMillis = System.currentTimeMillis();
+            final Process    process;
+
+            try
+            {
+                if( logger.isDebugEnabled() )
+                {
+                    logger.debug( "Starting " + _builder.command() );
+                }
+
+                process = _builder.start();
+            }
+            catch( Throwable    ex )
+            {
+                _future.completeExceptionally( ex );
+                return false;
+            }
+
+            _process = process;
+
+            if( _future.isCancelled() )
+            {
+                //
+                //    Cancelled between the check above and the process starting.
+                //
+                process.destroyForcibly();
+            }
+
+            if( _timeoutMillis > 0 )
+            {
+                _timeout = _timer.schedule( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if( process.isAlive() )
+                        {
+                            _timedOut.set( true );
+                            process.destroyForcibly();
+                        }
+                    }
+                }, _timeoutMillis, TimeUnit.MILLISECONDS );
+
+                if( _future.isDone() )
+                {
+                    //
+                    //    Cancelled before _timeout was set, so whenComplete
+                    //    didn't see it.
+                    //
+                    _timeout.cancel( false );
+                }
+            }
+
+            final ByteArrayOutputStream    output = _stdout == null ? new ByteArrayOutputStream() : null;
+            final ByteArrayOutputStream    error  = _stderr == null ? new ByteArrayOutputStream() : null;
+
+            //
+            //    stderr on one pump thread; stdout, then waiting for the exit, on another.
+            //
+            final CompletableFuture<Void>    errDone = new CompletableFuture<Void>();
+
+            StreamPump.getExecutor().execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        drain( process.getErrorStream(), error != null ? error : _stderr );
+                        errDone.complete( null );
+                    }
+                    catch( Throwable    ex )
+                    {
+                        errDone.completeExceptionally( ex );
+                    }
+                }
+            } );
+
+            StreamPump.getExecutor().execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        drain( process.getInputStream(), output != null ? output : _stdout );
+                        errDone.join();
+
+                        int    exitCode = process.waitFor();
+
+                        if( _timedOut.get() )
+                        {
+                            _future.completeExceptionally(
+                                new TimeoutException( "Process " + _builder.command() + " killed after "
+                                                      + _timeoutMillis + "ms" ) );
+                            return;
+                        }
+
+                        _future.complete( new ProcessResult( _builder.command(),
+                                                             exitCode,
+                                                             output == null ? null : output.toByteArray(),
+                                                             error == null ? null : error.toByteArray(),
+                                                             System.currentTimeMillis() - startMillis ) );
+                    }
+                    catch( Throwable    ex )
+                    {
+                        process.destroyForcibly();
+
+                        if( ex instanceof CompletionException && ex.getCause() != null )
+                        {
+                            _future.completeExceptionally( ex.getCause() );
+                        }
+                        else
+                        {
+                            _future.completeExceptionally( ex );
+                        }
+                    }
+                    finally
+                    {
+                        if( _counted )
+                        {
+                            finished();
+                        }
+                    }
+                }
+            } );
+
+            return true;
+        }
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "ProcessRunner{running=" + getRunning() + ", pending=" + getPending() + "}";
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.samsix.util.reflect.SimpleMethodInvoker;
+
+/**
+ *    The threads and buffers used to pump the output of child processes
+ *    (see OsUtils.StreamCopier and ProcessRunner).
+ *    <p>
+ *    Pumping is almost all waiting on a pipe, so where the JVM has virtual
+ *    threads (21 and up) each pump gets one of those.  Otherwise they share
+ *    a cached pool of daemon threads, which at least saves starting a new
+ *    thread for every stream of every short-lived process.
+ *    <p>
+ *    Copy buffers are pooled rather than tied to threads, so they get
+ *    reused with virtual threads too.
+ */
+final class StreamPump
+{
+    private static final Logger logger = Logger.getLogger( StreamPump.class );
+
+    static final int            BUFFER_SIZE  = 64 * 1024;
+    private static final int    MAX_BUFFERS  = 32;
+
+    private static final ExecutorService                   _executor = createExecutor();
+    private static final ConcurrentLinkedQueue<byte[]>     _buffers  = new ConcurrentLinkedQueue<byte[]>();
+    private static final AtomicInteger                     _idle     = new AtomicInteger();
+
+
+    private StreamPump()
+    {
+        //    Not instantiable
+    }
+
+
+    static ExecutorService getExecutor()
+    {
+        return _executor;
+    }
+
+
+    /**
+     *    Copies input to output until input hits EOF.  Neither is closed.
+     *
+     *    @return the number of bytes copied
+     */
+    static long copy( final InputStream     input,
+                      final OutputStream    output )
+        throws
+            IOException
+    {
+        byte[]    buffer = borrowBuffer();
+
+        try
+        {
+            long    total = 0;
+            int     count;
+
+            while( ( count = input.read( buffer ) ) != -1 )
+            {
+                output.write( buffer, 0, count );
+                total += count;
+            }
+
+            return total;
+        }
+        finally
+        {
+            releaseBuffer( buffer );
+        }
+    }
+
+
+    private static byte[] borrowBuffer()
+    {
+        byte[]    buffer = _buffers.poll();
+
+        if( buffer == null )
+        {
+            return new byte[BUFFER_SIZE];
+        }
+
+        _idle.decrementAndGet();
+
+        return buffer;
+    }
+
+
+    private static void releaseBuffer( final byte[]    buffer )
+    {
+        if( _idle.incrementAndGet() > MAX_BUFFERS )
+        {
+            _idle.decrementAndGet();
+            return;
+        }
+
+        _buffers.offer( buffer );
+    }
+
+
+    private static ExecutorService createExecutor()
+    {
+        try
+        {
+            return (ExecutorService) SimpleMethodInvoker.invokeStaticMethod( Executors.class.getName(),
+                                                                             "newVirtualThreadPerTaskExecutor",
+                                                                             new Object[0],
+                                                                             new String[0] );
+        }
+        catch( Throwable    ex )
+        {
+            //
+            //    No virtual threads before Java 21
+            //
+            if( logger.isDebugEnabled() )
+            {
+                logger.debug( "No virtual threads; pumping streams on a thread pool" );
+            }
+        }
+
+        final AtomicInteger    threadCount = new AtomicInteger();
+
+        return Executors.newCachedThreadPool( new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( final Runnable    runnable )
+            {
+                Thread    thread = new Thread( runnable, "StreamPump " + threadCount.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+    }
+}
@@ -0,0 +1,477 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.image;
+
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+
+import org.apache.log4j.Logger;
+import org.springframework.core.io.ClassPathResource;
+
+import com.samsix.util.OsUtils;
+
+
+
+/**
+ *    Packs a set of icons into a single image so that they can be loaded
+ *    with one read and one decode, and served as sub-images that share the
+ *    atlas's raster instead of each having their own BufferedImage.
+ *    <p>
+ *    Icons are keyed by the same paths you'd give IconFactory, e.g.
+ *    <p>
+ *      "incorsIcons/ix_op_all/16x16/shadow/user1_message.png"
+ *    <p>
+ *    The atlas and its index can be saved to a single cache file, either at
+ *    build time or on first use (see loadOrBuild), and registered with
+ *    IconFactory.addIconAtlas.
+ */
+public class IconAtlas
+{
+    protected static final Logger logger = Logger.getLogger( IconAtlas.class );
+
+    private static final int    MAGIC   = 0x53364941;   // "S6IA"
+    private static final int    VERSION = 2;
+
+    private final BufferedImage             _image;
+    private final Map<String,Rectangle>     _index;
+
+    /**
+     *    The paths the atlas was built from, including any that couldn't
+     *    be read and so aren't in the index.
+     */
+    private final Set<String>               _requested;
+
+
+    private IconAtlas( final BufferedImage            image,
+                       final Map<String,Rectangle>    index,
+                       final Set<String>              requested )
+    {
+        _image     = image;
+        _index     = index;
+        _requested = requested;
+    }
+
+
+    public boolean contains( final String    path )
+    {
+        return _index.containsKey( path );
+    }
+
+
+    public Set<String> getPaths()
+    {
+        return Collections.unmodifiableSet( _index.keySet() );
+    }
+
+
+    /**
+     *    @return the icon for the given path, or null if it isn't in this atlas
+     */
+    public ImageIcon getIcon( final String    path )
+    {
+        Rectangle    bounds = _index.get( path );
+
+        if ( bounds == null )
+        {
+            return null;
+        }
+
+        return new ImageIcon( _image.getSubimage( bounds.x,
+                                                  bounds.y,
+                                                  bounds.width,
+                                                  bounds.height ) );
+    }
+
+
+    /**
+     *    Packs the given icons.  Icons that can't be read are logged and left out.
+     */
+    public static IconAtlas build( final Collection<String>    paths )
+    {
+        Map<String,BufferedImage>    images = new LinkedHashMap<String,BufferedImage>();
+
+        for ( String    path : paths )
+        {
+            try
+            {
+                BufferedImage    image = readImage( path );
+
+                if ( image == null )
+                {
+                    logger.warn( "IconAtlas.build: Can't find icon [" + path + "]" );
+                    continue;
+                }
+
+                images.put( path, image );
+            }
+            catch ( Throwable    ex )
+            {
+                logger.error( "IconAtlas.build: Can't read icon [" + path + "]", ex );
+            }
+        }
+
+        return pack( images, new LinkedHashSet<String>( paths ) );
+    }
+
+
+    /**
+     *    Packs every image under the given directory.  The icons are keyed
+     *    by their path relative to the directory, with '/' separators,
+     *    prefixed with pathPrefix.  So packing "src/main/resources/incorsIcons"
+     *    with a prefix of "incorsIcons/" produces the same paths that would
+     *    be used to get the icons from the classpath.
+     */
+    public static IconAtlas build( final File      directory,
+                                   final String    pathPrefix )
+    {
+        Map<String,BufferedImage>    images = new LinkedHashMap<String,BufferedImage>();
+
+        collectImages( directory, pathPrefix, images );
+
+        return pack( images, new LinkedHashSet<String>( images.keySet() ) );
+    }
+
+
+    /**
+     *    Loads the atlas from the cache file if it was built from exactly the
+     *    given icons, otherwise builds it and (re)writes the cache file.
+     *    Icons that couldn't be read when the cache was built aren't tried
+     *    again.
+     *    <p>
+     *    The cache file isn't checked against the icons themselves, so
+     *    delete it if they change.
+     */
+    public static IconAtlas loadOrBuild( final File                  cacheFile,
+                                         final Collection<String>    paths )
+    {
+        if ( cacheFile.exists() )
+        {
+            try
+            {
+                IconAtlas    atlas = load( cacheFile );
+
+                if ( atlas._requested.equals( new HashSet<String>( paths ) ) )
+                {
+                    return atlas;
+                }
+            }
+            catch ( Throwable    ex )
+            {
+                logger.warn( "IconAtlas.loadOrBuild: Ignoring unreadable cache file [" + cacheFile + "]", ex );
+            }
+        }
+
+        IconAtlas    atlas = build( paths );
+
+        try
+        {
+            atlas.save( cacheFile );
+        }
+        catch ( IOException    ex )
+        {
+            logger.warn( "IconAtlas.loadOrBuild: Can't write cache file [" + cacheFile + "]", ex );
+        }
+
+        return atlas;
+    }
+
+
+    public static IconAtlas load( final File    file )
+        throws
+            IOException
+    {
+        DataInputStream    input = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+
+        try
+        {
+            if ( input.readInt() != MAGIC || input.readInt() != VERSION )
+            {
+                throw new IOException( "Not an icon atlas [" + file + "]" );
+            }
+
+            int            requestedCount = input.readInt();
+            Set<String>    requested      = new LinkedHashSet<String>( requestedCount * 2 );
+
+            for ( int ii = 0; ii < requestedCount; ii++ )
+            {
+                requested.add( input.readUTF() );
+            }
+
+            int                      count = input.readInt();
+            Map<String,Rectangle>    index = new LinkedHashMap<String,Rectangle>( count * 2 );
+
+            for ( int ii = 0; ii < count; ii++ )
+            {
+                String    path = input.readUTF();
+
+                index.put( path, new Rectangle( input.readInt(),
+                                                input.readInt(),
+                                                input.readInt(),
+                                                input.readInt() ) );
+            }
+
+            BufferedImage    image = ImageIO.read( input );
+            if ( image == null )
+            {
+                throw new IOException( "Missing atlas image in [" + file + "]" );
+            }
+
+            return new IconAtlas( image, index, requested );
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+
+    /**
+     *    Writes the requested paths and the index, followed by the atlas as
+     *    a PNG.  Written to a temporary file first so a reader never sees
+     *    half a file.
+     */
+    public void save( final File    file )
+        throws
+            IOException
+    {
+        File    parent = file.getAbsoluteFile().getParentFile();
+        File    temp   = File.createTempFile( file.getName(), ".tmp", parent );
+
+        DataOutputStream    output = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ) ) );
+
+        try
+        {
+            output.writeInt( MAGIC );
+            output.writeInt( VERSION );
+            output.writeInt( _requested.size() );
+
+            for ( String    path : _requested )
+            {
+                output.writeUTF( path );
+            }
+
+            output.writeInt( _index.size() );
+
+            for ( Map.Entry<String,Rectangle>    entry : _index.entrySet() )
+            {
+                Rectangle    bounds = entry.getValue();
+
+                output.writeUTF( entry.getKey() );
+                output.writeInt( bounds.x );
+                output.writeInt( bounds.y );
+                output.writeInt( bounds.width );
+                output.writeInt( bounds.height );
+            }
+
+            ImageIO.write( _image, ImageType.PNG.getFileExtension(), output );
+        }
+        finally
+        {
+            output.close();
+        }
+
+        if ( file.exists() && ! file.delete() )
+        {
+            temp.delete();
+            throw new IOException( "Can't replace [" + file + "]" );
+        }
+
+        if ( ! temp.renameTo( file ) )
+        {
+            temp.delete();
+            throw new IOException( "Can't rename [" + temp + "] to [" + file + "]" );
+        }
+    }
+
+
+    /**
+     *    Simple shelf packing: tallest icons first, filling rows left to right.
+     *    Our icons are mostly 16x16 and 24x24, so this wastes very little.
+     */
+    private static IconAtlas pack( final Map<String,BufferedImage>    images,
+                                   final Set<String>                  requested )
+    {
+        List<Map.Entry<String,BufferedImage>>    entries;
+        entries = new ArrayList<Map.Entry<String,BufferedImage>>( images.entrySet() );
+
+        Collections.sort( entries, new Comparator<Map.Entry<String,BufferedImage>>()
+        {
+            @Override
+            public int compare( final Map.Entry<String,BufferedImage>    lhs,
+                                final Map.Entry<String,BufferedImage>    rhs )
+            {
+                int    diff = rhs.getValue().getHeight() - lhs.getValue().getHeight();
+
+                if ( diff != 0 )
+                {
+                    return diff;
+                }
+
+                return rhs.getValue().getWidth() - lhs.getValue().getWidth();
+            }
+        } );
+
+        long    area     = 0;
+        int     maxWidth = 1;
+
+        for ( Map.Entry<String,BufferedImage>    entry : entries )
+        {
+            area += (long) entry.getValue().getWidth() * entry.getValue().getHeight();
+            maxWidth = Math.max( maxWidth, entry.getValue().getWidth() );
+        }
+
+        int    atlasWidth = Math.max( maxWidth, (int) Math.ceil( Math.sqrt( area ) ) );
+
+        Map<String,Rectangle>    index = new LinkedHashMap<String,Rectangle>( entries.size() * 2 );
+
+        int    x           = 0;
+        int    y           = 0;
+        int    shelfHeight = 0;
+
+        for ( Map.Entry<String,BufferedImage>    entry : entries )
+        {
+            int    width  = entry.getValue().getWidth();
+            int    height = entry.getValue().getHeight();
+
+            if ( x + width > atlasWidth )
+            {
+                x = 0;
+                y += shelfHeight;
+                shelfHeight = 0;
+            }
+
+            index.put( entry.getKey(), new Rectangle( x, y, width, height ) );
+
+            x += width;
+            shelfHeight = Math.max( shelfHeight, height );
+        }
+
+        int    atlasHeight = Math.max( 1, y + shelfHeight );
+
+        BufferedImage    atlas    = new BufferedImage( atlasWidth, atlasHeight, BufferedImage.TYPE_INT_ARGB );
+        Graphics2D       graphics = atlas.createGraphics();
+
+        try
+        {
+            for ( Map.Entry<String,BufferedImage>    entry : entries )
+            {
+                Rectangle    bounds = index.get( entry.getKey() );
+
+                graphics.drawImage( entry.getValue(), bounds.x, bounds.y, null );
+            }
+        }
+        finally
+        {
+            graphics.dispose();
+        }
+
+        return new IconAtlas( atlas, index, requested );
+    }
+
+
+    private static void collectImages( final File                         directory,
+                                       final String                       pathPrefix,
+                                       final Map<String,BufferedImage>    images )
+    {
+        File[]    files = directory.listFiles();
+        if ( files == null )
+        {
+            return;
+        }
+
+        for ( File    file : files )
+        {
+            String    path = pathPrefix + file.getName();
+
+            if ( file.isDirectory() )
+            {
+                collectImages( file, path + "/", images );
+                continue;
+            }
+
+            if ( ! isImageFile( file ) )
+            {
+                continue;
+            }
+
+            try
+            {
+                BufferedImage    image = ImageIO.read( file );
+
+                if ( image != null )
+                {
+                    images.put( path, image );
+                }
+            }
+            catch ( Throwable    ex )
+            {
+                logger.error( "IconAtlas.build: Can't read icon [" + file + "]", ex );
+            }
+        }
+    }
+
+
+    private static boolean isImageFile( final File    file )
+    {
+        String    extension = OsUtils.getFileExtension( file.getName() );
+
+        for ( String    imageExtension : OsUtils.IMAGE_EXTENSIONS )
+        {
+            if ( imageExtension.equalsIgnoreCase( extension ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     *    Same lookup as IconFactory: the classpath first, then as a URL.
+     */
+    private static BufferedImage readImage( final String    path )
+        throws
+            IOException
+    {
+        ClassPathResource    resource = new ClassPathResource( path );
+
+        if ( resource.exists() )
+        {
+            return ImageIO.read( resource.getURL() );
+        }
+
+        return ImageIO.read( new URL( path ) );
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.image;
+
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.swing.ImageIcon;
+
+
+
+/**
+ *    Thread safe cache of icons by path for IconFactory.
+ *    <p>
+ *    The most recently used icons are held strongly in a small LRU map so
+ *    the icons we actually paint all the time can't be thrown away under
+ *    memory pressure.  Anything that falls off the end of the LRU is
+ *    demoted to a tier of soft references, from which it is promoted back
+ *    if asked for again before the gc gets to it.  With a strong size of 0
+ *    there is only the soft tier.
+ */
+class IconCache
+{
+    private final Map<String,ImageIcon>                   _strong;
+    private final ConcurrentMap<String,SoftIcon>          _soft;
+    private final ReferenceQueue<ImageIcon>               _queue;
+
+    private volatile int                                  _strongSize;
+
+
+    IconCache( final int    strongSize )
+    {
+        _strongSize = strongSize;
+        _soft       = new ConcurrentHashMap<String,SoftIcon>();
+        _queue      = new ReferenceQueue<ImageIcon>();
+
+        _strong = new LinkedHashMap<String,ImageIcon>( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( final Map.Entry<String,ImageIcon>    eldest )
+            {
+                if ( size() <= _strongSize )
+                {
+                    return false;
+                }
+
+                demote( eldest.getKey(), eldest.getValue() );
+
+                return true;
+            }
+        };
+    }
+
+
+    ImageIcon get( final String    path )
+    {
+        synchronized ( _strong )
+        {
+            ImageIcon    icon = _strong.get( path );
+            if ( icon != null )
+            {
+                return icon;
+            }
+        }
+
+        SoftIcon    ref = _soft.get( path );
+        if ( ref == null )
+        {
+            return null;
+        }
+
+        ImageIcon    icon = ref.get();
+        if ( icon == null )
+        {
+            purge();
+            return null;
+        }
+
+        //
+        //    Used again, so it goes back to the front of the line.
+        //
+        put( path, icon );
+
+        return icon;
+    }
+
+
+    void put( final String       path,
+              final ImageIcon    icon )
+    {
+        purge();
+
+        synchronized ( _strong )
+        {
+            //
+            //    Before the put, which may demote this very entry (always,
+            //    with a strong size of 0), and under the lock, so we can't
+            //    remove what another thread's put has just demoted.
+            //
+            _soft.remove( path );
+            _strong.put( path, icon );
+        }
+    }
+
+
+    /**
+     *    @param strongSize 0 to hold every icon by soft reference only
+     */
+    void setStrongSize( final int    strongSize )
+    {
+        if ( strongSize < 0 )
+        {
+            throw new IllegalArgumentException( "Invalid cache size: " + strongSize );
+        }
+
+        _strongSize = strongSize;
+
+        //
+        //    Shrink right away rather than waiting for the next put.
+        //
+        synchronized ( _strong )
+        {
+            while ( _strong.size() > strongSize )
+            {
+                Map.Entry<String,ImageIcon>    eldest = _strong.entrySet().iterator().next();
+
+                demote( eldest.getKey(), eldest.getValue() );
+                _strong.remove( eldest.getKey() );
+            }
+        }
+    }
+
+
+    int getStrongSize()
+    {
+        return _strongSize;
+    }
+
+
+    private void demote( final String       path,
+                         final ImageIcon    icon )
+    {
+        _soft.put( path, new SoftIcon( path, icon, _queue ) );
+    }
+
+
+    /**
+     *    Removes the entries of icons that have been gc'd.
+     */
+    private void purge()
+    {
+        SoftIcon    ref;
+
+        while ( ( ref = (SoftIcon) _queue.poll() ) != null )
+        {
+            _soft.remove( ref._path, ref );
+        }
+    }
+
+
+    private static final class SoftIcon
+        extends
+            SoftReference<ImageIcon>
+    {
+        private final String    _path;
+
+
+        SoftIcon( final String                        path,
+                  final ImageIcon                     icon,
+                  final ReferenceQueue<ImageIcon>     queue )
+        {
+            super( icon, queue );
+
+            _path = path;
+        }
+    }
+}
@@ -17,11 +17,18 @@ import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.ImageIcon;
 
-import org.apache.commons.collections.map.ReferenceMap;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 import org.springframework.core.io.ClassPathResource;
@@ -38,6 +45,14 @@ import org.springframework.core.io.ClassPathResource;
  *    or
  *    <p>
  *      "incorsIcons/ix_op_all/16x16/shadow/user1_message.png"
+ *    <p>
+ *    Icons are cached; the most recently used ones are held strongly
+ *    (see setStrongCacheSize) and the rest softly.  Call preload at startup
+ *    with the icons you know you'll need so the first paint doesn't have
+ *    to wait for them to be read and decoded.
+ *    <p>
+ *    Icons that are in a registered IconAtlas are served from it rather
+ *    than being read one at a time.
  */
 public class IconFactory
 {
@@ -69,7 +84,13 @@ public class IconFactory
     public static final String          SMALL_BROWSER_ICON          = "incorsIcons/ix_ns_all/16x16/shadow/earth_network.png";
     public static final String          LARGE_BROWSER_ICON          = "incorsIcons/ix_ns_all/24x24/shadow/earth_network.png";
 
-    private static Map<String,ImageIcon>    _iconCache;
+    public static final int             DEFAULT_STRONG_CACHE_SIZE   = 256;
+
+    private static final IconCache      _iconCache = new IconCache( DEFAULT_STRONG_CACHE_SIZE );
+
+    private static final List<IconAtlas>    _atlases = new CopyOnWriteArrayList<IconAtlas>();
+
+    private static ExecutorService      _preloadExecutor;
 
 
     private IconFactory()
@@ -78,6 +99,105 @@ public class IconFactory
     }
 
 
+    /**
+     *    Sets how many of the most recently used icons are kept strongly
+     *    referenced.  Anything beyond that may be gc'd under memory pressure
+     *    and reloaded when next asked for.  0 holds every icon by soft
+     *    reference only.
+     */
+    public static void setStrongCacheSize( final int    size )
+    {
+        _iconCache.setStrongSize( size );
+    }
+
+
+    public static int getStrongCacheSize()
+    {
+        return _iconCache.getStrongSize();
+    }
+
+
+    /**
+     *    Serve any icons in the given atlas from it from now on.
+     */
+    public static void addIconAtlas( final IconAtlas    atlas )
+    {
+        _atlases.add( atlas );
+    }
+
+
+    public static void removeIconAtlas( final IconAtlas    atlas )
+    {
+        _atlases.remove( atlas );
+    }
+
+
+    /**
+     *    Loads and caches the given icons on a background pool.  Icons that
+     *    can't be found are logged and skipped.
+     *
+     *    @return completes once all the icons have been loaded
+     */
+    public static CompletableFuture<Void> preload( final Collection<String>    paths )
+    {
+        List<CompletableFuture<Void>>    loads = new ArrayList<CompletableFuture<Void>>( paths.size() );
+
+        for ( final String    path : paths )
+        {
+            loads.add( CompletableFuture.runAsync( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if ( _iconCache.get( path ) != null )
+                    {
+                        return;
+                    }
+
+                    try
+                    {
+                        if ( getIconAndCache( path ) == null )
+                        {
+                            logger.warn( "IconFactory.preload: Can't find icon [" + path + "]" );
+                        }
+                    }
+                    catch ( Throwable   ex )
+                    {
+                        logger.error( "IconFactory.preload: Can't retrieve icon [" + path + "]", ex );
+                    }
+                }
+            }, getPreloadExecutor() ) );
+        }
+
+        return CompletableFuture.allOf( loads.toArray( new CompletableFuture<?>[loads.size()] ) );
+    }
+
+
+    private static synchronized ExecutorService getPreloadExecutor()
+    {
+        if ( _preloadExecutor == null )
+        {
+            int    threads = Math.max( 1, Math.min( 4, Runtime.getRuntime().availableProcessors() ) );
+
+            _preloadExecutor = Executors.newFixedThreadPool( threads, new ThreadFactory()
+            {
+                private final AtomicInteger    _count = new AtomicInteger();
+
+                @Override
+                public Thread newThread( final Runnable    runnable )
+                {
+                    Thread    thread = new Thread( runnable, "IconFactory Preload " + _count.incrementAndGet() );
+                    thread.setDaemon( true );
+
+                    return thread;
+                }
+            } );
+        }
+
+        return _preloadExecutor;
+    }
+
+
     public static Image getIconImage( final String    path )
     {
         return getIconSafe( path ).getImage();
@@ -88,7 +208,7 @@ public class IconFactory
     {
         assert path != null;
 
-        ImageIcon   icon = getIconCache().get( path );
+        ImageIcon   icon = _iconCache.get( path );
         if ( icon != null )
         {
             return icon;
@@ -112,7 +232,7 @@ public class IconFactory
             return null;
         }
 
-        ImageIcon   icon = getIconCache().get( path );
+        ImageIcon   icon = _iconCache.get( path );
         if ( icon != null )
         {
             return icon;
@@ -175,9 +295,16 @@ public class IconFactory
             return null;
         }
 
-        ClassPathResource    resource = new ClassPathResource( path );
+        ImageIcon    icon = getAtlasIcon( path );
+
+        if ( icon != null )
+        {
+            _iconCache.put( path, icon );
 
-        ImageIcon    icon;
+            return icon;
+        }
+
+        ClassPathResource    resource = new ClassPathResource( path );
 
         if ( resource.exists() )
         {
@@ -200,20 +327,23 @@ public class IconFactory
             }
         }
 
-        getIconCache().put( path, icon );
+        _iconCache.put( path, icon );
 
         return icon;
     }
 
 
-    @SuppressWarnings("unchecked")
-    private static Map<String,ImageIcon> getIconCache()
+    private static ImageIcon getAtlasIcon( final String    path )
     {
-        if ( _iconCache == null )
+        for ( IconAtlas    atlas : _atlases )
         {
-            _iconCache = new ReferenceMap( ReferenceMap.SOFT, ReferenceMap.SOFT );
+            ImageIcon    icon = atlas.getIcon( path );
+            if ( icon != null )
+            {
+                return icon;
+            }
         }
 
-        return _iconCache;
+        return null;
     }
 }
@@ -18,7 +18,8 @@ public enum ImageType
 {
     PNG,
     JPEG,
-    GIF;
+    GIF,
+    TIFF;
 
 
     public static ImageType valueOfExtension( final String    extension )
@@ -33,6 +34,11 @@ public enum ImageType
             return JPEG;
         }
 
+        if( "TIF".equals( upper ) )
+        {
+            return TIFF;
+        }
+
         return valueOf( upper );
     }
 
@@ -13,24 +13,57 @@
 package com.samsix.util.image;
 
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileCacheImageOutputStream;
+import javax.imageio.stream.FileImageOutputStream;
 import javax.imageio.stream.ImageOutputStream;
 import javax.imageio.stream.MemoryCacheImageOutputStream;
 
 /**
  *    Utilities for dealing with images
+ *    <p>
+ *    Encoders need a seekable stream.  When writing to a plain stream or
+ *    channel, small images are cached on the heap, but anything whose raw
+ *    pixels are bigger than the heap cache threshold is cached in a
+ *    temporary file instead (see setHeapCacheThreshold).  Writing to a
+ *    file goes straight to it with no cache at all.
  */
 public final class ImageUtils
 {
     public static String IMAGE_QUALITY_KEY = "imageQuality";
     public static float DEFAULT_IMAGE_QUALITY = 0.75f;
 
+    /**
+     *    8 MB of raw pixels, e.g. about 1450x1450 at 32 bits per pixel.
+     */
+    public static final long DEFAULT_HEAP_CACHE_THRESHOLD = 8L * 1024 * 1024;
+
+    private static volatile long      _heapCacheThreshold = DEFAULT_HEAP_CACHE_THRESHOLD;
+
+    private static ExecutorService    _encoder;
+
     private ImageUtils()
     {
         //    Not instantiable
@@ -71,10 +104,128 @@ public final class ImageUtils
         throws
             IOException
     {
-        ImageWriter    writer = imageType.getImageWriter();
+        writeImage( image, imageType, createCachedOutput( image, stream ), parameters );
+    }
 
-        ImageOutputStream       imageOutputStream;
-        imageOutputStream = new MemoryCacheImageOutputStream( stream );
+
+    /**
+     *    Writes the image directly to the given file, replacing anything
+     *    already there.  Nothing is cached on the heap.
+     */
+    public static void writeImageToFile( final RenderedImage    image,
+                                         final ImageType        imageType,
+                                         final Path             path,
+                                         final Map<String,?>    parameters )
+        throws
+            IOException
+    {
+        RandomAccessFile    file = new RandomAccessFile( path.toFile(), "rw" );
+
+        try
+        {
+            //
+            //    FileImageOutputStream doesn't truncate.
+            //
+            file.setLength( 0 );
+        }
+        catch( IOException    ex )
+        {
+            file.close();
+            throw ex;
+        }
+
+        writeImage( image, imageType, new FileImageOutputStream( file ), parameters );
+    }
+
+
+    /**
+     *    Writes the image to the given channel, which is left open.
+     */
+    public static void writeImageToChannel( final RenderedImage          image,
+                                            final ImageType              imageType,
+                                            final WritableByteChannel    channel,
+                                            final Map<String,?>          parameters )
+        throws
+            IOException
+    {
+        //
+        //    The stream from Channels closes the channel when closed,
+        //    and closing the image output stream closes neither.
+        //
+        OutputStream    stream = Channels.newOutputStream( channel );
+
+        writeImage( image, imageType, createCachedOutput( image, stream ), parameters );
+
+        stream.flush();
+    }
+
+
+    /**
+     *    Images whose raw pixels are bigger than this many bytes are cached
+     *    in a temporary file rather than on the heap when written to a
+     *    stream or channel.
+     */
+    public static void setHeapCacheThreshold( final long    bytes )
+    {
+        _heapCacheThreshold = bytes;
+    }
+
+
+    public static long getHeapCacheThreshold()
+    {
+        return _heapCacheThreshold;
+    }
+
+
+    private static ImageOutputStream createCachedOutput( final RenderedImage    image,
+                                                         final OutputStream     stream )
+        throws
+            IOException
+    {
+        if( estimateRawSize( image ) <= _heapCacheThreshold )
+        {
+            return new MemoryCacheImageOutputStream( stream );
+        }
+
+        return new FileCacheImageOutputStream( stream, ImageIO.getCacheDirectory() );
+    }
+
+
+    private static long estimateRawSize( final RenderedImage    image )
+    {
+        SampleModel    sampleModel = image.getSampleModel();
+        long           bitsPerPixel = 0;
+
+        for( int    bits : sampleModel.getSampleSize() )
+        {
+            bitsPerPixel += bits;
+        }
+
+        return (long) image.getWidth() * image.getHeight() * bitsPerPixel / 8;
+    }
+
+
+    /**
+     *    Does the actual encoding, and always closes the imageOutputStream.
+     */
+    private static void writeImage( final RenderedImage        image,
+                                    final ImageType            imageType,
+                                    final ImageOutputStream    imageOutputStream,
+                                    final Map<String,?>        parameters )
+        throws
+            IOException
+    {
+        ImageWriter    writer;
+
+        try
+        {
+            writer = ImageWriterPool.borrow( imageType );
+        }
+        catch( RuntimeException    ex )
+        {
+            imageOutputStream.close();
+            throw ex;
+        }
 
         IIOImage   outputImage = new IIOImage( image, null, null );
 
@@ -99,9 +250,13 @@ public final class ImageUtils
 
         writer.setOutput( imageOutputStream );
 
+        boolean    written = false;
+
         try
         {
             writer.write( null, outputImage, params );
+
+            written = true;
         }
         finally
         {
@@ -114,15 +269,114 @@ public final class ImageUtils
                 //    ignore...
             }
 
-            try
+            //
+            //    Only reuse writers that finished cleanly.
+            //
+            if( written )
+            {
+                ImageWriterPool.release( imageType, writer );
+            }
+            else
+            {
+                ImageWriterPool.discard( writer );
+            }
+        }
+    }
+
+
+    /**
+     *    Encodes the given images concurrently on a shared pool bounded by
+     *    the number of processors.
+     *
+     *    @return the encoded images, in the same order as they were given
+     *    @throws IOException if any of the images fails to encode
+     */
+    public static List<byte[]> writeImagesParallel( final List<? extends RenderedImage>    images,
+                                                    final ImageType                        imageType,
+                                                    final Map<String,?>                    parameters )
+        throws
+            IOException
+    {
+        List<Future<byte[]>>    futures = new ArrayList<Future<byte[]>>( images.size() );
+
+        for ( final RenderedImage    image : images )
+        {
+            futures.add( getEncoder().submit( new Callable<byte[]>()
             {
-                writer.dispose();
+                @Override
+                public byte[] call()
+                    throws
+                        IOException
+                {
+                    ByteArrayOutputStream    bytes = new ByteArrayOutputStream();
+
+                    writeImageToStream( image, imageType, bytes, parameters );
+
+                    return bytes.toByteArray();
+                }
+            } ) );
+        }
+
+        List<byte[]>    results = new ArrayList<byte[]>( images.size() );
+
+        try
+        {
+            for ( Future<byte[]>    future : futures )
+            {
+                results.add( future.get() );
+            }
+        }
+        catch( InterruptedException    ex )
+        {
+            Thread.currentThread().interrupt();
+
+            throw new IOException( "Interrupted while encoding images", ex );
+        }
+        catch( ExecutionException    ex )
+        {
+            if( ex.getCause() instanceof IOException )
+            {
+                throw (IOException) ex.getCause();
             }
-            catch( Throwable    ex )
+
+            throw new IOException( "Failed to encode image", ex.getCause() );
+        }
+        finally
+        {
+            //
+            //    Don't leave the rest running if one of them failed.
+            //
+            for ( Future<byte[]>    future : futures )
             {
-                //    Ignore...
+                future.cancel( true );
             }
         }
+
+        return results;
+    }
+
+
+    private static synchronized ExecutorService getEncoder()
+    {
+        if( _encoder == null )
+        {
+            _encoder = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors(),
+                                                     new ThreadFactory()
+            {
+                private final AtomicInteger    _count = new AtomicInteger();
+
+                @Override
+                public Thread newThread( final Runnable    runnable )
+                {
+                    Thread    thread = new Thread( runnable, "ImageUtils Encoder " + _count.incrementAndGet() );
+                    thread.setDaemon( true );
+
+                    return thread;
+                }
+            } );
+        }
+
+        return _encoder;
     }
 
 }
@@ -0,0 +1,108 @@
+/**
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.image;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageWriter;
+
+/**
+ *    Keeps idle ImageWriters around per ImageType so we don't have to go
+ *    through the ImageIO registry and build a new writer for every image.
+ *    <p>
+ *    Writers are reset before going back in the pool.  A writer that failed
+ *    part way through a write should be thrown away (see discard) rather than
+ *    released, since we can't be sure what state it is in.
+ */
+final class ImageWriterPool
+{
+    private static final int    MAX_IDLE = Math.max( 2, Runtime.getRuntime().availableProcessors() * 2 );
+
+    private static final Map<ImageType,Idle>    _pools = new EnumMap<ImageType,Idle>( ImageType.class );
+
+    static
+    {
+        for ( ImageType    type : ImageType.values() )
+        {
+            _pools.put( type, new Idle() );
+        }
+    }
+
+
+    private ImageWriterPool()
+    {
+        //    Not instantiable
+    }
+
+
+    static ImageWriter borrow( final ImageType    imageType )
+    {
+        Idle           idle   = _pools.get( imageType );
+        ImageWriter    writer = idle._writers.poll();
+
+        if ( writer == null )
+        {
+            return imageType.getImageWriter();
+        }
+
+        idle._count.decrementAndGet();
+
+        return writer;
+    }
+
+
+    static void release( final ImageType      imageType,
+                         final ImageWriter    writer )
+    {
+        Idle    idle = _pools.get( imageType );
+
+        try
+        {
+            writer.reset();
+        }
+        catch ( Throwable    ex )
+        {
+            discard( writer );
+            return;
+        }
+
+        if ( idle._count.incrementAndGet() > MAX_IDLE )
+        {
+            idle._count.decrementAndGet();
+            discard( writer );
+            return;
+        }
+
+        idle._writers.offer( writer );
+    }
+
+
+    static void discard( final ImageWriter    writer )
+    {
+        try
+        {
+            writer.dispose();
+        }
+        catch( Throwable    ex )
+        {
+            //    Ignore...
+        }
+    }
+
+
+    private static final class Idle
+    {
+        final ConcurrentLinkedQueue<ImageWriter>    _writers = new ConcurrentLinkedQueue<ImageWriter>();
+        final AtomicInteger                         _count   = new AtomicInteger();
+    }
+}
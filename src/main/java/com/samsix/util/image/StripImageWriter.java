@@ -0,0 +1,459 @@
+/**
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.image;
+
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ *    Writes images that are too big to hold in memory, e.g. map renders that
+ *    are tens of thousands of pixels wide.
+ *    <p>
+ *    Rather than taking a complete image, this asks a StripProducer to fill
+ *    in full-width horizontal strips as the encoder gets to them, and only
+ *    keeps a few strips around at a time.  For example:
+ *    <pre>
+ *        new StripImageWriter( 40000, 30000, BufferedImage.TYPE_INT_RGB, new StripProducer() {
+ *            public void produce( WritableRaster strip, int y ) {
+ *                // render rows y to y + strip.getHeight() - 1 into strip
+ *            }
+ *        } ).writeToFile( ImageType.PNG, path, null );
+ *    </pre>
+ *    Only encoders that pull the image a few rows at a time can be used;
+ *    that is PNG, and TIFF where the runtime has a TIFF writer.  The JDK's
+ *    JPEG and GIF encoders ask for the whole image at once.
+ */
+public class StripImageWriter
+{
+    public static final int    DEFAULT_STRIP_HEIGHT  = 64;
+    public static final int    DEFAULT_CACHED_STRIPS = 2;
+
+    /**
+     *    Fills in a strip of the image.  Strips are normally asked for from
+     *    top to bottom, but if the encoder goes back over rows that are no
+     *    longer cached the same strip may be asked for again.
+     */
+    public interface StripProducer
+    {
+        /**
+         *    @param strip full width raster to fill; its minY is y
+         *    @param y the first row of the strip
+         */
+        public void produce( WritableRaster    strip,
+                             int               y )
+            throws
+                IOException;
+    }
+
+
+    private final int              _width;
+    private final int              _height;
+    private final int              _bufferedImageType;
+    private final StripProducer    _producer;
+
+    private int                    _stripHeight  = DEFAULT_STRIP_HEIGHT;
+    private int                    _cachedStrips = DEFAULT_CACHED_STRIPS;
+
+
+    /**
+     *    @param bufferedImageType one of the BufferedImage.TYPE_* constants,
+     *                             which decides the layout of the strips
+     */
+    public StripImageWriter( final int              width,
+                             final int              height,
+                             final int              bufferedImageType,
+                             final StripProducer    producer )
+    {
+        if( width <= 0 || height <= 0 )
+        {
+            throw new IllegalArgumentException( "Invalid image size: " + width + "x" + height );
+        }
+
+        _width             = width;
+        _height            = height;
+        _bufferedImageType = bufferedImageType;
+        _producer          = producer;
+    }
+
+
+    public void setStripHeight( final int    stripHeight )
+    {
+        if( stripHeight <= 0 )
+        {
+            throw new IllegalArgumentException( "Invalid strip height: " + stripHeight );
+        }
+
+        _stripHeight = stripHeight;
+    }
+
+
+    /**
+     *    How many produced strips to keep around in case the encoder asks
+     *    for rows from them again.
+     */
+    public void setCachedStrips( final int    cachedStrips )
+    {
+        if( cachedStrips <= 0 )
+        {
+            throw new IllegalArgumentException( "Invalid number of cached strips: " + cachedStrips );
+        }
+
+        _cachedStrips = cachedStrips;
+    }
+
+
+    public void writeToFile( final ImageType        imageType,
+                             final Path             path,
+                             final Map<String,?>    parameters )
+        throws
+            IOException
+    {
+        checkStreamable( imageType );
+
+        try
+        {
+            ImageUtils.writeImageToFile( new StripedImage(), imageType, path, parameters );
+        }
+        catch( UncheckedIOException    ex )
+        {
+            throw ex.getCause();
+        }
+    }
+
+
+    public void writeToStream( final ImageType        imageType,
+                               final OutputStream     stream,
+                               final Map<String,?>    parameters )
+        throws
+            IOException
+    {
+        checkStreamable( imageType );
+
+        try
+        {
+            ImageUtils.writeImageToStream( new StripedImage(), imageType, stream, parameters );
+        }
+        catch( UncheckedIOException    ex )
+        {
+            throw ex.getCause();
+        }
+    }
+
+
+    public void writeToChannel( final ImageType              imageType,
+                                final WritableByteChannel    channel,
+                                final Map<String,?>          parameters )
+        throws
+            IOException
+    {
+        checkStreamable( imageType );
+
+        try
+        {
+            ImageUtils.writeImageToChannel( new StripedImage(), imageType, channel, parameters );
+        }
+        catch( UncheckedIOException    ex )
+        {
+            throw ex.getCause();
+        }
+    }
+
+
+    private static void checkStreamable( final ImageType    imageType )
+    {
+        switch( imageType )
+        {
+        case PNG:
+        case TIFF:
+            return;
+
+        default:
+            throw new IllegalArgumentException( "The [" + imageType + "] encoder needs the whole image "
+                                                + "in memory; use PNG or TIFF" );
+        }
+    }
+
+
+    /**
+     *    A RenderedImage made of full width strips that are produced on demand.
+     *    The encoders we allow only ever call getData(Rectangle) for a few
+     *    rows at a time.
+     */
+    private class StripedImage
+        implements
+            RenderedImage
+    {
+        private final ColorModel                    _colorModel;
+        private final SampleModel                   _sampleModel;
+        private final Map<Integer,WritableRaster>   _strips;
+
+
+        StripedImage()
+        {
+            BufferedImage    template = new BufferedImage( 1, 1, _bufferedImageType );
+
+            _colorModel  = template.getColorModel();
+            _sampleModel = template.getSampleModel().createCompatibleSampleModel( _width, _stripHeight );
+
+            _strips = new LinkedHashMap<Integer,WritableRaster>( 16, 0.75f, true )
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry( final Map.Entry<Integer,WritableRaster>    eldest )
+                {
+                    return size() > _cachedStrips;
+                }
+            };
+        }
+
+
+        private synchronized Raster getStrip( final int    index )
+        {
+            WritableRaster    strip = _strips.get( index );
+
+            if( strip != null )
+            {
+                return strip;
+            }
+
+            int    y      = index * _stripHeight;
+            int    height = Math.min( _stripHeight, _height - y );
+
+            strip = Raster.createWritableRaster( _sampleModel.createCompatibleSampleModel( _width, height ),
+                                                 new Point( 0, y ) );
+
+            try
+            {
+                _producer.produce( strip, y );
+            }
+            catch( IOException    ex )
+            {
+                throw new UncheckedIOException( ex );
+            }
+
+            _strips.put( index, strip );
+
+            return strip;
+        }
+
+
+        @Override
+        public Raster getData( final Rectangle    rect )
+        {
+            Rectangle    bounds = rect.intersection( new Rectangle( 0, 0, _width, _height ) );
+
+            WritableRaster    data;
+            data = Raster.createWritableRaster( _sampleModel.createCompatibleSampleModel( bounds.width,
+                                                                                          bounds.height ),
+                                                new Point( bounds.x, bounds.y ) );
+
+            copyInto( data );
+
+            return data;
+        }
+
+
+        @Override
+        public Raster getData()
+        {
+            return getData( new Rectangle( 0, 0, _width, _height ) );
+        }
+
+
+        @Override
+        public WritableRaster copyData( final WritableRaster    raster )
+        {
+            if( raster == null )
+            {
+                return (WritableRaster) getData();
+            }
+
+            copyInto( raster );
+
+            return raster;
+        }
+
+
+        private void copyInto( final WritableRaster    data )
+        {
+            Rectangle    bounds = data.getBounds();
+
+            if( bounds.isEmpty() )
+            {
+                return;
+            }
+
+            int    first = bounds.y / _stripHeight;
+            int    last  = ( bounds.y + bounds.height - 1 ) / _stripHeight;
+
+            for( int    index = first; index <= last; index++ )
+            {
+                Raster       strip   = getStrip( index );
+                Rectangle    overlap = strip.getBounds().intersection( bounds );
+
+                if( overlap.isEmpty() )
+                {
+                    continue;
+                }
+
+                //
+                //    Both rasters are in image coordinates, so no translation.
+                //
+                data.setRect( strip.createChild( overlap.x, overlap.y,
+                                                 overlap.width, overlap.height,
+                                                 overlap.x, overlap.y,
+                                                 null ) );
+            }
+        }
+
+
+        @Override
+        public Raster getTile( final int    tileX,
+                               final int    tileY )
+        {
+            return getStrip( tileY );
+        }
+
+
+        @Override
+        public Vector<RenderedImage> getSources()
+        {
+            return null;
+        }
+
+
+        @Override
+        public Object getProperty( final String    name )
+        {
+            return Image.UndefinedProperty;
+        }
+
+
+        @Override
+        public String[] getPropertyNames()
+        {
+            return null;
+        }
+
+
+        @Override
+        public ColorModel getColorModel()
+        {
+            return _colorModel;
+        }
+
+
+        @Override
+        public SampleModel getSampleModel()
+        {
+            return _sampleModel;
+        }
+
+
+        @Override
+        public int getWidth()
+        {
+            return _width;
+        }
+
+
+        @Override
+        public int getHeight()
+        {
+            return _height;
+        }
+
+
+        @Override
+        public int getMinX()
+        {
+            return 0;
+        }
+
+
+        @Override
+        public int getMinY()
+        {
+            return 0;
+        }
+
+
+        @Override
+        public int getNumXTiles()
+        {
+            return 1;
+        }
+
+
+        @Override
+        public int getNumYTiles()
+        {
+            return ( _height + _stripHeight - 1 ) / _stripHeight;
+        }
+
+
+        @Override
+        public int getMinTileX()
+        {
+            return 0;
+        }
+
+
+        @Override
+        public int getMinTileY()
+        {
+            return 0;
+        }
+
+
+        @Override
+        public int getTileWidth()
+        {
+            return _width;
+        }
+
+
+        @Override
+        public int getTileHeight()
+        {
+            return _stripHeight;
+        }
+
+
+        @Override
+        public int getTileGridXOffset()
+        {
+            return 0;
+        }
+
+
+        @Override
+        public int getTileGridYOffset()
+        {
+            return 0;
+        }
+    }
+}
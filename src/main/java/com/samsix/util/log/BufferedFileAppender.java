@@ -0,0 +1,498 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.log;
+
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.FileAppender;
+import org.apache.log4j.Layout;
+import org.apache.log4j.Level;
+import org.apache.log4j.helpers.CountingQuietWriter;
+import org.apache.log4j.spi.LoggingEvent;
+
+
+/**
+ *    A FileAppender that writes in large blocks instead of flushing every
+ *    event, which otherwise costs a write call per line.
+ *    <p>
+ *    What is buffered goes out when the buffer fills, every flush interval
+ *    (from a shared timer thread), on any event at or above the flush level
+ *    (ERROR by default, so errors aren't left sitting in memory), when the
+ *    appender is closed, and from a shutdown hook when the JVM exits.
+ *    <p>
+ *    If a maximum file size is set the file is rolled once it gets that big.
+ *    Unlike log4j's RollingFileAppender, which renames every backup in turn
+ *    while holding the appender's lock, rolling here is one rename, of the
+ *    current file to its name plus a timestamp (e.g. app.log.20120314-093015.123),
+ *    and opening a new one.  The event that fills the file still waits on
+ *    those two; closing the old file and deleting the backups beyond the
+ *    maximum kept happen on the timer thread.
+ */
+public class BufferedFileAppender
+    extends
+        FileAppender
+{
+    public static final int     DEFAULT_BUFFER_SIZE    = 256 * 1024;
+    public static final long    DEFAULT_FLUSH_INTERVAL = 1000;
+
+    /**
+     *    What rollOver adds to the file name, and all deleteOldBackups will
+     *    delete: the timestamp and, if two rolls fell in one millisecond, a
+     *    count.  Backups other appenders leave, like RollingFileAppender's
+     *    app.log.1, are left alone.
+     */
+    private static final String    BACKUP_SUFFIX = "\\.\\d{8}-\\d{6}\\.\\d{3}(-\\d+)?";
+
+    /**
+     *    Backups oldest first: by timestamp, then by count, as a number so
+     *    that a tenth roll in one millisecond doesn't sort before the second.
+     */
+    static final Comparator<File>    BACKUP_ORDER = new Comparator<File>()
+    {
+        @Override
+        public int compare( final File    lhs,
+                            final File    rhs )
+        {
+            String    left       = lhs.getName();
+            String    right      = rhs.getName();
+            int       leftCount  = left.lastIndexOf( '-' );
+            int       rightCount = right.lastIndexOf( '-' );
+
+            //
+            //    The timestamp's own '-' is 11 from the end when there's no
+            //    count.
+            //
+            if( leftCount == left.length() - 11 )
+            {
+                leftCount = left.length();
+            }
+
+            if( rightCount == right.length() - 11 )
+            {
+                rightCount = right.length();
+            }
+
+            int    compare = left.substring( 0, leftCount ).compareTo( right.substring( 0, rightCount ) );
+
+            if( compare != 0 )
+            {
+                return compare;
+            }
+
+            return Long.compare( count( left, leftCount ), count( right, rightCount ) );
+        }
+
+
+        private long count( final String    name,
+                            final int       dash )
+        {
+            return dash < name.length() ? Long.parseLong( name.substring( dash + 1 ) ) : 0;
+        }
+    };
+
+    private static final ScheduledThreadPoolExecutor    _timer;
+    private static final Set<BufferedFileAppender>      _open
+        = Collections.newSetFromMap( new ConcurrentHashMap<BufferedFileAppender,Boolean>() );
+    private static final Set<Writer>                    _closing
+        = Collections.newSetFromMap( new ConcurrentHashMap<Writer,Boolean>() );
+
+    static
+    {
+        _timer = new ScheduledThreadPoolExecutor( 1, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( final Runnable    runnable )
+            {
+                Thread    thread = new Thread( runnable, "BufferedFileAppender Timer" );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+
+        _timer.setRemoveOnCancelPolicy( true );
+
+        Runtime.getRuntime().addShutdownHook( new Thread( "BufferedFileAppender Shutdown" )
+        {
+            @Override
+            public void run()
+            {
+                for( BufferedFileAppender    appender : _open )
+                {
+                    appender.flush();
+                }
+
+                for( Writer    writer : _closing )
+                {
+                    closeQuietly( writer );
+                }
+            }
+        } );
+    }
+
+    private final int                 _writeBufferSize;
+    private final SimpleDateFormat    _backupFormat = new SimpleDateFormat( "yyyyMMdd-HHmmss.SSS" );
+
+    private volatile Level            _flushLevel = Level.ERROR;
+    private volatile long             _maxFileSize;
+    private volatile int              _maxBackupIndex = 10;
+
+    private ScheduledFuture<?>        _flusher;
+
+
+    public BufferedFileAppender( final Layout    layout,
+                                 final String    filename,
+                                 final boolean   append )
+        throws
+            IOException
+    {
+        this( layout, filename, append, DEFAULT_BUFFER_SIZE, DEFAULT_FLUSH_INTERVAL );
+    }
+
+
+    /**
+     *    @param bufferSize bytes held before they are written
+     *    @param flushInterval milliseconds between flushes; 0 not to flush
+     *                         on a timer
+     */
+    public BufferedFileAppender( final Layout    layout,
+                                 final String    filename,
+                                 final boolean   append,
+                                 final int       bufferSize,
+                                 final long      flushInterval )
+        throws
+            IOException
+    {
+        if( bufferSize <= 0 )
+        {
+            throw new IllegalArgumentException( "Invalid buffer size: " + bufferSize );
+        }
+
+        _writeBufferSize = bufferSize;
+
+        setLayout( layout );
+        setImmediateFlush( false );
+        setFile( filename, append, false, bufferSize );
+
+        if( flushInterval > 0 )
+        {
+            _flusher = _timer.scheduleWithFixedDelay( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    flush();
+                }
+            }, flushInterval, flushInterval, TimeUnit.MILLISECONDS );
+        }
+
+        _open.add( this );
+    }
+
+
+    /**
+     *    Events at or above this level are written out straight away, with
+     *    everything buffered before them.  null to never flush on an event.
+     */
+    public void setFlushLevel( final Level    flushLevel )
+    {
+        _flushLevel = flushLevel;
+    }
+
+
+    public Level getFlushLevel()
+    {
+        return _flushLevel;
+    }
+
+
+    /**
+     *    @param maxFileSize bytes the file may grow to before it is rolled;
+     *                       0, the default, never to roll it
+     */
+    public void setMaxFileSize( final long    maxFileSize )
+    {
+        _maxFileSize = maxFileSize;
+    }
+
+
+    public long getMaxFileSize()
+    {
+        return _maxFileSize;
+    }
+
+
+    /**
+     *    How many rolled files to keep; 10 by default.
+     */
+    public void setMaxBackupIndex( final int    maxBackupIndex )
+    {
+        _maxBackupIndex = maxBackupIndex;
+    }
+
+
+    public int getMaxBackupIndex()
+    {
+        return _maxBackupIndex;
+    }
+
+
+    /**
+     *    Writes out whatever is buffered.
+     */
+    public synchronized void flush()
+    {
+        if( ! closed && qw != null )
+        {
+            qw.flush();
+        }
+    }
+
+
+    @Override
+    public synchronized void setFile( final String     fileName,
+                                      final boolean    append,
+                                      final boolean    bufferedIO,
+                                      final int        bufferSize )
+        throws
+            IOException
+    {
+        //
+        //    Our buffering is under the encoder (see createWriter), not a
+        //    BufferedWriter over it.
+        //
+        super.setFile( fileName, append, false, bufferSize );
+
+        if( append )
+        {
+            ( (CountingQuietWriter) qw ).setCount( new File( fileName ).length() );
+        }
+    }
+
+
+    @Override
+    protected OutputStreamWriter createWriter( final OutputStream    os )
+    {
+        return super.createWriter( new BufferedOutputStream( os, _writeBufferSize ) );
+    }
+
+
+    @Override
+    protected void setQWForFiles( final Writer    writer )
+    {
+        qw = new CountingQuietWriter( writer, errorHandler );
+    }
+
+
+    @Override
+    protected boolean shouldFlush( final LoggingEvent    event )
+    {
+        Level    flushLevel = _flushLevel;
+
+        return flushLevel != null && event.getLevel().isGreaterOrEqual( flushLevel );
+    }
+
+
+    @Override
+    protected void subAppend( final LoggingEvent    event )
+    {
+        super.subAppend( event );
+
+        long    maxFileSize = _maxFileSize;
+
+        if( maxFileSize > 0
+            && fileName != null
+            && qw != null
+            && ( (CountingQuietWriter) qw ).getCount() >= maxFileSize )
+        {
+            rollOver();
+        }
+    }
+
+
+    /**
+     *    Renames the file to a backup and starts a new one.
+     *    <p>
+     *    The file is renamed while still open and the new one opened in its
+     *    place; flushing what is left in the old writer and closing it are
+     *    left to the timer thread.  Where an open file can't be renamed (e.g.
+     *    Windows) it falls back to closing it first, which does that flush
+     *    here, under the appender's lock, holding up whoever is logging.
+     */
+    public synchronized void rollOver()
+    {
+        if( fileName == null )
+        {
+            return;
+        }
+
+        final String    file = fileName;
+
+        File      current = new File( file );
+        String    stamp   = file + "." + _backupFormat.format( new Date() );
+        String    backup  = stamp;
+
+        for( int    index = 1; new File( backup ).exists(); index++ )
+        {
+            backup = stamp + "-" + index;
+        }
+
+        Writer     old     = null;
+        boolean    renamed = current.renameTo( new File( backup ) );
+
+        if( renamed )
+        {
+            //
+            //    Detached so that setFile doesn't close it.
+            //
+            old = qw;
+            qw = null;
+        }
+        else
+        {
+            closeFile();
+
+            renamed = current.renameTo( new File( backup ) );
+
+            if( ! renamed )
+            {
+                errorHandler.error( "Failed to roll [" + file + "] to [" + backup + "], appending to it" );
+            }
+        }
+
+        try
+        {
+            setFile( file, ! renamed, false, _writeBufferSize );
+        }
+        catch( IOException    ex )
+        {
+            errorHandler.error( "Failed to reopen [" + file + "] after rolling it", ex, 0 );
+        }
+
+        if( old != null )
+        {
+            final Writer    writer = old;
+
+            _closing.add( writer );
+            _timer.execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    closeQuietly( writer );
+                }
+            } );
+        }
+
+        if( renamed )
+        {
+            _timer.execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    deleteOldBackups( file );
+                }
+            } );
+        }
+    }
+
+
+    /**
+     *    Closes a writer rolled away from, if it hasn't been already.
+     */
+    private static void closeQuietly( final Writer    writer )
+    {
+        if( _closing.remove( writer ) )
+        {
+            try
+            {
+                writer.close();
+            }
+            catch( IOException    ex )
+            {
+                //
+                //    QuietWriters hand their errors to the error handler.
+                //
+            }
+        }
+    }
+
+
+    private void deleteOldBackups( final String    file )
+    {
+        int    maxBackupIndex = _maxBackupIndex;
+
+        if( maxBackupIndex < 0 )
+        {
+            return;
+        }
+
+        File             current = new File( file ).getAbsoluteFile();
+        final Pattern    pattern = Pattern.compile( Pattern.quote( current.getName() ) + BACKUP_SUFFIX );
+        File[]           backups = current.getParentFile().listFiles( new FilenameFilter()
+        {
+            @Override
+            public boolean accept( final File      dir,
+                                   final String    name )
+            {
+                return pattern.matcher( name ).matches();
+            }
+        } );
+
+        if( backups == null || backups.length <= maxBackupIndex )
+        {
+            return;
+        }
+
+        Arrays.sort( backups, BACKUP_ORDER );
+
+        for( int    index = 0; index < backups.length - maxBackupIndex; index++ )
+        {
+            if( ! backups[index].delete() )
+            {
+                errorHandler.error( "Failed to delete old log [" + backups[index] + "]" );
+            }
+        }
+    }
+
+
+    @Override
+    public synchronized void close()
+    {
+        _open.remove( this );
+
+        if( _flusher != null )
+        {
+            _flusher.cancel( false );
+            _flusher = null;
+        }
+
+        super.close();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.log;
+
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ *    Which levels a logger has enabled, kept in fields so checking costs one
+ *    volatile read instead of Logger.isDebugEnabled's walk up the logger
+ *    hierarchy for an effective level.  Meant for hot loops:
+ *    <pre>
+ *    private static final CachedLevel LEVEL = CachedLevel.forClass( Thing.class );
+ *    ...
+ *    if( LEVEL.isDebugEnabled() )
+ *    {
+ *        logger.debug( ... );
+ *    }
+ *    </pre>
+ *    The fields are worked out again whenever a level is changed through
+ *    LoggerControl (or its MBean or LoggerLevelServer).  If levels are
+ *    changed some other way, e.g. by reloading log4j's configuration, call
+ *    LoggerControl.levelsChanged afterwards.
+ */
+public final class CachedLevel
+{
+    private static final ConcurrentMap<String,CachedLevel>    _levels
+        = new ConcurrentHashMap<String,CachedLevel>();
+
+    /**
+     *    Held while refreshing, so that a refresh that read the levels before
+     *    a change can't finish after, and overwrite, one that read them after.
+     */
+    private static final Object    _refreshLock = new Object();
+
+    private final Logger        _logger;
+
+    private volatile boolean    _trace;
+    private volatile boolean    _debug;
+    private volatile boolean    _info;
+
+
+    private CachedLevel( final Logger    logger )
+    {
+        _logger = logger;
+        refresh();
+    }
+
+
+    public static CachedLevel forClass( final Class<?>    clazz )
+    {
+        return forLogger( Logger.getLogger( clazz ) );
+    }
+
+
+    public static CachedLevel forLogger( final Logger    logger )
+    {
+        CachedLevel    level = _levels.get( logger.getName() );
+
+        if( level != null )
+        {
+            return level;
+        }
+
+        level = new CachedLevel( logger );
+
+        CachedLevel    existing = _levels.putIfAbsent( logger.getName(), level );
+
+        if( existing != null )
+        {
+            return existing;
+        }
+
+        //
+        //    In case a level changed after we looked but before refreshAll
+        //    could see us.
+        //
+        synchronized( _refreshLock )
+        {
+            level.refresh();
+        }
+
+        return level;
+    }
+
+
+    /**
+     *    Works out every CachedLevel's fields again.
+     */
+    static void refreshAll()
+    {
+        synchronized( _refreshLock )
+        {
+            for( CachedLevel    level : _levels.values() )
+            {
+                level.refresh();
+            }
+        }
+    }
+
+
+    private void refresh()
+    {
+        _trace = _logger.isTraceEnabled();
+        _debug = _logger.isDebugEnabled();
+        _info  = _logger.isInfoEnabled();
+    }
+
+
+    public Logger getLogger()
+    {
+        return _logger;
+    }
+
+
+    public boolean isTraceEnabled()
+    {
+        return _trace;
+    }
+
+
+    public boolean isDebugEnabled()
+    {
+        return _debug;
+    }
+
+
+    public boolean isInfoEnabled()
+    {
+        return _info;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "CachedLevel{" + _logger.getName() + ", trace=" + _trace + ", debug=" + _debug
+               + ", info=" + _info + "}";
+    }
+}
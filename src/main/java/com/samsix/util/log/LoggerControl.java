@@ -11,13 +11,16 @@ package com.samsix.util.log;
 
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import javax.swing.filechooser.FileSystemView;
 
@@ -55,6 +58,20 @@ public class LoggerControl
     private static boolean       _loggingBaseSet = false;
     private static Set<String>   _forcedLoggers = new HashSet<String>();
 
+    /**
+     *    0 to write to file appenders directly
+     */
+    private static volatile int                                  _asyncCapacity;
+    private static volatile RingBufferAppender.OverflowPolicy    _overflowPolicy = RingBufferAppender.OverflowPolicy.BLOCK;
+
+    /**
+     *    0 for plain FileAppenders
+     */
+    private static volatile int                                  _bufferSize;
+    private static volatile long                                 _flushInterval;
+    private static volatile long                                 _maxFileSize;
+    private static volatile int                                  _maxBackupIndex;
+
     private List<String>        _debugClasses   = new ArrayList<String>();
     private List<String>        _infoClasses    = new ArrayList<String>();
     private List<String>        _errorClasses   = new ArrayList<String>();
@@ -83,6 +100,7 @@ public class LoggerControl
                                 final Level    level )
     {
         Logger.getLogger( loggerName ).setLevel( level );
+        levelsChanged();
     }
 
 
@@ -90,6 +108,18 @@ public class LoggerControl
                                 final Level       level )
     {
         Logger.getLogger( loggerClass ).setLevel( level );
+        levelsChanged();
+    }
+
+
+    /**
+     *    Brings CachedLevels up to date.  Everything here that changes a level
+     *    calls this; anything else that does (e.g. reloading the log4j
+     *    configuration) should too.
+     */
+    public static void levelsChanged()
+    {
+        CachedLevel.refreshAll();
     }
 
 
@@ -103,10 +133,32 @@ public class LoggerControl
      *
      *      @param name of logger
      *      @param level to set - if loggingLevel is unrecognized,
-     *                  the level will be DEBUG
+     *                  the level will be DEBUG; null to inherit the
+     *                  parent's level
      */
     public static String setLoggingLevel( final String    name,
                                           final Level     level )
+    {
+        Logger    theLogger  = findLogger( toLoggerName( name ) );
+
+        Logger.getLogger( LoggerControl.class ).info( "Changing logger for [" + theLogger.getName()
+                                                      + "] from "
+                                                      + theLogger.getLevel()
+                                                      + " to "
+                                                      + level );
+
+        theLogger.setLevel( level );
+        levelsChanged();
+
+        return theLogger.getName();
+    }
+
+
+    /**
+     *    @return the name as setLoggingLevel takes it, e.g. "com/samsix/Foo"
+     *            to "com.samsix.Foo" and "sql" to SqlLog
+     */
+    public static String toLoggerName( final String    name )
     {
         String    loggerName = name;
 
@@ -130,17 +182,41 @@ public class LoggerControl
             loggerName = SQL_LOG;
         }
 
-        Logger    theLogger  = Logger.getLogger( loggerName );
+        return loggerName;
+    }
 
-        System.out.println( "Changing logger for [" + theLogger.getName()
-                            + "] from "
-                            + theLogger.getLevel()
-                            + " to "
-                            + level );
 
-        theLogger.setLevel( level );
+    /**
+     *    @return the logger, or the root logger for "root", which is what
+     *            getLoggerLevels calls it
+     */
+    static Logger findLogger( final String    loggerName )
+    {
+        Logger    root = LogManager.getRootLogger();
 
-        return theLogger.getName();
+        if ( root.getName().equals( loggerName ) )
+        {
+            return root;
+        }
+
+        return Logger.getLogger( loggerName );
+    }
+
+
+    /**
+     *    As findLogger, but null for a logger nothing has asked for yet
+     *    rather than creating it.
+     */
+    static Logger findExistingLogger( final String    loggerName )
+    {
+        Logger    root = LogManager.getRootLogger();
+
+        if ( root.getName().equals( loggerName ) )
+        {
+            return root;
+        }
+
+        return LogManager.exists( loggerName );
     }
 
 
@@ -175,11 +251,31 @@ public class LoggerControl
     }
 
 
+    public static void listLoggers()
+    {
+        for ( Map.Entry<String,Level>    entry : getLoggerLevels().entrySet() )
+        {
+            System.out.println( entry.getKey() + ": " + entry.getValue() );
+        }
+    }
+
+
+    /**
+     *    @return the loggers that have a level set, by name, root first
+     */
     //      Logger doesn't return typed enumerations
     @SuppressWarnings( "unchecked" )
-    public static void listLoggers()
+    public static Map<String,Level> getLoggerLevels()
     {
-        Enumeration<Logger>     loggers     = LogManager.getCurrentLoggers();
+        Map<String,Level>      levels  = new LinkedHashMap<String,Level>();
+        Map<String,Level>      others  = new TreeMap<String,Level>();
+        Enumeration<Logger>    loggers = LogManager.getCurrentLoggers();
+        Logger                 root    = LogManager.getRootLogger();
+
+        if ( root.getLevel() != null )
+        {
+            levels.put( root.getName(), root.getLevel() );
+        }
 
         while ( loggers.hasMoreElements() )
         {
@@ -187,9 +283,13 @@ public class LoggerControl
 
             if ( logger.getLevel() != null )
             {
-                System.out.println( logger.getName() + ": " + logger.getLevel() );
+                others.put( logger.getName(), logger.getLevel() );
             }
         }
+
+        levels.putAll( others );
+
+        return levels;
     }
 
 
@@ -232,6 +332,175 @@ public class LoggerControl
     }
 
 
+    /**
+     *    From now on, redirectLoggers and forceRedirectLogger wrap the file
+     *    appenders they create in a RingBufferAppender, so logging doesn't
+     *    wait on the disk.  Call before redirecting.
+     *
+     *    @param capacity how many events can wait to be written
+     *    @param policy what to do when that many are waiting
+     */
+    public static void enableAsyncAppenders( final int                                  capacity,
+                                             final RingBufferAppender.OverflowPolicy    policy )
+    {
+        if( capacity <= 0 )
+        {
+            throw new IllegalArgumentException( "Invalid capacity: " + capacity );
+        }
+
+        _overflowPolicy = policy;
+        _asyncCapacity  = capacity;
+    }
+
+
+    /**
+     *    Go back to file appenders being written to by the logging thread,
+     *    from the next redirect on.
+     */
+    public static void disableAsyncAppenders()
+    {
+        _asyncCapacity = 0;
+    }
+
+
+    public static boolean isAsyncAppenders()
+    {
+        return _asyncCapacity > 0;
+    }
+
+
+    /**
+     *    From now on, redirectLoggers and forceRedirectLogger create
+     *    BufferedFileAppenders, which write in blocks rather than a line at
+     *    a time.  Call before redirecting.
+     *
+     *    @param bufferSize bytes held before they are written
+     *    @param flushInterval milliseconds between flushes
+     */
+    public static void enableBufferedAppenders( final int     bufferSize,
+                                                final long    flushInterval )
+    {
+        enableBufferedAppenders( bufferSize, flushInterval, 0, 0 );
+    }
+
+
+    /**
+     *    As enableBufferedAppenders( bufferSize, flushInterval ), rolling the
+     *    files once they reach maxFileSize.
+     *
+     *    @param maxFileSize 0 never to roll
+     *    @param maxBackupIndex how many rolled files to keep
+     */
+    public static void enableBufferedAppenders( final int     bufferSize,
+                                                final long    flushInterval,
+                                                final long    maxFileSize,
+                                                final int     maxBackupIndex )
+    {
+        if( bufferSize <= 0 )
+        {
+            throw new IllegalArgumentException( "Invalid buffer size: " + bufferSize );
+        }
+
+        _flushInterval  = flushInterval;
+        _maxFileSize    = maxFileSize;
+        _maxBackupIndex = maxBackupIndex;
+        _bufferSize     = bufferSize;
+    }
+
+
+    /**
+     *    Go back to plain FileAppenders from the next redirect on.
+     */
+    public static void disableBufferedAppenders()
+    {
+        _bufferSize = 0;
+    }
+
+
+    public static boolean isBufferedAppenders()
+    {
+        return _bufferSize > 0;
+    }
+
+
+    /**
+     *    @return a BufferedFileAppender if they are enabled, else a FileAppender
+     */
+    private static FileAppender createFileAppender( final Layout     layout,
+                                                    final String     logfile,
+                                                    final boolean    append )
+        throws
+            IOException
+    {
+        int    bufferSize = _bufferSize;
+
+        if( bufferSize <= 0 )
+        {
+            return new FileAppender( layout, logfile, append );
+        }
+
+        BufferedFileAppender    appender = new BufferedFileAppender( layout,
+                                                                     logfile,
+                                                                     append,
+                                                                     bufferSize,
+                                                                     _flushInterval );
+
+        appender.setMaxFileSize( _maxFileSize );
+        appender.setMaxBackupIndex( _maxBackupIndex );
+
+        return appender;
+    }
+
+
+    /**
+     *    @return the appender to add for the file appender: itself, or wrapped in a
+     *            RingBufferAppender if async appenders are enabled
+     */
+    private static Appender wrap( final FileAppender    appender )
+    {
+        int    capacity = _asyncCapacity;
+
+        if( capacity <= 0 )
+        {
+            return appender;
+        }
+
+        RingBufferAppender    ringBuffer = new RingBufferAppender( appender, capacity, _overflowPolicy );
+
+        //
+        //    Otherwise a layout with e.g. %C or %L would print the writer
+        //    thread's location, not the logger's.
+        //
+        ringBuffer.setLocationInfo( RingBufferAppender.needsLocationInfo( appender.getLayout() ) );
+
+        return ringBuffer;
+    }
+
+
+    /**
+     *    @return the appender if it is a FileAppender, the one it wraps if it
+     *            is a RingBufferAppender around a FileAppender, else null
+     */
+    private static FileAppender getFileAppender( final Appender    appender )
+    {
+        if( appender instanceof RingBufferAppender )
+        {
+            return getFileAppender( ( (RingBufferAppender) appender ).getAppender() );
+        }
+
+        if( appender instanceof FileAppender )
+        {
+            return (FileAppender) appender;
+        }
+
+        return null;
+    }
+
+
+    /**
+     *    @return the file appenders of the redirected loggers, including any
+     *            wrapped in RingBufferAppenders
+     */
     public static Collection<FileAppender> getFileAppenders()
     {
         Collection<FileAppender>    appenders = new ArrayList<FileAppender>();
@@ -244,23 +513,39 @@ public class LoggerControl
     }
 
 
-    @SuppressWarnings( "unchecked" )
     private static Collection<FileAppender> getFileAppenders( final Logger    logger )
     {
         Collection<FileAppender>    appenders = new ArrayList<FileAppender>();
-        Enumeration<Appender>       enumeration = logger.getAllAppenders();
-        Appender                    appender;
+
+        for ( Appender    appender : getFileAppenderHolders( logger ) )
+        {
+            appenders.add( getFileAppender( appender ) );
+        }
+
+        return appenders;
+    }
+
+
+    /**
+     *    @return the logger's appenders that are, or wrap, file appenders
+     */
+    @SuppressWarnings( "unchecked" )
+    private static Collection<Appender> getFileAppenderHolders( final Logger    logger )
+    {
+        Collection<Appender>     appenders = new ArrayList<Appender>();
+        Enumeration<Appender>    enumeration = logger.getAllAppenders();
+        Appender                 appender;
 
         while ( enumeration.hasMoreElements() )
         {
             appender = enumeration.nextElement();
 
-            if ( ! ( appender instanceof FileAppender ) )
+            if ( getFileAppender( appender ) == null )
             {
                 continue;
             }
 
-            appenders.add( (FileAppender) appender );
+            appenders.add( appender );
         }
 
         return appenders;
@@ -348,7 +633,7 @@ public class LoggerControl
 
         try
         {
-            fileAppender = new FileAppender( layout, logfile, append );
+            fileAppender = createFileAppender( layout, logfile, append );
         }
         catch ( Throwable    ex )
         {
@@ -357,7 +642,7 @@ public class LoggerControl
             return;
         }
 
-        logger.addAppender( fileAppender );
+        logger.addAppender( wrap( fileAppender ) );
         logger.setAdditivity( false );
         _forcedLoggers.add( logger.getName() );
     }
@@ -369,13 +654,12 @@ public class LoggerControl
     {
         setLoggingBase();
 
-        FileAppender          oldAppender;
-
-        for ( FileAppender    fileAppender : getFileAppenders( logger ) )
+        for ( Appender    oldAppender : getFileAppenderHolders( logger ) )
         {
-            logger.removeAppender( fileAppender );
+            logger.removeAppender( oldAppender );
 
-            String    logFileName = fileAppender.getFile();
+            FileAppender    fileAppender = getFileAppender( oldAppender );
+            String          logFileName = fileAppender.getFile();
             if ( logFileName == null )
             {
                 continue;
@@ -415,23 +699,34 @@ public class LoggerControl
                                 + addPrefix
                                 + baseFileName;
 
-            oldAppender = fileAppender;
+            Appender    newAppender;
 
             try
             {
-                fileAppender = new FileAppender( fileAppender.getLayout(),
-                                                 logfile,
-                                                 fileAppender.getAppend() );
+                newAppender = wrap( createFileAppender( fileAppender.getLayout(),
+                                                        logfile,
+                                                        fileAppender.getAppend() ) );
             }
             catch ( Throwable    ex )
             {
                 Logger.getLogger( LoggerControl.class )
                       .error( "can't create new file appender", ex );
 
-                fileAppender = oldAppender;
+                newAppender = oldAppender;
+            }
+
+            if ( newAppender != oldAppender
+                 && ( oldAppender instanceof RingBufferAppender
+                      || oldAppender instanceof BufferedFileAppender ) )
+            {
+                //
+                //    Write out what it has queued or buffered, and stop its
+                //    thread or flush timer.
+                //
+                oldAppender.close();
             }
 
-            logger.addAppender( fileAppender );
+            logger.addAppender( newAppender );
         }
     }
 
@@ -566,6 +861,7 @@ public class LoggerControl
     public static void setDebugLogToConsole( final Logger logger )
     {
         logger.setLevel( Level.ALL );
+        levelsChanged();
         logger.addAppender( new ConsoleAppender( new PatternLayout( PatternLayout.TTCC_CONVERSION_PATTERN ) ) );
     }
 
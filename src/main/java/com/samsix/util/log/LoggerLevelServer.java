@@ -0,0 +1,227 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.log;
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+
+
+/**
+ *    Lets logging levels be listed and changed from the command line of the
+ *    machine the process runs on, e.g. with "nc localhost 4560".  Only
+ *    listens on the loopback address.  Commands, one per line:
+ *    <pre>
+ *    list                      loggers with a level set
+ *    get &lt;logger&gt;              the level a logger runs at
+ *    set &lt;logger&gt; &lt;level&gt;      e.g. "set sql DEBUG"
+ *    reset &lt;logger&gt;            inherit the parent's level again
+ *    quit
+ *    </pre>
+ *    Each answer ends with an empty line.  Connections are handled one at a
+ *    time, on a single daemon thread.
+ */
+public class LoggerLevelServer
+{
+    private static final int    SO_TIMEOUT = 60000;
+
+    private final ServerSocket    _serverSocket;
+    private final LoggerLevels    _levels = new LoggerLevels();
+    private final Thread          _thread;
+
+    private volatile boolean      _closed;
+
+
+    /**
+     *    Starts listening.
+     *
+     *    @param port 0 for any free port (see getPort)
+     */
+    public LoggerLevelServer( final int    port )
+        throws
+            IOException
+    {
+        _serverSocket = new ServerSocket( port, 5, InetAddress.getLoopbackAddress() );
+
+        _thread = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                accept();
+            }
+        }, "LoggerLevelServer " + _serverSocket.getLocalPort() );
+
+        _thread.setDaemon( true );
+        _thread.start();
+    }
+
+
+    public int getPort()
+    {
+        return _serverSocket.getLocalPort();
+    }
+
+
+    public void close()
+    {
+        _closed = true;
+
+        try
+        {
+            _serverSocket.close();
+        }
+        catch( IOException    ex )
+        {
+            Logger.getLogger( LoggerLevelServer.class ).warn( "Failed to close server socket", ex );
+        }
+    }
+
+
+    private void accept()
+    {
+        while( ! _closed )
+        {
+            Socket    socket;
+
+            try
+            {
+                socket = _serverSocket.accept();
+            }
+            catch( IOException    ex )
+            {
+                if( ! _closed )
+                {
+                    Logger.getLogger( LoggerLevelServer.class ).error( "Stopped accepting connections", ex );
+                }
+
+                return;
+            }
+
+            try
+            {
+                socket.setSoTimeout( SO_TIMEOUT );
+                serve( socket );
+            }
+            catch( IOException    ex )
+            {
+                //
+                //    Usually timed out or hung up on.
+                //
+                Logger.getLogger( LoggerLevelServer.class ).debug( "Lost client", ex );
+            }
+            finally
+            {
+                try
+                {
+                    socket.close();
+                }
+                catch( IOException    ex )
+                {
+                    //    Ignore
+                }
+            }
+        }
+    }
+
+
+    private void serve( final Socket    socket )
+        throws
+            IOException
+    {
+        BufferedReader    in  = new BufferedReader( new InputStreamReader( socket.getInputStream(),
+                                                                           StandardCharsets.UTF_8 ) );
+        PrintWriter       out = new PrintWriter( new OutputStreamWriter( socket.getOutputStream(),
+                                                                         StandardCharsets.UTF_8 ) );
+        String            line;
+
+        while( ( line = in.readLine() ) != null )
+        {
+            String[]    words = StringUtils.split( line );
+
+            if( words.length == 0 )
+            {
+                continue;
+            }
+
+            if( "quit".equalsIgnoreCase( words[0] ) )
+            {
+                return;
+            }
+
+            try
+            {
+                out.print( execute( words ) );
+            }
+            catch( RuntimeException    ex )
+            {
+                out.print( "ERROR " + ex.getMessage() + "\n" );
+            }
+
+            out.print( "\n" );
+            out.flush();
+        }
+    }
+
+
+    /**
+     *    @return the answer, each line ending in "\n"
+     */
+    private String execute( final String[]    words )
+    {
+        String    command = words[0].toLowerCase();
+
+        if( "list".equals( command ) && words.length == 1 )
+        {
+            StringBuilder    answer = new StringBuilder();
+
+            for( String    level : _levels.getLoggerLevels() )
+            {
+                answer.append( level ).append( '\n' );
+            }
+
+            return answer.toString();
+        }
+
+        if( "get".equals( command ) && words.length == 2 )
+        {
+            return _levels.getEffectiveLevel( words[1] ) + "\n";
+        }
+
+        if( "set".equals( command ) && words.length == 3 )
+        {
+            return _levels.setLevel( words[1], words[2] ) + "\n";
+        }
+
+        if( "reset".equals( command ) && words.length == 2 )
+        {
+            return _levels.resetLevel( words[1] ) + "\n";
+        }
+
+        throw new IllegalArgumentException( "Expected list, get <logger>, set <logger> <level>, reset <logger> or quit" );
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "LoggerLevelServer{port=" + getPort() + "}";
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.log;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+
+/**
+ *    Lists and changes logging levels at runtime, over JMX once registered,
+ *    and for LoggerLevelServer.  Changes go through LoggerControl so
+ *    CachedLevels see them.
+ */
+public class LoggerLevels
+    implements
+        LoggerLevelsMBean
+{
+    public static final String    OBJECT_NAME = "com.samsix.util:type=LoggerLevels";
+
+    private static ObjectName    _registered;
+
+
+    /**
+     *    Registers an instance with the platform MBean server, under
+     *    OBJECT_NAME, if that hasn't been done already.
+     */
+    public static synchronized void register()
+        throws
+            JMException
+    {
+        if( _registered != null )
+        {
+            return;
+        }
+
+        MBeanServer    server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName     name   = new ObjectName( OBJECT_NAME );
+
+        if( ! server.isRegistered( name ) )
+        {
+            server.registerMBean( new LoggerLevels(), name );
+        }
+
+        _registered = name;
+    }
+
+
+    public static synchronized void unregister()
+        throws
+            JMException
+    {
+        if( _registered == null )
+        {
+            return;
+        }
+
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean( _registered );
+        _registered = null;
+    }
+
+
+    @Override
+    public String[] getLoggerLevels()
+    {
+        List<String>    levels = new ArrayList<String>();
+
+        for( Map.Entry<String,Level>    entry : LoggerControl.getLoggerLevels().entrySet() )
+        {
+            levels.add( entry.getKey() + ": " + entry.getValue() );
+        }
+
+        return levels.toArray( new String[levels.size()] );
+    }
+
+
+    @Override
+    public String getEffectiveLevel( final String    loggerName )
+    {
+        return findExisting( loggerName ).getEffectiveLevel().toString();
+    }
+
+
+    @Override
+    public String setLevel( final String    loggerName,
+                            final String    level )
+    {
+        //
+        //    toLevel falls back to the default for names it doesn't know, so
+        //    a typo would otherwise turn on DEBUG.
+        //
+        Level    newLevel = Level.toLevel( level, null );
+
+        if( newLevel == null )
+        {
+            throw new IllegalArgumentException( "Unknown level [" + level
+                                                + "], expected OFF, FATAL, ERROR, WARN, INFO, DEBUG, TRACE or ALL" );
+        }
+
+        return describe( loggerName, newLevel );
+    }
+
+
+    @Override
+    public String resetLevel( final String    loggerName )
+    {
+        if( findExisting( loggerName ).getParent() == null )
+        {
+            throw new IllegalArgumentException( "The root logger has nothing to inherit a level from" );
+        }
+
+        return describe( loggerName, null );
+    }
+
+
+    /**
+     *    Looking a logger up shouldn't create it, or a typo would leave a
+     *    logger behind for good.
+     */
+    private Logger findExisting( final String    loggerName )
+    {
+        String    name   = LoggerControl.toLoggerName( loggerName );
+        Logger    logger = LoggerControl.findExistingLogger( name );
+
+        if( logger == null )
+        {
+            throw new IllegalArgumentException( "No logger [" + name + "]" );
+        }
+
+        return logger;
+    }
+
+
+    private String describe( final String    loggerName,
+                             final Level     level )
+    {
+        String    name = LoggerControl.toLoggerName( loggerName );
+        Level     old  = LoggerControl.findLogger( name ).getLevel();
+
+        LoggerControl.setLoggingLevel( name, level );
+
+        return name + ": " + ( old == null ? "inherited" : old.toString() ) + " -> "
+               + ( level == null ? "inherited " + LoggerControl.findLogger( name ).getEffectiveLevel() : level );
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.log;
+
+
+/**
+ *    The JMX view of LoggerLevels.  Levels are passed as names (DEBUG, INFO,
+ *    etc.) so this can be used from jconsole.
+ */
+public interface LoggerLevelsMBean
+{
+    /**
+     *    @return "logger: LEVEL" for every logger with a level set, root first
+     */
+    public String[] getLoggerLevels();
+
+
+    /**
+     *    @return the level the logger runs at, set on it or inherited
+     *    @throws IllegalArgumentException if there's no such logger
+     */
+    public String getEffectiveLevel( String    loggerName );
+
+
+    /**
+     *    @param loggerName as for LoggerControl.setLoggingLevel
+     *    @param level e.g. "DEBUG"; case doesn't matter
+     *    @return what was changed
+     *    @throws IllegalArgumentException if the level isn't one log4j knows
+     */
+    public String setLevel( String    loggerName,
+                            String    level );
+
+
+    /**
+     *    Clears the logger's level, so it inherits its parent's.
+     *
+     *    @throws IllegalArgumentException if there's no such logger, or it
+     *            is the root logger
+     */
+    public String resetLevel( String    loggerName );
+}
@@ -0,0 +1,708 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.log;
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.EnhancedPatternLayout;
+import org.apache.log4j.HTMLLayout;
+import org.apache.log4j.Layout;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.Priority;
+import org.apache.log4j.SimpleLayout;
+import org.apache.log4j.TTCCLayout;
+import org.apache.log4j.helpers.OnlyOnceErrorHandler;
+import org.apache.log4j.spi.ErrorHandler;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.xml.XMLLayout;
+
+
+/**
+ *    Hands log events to another appender on a writer thread of its own, so
+ *    the threads doing the logging never wait on the disk.
+ *    <p>
+ *    Events go through a fixed size ring buffer which loggers add to without
+ *    taking any lock (unlike log4j's AsyncAppender, or anything built on
+ *    AppenderSkeleton, whose doAppend is synchronized).  What happens when
+ *    the buffer is full depends on the OverflowPolicy.  Dropped events are
+ *    counted, and the writer reports how many it has lost to the wrapped
+ *    appender as a WARN.
+ *    <p>
+ *    Closing this closes the wrapped appender, after what is in the buffer
+ *    has been written.
+ */
+public class RingBufferAppender
+    implements
+        Appender
+{
+    public static final int    DEFAULT_CAPACITY = 8192;
+
+    /**
+     *    How long the writer or a blocked logger sleeps before looking again.
+     */
+    private static final long    PARK_NANOS  = TimeUnit.MILLISECONDS.toNanos( 1 );
+
+    private static final long    CLOSE_WAIT  = 5000;
+
+    private static final AtomicInteger    _threadCount = new AtomicInteger();
+
+
+    /**
+     *    What a logger does when the buffer is full.
+     */
+    public enum OverflowPolicy
+    {
+        /**
+         *    Wait for the writer to make room.  Nothing is lost.
+         */
+        BLOCK,
+
+        /**
+         *    Drop the event.
+         */
+        DROP,
+
+        /**
+         *    Drop events below the discard threshold (WARN by default) and
+         *    wait for room for the rest.
+         */
+        DROP_BELOW_LEVEL
+    }
+
+
+    private final Appender                              _appender;
+    private final OverflowPolicy                        _policy;
+    private final int                                   _mask;
+    private final AtomicReferenceArray<LoggingEvent>    _events;
+
+    /**
+     *    For slot i, the position it can next be written at when it is free,
+     *    or that position + 1 once it holds an event.
+     */
+    private final AtomicLongArray                       _sequences;
+    private final AtomicLong                            _tail    = new AtomicLong();
+    private final AtomicLong                            _dropped = new AtomicLong();
+
+    /**
+     *    Loggers in doAppend, which the writer waits for when closing
+     */
+    private final AtomicInteger                         _appending = new AtomicInteger();
+    private final Thread                                _writer;
+
+    /**
+     *    Only written by the writer
+     */
+    private volatile long                               _head;
+    private long                                        _reportedDropped;
+
+    private volatile boolean                            _writerWaiting;
+    private volatile boolean                            _closed;
+    private volatile Level                              _discardThreshold = Level.WARN;
+    private volatile Priority                           _threshold;
+    private volatile boolean                            _locationInfo;
+    private volatile String                             _name;
+    private volatile ErrorHandler                       _errorHandler = new OnlyOnceErrorHandler();
+
+    private volatile Filter                             _headFilter;
+    private Filter                                      _tailFilter;
+
+
+    public RingBufferAppender( final Appender    appender )
+    {
+        this( appender, DEFAULT_CAPACITY, OverflowPolicy.BLOCK );
+    }
+
+
+    /**
+     *    @param capacity rounded up to a power of two
+     */
+    public RingBufferAppender( final Appender          appender,
+                               final int               capacity,
+                               final OverflowPolicy    policy )
+    {
+        if( capacity <= 0 || capacity > ( 1 << 30 ) )
+        {
+            throw new IllegalArgumentException( "Invalid capacity: " + capacity );
+        }
+
+        int    size = Integer.highestOneBit( capacity );
+        if( size < capacity )
+        {
+            size <<= 1;
+        }
+
+        _appender  = appender;
+        _policy    = policy;
+        _name      = appender.getName();
+        _mask      = size - 1;
+        _events    = new AtomicReferenceArray<LoggingEvent>( size );
+        _sequences = new AtomicLongArray( size );
+
+        for( int    index = 0; index < size; index++ )
+        {
+            _sequences.set( index, index );
+        }
+
+        _writer = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                write();
+            }
+        }, "RingBufferAppender " + _threadCount.incrementAndGet() );
+
+        _writer.setDaemon( true );
+        _writer.start();
+    }
+
+
+    public Appender getAppender()
+    {
+        return _appender;
+    }
+
+
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return _policy;
+    }
+
+
+    public int getCapacity()
+    {
+        return _mask + 1;
+    }
+
+
+    /**
+     *    @return how many events are waiting to be written
+     */
+    public int getPending()
+    {
+        return (int) Math.max( 0, _tail.get() - _head );
+    }
+
+
+    /**
+     *    @return how many events have been dropped because the buffer was full
+     */
+    public long getDroppedCount()
+    {
+        return _dropped.get();
+    }
+
+
+    /**
+     *    With DROP_BELOW_LEVEL, events below this level are dropped when the
+     *    buffer is full.
+     */
+    public void setDiscardThreshold( final Level    discardThreshold )
+    {
+        _discardThreshold = discardThreshold;
+    }
+
+
+    public Level getDiscardThreshold()
+    {
+        return _discardThreshold;
+    }
+
+
+    /**
+     *    Events below this level are ignored.
+     */
+    public void setThreshold( final Priority    threshold )
+    {
+        _threshold = threshold;
+    }
+
+
+    public Priority getThreshold()
+    {
+        return _threshold;
+    }
+
+
+    /**
+     *    Whether to work out the caller's location (class, method, line)
+     *    before queuing, which the wrapped appender's layout needs if it
+     *    prints it.  That is expensive, so off by default.
+     */
+    public void setLocationInfo( final boolean    locationInfo )
+    {
+        _locationInfo = locationInfo;
+    }
+
+
+    public boolean getLocationInfo()
+    {
+        return _locationInfo;
+    }
+
+
+    /**
+     *    @return whether the layout prints the caller's location, so
+     *            setLocationInfo( true ) is needed for it to come out right
+     */
+    public static boolean needsLocationInfo( final Layout    layout )
+    {
+        if( layout instanceof PatternLayout )
+        {
+            return hasLocationConversion( ( (PatternLayout) layout ).getConversionPattern() );
+        }
+
+        if( layout instanceof EnhancedPatternLayout )
+        {
+            return hasLocationConversion( ( (EnhancedPatternLayout) layout ).getConversionPattern() );
+        }
+
+        if( layout instanceof XMLLayout )
+        {
+            return ( (XMLLayout) layout ).getLocationInfo();
+        }
+
+        if( layout instanceof HTMLLayout )
+        {
+            return ( (HTMLLayout) layout ).getLocationInfo();
+        }
+
+        //
+        //    Can't tell what anything else prints, so better slow than wrong.
+        //
+        return layout != null && ! ( layout instanceof SimpleLayout ) && ! ( layout instanceof TTCCLayout );
+    }
+
+
+    /**
+     *    @return whether the pattern has any of %C, %F, %l, %L or %M
+     */
+    private static boolean hasLocationConversion( final String    pattern )
+    {
+        if( pattern == null )
+        {
+            return false;
+        }
+
+        int    index = 0;
+
+        while( ( index = pattern.indexOf( '%', index ) + 1 ) > 0 )
+        {
+            //
+            //    Skip the format modifiers, e.g. the "-20.30" of "%-20.30C".
+            //
+            while( index < pattern.length() && "-.0123456789".indexOf( pattern.charAt( index ) ) >= 0 )
+            {
+                index++;
+            }
+
+            if( index >= pattern.length() )
+            {
+                return false;
+            }
+
+            char    conversion = pattern.charAt( index++ );
+
+            if( "CFlLM".indexOf( conversion ) >= 0 )
+            {
+                return true;
+            }
+
+            //
+            //    Anything else, including the second % of "%%", is done with.
+            //
+        }
+
+        return false;
+    }
+
+
+    @Override
+    public void doAppend( final LoggingEvent    event )
+    {
+        //
+        //    Counted before looking at _closed, so that either we see it set
+        //    and go, or the writer sees us and waits for the event.
+        //
+        _appending.incrementAndGet();
+
+        try
+        {
+            if( ! _closed )
+            {
+                enqueue( event );
+            }
+        }
+        finally
+        {
+            _appending.decrementAndGet();
+        }
+    }
+
+
+    private void enqueue( final LoggingEvent    event )
+    {
+        Priority    threshold = _threshold;
+
+        if( threshold != null && ! event.getLevel().isGreaterOrEqual( threshold ) )
+        {
+            return;
+        }
+
+        for( Filter    filter = _headFilter; filter != null; filter = filter.getNext() )
+        {
+            int    decision = filter.decide( event );
+
+            if( decision == Filter.DENY )
+            {
+                return;
+            }
+
+            if( decision == Filter.ACCEPT )
+            {
+                break;
+            }
+        }
+
+        //
+        //    Everything that is looked up from the logging thread has to be
+        //    captured now, before the event changes threads.
+        //
+        event.getNDC();
+        event.getThreadName();
+        event.getMDCCopy();
+        event.getRenderedMessage();
+        event.getThrowableStrRep();
+
+        if( _locationInfo )
+        {
+            event.getLocationInformation();
+        }
+
+        if( offer( event ) )
+        {
+            return;
+        }
+
+        if( _policy == OverflowPolicy.DROP
+            || ( _policy == OverflowPolicy.DROP_BELOW_LEVEL
+                 && ! event.getLevel().isGreaterOrEqual( _discardThreshold ) )
+            || Thread.currentThread() == _writer )
+        {
+            //
+            //    The writer can't wait on itself, which it would if the
+            //    wrapped appender logged something.
+            //
+            _dropped.incrementAndGet();
+            return;
+        }
+
+        while( ! offer( event ) )
+        {
+            if( _closed )
+            {
+                _dropped.incrementAndGet();
+                return;
+            }
+
+            LockSupport.parkNanos( this, PARK_NANOS );
+        }
+    }
+
+
+    /**
+     *    @return false if the buffer is full
+     */
+    private boolean offer( final LoggingEvent    event )
+    {
+        while( true )
+        {
+            long    position = _tail.get();
+            int     index    = (int) position & _mask;
+            long    diff     = _sequences.get( index ) - position;
+
+            if( diff == 0 )
+            {
+                if( _tail.compareAndSet( position, position + 1 ) )
+                {
+                    _events.set( index, event );
+                    _sequences.set( index, position + 1 );
+
+                    if( _writerWaiting )
+                    {
+                        LockSupport.unpark( _writer );
+                    }
+
+                    return true;
+                }
+            }
+            else if( diff < 0 )
+            {
+                //
+                //    The writer hasn't got to this slot since it was last
+                //    filled, so we have gone all the way round.
+                //
+                return false;
+            }
+
+            //
+            //    Otherwise another logger took this position first.
+            //
+        }
+    }
+
+
+    /**
+     *    @return the next event, or null if there isn't one yet
+     */
+    private LoggingEvent poll()
+    {
+        int    index = (int) _head & _mask;
+
+        if( _sequences.get( index ) != _head + 1 )
+        {
+            return null;
+        }
+
+        LoggingEvent    event = _events.get( index );
+
+        _events.set( index, null );
+        _sequences.set( index, _head + _mask + 1 );
+        _head++;
+
+        return event;
+    }
+
+
+    private void write()
+    {
+        while( true )
+        {
+            LoggingEvent    event = poll();
+
+            if( event != null )
+            {
+                append( event );
+                continue;
+            }
+
+            reportDropped();
+
+            if( _closed )
+            {
+                if( _appending.get() > 0 )
+                {
+                    //
+                    //    A logger got in before close and may still be
+                    //    adding an event (or waiting for room for one).
+                    //
+                    LockSupport.parkNanos( this, PARK_NANOS );
+                    continue;
+                }
+
+                //
+                //    Anyone who comes along now sees _closed and adds nothing,
+                //    so once what is left is written, the buffer is done with.
+                //
+                while( ( event = poll() ) != null )
+                {
+                    append( event );
+                }
+
+                reportDropped();
+                return;
+            }
+
+            _writerWaiting = true;
+
+            if( ( event = poll() ) != null )
+            {
+                _writerWaiting = false;
+                append( event );
+                continue;
+            }
+
+            LockSupport.parkNanos( this, PARK_NANOS * 100 );
+            _writerWaiting = false;
+        }
+    }
+
+
+    private void append( final LoggingEvent    event )
+    {
+        try
+        {
+            _appender.doAppend( event );
+        }
+        catch( Throwable    ex )
+        {
+            _errorHandler.error( "RingBufferAppender: Failed to write to [" + _appender.getName() + "]" );
+        }
+    }
+
+
+    private void reportDropped()
+    {
+        long    dropped = _dropped.get();
+
+        if( dropped == _reportedDropped )
+        {
+            return;
+        }
+
+        Logger    logger = Logger.getLogger( RingBufferAppender.class );
+
+        append( new LoggingEvent( RingBufferAppender.class.getName(),
+                                  logger,
+                                  Level.WARN,
+                                  "RingBufferAppender: Dropped " + ( dropped - _reportedDropped )
+                                  + " log events because the buffer was full (" + dropped + " in all)",
+                                  null ) );
+
+        _reportedDropped = dropped;
+    }
+
+
+    /**
+     *    Writes what is in the buffer, then closes the wrapped appender.
+     */
+    @Override
+    public void close()
+    {
+        if( _closed )
+        {
+            return;
+        }
+
+        _closed = true;
+        LockSupport.unpark( _writer );
+
+        if( Thread.currentThread() != _writer )
+        {
+            try
+            {
+                _writer.join( CLOSE_WAIT );
+            }
+            catch( InterruptedException    ex )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        _appender.close();
+    }
+
+
+    @Override
+    public synchronized void addFilter( final Filter    filter )
+    {
+        if( _headFilter == null )
+        {
+            _headFilter = filter;
+            _tailFilter = filter;
+        }
+        else
+        {
+            _tailFilter.setNext( filter );
+            _tailFilter = filter;
+        }
+    }
+
+
+    @Override
+    public Filter getFilter()
+    {
+        return _headFilter;
+    }
+
+
+    @Override
+    public synchronized void clearFilters()
+    {
+        _headFilter = null;
+        _tailFilter = null;
+    }
+
+
+    @Override
+    public String getName()
+    {
+        return _name;
+    }
+
+
+    @Override
+    public void setName( final String    name )
+    {
+        _name = name;
+    }
+
+
+    @Override
+    public ErrorHandler getErrorHandler()
+    {
+        return _errorHandler;
+    }
+
+
+    @Override
+    public void setErrorHandler( final ErrorHandler    errorHandler )
+    {
+        if( errorHandler != null )
+        {
+            _errorHandler = errorHandler;
+        }
+    }
+
+
+    /**
+     *    The wrapped appender's layout.
+     */
+    @Override
+    public Layout getLayout()
+    {
+        return _appender.getLayout();
+    }
+
+
+    @Override
+    public void setLayout( final Layout    layout )
+    {
+        _appender.setLayout( layout );
+    }
+
+
+    /**
+     *    False; any layout belongs to the wrapped appender.
+     */
+    @Override
+    public boolean requiresLayout()
+    {
+        return false;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "RingBufferAppender{" + _appender.getName() + ", " + _policy + ", pending=" + getPending()
+               + ", dropped=" + getDroppedCount() + "}";
+    }
+}
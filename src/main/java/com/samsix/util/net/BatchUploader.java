@@ -0,0 +1,479 @@
+/**
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.net;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.apache.log4j.Logger;
+
+/**
+ *    Uploads many files to the same URL concurrently, each as multipart
+ *    POSTs through MultipartUtility.
+ *    <p>
+ *    Files bigger than the chunk size are sent as several requests, one per
+ *    range of the file, which go up in parallel and are each retried on
+ *    their own if they fail, so a dropped connection near the end of a
+ *    large file only costs one chunk.  Every request carries these form
+ *    fields ahead of the file part so the server can put the pieces back
+ *    together:
+ *    <ul>
+ *      <li>uploadId - the same for every chunk of a file</li>
+ *      <li>fileName</li>
+ *      <li>totalSize - of the whole file</li>
+ *      <li>offset - where this chunk goes in the file</li>
+ *      <li>chunkIndex, chunkCount</li>
+ *    </ul>
+ *    plus any added with addFormField.  Small files are sent the same way,
+ *    as a single chunk.
+ */
+public class BatchUploader
+{
+    protected static final Logger logger = Logger.getLogger( BatchUploader.class );
+
+    public static final long    DEFAULT_CHUNK_SIZE  = 8 * 1024 * 1024;
+    public static final int     DEFAULT_MAX_RETRIES = 3;
+    public static final long    DEFAULT_RETRY_DELAY = 500;
+
+    /**
+     *    Told about each file as its chunks are sent.  Called from the upload
+     *    threads, so implementations need to be thread safe.
+     */
+    public interface ProgressListener
+    {
+        /**
+         *    @param bytesSent how much of the file has been sent so far
+         */
+        public void progress( Path    file,
+                              long    bytesSent,
+                              long    totalBytes );
+
+
+        /**
+         *    @param millis how long the file took, from its first chunk
+         *                  starting to its last one finishing
+         */
+        public void finished( Path    file,
+                              long    totalBytes,
+                              long    millis );
+    }
+
+
+    private final String                         _url;
+    private final ScheduledThreadPoolExecutor    _executor;
+    private final Map<String,String>             _formFields = new ConcurrentHashMap<String,String>();
+
+    private volatile long                        _chunkSize  = DEFAULT_CHUNK_SIZE;
+    private volatile int                         _maxRetries = DEFAULT_MAX_RETRIES;
+    private volatile long                        _retryDelay = DEFAULT_RETRY_DELAY;
+    private volatile String                      _fieldName  = "file";
+    private volatile ProgressListener            _listener;
+
+    private final AtomicLong                     _bytesSent = new AtomicLong();
+    private final AtomicLong                     _started   = new AtomicLong();
+
+    //
+    //    Guarded by this.
+    //
+    private int                                  _uploading;
+    private boolean                              _shutdown;
+
+
+    /**
+     *    @param threads how many requests to have in flight at once
+     */
+    public BatchUploader( final String    url,
+                          final int       threads )
+    {
+        if( threads <= 0 )
+        {
+            throw new IllegalArgumentException( "Invalid number of threads: " + threads );
+        }
+
+        _url = url;
+
+        final AtomicInteger    threadCount = new AtomicInteger();
+
+        _executor = new ScheduledThreadPoolExecutor( threads, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( final Runnable    runnable )
+            {
+                Thread    thread = new Thread( runnable, "BatchUploader " + threadCount.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+    }
+
+
+    public void setChunkSize( final long    chunkSize )
+    {
+        if( chunkSize <= 0 )
+        {
+            throw new IllegalArgumentException( "Invalid chunk size: " + chunkSize );
+        }
+
+        _chunkSize = chunkSize;
+    }
+
+
+    /**
+     *    How many times to retry a failed chunk before failing its file.
+     */
+    public void setMaxRetries( final int    maxRetries )
+    {
+        _maxRetries = maxRetries;
+    }
+
+
+    /**
+     *    @param retryDelay milliseconds before the first retry of a chunk,
+     *                      doubled for each retry after that
+     */
+    public void setRetryDelay( final long    retryDelay )
+    {
+        _retryDelay = retryDelay;
+    }
+
+
+    /**
+     *    The name of the file part; "file" by default.
+     */
+    public void setFieldName( final String    fieldName )
+    {
+        _fieldName = fieldName;
+    }
+
+
+    /**
+     *    A form field sent with every request.
+     */
+    public void addFormField( final String    name,
+                              final String    value )
+    {
+        _formFields.put( name, value );
+    }
+
+
+    public void setProgressListener( final ProgressListener    listener )
+    {
+        _listener = listener;
+    }
+
+
+    /**
+     *    @return the bytes of file content sent by this uploader so far
+     */
+    public long getBytesSent()
+    {
+        return _bytesSent.get();
+    }
+
+
+    /**
+     *    @return getBytesSent over the time since the first upload started
+     */
+    public double getBytesPerSecond()
+    {
+        long    started = _started.get();
+
+        if( started == 0 )
+        {
+            return 0;
+        }
+
+        long    millis = Math.max( 1, System.currentTimeMillis() - started );
+
+        return _bytesSent.get() * 1000.0 / millis;
+    }
+
+
+    /**
+     *    @return completes when every file has been sent, or fails with the
+     *            first file's failure once every file has finished one way
+     *            or the other
+     */
+    public CompletableFuture<Void> uploadAll( final Collection<Path>    files )
+    {
+        List<CompletableFuture<Void>>    futures = new ArrayList<CompletableFuture<Void>>( files.size() );
+
+        for( Path    file : files )
+        {
+            futures.add( upload( file ) );
+        }
+
+        return CompletableFuture.allOf( futures.toArray( new CompletableFuture<?>[futures.size()] ) );
+    }
+
+
+    /**
+     *    Queues the file to be sent.
+     *
+     *    @return completes when every chunk of the file has been sent, or
+     *            fails with the last error of the first chunk to run out of
+     *            retries
+     */
+    public CompletableFuture<Void> upload( final Path    file )
+    {
+        Upload    upload;
+
+        try
+        {
+            upload = new Upload( file, Files.size( file ) );
+        }
+        catch( IOException    ex )
+        {
+            return failed( ex );
+        }
+
+        synchronized( this )
+        {
+            if( _shutdown )
+            {
+                return failed( new RejectedExecutionException( "BatchUploader has been shut down" ) );
+            }
+
+            _uploading++;
+        }
+
+        upload._future.whenComplete( new BiConsumer<Void,Throwable>()
+        {
+            @Override
+            public void accept( final Void         result,
+                                final Throwable    ex )
+            {
+                uploadDone();
+            }
+        } );
+
+        _started.compareAndSet( 0, System.currentTimeMillis() );
+
+        for( int    index = 0; index < upload._chunkCount; index++ )
+        {
+            _executor.execute( new Chunk( upload, index, 0 ) );
+        }
+
+        return upload._future;
+    }
+
+
+    /**
+     *    Stops taking new files; those already queued are still sent,
+     *    retries included, and then the threads are stopped.
+     */
+    public synchronized void shutdown()
+    {
+        _shutdown = true;
+
+        if( _uploading == 0 )
+        {
+            _executor.shutdown();
+        }
+    }
+
+
+    private synchronized void uploadDone()
+    {
+        _uploading--;
+
+        if( _shutdown && _uploading == 0 )
+        {
+            _executor.shutdown();
+        }
+    }
+
+
+    private static CompletableFuture<Void> failed( final Throwable    ex )
+    {
+        CompletableFuture<Void>    failed = new CompletableFuture<Void>();
+        failed.completeExceptionally( ex );
+        return failed;
+    }
+
+
+    /**
+     *    One file being sent, and how far along it is.
+     */
+    private class Upload
+    {
+        final Path                       _file;
+        final long                       _totalSize;
+        final long                       _chunkSize;
+        final int                        _chunkCount;
+        final String                     _uploadId    = UUID.randomUUID().toString();
+        final CompletableFuture<Void>    _future      = new CompletableFuture<Void>();
+        final AtomicLong                 _sent        = new AtomicLong();
+        final AtomicInteger              _chunksLeft;
+        final long                       _startMillis = System.currentTimeMillis();
+
+
+        Upload( final Path    file,
+                final long    totalSize )
+        {
+            _file       = file;
+            _totalSize  = totalSize;
+            _chunkSize  = BatchUploader.this._chunkSize;
+            _chunkCount = (int) Math.max( 1, ( totalSize + _chunkSize - 1 ) / _chunkSize );
+            _chunksLeft = new AtomicInteger( _chunkCount );
+        }
+
+
+        void chunkSent( final long    length )
+        {
+            long                sent     = _sent.addAndGet( length );
+            ProgressListener    listener = _listener;
+
+            _bytesSent.addAndGet( length );
+
+            boolean    done = _chunksLeft.decrementAndGet() == 0;
+
+            //
+            //    A listener that throws is logged, not passed on, so it can't
+            //    leave the file, or shutdown, hanging.  The future completes
+            //    after the listener has heard, so whoever waits on it sees
+            //    every progress call.
+            //
+            if( listener != null )
+            {
+                try
+                {
+                    listener.progress( _file, sent, _totalSize );
+
+                    if( done )
+                    {
+                        listener.finished( _file, _totalSize, System.currentTimeMillis() - _startMillis );
+                    }
+                }
+                catch( Throwable    ex )
+                {
+                    logger.error( "BatchUploader: Progress listener failed for [" + _file + "]", ex );
+                }
+            }
+
+            if( done )
+            {
+                _future.complete( null );
+            }
+        }
+    }
+
+
+    private class Chunk
+        implements
+            Runnable
+    {
+        private final Upload    _upload;
+        private final int       _index;
+        private final int       _attempt;
+
+
+        Chunk( final Upload    upload,
+               final int       index,
+               final int       attempt )
+        {
+            _upload  = upload;
+            _index   = index;
+            _attempt = attempt;
+        }
+
+
+        @Override
+        public void run()
+        {
+            if( _upload._future.isDone() )
+            {
+                //
+                //    Another chunk already failed the file, or it was cancelled.
+                //
+                return;
+            }
+
+            long    offset = _index * _upload._chunkSize;
+            long    length = Math.min( _upload._chunkSize, _upload._totalSize - offset );
+
+            try
+            {
+                send( offset, length );
+            }
+            catch( Throwable    ex )
+            {
+                if( _attempt >= _maxRetries )
+                {
+                    _upload._future.completeExceptionally( ex );
+                    return;
+                }
+
+                long    delay = _retryDelay << Math.min( _attempt, 16 );
+
+                logger.warn( "BatchUploader: Retrying chunk " + _index + " of [" + _upload._file
+                             + "] in " + delay + "ms: " + ex );
+
+                try
+                {
+                    _executor.schedule( new Chunk( _upload, _index, _attempt + 1 ), delay, TimeUnit.MILLISECONDS );
+                }
+                catch( RejectedExecutionException    rejected )
+                {
+                    //
+                    //    shutdown waits for files in progress, so this
+                    //    shouldn't happen, but never leave the file hanging.
+                    //
+                    rejected.addSuppressed( ex );
+                    _upload._future.completeExceptionally( rejected );
+                }
+
+                return;
+            }
+
+            _upload.chunkSent( length );
+        }
+
+
+        private void send( final long    offset,
+                           final long    length )
+            throws
+                IOException
+        {
+            String              fileName  = _upload._file.getFileName().toString();
+            MultipartUtility    multipart = new MultipartUtility( _url, "UTF-8" );
+
+            for( Map.Entry<String,String>    entry : _formFields.entrySet() )
+            {
+                multipart.addFormField( entry.getKey(), entry.getValue() );
+            }
+
+            multipart.addFormField( "uploadId", _upload._uploadId );
+            multipart.addFormField( "fileName", fileName );
+            multipart.addFormField( "totalSize", Long.toString( _upload._totalSize ) );
+            multipart.addFormField( "offset", Long.toString( offset ) );
+            multipart.addFormField( "chunkIndex", Integer.toString( _index ) );
+            multipart.addFormField( "chunkCount", Integer.toString( _upload._chunkCount ) );
+            multipart.addFilePart( _fieldName, _upload._file, fileName, offset, length );
+
+            multipart.finish();
+        }
+    }
+}
@@ -0,0 +1,491 @@
+/**
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.net;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.samsix.util.net.SimpleHttpClient.Response;
+
+/**
+ *    Runs SimpleHttpClient calls on a bounded pool of threads and hands back
+ *    CompletableFutures, for fanning out to many endpoints at once.
+ *    <p>
+ *    This is not non-blocking I/O: each request in flight holds one of the
+ *    pool's threads while it is sent and its response read.  What it does
+ *    is keep that bounded.  At most maxConcurrent requests are in flight at
+ *    a time, so at most maxConcurrent threads, and at most maxPerHost of
+ *    them to any one host:port.  Anything over those limits waits in a
+ *    queue, not on a thread, and is started as running requests finish, so
+ *    a thousand calls queued up only have maxConcurrent requests on the
+ *    wire.  Requests for a host that is at its limit don't hold up requests
+ *    for other hosts behind them.
+ *    <p>
+ *    The futures are completed on the completion executor (the common
+ *    ForkJoinPool by default), not on the request threads, so whatever
+ *    depends on a response doesn't keep a request thread from the next
+ *    request, and may itself wait on another request.
+ *    <p>
+ *    Cancelling a future that hasn't started yet keeps it from being sent.
+ *    <p>
+ *    There is no multipart version, since MultipartUtility writes to its
+ *    connection as parts are added; BatchUploader sends files as multipart
+ *    chunks on a pool of its own.
+ */
+public class BlockingHttpDispatcher
+{
+    public static final int    DEFAULT_MAX_CONCURRENT = 32;
+
+    /**
+     *    The same as the number of idle connections HttpURLConnection keeps
+     *    per host by default, so each request can reuse one.
+     */
+    public static final int    DEFAULT_MAX_PER_HOST = 5;
+
+    private static BlockingHttpDispatcher    _default;
+
+    private final SimpleHttpClient          _client;
+    private final int                       _maxConcurrent;
+    private final int                       _maxPerHost;
+    private final ThreadPoolExecutor        _executor;
+    private final Executor                  _completionExecutor;
+
+    //
+    //    All guarded by _hosts.
+    //
+    private final Map<String,Host>          _hosts = new HashMap<String,Host>();
+
+    /**
+     *    The hosts with requests waiting that are under maxPerHost, in the
+     *    order they get their next turn.
+     */
+    private final ArrayDeque<Host>          _ready = new ArrayDeque<Host>();
+    private int                             _running;
+    private int                             _pendingCount;
+    private boolean                         _shutdown;
+
+
+    public BlockingHttpDispatcher( final SimpleHttpClient    client )
+    {
+        this( client, DEFAULT_MAX_CONCURRENT, DEFAULT_MAX_PER_HOST );
+    }
+
+
+    public BlockingHttpDispatcher( final SimpleHttpClient    client,
+                                   final int                 maxConcurrent,
+                                   final int                 maxPerHost )
+    {
+        this( client, maxConcurrent, maxPerHost, ForkJoinPool.commonPool() );
+    }
+
+
+    /**
+     *    @param completionExecutor runs the completion of each future, and so
+     *                              whatever was added to it without an
+     *                              executor of its own
+     */
+    public BlockingHttpDispatcher( final SimpleHttpClient    client,
+                                   final int                 maxConcurrent,
+                                   final int                 maxPerHost,
+                                   final Executor            completionExecutor )
+    {
+        if( maxConcurrent <= 0 || maxPerHost <= 0 )
+        {
+            throw new IllegalArgumentException( "Invalid limits: " + maxConcurrent + ", " + maxPerHost );
+        }
+
+        _client             = client;
+        _maxConcurrent      = maxConcurrent;
+        _maxPerHost         = maxPerHost;
+        _completionExecutor = completionExecutor;
+
+        final AtomicInteger    threadCount = new AtomicInteger();
+
+        //
+        //    dispatch never hands over more than maxConcurrent at a time, so
+        //    that many threads are enough.  Idle ones die off after a minute.
+        //
+        _executor = new ThreadPoolExecutor( maxConcurrent,
+                                            maxConcurrent,
+                                            60,
+                                            TimeUnit.SECONDS,
+                                            new LinkedBlockingQueue<Runnable>(),
+                                            new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( final Runnable    runnable )
+            {
+                Thread    thread = new Thread( runnable, "BlockingHttpDispatcher " + threadCount.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+
+        _executor.allowCoreThreadTimeOut( true );
+    }
+
+
+    /**
+     *    A shared instance on a default SimpleHttpClient with the default
+     *    limits.  Not to be shut down.
+     */
+    public static synchronized BlockingHttpDispatcher getDefault()
+    {
+        if( _default == null )
+        {
+            _default = new BlockingHttpDispatcher( new SimpleHttpClient() );
+        }
+
+        return _default;
+    }
+
+
+    public SimpleHttpClient getClient()
+    {
+        return _client;
+    }
+
+
+    public CompletableFuture<Response> get( final String                url,
+                                            final Map<String,String>    params )
+    {
+        return execute( "GET", SimpleHttpClient.appendQuery( url, params ), null, null, null );
+    }
+
+
+    public CompletableFuture<Response> postForm( final String                url,
+                                                 final Map<String,String>    params )
+    {
+        return post( url,
+                     SimpleHttpClient.FORM_CONTENT_TYPE,
+                     SimpleHttpClient.encodeParams( params ).getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+
+    public CompletableFuture<Response> post( final String    url,
+                                             final String    contentType,
+                                             final byte[]    body )
+    {
+        return execute( "POST", url, null, contentType, body );
+    }
+
+
+    /**
+     *    See SimpleHttpClient.execute.  The future fails with the IOException
+     *    if the request can't be made.
+     */
+    public CompletableFuture<Response> execute( final String                method,
+                                                final String                url,
+                                                final Map<String,String>    headers,
+                                                final String                contentType,
+                                                final byte[]                body )
+    {
+        Request    request;
+
+        try
+        {
+            request = new Request( method, url, headers, contentType, body );
+        }
+        catch( MalformedURLException    ex )
+        {
+            CompletableFuture<Response>    failed = new CompletableFuture<Response>();
+            failed.completeExceptionally( ex );
+            return failed;
+        }
+
+        synchronized( _hosts )
+        {
+            if( _shutdown )
+            {
+                request._future.completeExceptionally(
+                    new RejectedExecutionException( "BlockingHttpDispatcher has been shut down" ) );
+                return request._future;
+            }
+
+            Host    host = _hosts.get( request._host );
+
+            if( host == null )
+            {
+                host = new Host();
+                _hosts.put( request._host, host );
+            }
+
+            host._pending.add( request );
+            _pendingCount++;
+
+            makeReady( host );
+        }
+
+        dispatch();
+
+        return request._future;
+    }
+
+
+    /**
+     *    Stops taking new requests; those already queued are still sent, and
+     *    then the threads are stopped.
+     */
+    public void shutdown()
+    {
+        synchronized( _hosts )
+        {
+            _shutdown = true;
+
+            stopIfDone();
+        }
+    }
+
+
+    /**
+     *    Must hold _hosts.
+     */
+    private void stopIfDone()
+    {
+        if( _shutdown && _running == 0 && _pendingCount == 0 )
+        {
+            _executor.shutdown();
+        }
+    }
+
+
+    public boolean isShutdown()
+    {
+        synchronized( _hosts )
+        {
+            return _shutdown;
+        }
+    }
+
+
+    /**
+     *    @return the number of requests in flight
+     */
+    public int getRunning()
+    {
+        synchronized( _hosts )
+        {
+            return _running;
+        }
+    }
+
+
+    /**
+     *    @return the number of requests waiting for a slot
+     */
+    public int getPending()
+    {
+        synchronized( _hosts )
+        {
+            return _pendingCount;
+        }
+    }
+
+
+    /**
+     *    Starts as many pending requests as the limits allow.  Each start
+     *    takes the host at the front of _ready and puts it at the back if it
+     *    can take another, so hosts take turns.
+     */
+    private void dispatch()
+    {
+        synchronized( _hosts )
+        {
+            while( _running < _maxConcurrent && ! _ready.isEmpty() )
+            {
+                Host       host    = _ready.poll();
+                Request    request = host._pending.poll();
+
+                host._ready = false;
+                _pendingCount--;
+
+                if( request._future.isDone() )
+                {
+                    //
+                    //    Cancelled while it was waiting
+                    //
+                    makeReady( host );
+                    removeIfIdle( request._host, host );
+                    stopIfDone();
+                    continue;
+                }
+
+                host._running++;
+                _running++;
+
+                makeReady( host );
+
+                _executor.execute( request );
+            }
+        }
+    }
+
+
+    private void finished( final Request    request )
+    {
+        synchronized( _hosts )
+        {
+            Host    host = _hosts.get( request._host );
+
+            _running--;
+            host._running--;
+
+            makeReady( host );
+            removeIfIdle( request._host, host );
+            stopIfDone();
+        }
+
+        dispatch();
+    }
+
+
+    /**
+     *    Queues the host for its next turn if it has requests waiting and
+     *    room for one.  Must hold _hosts.
+     */
+    private void makeReady( final Host    host )
+    {
+        if( ! host._ready && ! host._pending.isEmpty() && host._running < _maxPerHost )
+        {
+            host._ready = true;
+            _ready.add( host );
+        }
+    }
+
+
+    /**
+     *    Must hold _hosts.
+     */
+    private void removeIfIdle( final String    key,
+                               final Host      host )
+    {
+        if( host._running == 0 && host._pending.isEmpty() )
+        {
+            _hosts.remove( key );
+        }
+    }
+
+
+    /**
+     *    The requests for one host:port.  Guarded by _hosts.
+     */
+    private static class Host
+    {
+        final ArrayDeque<Request>    _pending = new ArrayDeque<Request>();
+        int                          _running;
+        boolean                      _ready;
+    }
+
+
+    private class Request
+        implements
+            Runnable
+    {
+        final String                         _method;
+        final String                         _url;
+        final String                         _host;
+        final Map<String,String>             _headers;
+        final String                         _contentType;
+        final byte[]                         _body;
+        final CompletableFuture<Response>    _future = new CompletableFuture<Response>();
+
+
+        Request( final String                method,
+                 final String                url,
+                 final Map<String,String>    headers,
+                 final String                contentType,
+                 final byte[]                body )
+            throws
+                MalformedURLException
+        {
+            URL    parsed = new URL( url );
+
+            _method      = method;
+            _url         = url;
+            _host        = parsed.getHost().toLowerCase() + ":"
+                           + ( parsed.getPort() < 0 ? parsed.getDefaultPort() : parsed.getPort() );
+            _headers     = headers;
+            _contentType = contentType;
+            _body        = body;
+        }
+
+
+        @Override
+        public void run()
+        {
+            Response     response = null;
+            Throwable    failure  = null;
+
+            try
+            {
+                if( ! _future.isDone() )
+                {
+                    response = _client.execute( _method, _url, _headers, _contentType, _body );
+                }
+            }
+            catch( Throwable    ex )
+            {
+                failure = ex;
+            }
+            finally
+            {
+                finished( this );
+            }
+
+            complete( response, failure );
+        }
+
+
+        private void complete( final Response     response,
+                               final Throwable    failure )
+        {
+            Runnable    completion = new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if( failure != null )
+                    {
+                        _future.completeExceptionally( failure );
+                    }
+                    else
+                    {
+                        _future.complete( response );
+                    }
+                }
+            };
+
+            try
+            {
+                _completionExecutor.execute( completion );
+            }
+            catch( RejectedExecutionException    ex )
+            {
+                //
+                //    Better on this thread than never.
+                //
+                completion.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,560 @@
+package com.samsix.util.net;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ *    Longest-prefix matching of addresses against a set of CIDR blocks,
+ *    IPv4 and IPv6, each block with an associated value.
+ *    <p>
+ *    This is a plain binary trie keyed on the prefix bits, so a lookup costs
+ *    at most one step per bit of the longest prefix (32 for IPv4, 128 for IPv6)
+ *    no matter how many blocks there are.
+ *    <p>
+ *    Tries are immutable.  Adding a block with {@link #with} copies only the
+ *    path to that block and returns a new trie, so a reader can keep using the
+ *    snapshot it has without any locking while a writer builds the next one
+ *    and publishes it through a volatile field.
+ *    <p>
+ *    For classifying IPv4 addresses in bulk there are batch versions of the
+ *    lookups that take packed addresses in an int[] or a ByteBuffer and fill
+ *    in a bitmap or an array of values, optionally split across the common
+ *    fork-join pool.
+ *
+ *    @param <V> the value associated with each block
+ */
+public final class CidrTrie<V>
+{
+    private static final CidrTrie<Object>    EMPTY = new CidrTrie<Object>( null, null, 0 );
+
+    /**
+     *    Batches smaller than this aren't worth splitting.  A multiple of 64 so
+     *    that no two tasks ever write the same word of a bitmap.
+     */
+    private static final int    PARALLEL_THRESHOLD = 1 << 14;
+
+    private final Node<V>    _root4;
+    private final Node<V>    _root6;
+    private final int        _size;
+
+
+    private CidrTrie( final Node<V>    root4,
+                      final Node<V>    root6,
+                      final int        size )
+    {
+        _root4 = root4;
+        _root6 = root6;
+        _size  = size;
+    }
+
+
+    @SuppressWarnings( "unchecked" )
+    public static <V> CidrTrie<V> empty()
+    {
+        return (CidrTrie<V>) EMPTY;
+    }
+
+
+    /**
+     *    Builds a trie where every block maps to TRUE.
+     *
+     *    @param txtBlocks blocks in any form InetAddressBlock.valueOf accepts
+     */
+    public static CidrTrie<Boolean> valueOf( final List<String>    txtBlocks )
+    {
+        CidrTrie<Boolean>    trie = empty();
+
+        for( String    txtBlock : txtBlocks )
+        {
+            trie = trie.with( txtBlock, Boolean.TRUE );
+        }
+
+        return trie;
+    }
+
+
+    /**
+     *    @param cidr a block in any form InetAddressBlock.valueOf accepts
+     *    @return a new trie with the block added, or its value replaced
+     */
+    public CidrTrie<V> with( final String    cidr,
+                             final V         value )
+    {
+        return with( InetAddressBlock.valueOf( cidr ), value );
+    }
+
+
+    /**
+     *    @return a new trie with the block added, or its value replaced
+     */
+    public CidrTrie<V> with( final InetAddressBlock    block,
+                             final V                   value )
+    {
+        if( value == null )
+        {
+            throw new IllegalArgumentException( "Null values are not supported" );
+        }
+
+        InetAddress    base   = block.getBaseAddress();
+        int            length = block.getMaskLength();
+
+        if( base instanceof Inet4Address )
+        {
+            //
+            //    IPv4 addresses sit in the top 32 bits.
+            //
+            long       high  = ( (long) NetUtils.ipv4ToInt( (Inet4Address) base ) ) << 32;
+            boolean    added = find( _root4, high, 0, length ) == null;
+
+            return new CidrTrie<V>( insert( _root4, high, 0, 0, length, value ),
+                                    _root6,
+                                    added ? _size + 1 : _size );
+        }
+
+        byte[]     bytes = base.getAddress();
+        long       high  = NetUtils.bytesToLong( bytes, 0 );
+        long       low   = NetUtils.bytesToLong( bytes, 8 );
+        boolean    added = find( _root6, high, low, length ) == null;
+
+        return new CidrTrie<V>( _root4,
+                                insert( _root6, high, low, 0, length, value ),
+                                added ? _size + 1 : _size );
+    }
+
+
+    /**
+     *    @return the value of the most specific block containing the address,
+     *            or null if none do.
+     */
+    public V lookup( final InetAddress    address )
+    {
+        if( address instanceof Inet4Address )
+        {
+            return lookupIpv4( NetUtils.ipv4ToInt( (Inet4Address) address ) );
+        }
+
+        if( address instanceof Inet6Address )
+        {
+            byte[]    bytes = address.getAddress();
+
+            return lookupIpv6( NetUtils.bytesToLong( bytes, 0 ),
+                               NetUtils.bytesToLong( bytes, 8 ) );
+        }
+
+        return null;
+    }
+
+
+    /**
+     *    @param address a packed IPv4 address, as from NetUtils.ipv4ToInt
+     */
+    public V lookupIpv4( final int    address )
+    {
+        return longestMatch( _root4, ( (long) address ) << 32, 0, 32 );
+    }
+
+
+    /**
+     *    @param high the first 64 bits of the address
+     *    @param low the last 64 bits of the address
+     */
+    public V lookupIpv6( final long    high,
+                         final long    low )
+    {
+        return longestMatch( _root6, high, low, 128 );
+    }
+
+
+    public boolean matches( final InetAddress    address )
+    {
+        return lookup( address ) != null;
+    }
+
+
+    /**
+     *    Sets bit i of the bitmap (bitmap[i / 64] &amp; 1L &lt;&lt; i, the layout
+     *    BitSet.valueOf takes) if addresses[i] is in any block, and clears it
+     *    otherwise.
+     *
+     *    @param addresses packed IPv4 addresses, as from NetUtils.ipv4ToInt
+     *    @param bitmap at least (addresses.length + 63) / 64 words
+     *    @return the number of addresses that matched
+     */
+    public int matchIpv4( final int[]     addresses,
+                          final long[]    bitmap )
+    {
+        checkBitmap( addresses.length, bitmap );
+
+        return new Batch<V>( false, this, addresses, null, 0, addresses.length, bitmap, null ).compute();
+    }
+
+
+    /**
+     *    As matchIpv4(int[], long[]) for the addresses between the buffer's
+     *    position and limit, four bytes each, read in the buffer's byte order
+     *    (big endian, i.e. network order, unless it has been changed).  The
+     *    buffer's position is left alone.
+     */
+    public int matchIpv4( final ByteBuffer    addresses,
+                          final long[]        bitmap )
+    {
+        int    count = addresses.remaining() / 4;
+
+        checkBitmap( count, bitmap );
+
+        return new Batch<V>( false, this, null, addresses, 0, count, bitmap, null ).compute();
+    }
+
+
+    /**
+     *    As matchIpv4(int[], long[]) but split across the common fork-join pool
+     *    when there are enough addresses to make it worthwhile.
+     */
+    public int matchIpv4Parallel( final int[]     addresses,
+                                  final long[]    bitmap )
+    {
+        checkBitmap( addresses.length, bitmap );
+
+        return ForkJoinPool.commonPool().invoke( new Batch<V>( true, this, addresses, null, 0, addresses.length,
+                                                               bitmap, null ) );
+    }
+
+
+    /**
+     *    As matchIpv4(ByteBuffer, long[]) but split across the common fork-join
+     *    pool when there are enough addresses to make it worthwhile.
+     */
+    public int matchIpv4Parallel( final ByteBuffer    addresses,
+                                  final long[]        bitmap )
+    {
+        int    count = addresses.remaining() / 4;
+
+        checkBitmap( count, bitmap );
+
+        return ForkJoinPool.commonPool().invoke( new Batch<V>( true, this, null, addresses, 0, count,
+                                                               bitmap, null ) );
+    }
+
+
+    /**
+     *    Sets values[i] to lookupIpv4( addresses[i] ).
+     *
+     *    @param values at least as long as addresses
+     *    @return the number of addresses that matched
+     */
+    public int lookupIpv4( final int[]    addresses,
+                           final V[]      values )
+    {
+        checkValues( addresses.length, values );
+
+        return new Batch<V>( false, this, addresses, null, 0, addresses.length, null, values ).compute();
+    }
+
+
+    /**
+     *    As lookupIpv4(int[], V[]) for the addresses in the buffer; see
+     *    matchIpv4(ByteBuffer, long[]).
+     */
+    public int lookupIpv4( final ByteBuffer    addresses,
+                           final V[]           values )
+    {
+        int    count = addresses.remaining() / 4;
+
+        checkValues( count, values );
+
+        return new Batch<V>( false, this, null, addresses, 0, count, null, values ).compute();
+    }
+
+
+    /**
+     *    As lookupIpv4(int[], V[]) but split across the common fork-join pool
+     *    when there are enough addresses to make it worthwhile.
+     */
+    public int lookupIpv4Parallel( final int[]    addresses,
+                                   final V[]      values )
+    {
+        checkValues( addresses.length, values );
+
+        return ForkJoinPool.commonPool().invoke( new Batch<V>( true, this, addresses, null, 0, addresses.length,
+                                                               null, values ) );
+    }
+
+
+    private static void checkBitmap( final int       count,
+                                     final long[]    bitmap )
+    {
+        if( bitmap.length < ( count + 63 ) / 64 )
+        {
+            throw new IllegalArgumentException( "Bitmap of " + bitmap.length + " words is too small for "
+                                                + count + " addresses" );
+        }
+    }
+
+
+    private static void checkValues( final int         count,
+                                     final Object[]    values )
+    {
+        if( values.length < count )
+        {
+            throw new IllegalArgumentException( "Array of " + values.length + " values is too small for "
+                                                + count + " addresses" );
+        }
+    }
+
+
+    public boolean isEmpty()
+    {
+        return _size == 0;
+    }
+
+
+    /**
+     *    @return the number of blocks in this trie
+     */
+    public int size()
+    {
+        return _size;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "CidrTrie{" + _size + " blocks}";
+    }
+
+
+    private static int bit( final long    high,
+                            final long    low,
+                            final int     index )
+    {
+        if( index < 64 )
+        {
+            return (int) ( high >>> ( 63 - index ) ) & 1;
+        }
+
+        return (int) ( low >>> ( 127 - index ) ) & 1;
+    }
+
+
+    private static <V> V longestMatch( final Node<V>    root,
+                                       final long       high,
+                                       final long       low,
+                                       final int        maxDepth )
+    {
+        Node<V>    node  = root;
+        V          found = null;
+        int        depth = 0;
+
+        while( node != null )
+        {
+            if( node._value != null )
+            {
+                found = node._value;
+            }
+
+            if( depth == maxDepth )
+            {
+                break;
+            }
+
+            node = bit( high, low, depth ) == 0 ? node._zero : node._one;
+            depth++;
+        }
+
+        return found;
+    }
+
+
+    private static <V> V find( final Node<V>    root,
+                               final long       high,
+                               final long       low,
+                               final int        length )
+    {
+        Node<V>    node = root;
+
+        for( int depth = 0; node != null && depth < length; depth++ )
+        {
+            node = bit( high, low, depth ) == 0 ? node._zero : node._one;
+        }
+
+        return node == null ? null : node._value;
+    }
+
+
+    /**
+     *    Path copying insert; nodes off the path are shared with the old trie.
+     */
+    private static <V> Node<V> insert( final Node<V>    node,
+                                       final long       high,
+                                       final long       low,
+                                       final int        depth,
+                                       final int        length,
+                                       final V          value )
+    {
+        Node<V>    zero = node == null ? null : node._zero;
+        Node<V>    one  = node == null ? null : node._one;
+
+        if( depth == length )
+        {
+            return new Node<V>( zero, one, value );
+        }
+
+        V    existing = node == null ? null : node._value;
+
+        if( bit( high, low, depth ) == 0 )
+        {
+            return new Node<V>( insert( zero, high, low, depth + 1, length, value ), one, existing );
+        }
+
+        return new Node<V>( zero, insert( one, high, low, depth + 1, length, value ), existing );
+    }
+
+
+    /**
+     *    Matches or looks up the addresses from start up to end, filling in
+     *    either the bitmap or the values, splitting itself in half while there
+     *    are more than PARALLEL_THRESHOLD of them and it was asked to run in
+     *    parallel.
+     */
+    private static final class Batch<V>
+        extends
+            RecursiveTask<Integer>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean        _parallel;
+        private final CidrTrie<V>    _trie;
+        private final int[]          _array;
+        private final ByteBuffer     _buffer;
+        private final int            _start;
+        private final int            _end;
+        private final long[]         _bitmap;
+        private final V[]            _values;
+
+
+        Batch( final boolean        parallel,
+               final CidrTrie<V>    trie,
+               final int[]          array,
+               final ByteBuffer     buffer,
+               final int            start,
+               final int            end,
+               final long[]         bitmap,
+               final V[]            values )
+        {
+            _parallel = parallel;
+            _trie     = trie;
+            _array    = array;
+            _buffer   = buffer;
+            _start    = start;
+            _end      = end;
+            _bitmap   = bitmap;
+            _values   = values;
+        }
+
+
+        @Override
+        protected Integer compute()
+        {
+            if( ! _parallel || _end - _start <= PARALLEL_THRESHOLD )
+            {
+                return _bitmap != null ? matchRange() : lookupRange();
+            }
+
+            //
+            //    Split on a multiple of 64 so the halves write separate bitmap words.
+            //
+            int    middle = ( ( _start + _end ) >>> 1 ) & ~63;
+
+            Batch<V>    left  = new Batch<V>( true, _trie, _array, _buffer, _start, middle, _bitmap, _values );
+            Batch<V>    right = new Batch<V>( true, _trie, _array, _buffer, middle, _end, _bitmap, _values );
+
+            left.fork();
+
+            return right.compute() + left.join();
+        }
+
+
+        private int address( final int    index )
+        {
+            if( _array != null )
+            {
+                return _array[index];
+            }
+
+            return _buffer.getInt( _buffer.position() + index * 4 );
+        }
+
+
+        private int matchRange()
+        {
+            int    matched = 0;
+
+            for( int word = _start; word < _end; word += 64 )
+            {
+                int     last = Math.min( word + 64, _end );
+                long    bits = 0;
+
+                for( int ii = word; ii < last; ii++ )
+                {
+                    if( _trie.lookupIpv4( address( ii ) ) != null )
+                    {
+                        bits |= 1L << ii;
+                    }
+                }
+
+                _bitmap[word >>> 6] = bits;
+                matched += Long.bitCount( bits );
+            }
+
+            return matched;
+        }
+
+
+        private int lookupRange()
+        {
+            int    matched = 0;
+
+            for( int ii = _start; ii < _end; ii++ )
+            {
+                V    value = _trie.lookupIpv4( address( ii ) );
+
+                if( value != null )
+                {
+                    matched++;
+                }
+
+                _values[ii] = value;
+            }
+
+            return matched;
+        }
+    }
+
+
+    private static final class Node<V>
+    {
+        final Node<V>    _zero;
+        final Node<V>    _one;
+
+        /**
+         *    Non-null if a block ends at this node.
+         */
+        final V          _value;
+
+
+        Node( final Node<V>    zero,
+              final Node<V>    one,
+              final V          value )
+        {
+            _zero  = zero;
+            _one   = one;
+            _value = value;
+        }
+    }
+}
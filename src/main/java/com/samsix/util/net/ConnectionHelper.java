@@ -1,92 +1,173 @@
 package com.samsix.util.net;
 
-import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 import javax.net.ssl.HttpsURLConnection;
 
 import com.samsix.util.UtilException;
 
+/**
+ *    Collects request parameters and makes simple GET and POST calls with
+ *    them through a SimpleHttpClient, so connections are kept alive and
+ *    reused between calls.  The Async versions go through a
+ *    BlockingHttpDispatcher, so the calling thread isn't tied up waiting.
+ */
 public class ConnectionHelper
 {
+    private static final SimpleHttpClient    _defaultClient = new SimpleHttpClient();
+
     private final Map<String,String> _params = new HashMap<String,String>();
-    
-    
+    private final SimpleHttpClient   _client;
+
+
+    public ConnectionHelper()
+    {
+        this( _defaultClient );
+    }
+
+
+    /**
+     *    @param client e.g. one with its own timeouts
+     */
+    public ConnectionHelper( final SimpleHttpClient client )
+    {
+        _client = client;
+    }
+
+
     public void addParameter( final String name,
                               final String value )
     {
         _params.put( name, value );
     }
-    
-    
+
+
     public String getParamString() throws UnsupportedEncodingException
     {
-        StringBuilder builder = new StringBuilder();
-        
-        for ( Entry<String,String> entry : _params.entrySet() ) {
-            if ( builder.length() > 0 ) {
-                builder.append( "&" );
-            }
-            
-            builder.append(  entry.getKey() )
-                   .append( "=" )
-                   .append( URLEncoder.encode( entry.getValue(), "UTF-8") );
-        }
-        
-        return builder.toString();
+        return SimpleHttpClient.encodeParams( _params );
     }
-    
-    
+
+
+    /**
+     *    The parameters as a form body, encoded once as UTF-8.
+     */
+    public byte[] getParamBytes()
+    {
+        return SimpleHttpClient.encodeParams( _params ).getBytes( StandardCharsets.UTF_8 );
+    }
+
+
     public void sendPost(final HttpsURLConnection conn ) throws IOException
     {
+        byte[] params = getParamBytes();
+
         conn.setRequestMethod( "POST" );
         conn.setDoOutput(true);
-        conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-        String params = getParamString();
-        conn.setFixedLengthStreamingMode(params.getBytes().length);
-        DataOutputStream wr = new DataOutputStream(conn.getOutputStream());
-        wr.writeBytes(params);
-        wr.flush();
-        wr.close();
+        conn.setRequestProperty("Content-Type", SimpleHttpClient.FORM_CONTENT_TYPE);
+        conn.setFixedLengthStreamingMode(params.length);
+
+        OutputStream output = conn.getOutputStream();
+        try {
+            output.write(params);
+        } finally {
+            output.close();
+        }
     }
-    
-    
+
+
+    /**
+     *    GETs the url with the parameters on the query string.  The response
+     *    has already been read in full by the time this returns, so the
+     *    connection is back in the pool and the reader needn't be closed.
+     */
     public InputStreamReader callGet(final String urlPath)
         throws IOException, UtilException
     {
-        URL url = new URL(urlPath);
-        
-        HttpURLConnection conn;
-        conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod( "GET" );
-        conn.setDoOutput(true);
-        
-        String params = getParamString();
-        conn.setFixedLengthStreamingMode(params.getBytes().length);
-
-        //Send request
-        DataOutputStream wr = new DataOutputStream(conn.getOutputStream());
-        wr.writeBytes(params);
-        wr.flush ();
-        wr.close ();
- 
-        int code = conn.getResponseCode();
-
-//        java.util.Scanner s = new java.util.Scanner(conn.getInputStream()).useDelimiter("\\A");
-//        System.out.println( s.hasNext() ? s.next() : "" );
-        
-        if ( code != 200 ) {
-            throw new UtilException("Got response [" + code + "] from [" + url + "]");
-        } else {
-            return new InputStreamReader( conn.getInputStream(), "UTF-8" );
+        return toReader( urlPath, _client.get( urlPath, _params ) );
+    }
+
+
+    /**
+     *    As callGet, but POSTs the parameters as a form body.
+     */
+    public InputStreamReader callPost(final String urlPath)
+        throws IOException, UtilException
+    {
+        return toReader( urlPath, _client.post( urlPath, SimpleHttpClient.FORM_CONTENT_TYPE, getParamBytes() ) );
+    }
+
+
+    /**
+     *    callGet through the shared BlockingHttpDispatcher.  The future fails
+     *    with a UtilException for a non-200 response.
+     */
+    public CompletableFuture<InputStreamReader> callGetAsync(final String urlPath)
+    {
+        return callGetAsync( BlockingHttpDispatcher.getDefault(), urlPath );
+    }
+
+
+    public CompletableFuture<InputStreamReader> callGetAsync( final BlockingHttpDispatcher client,
+                                                              final String                 urlPath )
+    {
+        return toReader( urlPath, client.get( urlPath, new HashMap<String,String>( _params ) ) );
+    }
+
+
+    /**
+     *    callPost through the shared BlockingHttpDispatcher.  The future fails
+     *    with a UtilException for a non-200 response.
+     */
+    public CompletableFuture<InputStreamReader> callPostAsync(final String urlPath)
+    {
+        return callPostAsync( BlockingHttpDispatcher.getDefault(), urlPath );
+    }
+
+
+    public CompletableFuture<InputStreamReader> callPostAsync( final BlockingHttpDispatcher client,
+                                                               final String                 urlPath )
+    {
+        return toReader( urlPath, client.post( urlPath, SimpleHttpClient.FORM_CONTENT_TYPE, getParamBytes() ) );
+    }
+
+
+    private static CompletableFuture<InputStreamReader> toReader( final String                                          urlPath,
+                                                                  final CompletableFuture<SimpleHttpClient.Response>    response )
+    {
+        return response.thenCompose( new Function<SimpleHttpClient.Response,CompletableFuture<InputStreamReader>>()
+        {
+            @Override
+            public CompletableFuture<InputStreamReader> apply( final SimpleHttpClient.Response result )
+            {
+                CompletableFuture<InputStreamReader> reader = new CompletableFuture<InputStreamReader>();
+                try {
+                    reader.complete( toReader( urlPath, result ) );
+                } catch ( UtilException ex ) {
+                    reader.completeExceptionally( ex );
+                }
+                return reader;
+            }
+        } );
+    }
+
+
+    private static InputStreamReader toReader( final String                       urlPath,
+                                               final SimpleHttpClient.Response    response )
+        throws UtilException
+    {
+        if ( response.getStatus() != 200 ) {
+            throw new UtilException("Got response [" + response.getStatus() + "] from [" + urlPath + "]");
         }
+
+        return new InputStreamReader( new ByteArrayInputStream( response.getBody() ), response.getCharset() );
     }
 }
@@ -1,6 +1,5 @@
 package com.samsix.util.net;
 
-import java.math.BigInteger;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
@@ -16,6 +15,18 @@ public abstract class InetAddressBlock
 {
     protected final static Logger logger = Logger.getLogger( InetAddressBlock.class );
 
+    /**
+     *    Somewhere to parse IPv6 literals into without allocating on every match.
+     */
+    private static final ThreadLocal<long[]>    _ipv6Halves = new ThreadLocal<long[]>()
+    {
+        @Override
+        protected long[] initialValue()
+        {
+            return new long[2];
+        }
+    };
+
     private final InetAddress    _baseAddress;
     private final int            _maskLength;
 
@@ -35,8 +46,91 @@ public abstract class InetAddressBlock
     }
 
 
+    public InetAddress getBaseAddress()
+    {
+        return _baseAddress;
+    }
+
+
+    public int getMaskLength()
+    {
+        return _maskLength;
+    }
+
+
     public abstract boolean matches( final InetAddress    address );
 
+
+    /**
+     *    Matches a raw address, 4 bytes for IPv4 or 16 for IPv6, most significant first.
+     */
+    public boolean matches( final byte[]    address )
+    {
+        if( address.length == 4 )
+        {
+            return matchesIpv4( NetUtils.ipv4ToInt( address ) );
+        }
+
+        if( address.length == 16 )
+        {
+            return matchesIpv6( NetUtils.bytesToLong( address, 0 ),
+                                NetUtils.bytesToLong( address, 8 ) );
+        }
+
+        return false;
+    }
+
+
+    /**
+     *    Matches an address given as text, e.g. straight from an X-Forwarded-For header, without
+     *    building an InetAddress.  IPv4-mapped IPv6 addresses ("::ffff:192.168.2.7") are treated as
+     *    IPv4, as InetAddress does.
+     *
+     *    @return false if address isn't an IPv4 or IPv6 literal
+     */
+    public boolean matchesLiteral( final CharSequence    address )
+    {
+        long    ipv4 = NetUtils.parseIpv4Literal( address );
+
+        if( ipv4 >= 0 )
+        {
+            return matchesIpv4( (int) ipv4 );
+        }
+
+        long[]    halves = _ipv6Halves.get();
+
+        if( ! NetUtils.parseIpv6Literal( address, halves ) )
+        {
+            return false;
+        }
+
+        if( halves[0] == 0 && ( halves[1] >>> 32 ) == 0xffff )
+        {
+            return matchesIpv4( (int) halves[1] );
+        }
+
+        return matchesIpv6( halves[0], halves[1] );
+    }
+
+
+    /**
+     *    Matches a packed IPv4 address, as from NetUtils.ipv4ToInt.  Always false for IPv6 blocks.
+     */
+    public boolean matchesIpv4( final int    address )
+    {
+        return false;
+    }
+
+
+    /**
+     *    Matches an IPv6 address given as its first and last 64 bits.  Always false for IPv4 blocks.
+     */
+    public boolean matchesIpv6( final long    high,
+                                final long    low )
+    {
+        return false;
+    }
+
     public abstract Class<? extends InetAddress> getMatchedType();
 
 
@@ -61,8 +155,15 @@ public abstract class InetAddressBlock
         InetAddress baseAddr;
         try
         {
-            // Triggers a dns lookup if addrText isn't an ip address. yuck?
-            baseAddr = InetAddress.getByName( addrText );
+            //
+            //    Parse the literal ourselves; getByName would go off and do a dns lookup
+            //    if addrText isn't an ip address.
+            //
+            baseAddr = InetAddress.getByAddress( NetUtils.ipLiteralToBytes( addrText ) );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+            throw new IllegalArgumentException( "Invalid CIDR base address [" + addrText + "]", ex );
         }
         catch ( UnknownHostException ex )
         {
@@ -148,7 +249,7 @@ public abstract class InetAddressBlock
                 return false;
             }
 
-            boolean match = ( NetUtils.ipv4ToInt( (Inet4Address) addr ) & _mask ) == _network;
+            boolean match = matchesIpv4( NetUtils.ipv4ToInt( (Inet4Address) addr ) );
 
             if( logger.isDebugEnabled() )
             {
@@ -159,6 +260,13 @@ public abstract class InetAddressBlock
         }
 
 
+        @Override
+        public boolean matchesIpv4( final int    address )
+        {
+            return ( address & _mask ) == _network;
+        }
+
+
         @Override
         public Class<? extends InetAddress> getMatchedType()
         {
@@ -169,8 +277,13 @@ public abstract class InetAddressBlock
 
     static class CIDR6 extends InetAddressBlock
     {
-        private final BigInteger    _network;
-        private final BigInteger    _mask;
+        //
+        //    The network and mask are held as their first and last 64 bits.
+        //
+        private final long    _networkHigh;
+        private final long    _networkLow;
+        private final long    _maskHigh;
+        private final long    _maskLow;
 
 
         CIDR6( final Inet6Address    addr,
@@ -178,9 +291,13 @@ public abstract class InetAddressBlock
         {
             super( addr, masklength );
 
-            BigInteger    network = new BigInteger( 1, addr.getAddress() );
-            _mask = BigInteger.ONE.shiftLeft( 128 - masklength ).subtract( BigInteger.ONE ).not();
-            _network = network.and( _mask );
+            byte[]    bytes = addr.getAddress();
+
+            _maskHigh = NetUtils.ipv6LengthToHighMask( masklength );
+            _maskLow  = NetUtils.ipv6LengthToLowMask( masklength );
+
+            _networkHigh = NetUtils.bytesToLong( bytes, 0 ) & _maskHigh;
+            _networkLow  = NetUtils.bytesToLong( bytes, 8 ) & _maskLow;
         }
 
 
@@ -192,7 +309,7 @@ public abstract class InetAddressBlock
                 return false;
             }
 
-            boolean match = new BigInteger( 1, addr.getAddress() ).and( _mask ).equals( _network );
+            boolean match = matches( addr.getAddress() );
 
             if( logger.isDebugEnabled() )
             {
@@ -203,6 +320,15 @@ public abstract class InetAddressBlock
         }
 
 
+        @Override
+        public boolean matchesIpv6( final long    high,
+                                    final long    low )
+        {
+            return ( high & _maskHigh ) == _networkHigh
+                   && ( low & _maskLow ) == _networkLow;
+        }
+
+
         @Override
         public Class<? extends InetAddress> getMatchedType()
         {
@@ -2,33 +2,46 @@ package com.samsix.util.net;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
   * This utility class provides an abstraction layer for sending multipart HTTP
   * POST requests to a web server.
+  * <p>
+  * Parts are collected as they are added and the body is only written by
+  * finish().  If the length of every part is known up front the request is
+  * sent in fixed-length streaming mode, otherwise in chunked mode; either way
+  * HttpURLConnection never buffers the whole body in memory, so the size of
+  * an upload isn't limited by the heap.
   * @author www.codejava.net
   *
   */
 public class MultipartUtility
 {
-    private final String boundary;
     private static final String LINE_FEED = "\r\n";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String boundary;
     private final HttpURLConnection httpConn;
     private final String charset;
-    private final OutputStream outputStream;
-    private final PrintWriter writer;
-    
+    private final Charset encoding;
+    private final byte[] lineFeed;
+    private final List<Part> parts = new ArrayList<Part>();
+
     /**
      * This constructor initializes a new HTTP POST request with content type
      * is set to multipart/form-data
@@ -40,21 +53,21 @@ public class MultipartUtility
         throws IOException
     {
         this.charset = charset;
+        this.encoding = Charset.forName(charset);
+        this.lineFeed = LINE_FEED.getBytes(encoding);
 
         // creates a unique boundary based on time stamp
         boundary = "===" + System.currentTimeMillis() + "===";
-        
+
         URL url = new URL(requestURL);
         httpConn = (HttpURLConnection) url.openConnection();
         httpConn.setUseCaches(false);
         httpConn.setDoOutput(true); // indicates POST method
         httpConn.setDoInput(true);
+        httpConn.setConnectTimeout(SimpleHttpClient.DEFAULT_CONNECT_TIMEOUT);
+        httpConn.setReadTimeout(SimpleHttpClient.DEFAULT_READ_TIMEOUT);
         httpConn.setRequestProperty("Content-Type",
                                     "multipart/form-data; boundary=" + boundary);
-//        httpConn.setRequestProperty("User-Agent", "CodeJava Agent");
-//        httpConn.setRequestProperty("Test", "Bonjour");
-        outputStream = httpConn.getOutputStream();
-        writer = new PrintWriter(new OutputStreamWriter(outputStream, charset), true);
     }
 
     /**
@@ -64,13 +77,10 @@ public class MultipartUtility
      */
     public void addFormField(String name, String value)
     {
-        writer.append("--" + boundary).append(LINE_FEED);
-        writer.append("Content-Disposition: form-data; name=\"" + name + "\"")
-              .append(LINE_FEED);
-        writer.append("Content-Type: text/plain; charset=" + charset).append(LINE_FEED);
-        writer.append(LINE_FEED);
-        writer.append(value).append(LINE_FEED);
-        writer.flush();
+        String header = "Content-Disposition: form-data; name=\"" + name + "\"" + LINE_FEED
+                        + "Content-Type: text/plain; charset=" + charset + LINE_FEED;
+
+        parts.add(new BytesPart(partHeader(header), value.getBytes(encoding)));
     }
 
     /**
@@ -82,32 +92,60 @@ public class MultipartUtility
     public void addFilePart(String fieldName, File uploadFile)
         throws IOException
     {
-        String fileName = uploadFile.getName();
-        writer.append("--" + boundary).append(LINE_FEED);
-        writer.append("Content-Disposition: form-data; name=\"" + fieldName
-                      + "\"; filename=\"" + fileName + "\"")
-              .append(LINE_FEED);
-        writer.append("Content-Type: "
-                      + URLConnection.guessContentTypeFromName(fileName))
-               .append(LINE_FEED);
-        writer.append("Content-Transfer-Encoding: binary").append(LINE_FEED);
-        writer.append(LINE_FEED);
-        writer.flush();
-
-        FileInputStream inputStream = new FileInputStream(uploadFile);
-        byte[] buffer = new byte[4096];
-        int bytesRead = -1;
-        while ((bytesRead = inputStream.read(buffer)) != -1) {
-            outputStream.write(buffer, 0, bytesRead);
+        addFilePart(fieldName, uploadFile.toPath());
+    }
+
+    /**
+     * Adds a upload file section to the request.  The file is read when the
+     * request is sent, and has to be the same size then as it is now.
+     * @param fieldName name attribute in <input type="file" name="..." />
+     * @param uploadFile the file to be uploaded
+     * @throws IOException
+     */
+    public void addFilePart(String fieldName, Path uploadFile)
+        throws IOException
+    {
+        String fileName = uploadFile.getFileName().toString();
+
+        parts.add(new PathPart(fileHeader(fieldName, fileName),
+                               uploadFile,
+                               0,
+                               Files.size(uploadFile)));
+    }
+
+    /**
+     * Adds a range of a file as an upload file section, e.g. to send a large
+     * file in pieces.
+     * @param fieldName name attribute in <input type="file" name="..." />
+     * @param uploadFile the file to take the range from
+     * @param fileName the file name to give the server
+     * @param offset where in the file the range starts
+     * @param length the number of bytes in the range
+     */
+    public void addFilePart(String fieldName, Path uploadFile, String fileName, long offset, long length)
+    {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Invalid range: " + offset + "+" + length);
         }
-        outputStream.flush();
-        inputStream.close();
-        
-        writer.append(LINE_FEED);
-        writer.flush();
-    }
-    
-    
+
+        parts.add(new PathPart(fileHeader(fieldName, fileName), uploadFile, offset, length));
+    }
+
+    /**
+     * Adds a upload file section read from a stream, which is closed once
+     * it has been sent.
+     * @param fieldName name attribute in <input type="file" name="..." />
+     * @param fileName the file name to give the server
+     * @param input the content
+     * @param length the number of bytes in the stream, or -1 if not known,
+     *               in which case the request is sent chunked
+     */
+    public void addStreamPart(String fieldName, String fileName, InputStream input, long length)
+    {
+        parts.add(new StreamPart(fileHeader(fieldName, fileName), input, length));
+    }
+
+
     /**
      * Adds a header field to the request.
      * @param name - name of the header field
@@ -115,11 +153,30 @@ public class MultipartUtility
      */
     public void addHeaderField(String name, String value)
     {
-        writer.append(name + ": " + value).append(LINE_FEED);
-        writer.flush();
+        httpConn.setRequestProperty(name, value);
     }
 
-    
+
+    /**
+     * @return the length of the request body, or -1 if some part's length
+     * isn't known
+     */
+    public long getContentLength()
+    {
+        long length = trailer().length;
+
+        for (Part part : parts) {
+            if (part.contentLength < 0) {
+                return -1;
+            }
+
+            length += part.header.length + part.contentLength + lineFeed.length;
+        }
+
+        return length;
+    }
+
+
     /**
      * Completes the request and receives response from the server.
      * @return a list of Strings as response in case the server returned
@@ -129,26 +186,196 @@ public class MultipartUtility
     public List<String> finish() throws IOException
     {
         List<String> response = new ArrayList<String>();
-        
-        writer.append(LINE_FEED).flush();
-        writer.append("--" + boundary + "--").append(LINE_FEED);
-        writer.close();
+
+        long contentLength = getContentLength();
+        if (contentLength >= 0) {
+            httpConn.setFixedLengthStreamingMode(contentLength);
+        } else {
+            httpConn.setChunkedStreamingMode(BUFFER_SIZE);
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        OutputStream outputStream = httpConn.getOutputStream();
+        try {
+            for (Part part : parts) {
+                outputStream.write(part.header);
+                part.writeContent(outputStream, buffer);
+                outputStream.write(lineFeed);
+            }
+
+            outputStream.write(trailer());
+        } finally {
+            outputStream.close();
+        }
 
         // checks server's status code first
         int status = httpConn.getResponseCode();
         if (status == HttpURLConnection.HTTP_OK) {
             BufferedReader reader;
-            reader = new BufferedReader(new InputStreamReader(httpConn.getInputStream()));
-            String line = null;
-            while ((line = reader.readLine()) != null) {
-                response.add(line);
+            reader = new BufferedReader(new InputStreamReader(httpConn.getInputStream(), encoding));
+            try {
+                String line = null;
+                while ((line = reader.readLine()) != null) {
+                    response.add(line);
+                }
+            } finally {
+                // closing (rather than disconnecting) lets the connection be reused
+                reader.close();
             }
-            reader.close();
-            httpConn.disconnect();
         } else {
+            InputStream error = httpConn.getErrorStream();
+            if (error != null) {
+                error.close();
+            }
             throw new IOException("Server returned non-OK status: " + status);
         }
 
         return response;
     }
+
+
+    private byte[] partHeader(String header)
+    {
+        return ("--" + boundary + LINE_FEED + header + LINE_FEED).getBytes(encoding);
+    }
+
+
+    private byte[] fileHeader(String fieldName, String fileName)
+    {
+        String contentType = URLConnection.guessContentTypeFromName(fileName);
+        if (contentType == null) {
+            contentType = "application/octet-stream";
+        }
+
+        String header = "Content-Disposition: form-data; name=\"" + fieldName
+                        + "\"; filename=\"" + fileName + "\"" + LINE_FEED
+                        + "Content-Type: " + contentType + LINE_FEED
+                        + "Content-Transfer-Encoding: binary" + LINE_FEED;
+
+        return partHeader(header);
+    }
+
+
+    private byte[] trailer()
+    {
+        return ("--" + boundary + "--" + LINE_FEED).getBytes(encoding);
+    }
+
+
+    /**
+     * A part of the body: its boundary line and headers, already encoded,
+     * then the content.
+     */
+    private abstract static class Part
+    {
+        final byte[] header;
+        final long contentLength;
+
+        Part(byte[] header, long contentLength)
+        {
+            this.header = header;
+            this.contentLength = contentLength;
+        }
+
+        abstract void writeContent(OutputStream output, byte[] buffer) throws IOException;
+    }
+
+
+    private static class BytesPart extends Part
+    {
+        private final byte[] content;
+
+        BytesPart(byte[] header, byte[] content)
+        {
+            super(header, content.length);
+            this.content = content;
+        }
+
+        @Override
+        void writeContent(OutputStream output, byte[] buffer) throws IOException
+        {
+            output.write(content);
+        }
+    }
+
+
+    /**
+     * length bytes of a file starting at offset, read through a FileChannel
+     * straight into the shared buffer.  HttpURLConnection only gives us a
+     * stream, so there is no channel to transferTo; a large buffer is the
+     * next best thing.
+     */
+    private static class PathPart extends Part
+    {
+        private final Path path;
+        private final long offset;
+
+        PathPart(byte[] header, Path path, long offset, long length)
+        {
+            super(header, length);
+            this.path = path;
+            this.offset = offset;
+        }
+
+        @Override
+        void writeContent(OutputStream output, byte[] buffer) throws IOException
+        {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+                long position = offset;
+                long remaining = contentLength;
+
+                while (remaining > 0) {
+                    wrapped.clear();
+                    wrapped.limit((int) Math.min(buffer.length, remaining));
+
+                    int count = channel.read(wrapped, position);
+                    if (count < 0) {
+                        throw new IOException("[" + path + "] is shorter than the " + contentLength
+                                              + " bytes expected");
+                    }
+
+                    output.write(buffer, 0, count);
+                    position += count;
+                    remaining -= count;
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+
+    private static class StreamPart extends Part
+    {
+        private final InputStream input;
+
+        StreamPart(byte[] header, InputStream input, long length)
+        {
+            super(header, length);
+            this.input = input;
+        }
+
+        @Override
+        void writeContent(OutputStream output, byte[] buffer) throws IOException
+        {
+            try {
+                long total = 0;
+                int count;
+                while ((count = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, count);
+                    total += count;
+                }
+
+                if (contentLength >= 0 && total != contentLength) {
+                    throw new IOException("Stream had " + total + " bytes, not the " + contentLength
+                                          + " expected");
+                }
+            } finally {
+                input.close();
+            }
+        }
+    }
 }
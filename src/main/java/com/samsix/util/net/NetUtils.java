@@ -16,13 +16,46 @@ public class NetUtils
      * @return
      */
     public static int ipv4ToInt( final Inet4Address    addr )
+    {
+        return ipv4ToInt( addr.getAddress() );
+    }
+
+
+    /**
+     * Turns the 4 bytes of an IPv4 address, most significant first, into a 32-bit integer representation
+     * @param addr
+     * @return
+     */
+    public static int ipv4ToInt( final byte[]    addr )
     {
         int    value = 0;
 
-        for( byte    chunk : addr.getAddress() )
+        for( int ii = 0; ii < 4; ii++ )
+        {
+            value <<= 8;
+            value |= addr[ii] & 0xff;
+        }
+
+        return value;
+    }
+
+
+    /**
+     * Reads 8 bytes, most significant first, starting at offset. Used to hold the two halves of an
+     * IPv6 address as a pair of longs.
+     * @param bytes
+     * @param offset
+     * @return
+     */
+    public static long bytesToLong( final byte[]    bytes,
+                                    final int       offset )
+    {
+        long    value = 0;
+
+        for( int ii = offset; ii < offset + 8; ii++ )
         {
             value <<= 8;
-            value |= chunk & 0xff;
+            value |= bytes[ii] & 0xff;
         }
 
         return value;
@@ -37,6 +70,347 @@ public class NetUtils
      */
     public static int ipv4LengthToMask( final int    length )
     {
-        return ~ ( ( 1 << 32 - length ) - 1 );
+        //
+        //    Shifts only use the bottom five bits, so 1 << 32 is 1, not 0.
+        //
+        if( length <= 0 )
+        {
+            return 0;
+        }
+
+        return -1 << ( 32 - length );
+    }
+
+
+    /**
+     * The first 64 bits of an IPv6 netmask with the given prefix length, e.g. "48" gives
+     * 0xFFFFFFFFFFFF0000.
+     * @param length
+     * @return
+     */
+    public static long ipv6LengthToHighMask( final int    length )
+    {
+        if( length <= 0 )
+        {
+            return 0;
+        }
+
+        if( length >= 64 )
+        {
+            return -1L;
+        }
+
+        return -1L << ( 64 - length );
+    }
+
+
+    /**
+     * The last 64 bits of an IPv6 netmask with the given prefix length.
+     * @param length
+     * @return
+     */
+    public static long ipv6LengthToLowMask( final int    length )
+    {
+        return ipv6LengthToHighMask( length - 64 );
+    }
+
+
+    /**
+     * Parses a dotted quad IPv4 literal, e.g. "192.168.2.7", without going near a resolver or
+     * allocating anything. Strict: exactly four decimal parts of up to three digits, each no more than 255.
+     * @param text
+     * @return the address as an unsigned 32-bit value, or -1 if text isn't an IPv4 literal
+     */
+    public static long parseIpv4Literal( final CharSequence    text )
+    {
+        return parseIpv4Literal( text, 0, text.length() );
+    }
+
+
+    /**
+     * As parseIpv4Literal(CharSequence) for the characters from start up to (not including) end.
+     */
+    public static long parseIpv4Literal( final CharSequence    text,
+                                         final int             start,
+                                         final int             end )
+    {
+        long    value = 0;
+        int     parts = 0;
+        int     pos   = start;
+
+        while( true )
+        {
+            int    octet  = 0;
+            int    digits = 0;
+
+            while( pos < end )
+            {
+                char    ch = text.charAt( pos );
+                if( ch < '0' || ch > '9' )
+                {
+                    break;
+                }
+
+                if( ++digits > 3 )
+                {
+                    return -1;
+                }
+
+                octet = octet * 10 + ( ch - '0' );
+                pos++;
+            }
+
+            if( digits == 0 || octet > 255 )
+            {
+                return -1;
+            }
+
+            value = ( value << 8 ) | octet;
+            parts++;
+
+            if( pos == end )
+            {
+                break;
+            }
+
+            if( parts == 4 || text.charAt( pos ) != '.' )
+            {
+                return -1;
+            }
+
+            pos++;
+        }
+
+        return parts == 4 ? value : -1;
+    }
+
+
+    /**
+     * Parses an IPv6 literal, e.g. "2620:0:2d0:200::7" or "::ffff:192.168.2.7", without going near a
+     * resolver or allocating anything. Handles "::" compression and a trailing embedded IPv4 address;
+     * brackets and zone ids ("%eth0") are not accepted.
+     * @param text
+     * @param halves receives the first 64 bits of the address at [0] and the last 64 at [1]
+     * @return false, leaving halves untouched, if text isn't an IPv6 literal
+     */
+    public static boolean parseIpv6Literal( final CharSequence    text,
+                                            final long[]          halves )
+    {
+        return parseIpv6Literal( text, 0, text.length(), halves );
+    }
+
+
+    /**
+     * As parseIpv6Literal(CharSequence, long[]) for the characters from start up to (not including) end.
+     */
+    public static boolean parseIpv6Literal( final CharSequence    text,
+                                            final int             start,
+                                            final int             end,
+                                            final long[]          halves )
+    {
+        //
+        //    Groups before a "::" go straight into place in head.  Groups after it are shifted
+        //    in from the right of tail, so that once we're done tail already lines up with the
+        //    end of the address and the compressed zeros are whatever is left in between.
+        //
+        long    headHigh = 0;
+        long    headLow  = 0;
+        long    tailHigh = 0;
+        long    tailLow  = 0;
+        int     groups   = 0;
+        boolean compressed = false;
+        int     pos      = start;
+
+        if( end - start >= 2 && text.charAt( start ) == ':' && text.charAt( start + 1 ) == ':' )
+        {
+            compressed = true;
+            pos += 2;
+        }
+
+        while( pos < end || ! compressed )
+        {
+            int    tokenStart = pos;
+            int    value      = 0;
+            int    digits     = 0;
+
+            while( pos < end )
+            {
+                int    digit = hexDigit( text.charAt( pos ) );
+                if( digit < 0 )
+                {
+                    break;
+                }
+
+                if( ++digits > 4 )
+                {
+                    return false;
+                }
+
+                value = ( value << 4 ) | digit;
+                pos++;
+            }
+
+            int    count = 1;
+
+            if( pos < end && text.charAt( pos ) == '.' )
+            {
+                //
+                //    Embedded IPv4; has to be the last thing in the address, and counts as two groups.
+                //
+                long    ipv4 = parseIpv4Literal( text, tokenStart, end );
+                if( ipv4 < 0 )
+                {
+                    return false;
+                }
+
+                value = (int) ipv4;
+                count = 2;
+                pos   = end;
+            }
+            else if( digits == 0 )
+            {
+                return false;
+            }
+
+            if( groups + count > ( compressed ? 7 : 8 ) )
+            {
+                return false;
+            }
+
+            if( compressed )
+            {
+                int    shift = count * 16;
+
+                tailHigh = ( tailHigh << shift ) | ( tailLow >>> ( 64 - shift ) );
+                tailLow  = ( tailLow << shift ) | ( value & 0xffffffffL );
+            }
+            else
+            {
+                for( int ii = count - 1; ii >= 0; ii-- )
+                {
+                    long    group = ( value >>> ( ii * 16 ) ) & 0xffff;
+                    int     index = groups + count - 1 - ii;
+
+                    if( index < 4 )
+                    {
+                        headHigh |= group << ( 48 - index * 16 );
+                    }
+                    else
+                    {
+                        headLow |= group << ( 48 - ( index - 4 ) * 16 );
+                    }
+                }
+            }
+
+            groups += count;
+
+            if( pos == end )
+            {
+                break;
+            }
+
+            if( text.charAt( pos ) != ':' || count == 2 )
+            {
+                return false;
+            }
+
+            pos++;
+
+            if( pos < end && text.charAt( pos ) == ':' )
+            {
+                //
+                //    "::" stands for at least one group of zeros, so there
+                //    can't already be 8.
+                //
+                if( compressed || groups >= 8 )
+                {
+                    return false;
+                }
+
+                compressed = true;
+                pos++;
+            }
+            else if( pos == end )
+            {
+                //
+                //    A single trailing ':'
+                //
+                return false;
+            }
+        }
+
+        if( ! compressed && groups != 8 )
+        {
+            return false;
+        }
+
+        halves[0] = headHigh | tailHigh;
+        halves[1] = headLow | tailLow;
+
+        return true;
+    }
+
+
+    /**
+     * Parses an IPv4 or IPv6 literal into the 4 or 16 bytes of the address, most significant first,
+     * suitable for InetAddress.getByAddress. Never does a DNS lookup.
+     * @param text
+     * @return
+     * @throws IllegalArgumentException if text is neither an IPv4 nor an IPv6 literal
+     */
+    public static byte[] ipLiteralToBytes( final String    text )
+    {
+        long    ipv4 = parseIpv4Literal( text );
+
+        if( ipv4 >= 0 )
+        {
+            byte[]    bytes = new byte[4];
+            for( int ii = 0; ii < 4; ii++ )
+            {
+                bytes[ii] = (byte) ( ipv4 >>> ( 24 - ii * 8 ) );
+            }
+
+            return bytes;
+        }
+
+        long[]    halves = new long[2];
+
+        if( ! parseIpv6Literal( text, halves ) )
+        {
+            throw new IllegalArgumentException( "Not an IP address [" + text + "]" );
+        }
+
+        byte[]    bytes = new byte[16];
+        for( int ii = 0; ii < 8; ii++ )
+        {
+            bytes[ii]     = (byte) ( halves[0] >>> ( 56 - ii * 8 ) );
+            bytes[ii + 8] = (byte) ( halves[1] >>> ( 56 - ii * 8 ) );
+        }
+
+        return bytes;
+    }
+
+
+    /**
+     * Unlike Character.digit this only takes ASCII, so non-latin digits can't sneak into an address.
+     */
+    private static int hexDigit( final char    ch )
+    {
+        if( ch >= '0' && ch <= '9' )
+        {
+            return ch - '0';
+        }
+
+        if( ch >= 'a' && ch <= 'f' )
+        {
+            return ch - 'a' + 10;
+        }
+
+        if( ch >= 'A' && ch <= 'F' )
+        {
+            return ch - 'A' + 10;
+        }
+
+        return -1;
     }
 }
@@ -0,0 +1,434 @@
+/**
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ *    A small reusable HTTP client on top of HttpURLConnection.
+ *    <p>
+ *    HttpURLConnection already keeps idle connections open and hands them
+ *    back out for the next request to the same host, but only if the
+ *    response is read to the end and closed, and the connection is never
+ *    disconnect()ed.  This always reads the whole response (the error body
+ *    too) into a Response and closes the stream, so every request leaves
+ *    its connection in the pool.  The number of idle connections kept per
+ *    host is the JDK's "http.maxConnections" system property (default 5).
+ *    <p>
+ *    Responses are asked for gzipped and unzipped on the way in, request
+ *    bodies are handed over as bytes so they are only ever encoded once,
+ *    and the connect and read timeouts are configurable, defaulting to
+ *    DEFAULT_CONNECT_TIMEOUT and DEFAULT_READ_TIMEOUT rather than the JDK's
+ *    wait-forever.
+ *    <p>
+ *    Instances are thread safe; share one rather than making one per call.
+ */
+public class SimpleHttpClient
+{
+    public static final int    DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static final int    DEFAULT_READ_TIMEOUT    = 60000;
+
+    public static final String    FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    private static final int    BUFFER_SIZE = 8192;
+
+    private final Map<String,String>    _defaultHeaders = new ConcurrentHashMap<String,String>();
+
+    private volatile int    _connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private volatile int    _readTimeout    = DEFAULT_READ_TIMEOUT;
+
+
+    /**
+     *    @param connectTimeout in milliseconds; 0 waits forever
+     */
+    public void setConnectTimeout( final int    connectTimeout )
+    {
+        if( connectTimeout < 0 )
+        {
+            throw new IllegalArgumentException( "Invalid timeout: " + connectTimeout );
+        }
+
+        _connectTimeout = connectTimeout;
+    }
+
+
+    public int getConnectTimeout()
+    {
+        return _connectTimeout;
+    }
+
+
+    /**
+     *    @param readTimeout in milliseconds; 0 waits forever
+     */
+    public void setReadTimeout( final int    readTimeout )
+    {
+        if( readTimeout < 0 )
+        {
+            throw new IllegalArgumentException( "Invalid timeout: " + readTimeout );
+        }
+
+        _readTimeout = readTimeout;
+    }
+
+
+    public int getReadTimeout()
+    {
+        return _readTimeout;
+    }
+
+
+    /**
+     *    Sets a header sent with every request, e.g. User-Agent.  Headers
+     *    given to execute win over these.
+     */
+    public void setDefaultHeader( final String    name,
+                                  final String    value )
+    {
+        if( value == null )
+        {
+            _defaultHeaders.remove( name );
+        }
+        else
+        {
+            _defaultHeaders.put( name, value );
+        }
+    }
+
+
+    /**
+     *    GET with the parameters, if any, URL encoded onto the query string.
+     */
+    public Response get( final String                url,
+                         final Map<String,String>    params )
+        throws
+            IOException
+    {
+        return execute( "GET", appendQuery( url, params ), null, null, null );
+    }
+
+
+    /**
+     *    POST the parameters as an application/x-www-form-urlencoded body.
+     */
+    public Response postForm( final String                url,
+                              final Map<String,String>    params )
+        throws
+            IOException
+    {
+        return post( url, FORM_CONTENT_TYPE, encodeParams( params ).getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+
+    public Response post( final String    url,
+                          final String    contentType,
+                          final byte[]    body )
+        throws
+            IOException
+    {
+        return execute( "POST", url, null, contentType, body );
+    }
+
+
+    /**
+     *    @param headers extra request headers; may be null
+     *    @param contentType the type of body; ignored if body is null
+     *    @param body sent as is with a fixed length; may be null for no body
+     *    @return the response, whatever its status code
+     *    @throws IOException if the request couldn't be made or the response
+     *                        couldn't be read
+     */
+    public Response execute( final String                method,
+                             final String                url,
+                             final Map<String,String>    headers,
+                             final String                contentType,
+                             final byte[]                body )
+        throws
+            IOException
+    {
+        HttpURLConnection    conn = (HttpURLConnection) new URL( url ).openConnection();
+
+        conn.setRequestMethod( method );
+        conn.setConnectTimeout( _connectTimeout );
+        conn.setReadTimeout( _readTimeout );
+        conn.setUseCaches( false );
+        conn.setRequestProperty( "Accept-Encoding", "gzip" );
+
+        for( Entry<String,String>    entry : _defaultHeaders.entrySet() )
+        {
+            conn.setRequestProperty( entry.getKey(), entry.getValue() );
+        }
+
+        if( headers != null )
+        {
+            for( Entry<String,String>    entry : headers.entrySet() )
+            {
+                conn.setRequestProperty( entry.getKey(), entry.getValue() );
+            }
+        }
+
+        if( body != null )
+        {
+            conn.setDoOutput( true );
+            conn.setFixedLengthStreamingMode( body.length );
+
+            if( contentType != null )
+            {
+                conn.setRequestProperty( "Content-Type", contentType );
+            }
+
+            OutputStream    output = conn.getOutputStream();
+            try
+            {
+                output.write( body );
+            }
+            finally
+            {
+                output.close();
+            }
+        }
+
+        int    status = conn.getResponseCode();
+
+        InputStream    input;
+        try
+        {
+            input = conn.getInputStream();
+        }
+        catch( IOException    ex )
+        {
+            if( status < HttpURLConnection.HTTP_BAD_REQUEST )
+            {
+                throw ex;
+            }
+
+            //
+            //    4xx and 5xx; the body, if any, is on the error stream.
+            //
+            input = conn.getErrorStream();
+        }
+
+        byte[]    content = new byte[0];
+
+        if( input != null )
+        {
+            try
+            {
+                if( "gzip".equalsIgnoreCase( conn.getContentEncoding() ) )
+                {
+                    content = readFully( new GZIPInputStream( input, BUFFER_SIZE ) );
+                }
+                else
+                {
+                    content = readFully( input );
+                }
+            }
+            finally
+            {
+                //
+                //    Closing rather than disconnecting is what puts the
+                //    connection back in the keep-alive pool.
+                //
+                input.close();
+            }
+        }
+
+        return new Response( status, conn.getHeaderFields(), content );
+    }
+
+
+    /**
+     *    @return name=value pairs joined with '&amp;', the values URL encoded as UTF-8
+     */
+    public static String encodeParams( final Map<String,String>    params )
+    {
+        StringBuilder    builder = new StringBuilder();
+
+        if( params == null )
+        {
+            return "";
+        }
+
+        try
+        {
+            for( Entry<String,String>    entry : params.entrySet() )
+            {
+                if( builder.length() > 0 )
+                {
+                    builder.append( '&' );
+                }
+
+                builder.append( entry.getKey() )
+                       .append( '=' )
+                       .append( URLEncoder.encode( entry.getValue(), "UTF-8" ) );
+            }
+        }
+        catch( UnsupportedEncodingException    ex )
+        {
+            //
+            //    Every JVM has UTF-8
+            //
+            throw new IllegalStateException( ex );
+        }
+
+        return builder.toString();
+    }
+
+
+    static String appendQuery( final String                url,
+                               final Map<String,String>    params )
+    {
+        if( params == null || params.isEmpty() )
+        {
+            return url;
+        }
+
+        return url + ( url.indexOf( '?' ) < 0 ? '?' : '&' ) + encodeParams( params );
+    }
+
+
+    private static byte[] readFully( final InputStream    input )
+        throws
+            IOException
+    {
+        ByteArrayOutputStream    output = new ByteArrayOutputStream();
+        byte[]                   buffer = new byte[BUFFER_SIZE];
+        int                      count;
+
+        while( ( count = input.read( buffer ) ) != -1 )
+        {
+            output.write( buffer, 0, count );
+        }
+
+        return output.toByteArray();
+    }
+
+
+    /**
+     *    A complete response; the body has already been read (and unzipped).
+     */
+    public static class Response
+    {
+        private final int                          _status;
+        private final Map<String,List<String>>     _headers;
+        private final byte[]                       _body;
+
+
+        Response( final int                         status,
+                  final Map<String,List<String>>    headers,
+                  final byte[]                      body )
+        {
+            _status  = status;
+            _headers = headers == null ? Collections.<String,List<String>>emptyMap() : headers;
+            _body    = body;
+        }
+
+
+        public int getStatus()
+        {
+            return _status;
+        }
+
+
+        public boolean isOk()
+        {
+            return _status >= 200 && _status < 300;
+        }
+
+
+        /**
+         *    @return the first value of the header, ignoring case, or null
+         */
+        public String getHeader( final String    name )
+        {
+            for( Entry<String,List<String>>    entry : _headers.entrySet() )
+            {
+                if( name.equalsIgnoreCase( entry.getKey() ) && ! entry.getValue().isEmpty() )
+                {
+                    return entry.getValue().get( 0 );
+                }
+            }
+
+            return null;
+        }
+
+
+        public Map<String,List<String>> getHeaders()
+        {
+            return _headers;
+        }
+
+
+        public byte[] getBody()
+        {
+            return _body;
+        }
+
+
+        /**
+         *    The body decoded with the charset from the Content-Type, or UTF-8
+         *    if it doesn't say.
+         */
+        public String getBodyAsString()
+        {
+            return new String( _body, getCharset() );
+        }
+
+
+        public Charset getCharset()
+        {
+            String    contentType = getHeader( "Content-Type" );
+
+            if( contentType != null )
+            {
+                for( String    param : contentType.split( ";" ) )
+                {
+                    param = param.trim();
+
+                    if( param.regionMatches( true, 0, "charset=", 0, 8 ) )
+                    {
+                        try
+                        {
+                            return Charset.forName( param.substring( 8 ).replace( "\"", "" ).trim() );
+                        }
+                        catch( IllegalArgumentException    ex )
+                        {
+                            break;
+                        }
+                    }
+                }
+            }
+
+            return StandardCharsets.UTF_8;
+        }
+
+
+        @Override
+        public String toString()
+        {
+            return "Response{" + _status + ", " + _body.length + " bytes}";
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.samsix.util.net;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -8,29 +9,75 @@ import com.samsix.util.string.StringUtilities;
 
 /**
  *    Simple class to handle matching an internet address against a collection of network blocks
+ *    <p>
+ *    matchesAny and matchesNone go through a CidrTrie, so they don't get slower as the list of
+ *    blocks grows.  The int[] and ByteBuffer versions of matchesAny classify packed IPv4 addresses
+ *    in bulk, filling in a bitmap, without building an InetAddress for each one.
+ *    <p>
+ *    Every block here means the same thing, so there is only the bitmap form.  To find out which
+ *    block, or what it stands for, each address falls in, build a CidrTrie with a value per block
+ *    and use its lookupIpv4 batch methods.
  */
 public class SimpleInetAddressMatcher
 {
     private final List<InetAddressBlock>    _blocks;
+    private final CidrTrie<Boolean>         _trie;
 
 
     private SimpleInetAddressMatcher( final List<InetAddressBlock>    blocks )
     {
         _blocks = blocks;
+
+        CidrTrie<Boolean>    trie = CidrTrie.empty();
+        for( InetAddressBlock    block : blocks )
+        {
+            trie = trie.with( block, Boolean.TRUE );
+        }
+
+        _trie = trie;
     }
 
 
     public boolean matchesAny( final InetAddress    address )
     {
-        for( InetAddressBlock    block : _blocks )
-        {
-            if( block.matches( address ) )
-            {
-                return true;
-            }
-        }
+        return _trie.matches( address );
+    }
+
+
+    /**
+     *    Sets bit i of the bitmap (bitmap[i / 64] &amp; 1L &lt;&lt; i) if addresses[i] matches any block.
+     *    See CidrTrie.matchIpv4.
+     *
+     *    @return the number of addresses that matched
+     */
+    public int matchesAny( final int[]     addresses,
+                           final long[]    bitmap )
+    {
+        return _trie.matchIpv4( addresses, bitmap );
+    }
+
 
-        return false;
+    public int matchesAny( final ByteBuffer    addresses,
+                           final long[]        bitmap )
+    {
+        return _trie.matchIpv4( addresses, bitmap );
+    }
+
+
+    /**
+     *    As matchesAny(int[], long[]) but split across the common fork-join pool for large batches.
+     */
+    public int matchesAnyParallel( final int[]     addresses,
+                                   final long[]    bitmap )
+    {
+        return _trie.matchIpv4Parallel( addresses, bitmap );
+    }
+
+
+    public int matchesAnyParallel( final ByteBuffer    addresses,
+                                   final long[]        bitmap )
+    {
+        return _trie.matchIpv4Parallel( addresses, bitmap );
     }
 
 
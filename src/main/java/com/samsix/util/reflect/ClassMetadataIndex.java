@@ -0,0 +1,347 @@
+/**
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.reflect;
+
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.ClassUtils;
+
+
+
+/**
+ *    The public methods of a class, indexed by name, computed once per
+ *    class and cached in a ClassValue.
+ *    <p>
+ *    Each name maps to its overloads sorted by number of parameters
+ *    and then from most to least specific parameter types, so resolving
+ *    a call is a hash lookup plus a short scan: the first applicable
+ *    overload of the right arity is one that no other applicable overload
+ *    is more specific than.  It is only used if it is also at least as
+ *    specific as every other applicable overload; otherwise the call is
+ *    ambiguous.
+ *    <p>
+ *    Applicability is deliberately simple: reference parameters must be
+ *    assignable from the argument type and primitives match themselves
+ *    or their wrapper.  There is no primitive widening.
+ */
+final class ClassMetadataIndex
+{
+    private static final Method[]    NO_METHODS = {};
+
+    private static final ClassValue<ClassMetadataIndex>    INDEXES =
+        new ClassValue<ClassMetadataIndex>()
+        {
+            @Override
+            protected ClassMetadataIndex computeValue( final Class<?>    type )
+            {
+                return new ClassMetadataIndex( type );
+            }
+        };
+
+    private final Class<?>                 _type;
+    private final Map<String,Method[]>     _methods;
+
+
+    private ClassMetadataIndex( final Class<?>    type )
+    {
+        _type    = type;
+        _methods = index( type.getMethods() );
+    }
+
+
+    static ClassMetadataIndex forClass( final Class<?>    type )
+    {
+        return INDEXES.get( type );
+    }
+
+
+    /**
+     *    @return the overloads of the given name, most specific first,
+     *            or an empty list if there are none.
+     */
+    List<Method> getMethods( final String    methodName )
+    {
+        Method[]    methods = _methods.get( methodName );
+
+        if ( methods == null )
+        {
+            return Collections.emptyList();
+        }
+
+        return Collections.unmodifiableList( Arrays.asList( methods ) );
+    }
+
+
+    /**
+     *    Finds the method with exactly the given parameter types or, failing
+     *    that, the most specific overload that the given types can be passed
+     *    to.  As with javac, if no applicable overload is at least as
+     *    specific as all the others in every parameter, e.g. g(Integer,Object)
+     *    and g(Object,Integer) for (Integer,Integer), the call is ambiguous
+     *    and fails.
+     */
+    Method findMethod( final String        methodName,
+                       final Class<?>[]    parameterTypes )
+        throws
+            NoSuchMethodException
+    {
+        Method[]    methods = _methods.get( methodName );
+
+        if ( methods != null )
+        {
+            for ( Method    method : methods )
+            {
+                if ( Arrays.equals( method.getParameterTypes(), parameterTypes ) )
+                {
+                    return method;
+                }
+            }
+
+            List<Method>    applicable = new ArrayList<Method>( 2 );
+
+            for ( Method    method : methods )
+            {
+                if ( isApplicable( method.getParameterTypes(), parameterTypes ) )
+                {
+                    applicable.add( method );
+                }
+            }
+
+            //
+            //    Sorted most specific first, so the one we want, if there is
+            //    one, is almost always the first.
+            //
+            for ( Method    method : applicable )
+            {
+                if ( isMostSpecific( method, applicable ) )
+                {
+                    return method;
+                }
+            }
+
+            if ( ! applicable.isEmpty() )
+            {
+                throw new NoSuchMethodException( _type.getName() + "." + methodName
+                                                 + Arrays.toString( parameterTypes ) + " is ambiguous: "
+                                                 + applicable );
+            }
+        }
+
+        throw new NoSuchMethodException( _type.getName() + "." + methodName
+                                         + Arrays.toString( parameterTypes ) );
+    }
+
+
+    /**
+     *    @return whether each parameter of the method is the same as, or a
+     *            subtype of, the same parameter of every other candidate
+     */
+    private static boolean isMostSpecific( final Method          method,
+                                           final List<Method>    candidates )
+    {
+        Class<?>[]    parameterTypes = method.getParameterTypes();
+
+        for ( Method    other : candidates )
+        {
+            Class<?>[]    otherTypes = other.getParameterTypes();
+
+            for ( int ii = 0; ii < parameterTypes.length; ii++ )
+            {
+                if ( ! ClassUtils.primitiveToWrapper( otherTypes[ii] )
+                                 .isAssignableFrom( ClassUtils.primitiveToWrapper( parameterTypes[ii] ) ) )
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+
+    private static boolean isApplicable( final Class<?>[]    parameterTypes,
+                                         final Class<?>[]    argTypes )
+    {
+        if ( parameterTypes.length != argTypes.length )
+        {
+            return false;
+        }
+
+        for ( int ii = 0; ii < parameterTypes.length; ii++ )
+        {
+            Class<?>    param = parameterTypes[ii];
+            Class<?>    arg   = argTypes[ii];
+
+            if ( param == arg )
+            {
+                continue;
+            }
+
+            if ( param.isPrimitive() )
+            {
+                if ( arg != ClassUtils.primitiveToWrapper( param ) )
+                {
+                    return false;
+                }
+            }
+            else if ( ! param.isAssignableFrom( ClassUtils.primitiveToWrapper( arg ) ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    private static Map<String,Method[]> index( final Method[]    methods )
+    {
+        Map<String,List<Method>>    byName = new HashMap<String,List<Method>>();
+
+        for ( Method    method : methods )
+        {
+            List<Method>    overloads = byName.get( method.getName() );
+
+            if ( overloads == null )
+            {
+                overloads = new ArrayList<Method>( 2 );
+                byName.put( method.getName(), overloads );
+            }
+
+            addOverload( overloads, method );
+        }
+
+        final Map<Class<?>,Integer>    depths = new IdentityHashMap<Class<?>,Integer>();
+
+        Comparator<Method>    mostSpecificFirst = new Comparator<Method>()
+        {
+            @Override
+            public int compare( final Method    lhs,
+                                final Method    rhs )
+            {
+                int    diff = lhs.getParameterTypes().length - rhs.getParameterTypes().length;
+
+                if ( diff != 0 )
+                {
+                    return diff;
+                }
+
+                return specificity( rhs, depths ) - specificity( lhs, depths );
+            }
+        };
+
+        Map<String,Method[]>    index = new HashMap<String,Method[]>( byName.size() * 2 );
+
+        for ( Map.Entry<String,List<Method>>    entry : byName.entrySet() )
+        {
+            Method[]    overloads = entry.getValue().toArray( NO_METHODS );
+
+            Arrays.sort( overloads, mostSpecificFirst );
+
+            index.put( entry.getKey(), overloads );
+        }
+
+        return index;
+    }
+
+
+    /**
+     *    getMethods() can hand back several methods with the same parameters
+     *    (bridge methods for covariant returns); keep the one Class.getMethod
+     *    would have picked, i.e. the one with the most specific return type.
+     */
+    private static void addOverload( final List<Method>    overloads,
+                                     final Method          method )
+    {
+        for ( int ii = 0; ii < overloads.size(); ii++ )
+        {
+            Method    existing = overloads.get( ii );
+
+            if ( ! Arrays.equals( existing.getParameterTypes(), method.getParameterTypes() ) )
+            {
+                continue;
+            }
+
+            if ( existing.getReturnType().isAssignableFrom( method.getReturnType() )
+                 && existing.getReturnType() != method.getReturnType() )
+            {
+                overloads.set( ii, method );
+            }
+
+            return;
+        }
+
+        overloads.add( method );
+    }
+
+
+    /**
+     *    Sum of the depths of the parameter types in the type hierarchy.
+     *    If every parameter of one method is a subtype of the same
+     *    parameter of another, its sum is strictly greater, so sorting on
+     *    this puts more specific overloads first.
+     */
+    private static int specificity( final Method                   method,
+                                    final Map<Class<?>,Integer>    depths )
+    {
+        int    total = 0;
+
+        for ( Class<?>    type : method.getParameterTypes() )
+        {
+            total += depth( ClassUtils.primitiveToWrapper( type ), depths );
+        }
+
+        return total;
+    }
+
+
+    private static int depth( final Class<?>                 type,
+                              final Map<Class<?>,Integer>    depths )
+    {
+        if ( type == null || type == Object.class )
+        {
+            return 0;
+        }
+
+        Integer    cached = depths.get( type );
+        if ( cached != null )
+        {
+            return cached;
+        }
+
+        //
+        //    Arrays and interfaces without a superclass still sit below Object.
+        //
+        int    depth = 1 + depth( type.getSuperclass(), depths );
+
+        for ( Class<?>    iface : type.getInterfaces() )
+        {
+            depth = Math.max( depth, 1 + depth( iface, depths ) );
+        }
+
+        if ( type.isArray() )
+        {
+            depth = Math.max( depth, 1 + depth( type.getComponentType(), depths ) );
+        }
+
+        depths.put( type, depth );
+
+        return depth;
+    }
+}
@@ -0,0 +1,294 @@
+/**
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.reflect;
+
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+
+/**
+ *    Caches the MethodHandles that SimpleMethodInvoker resolves so
+ *    we only pay for the reflective lookup once per class and signature.
+ *    <p>
+ *    The handles are kept in a ClassValue, so they live and die with
+ *    the class they belong to and don't pin its class loader.
+ *    <p>
+ *    Every method handle is adapted to (Object,Object[])Object and every
+ *    constructor handle to (Object[])Object so that callers can use
+ *    invokeExact no matter what the real signature is.
+ *    <p>
+ *    As with Method.invoke and Constructor.newInstance, anything the method
+ *    or constructor itself throws comes out wrapped in an
+ *    InvocationTargetException, while a bad call (wrong argument types, a
+ *    null target) fails with an unwrapped exception.
+ */
+final class InvokerCache
+{
+    private static final String    CONSTRUCTOR_NAME = "<init>";
+
+    private static final Class<?>[]    NO_PARAMETERS = {};
+
+    private static final MethodHandles.Lookup    LOOKUP = MethodHandles.lookup();
+
+    private static final MethodHandle    WRAP_TARGET_EXCEPTION;
+    private static final MethodHandle    REQUIRE_NON_NULL;
+
+    static
+    {
+        try
+        {
+            WRAP_TARGET_EXCEPTION = LOOKUP.findStatic( InvokerCache.class,
+                                                       "wrapTargetException",
+                                                       MethodType.methodType( Object.class, Throwable.class ) );
+            REQUIRE_NON_NULL      = LOOKUP.findStatic( Objects.class,
+                                                       "requireNonNull",
+                                                       MethodType.methodType( Object.class, Object.class ) );
+        }
+        catch ( ReflectiveOperationException    ex )
+        {
+            throw new ExceptionInInitializerError( ex );
+        }
+    }
+
+    private static final ClassValue<ConcurrentMap<Signature,MethodHandle>>    HANDLES =
+        new ClassValue<ConcurrentMap<Signature,MethodHandle>>()
+        {
+            @Override
+            protected ConcurrentMap<Signature,MethodHandle> computeValue( final Class<?>    type )
+            {
+                return new ConcurrentHashMap<Signature,MethodHandle>();
+            }
+        };
+
+    //
+    //    Class.forName from here always resolves through our own class
+    //    loader, so nothing in here can belong to a child loader.
+    //
+    private static final ConcurrentMap<String,Class<?>>    CLASSES =
+        new ConcurrentHashMap<String,Class<?>>();
+
+
+    private InvokerCache()
+    {
+        //    prevent instantiation
+    }
+
+
+    static Class<?> forName( final String    className )
+        throws
+            ClassNotFoundException
+    {
+        Class<?>    type = CLASSES.get( className );
+
+        if ( type == null )
+        {
+            type = Class.forName( className );
+            CLASSES.putIfAbsent( className, type );
+        }
+
+        return type;
+    }
+
+
+    /**
+     *    @return a handle of type (Object,Object[])Object.  For static
+     *            methods the first argument is ignored.
+     */
+    static MethodHandle getMethod( final Class<?>      objClass,
+                                   final String        methodName,
+                                   final Class<?>[]    parameterTypes )
+        throws
+            NoSuchMethodException,
+            IllegalAccessException
+    {
+        Class<?>[]    types = parameterTypes == null ? NO_PARAMETERS : parameterTypes;
+
+        ConcurrentMap<Signature,MethodHandle>    handles   = HANDLES.get( objClass );
+        Signature                                signature = new Signature( methodName, types );
+        MethodHandle                             handle    = handles.get( signature );
+
+        if ( handle != null )
+        {
+            return handle;
+        }
+
+        //
+        //    Misses are never cached, so a bad signature keeps failing
+        //    and keeps its nice error message.  Anything we resolve by
+        //    overload matching is cached under the signature we were
+        //    asked for, so it's a straight hit next time.
+        //
+        Method    method = ClassMetadataIndex.forClass( objClass ).findMethod( methodName, types );
+
+        handle = wrapTargetExceptions( LOOKUP.unreflect( method ) );
+
+        if ( Modifier.isStatic( method.getModifiers() ) )
+        {
+            handle = MethodHandles.dropArguments( handle, 0, Object.class );
+        }
+        else
+        {
+            //
+            //    Outside the wrapping, so a null target is a bad call, not
+            //    something the method threw.
+            //
+            Class<?>    declaringClass = method.getDeclaringClass();
+
+            handle = MethodHandles.filterArguments(
+                         handle,
+                         0,
+                         REQUIRE_NON_NULL.asType( MethodType.methodType( declaringClass, declaringClass ) ) );
+        }
+
+        handle = handle.asType( MethodType.genericMethodType( types.length + 1 ) )
+                       .asSpreader( Object[].class, types.length );
+
+        //
+        //    Keep our own copy of the parameter types in the key.
+        //
+        signature = new Signature( signature._name, types.clone() );
+
+        MethodHandle    existing = handles.putIfAbsent( signature, handle );
+
+        return existing != null ? existing : handle;
+    }
+
+
+    /**
+     *    @return a handle of type (Object[])Object
+     */
+    static MethodHandle getConstructor( final Class<?>      desiredClass,
+                                        final Class<?>[]    parameterTypes )
+        throws
+            NoSuchMethodException,
+            IllegalAccessException
+    {
+        Class<?>[]    types = parameterTypes == null ? NO_PARAMETERS : parameterTypes;
+
+        ConcurrentMap<Signature,MethodHandle>    handles   = HANDLES.get( desiredClass );
+        Signature                                signature = new Signature( CONSTRUCTOR_NAME, types );
+        MethodHandle                             handle    = handles.get( signature );
+
+        if ( handle != null )
+        {
+            return handle;
+        }
+
+        //
+        //    Class.newInstance() would happily use a no-args constructor
+        //    that isn't public as long as we could see it, so keep doing
+        //    that.  The lookup will still do the access check.
+        //
+        Constructor<?>    constructor;
+        if ( types.length == 0 )
+        {
+            constructor = desiredClass.getDeclaredConstructor();
+        }
+        else
+        {
+            constructor = desiredClass.getConstructor( types );
+        }
+
+        handle = wrapTargetExceptions( LOOKUP.unreflectConstructor( constructor ) )
+                       .asType( MethodType.genericMethodType( types.length ) )
+                       .asSpreader( Object[].class, types.length );
+
+        //
+        //    Keep our own copy of the parameter types in the key.
+        //
+        signature = new Signature( signature._name, types.clone() );
+
+        MethodHandle    existing = handles.putIfAbsent( signature, handle );
+
+        return existing != null ? existing : handle;
+    }
+
+
+    /**
+     *    @return the handle, throwing an InvocationTargetException around
+     *            anything it throws
+     */
+    private static MethodHandle wrapTargetExceptions( final MethodHandle    handle )
+    {
+        return MethodHandles.catchException(
+                   handle,
+                   Throwable.class,
+                   WRAP_TARGET_EXCEPTION.asType( MethodType.methodType( handle.type().returnType(),
+                                                                        Throwable.class ) ) );
+    }
+
+
+    @SuppressWarnings( "unused" )
+    private static Object wrapTargetException( final Throwable    ex )
+        throws
+            InvocationTargetException
+    {
+        throw new InvocationTargetException( ex );
+    }
+
+
+    /**
+     *    Method name and parameter types; the declaring class is implied
+     *    by which ClassValue slot the signature is stored in.
+     */
+    private static final class Signature
+    {
+        private final String        _name;
+        private final Class<?>[]    _parameterTypes;
+        private final int           _hashCode;
+
+
+        Signature( final String        name,
+                   final Class<?>[]    parameterTypes )
+        {
+            _name           = name;
+            _parameterTypes = parameterTypes;
+            _hashCode       = 31 * name.hashCode() + Arrays.hashCode( parameterTypes );
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return _hashCode;
+        }
+
+
+        @Override
+        public boolean equals( final Object    obj )
+        {
+            if ( obj == this )
+            {
+                return true;
+            }
+
+            if ( ! ( obj instanceof Signature ) )
+            {
+                return false;
+            }
+
+            Signature    rhs = (Signature) obj;
+
+            return _name.equals( rhs._name )
+                   && Arrays.equals( _parameterTypes, rhs._parameterTypes );
+        }
+    }
+}
@@ -178,6 +178,19 @@ public final class InvokerException
     }
 
 
+    public UtilException
+    cantCreateGetter( Class<?>     objClass,
+                      String       propertyName,
+                      Throwable    ex )
+    {
+        init( "Unable to create a getter for property [" + propertyName + "] "
+              + "on class [" + objClass.getName() + "].",
+              ex );
+
+        return this;
+    }
+
+
     public UtilException failedToGetStaticFieldValue( String      className,
                                                       String      fieldName,
                                                       Throwable   ex )
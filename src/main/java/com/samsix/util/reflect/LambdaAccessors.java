@@ -0,0 +1,289 @@
+/**
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.reflect;
+
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.samsix.util.string.StringUtilities;
+
+
+
+/**
+ *    Spins up real Function/Supplier implementations for property getters
+ *    and no-args constructors using LambdaMetafactory, so that hot dynamic
+ *    calls look like ordinary calls to the JIT and can be inlined.
+ *    <p>
+ *    The generated classes are defined alongside this one, so they can only
+ *    link against classes our own class loader can see.  For anything else
+ *    (e.g. a class from a child loader) we fall back to wrapping the
+ *    MethodHandle, which is still a lot cheaper than Method.invoke.
+ *    <p>
+ *    Accessors are cached per class in a ClassValue.
+ */
+final class LambdaAccessors
+{
+    private static final MethodHandles.Lookup    LOOKUP = MethodHandles.lookup();
+
+    private static final MethodType    FUNCTION_TYPE     = MethodType.methodType( Function.class );
+    private static final MethodType    SUPPLIER_TYPE     = MethodType.methodType( Supplier.class );
+    private static final MethodType    APPLY_TYPE        = MethodType.methodType( Object.class, Object.class );
+    private static final MethodType    GET_TYPE          = MethodType.methodType( Object.class );
+
+    private static final ClassValue<ConcurrentMap<String,Function<?,?>>>    GETTERS =
+        new ClassValue<ConcurrentMap<String,Function<?,?>>>()
+        {
+            @Override
+            protected ConcurrentMap<String,Function<?,?>> computeValue( final Class<?>    type )
+            {
+                return new ConcurrentHashMap<String,Function<?,?>>();
+            }
+        };
+
+    private static final ClassValue<Supplier<?>[]>    FACTORIES =
+        new ClassValue<Supplier<?>[]>()
+        {
+            @Override
+            protected Supplier<?>[] computeValue( final Class<?>    type )
+            {
+                //
+                //    Single slot holder; filled in lazily because making
+                //    the factory can fail and computeValue can't throw.
+                //
+                return new Supplier<?>[1];
+            }
+        };
+
+
+    private LambdaAccessors()
+    {
+        //    prevent instantiation
+    }
+
+
+    static Function<?,?> getterFor( final Class<?>    type,
+                                    final String      propertyName )
+        throws
+            Throwable
+    {
+        ConcurrentMap<String,Function<?,?>>    getters = GETTERS.get( type );
+        Function<?,?>                          getter  = getters.get( propertyName );
+
+        if ( getter != null )
+        {
+            return getter;
+        }
+
+        Method          method = findGetter( type, propertyName );
+        MethodHandle    handle = LOOKUP.unreflect( method );
+
+        if ( isVisible( method.getDeclaringClass() ) )
+        {
+            CallSite    site;
+            site = LambdaMetafactory.metafactory( LOOKUP,
+                                                  "apply",
+                                                  FUNCTION_TYPE,
+                                                  APPLY_TYPE,
+                                                  handle,
+                                                  handle.type().wrap() );
+
+            getter = (Function<?,?>) site.getTarget().invoke();
+        }
+        else
+        {
+            getter = new HandleFunction( handle.asType( APPLY_TYPE ) );
+        }
+
+        Function<?,?>    existing = getters.putIfAbsent( propertyName, getter );
+
+        return existing != null ? existing : getter;
+    }
+
+
+    static Supplier<?> factoryFor( final Class<?>    type )
+        throws
+            Throwable
+    {
+        Supplier<?>[]    slot    = FACTORIES.get( type );
+        Supplier<?>      factory = slot[0];
+
+        if ( factory != null )
+        {
+            return factory;
+        }
+
+        MethodHandle    handle = LOOKUP.findConstructor( type, MethodType.methodType( void.class ) );
+
+        if ( isVisible( type ) )
+        {
+            CallSite    site;
+            site = LambdaMetafactory.metafactory( LOOKUP,
+                                                  "get",
+                                                  SUPPLIER_TYPE,
+                                                  GET_TYPE,
+                                                  handle,
+                                                  handle.type() );
+
+            factory = (Supplier<?>) site.getTarget().invoke();
+        }
+        else
+        {
+            factory = new HandleSupplier( handle.asType( GET_TYPE ) );
+        }
+
+        //
+        //    Racing here just means two equivalent factories; last one wins.
+        //
+        slot[0] = factory;
+
+        return factory;
+    }
+
+
+    /**
+     *    Looks for getName() and then isName() for a property called "name".
+     */
+    private static Method findGetter( final Class<?>    type,
+                                      final String      propertyName )
+        throws
+            NoSuchMethodException
+    {
+        String    suffix = StringUtilities.toCapCase( propertyName );
+
+        for ( String    prefix : new String[] { "get", "is" } )
+        {
+            Method    method;
+
+            try
+            {
+                method = type.getMethod( prefix + suffix );
+            }
+            catch ( NoSuchMethodException    ex )
+            {
+                continue;
+            }
+
+            if ( method.getReturnType() != void.class
+                 && ! Modifier.isStatic( method.getModifiers() ) )
+            {
+                return method;
+            }
+        }
+
+        throw new NoSuchMethodException( "No getter for property [" + propertyName + "]" );
+    }
+
+
+    /**
+     *    The generated class refers to the target class by name, so it
+     *    has to resolve to the very same class from our class loader.
+     */
+    private static boolean isVisible( final Class<?>    type )
+    {
+        if ( ! Modifier.isPublic( type.getModifiers() ) )
+        {
+            return false;
+        }
+
+        try
+        {
+            return Class.forName( type.getName(),
+                                  false,
+                                  LambdaAccessors.class.getClassLoader() ) == type;
+        }
+        catch ( ClassNotFoundException    ex )
+        {
+            return false;
+        }
+    }
+
+
+    private static final class HandleFunction
+        implements
+            Function<Object,Object>
+    {
+        private final MethodHandle    _handle;
+
+
+        HandleFunction( final MethodHandle    handle )
+        {
+            _handle = handle;
+        }
+
+
+        @Override
+        public Object apply( final Object    obj )
+        {
+            try
+            {
+                return _handle.invokeExact( obj );
+            }
+            catch ( RuntimeException    ex )
+            {
+                throw ex;
+            }
+            catch ( Error    ex )
+            {
+                throw ex;
+            }
+            catch ( Throwable    ex )
+            {
+                throw new UndeclaredThrowableException( ex );
+            }
+        }
+    }
+
+
+    private static final class HandleSupplier
+        implements
+            Supplier<Object>
+    {
+        private final MethodHandle    _handle;
+
+
+        HandleSupplier( final MethodHandle    handle )
+        {
+            _handle = handle;
+        }
+
+
+        @Override
+        public Object get()
+        {
+            try
+            {
+                return _handle.invokeExact();
+            }
+            catch ( RuntimeException    ex )
+            {
+                throw ex;
+            }
+            catch ( Error    ex )
+            {
+                throw ex;
+            }
+            catch ( Throwable    ex )
+            {
+                throw new UndeclaredThrowableException( ex );
+            }
+        }
+    }
+}
@@ -45,23 +45,9 @@ final class MethodLister
                                      final String      methodName )
     {
         //
-        //    Get the array of methods for my classname.
+        //    The index has already grouped the methods of the class by name.
         //
-        Method[] methods = classObj.getMethods();
-
-        List<Method> methodSignatures = new ArrayList<Method>();
-
-        //
-        //    Loop round all the methods and print them out.
-        //
-        for ( int ii = 0; ii < methods.length; ++ii )
-        {
-            if ( methods[ii].getName().equals( methodName ) )
-            {
-                methodSignatures.add( methods[ii] );
-            }
-        }
-
-        return methodSignatures;
+        return new ArrayList<Method>( ClassMetadataIndex.forClass( classObj )
+                                                        .getMethods( methodName ) );
     }
 }
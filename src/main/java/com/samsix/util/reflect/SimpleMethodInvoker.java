@@ -19,9 +19,11 @@
 package com.samsix.util.reflect;
 
 
-import java.lang.reflect.Constructor;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.lang.reflect.InvocationTargetException;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import com.samsix.util.UtilException;
 
@@ -59,6 +61,14 @@ import com.samsix.util.UtilException;
  *    There is also a fairly common error programmers make when
  *    invoking methods this way. We'll avoid that for them.
  *    <p>
+ *    Resolved methods and constructors are cached per class and
+ *    signature as MethodHandles (see InvokerCache), so repeated calls
+ *    don't go back through reflection to find them.
+ *    <p>
+ *    If there is no method with exactly the parameter types given,
+ *    the most specific public overload that accepts them is used (see
+ *    ClassMetadataIndex), so invoke( list, "add", "moo" ) finds add(Object).
+ *    <p>
  */
 public final class SimpleMethodInvoker
 {
@@ -78,11 +88,12 @@ public final class SimpleMethodInvoker
     {
         try
         {
-            return Class.forName( className ).newInstance();
+            return InvokerCache.getConstructor( InvokerCache.forName( className ), null )
+                               .invokeExact( (Object[]) null );
         }
         catch ( Throwable    ex )
         {
-            throw new InvokerException().cantConstruct( className, ex );
+            throw new InvokerException().cantConstruct( className, unwrapTargetException( ex ) );
         }
     }
 
@@ -111,12 +122,29 @@ public final class SimpleMethodInvoker
     {
         try
         {
-            return desiredClass.newInstance();
+            return desiredClass.cast( InvokerCache.getConstructor( desiredClass, null )
+                                                  .invokeExact( (Object[]) null ) );
         }
         catch ( Throwable    ex )
         {
-            throw new InvokerException().cantConstruct( desiredClass, ex );
+            throw new InvokerException().cantConstruct( desiredClass, unwrapTargetException( ex ) );
+        }
+    }
+
+
+    /**
+     *    The no-args constructs have always gone through Class.newInstance(),
+     *    which passes on what the constructor throws as it is, unlike the
+     *    other invokes, which wrap it in an InvocationTargetException.
+     */
+    private static Throwable unwrapTargetException( final Throwable    ex )
+    {
+        if ( ex instanceof InvocationTargetException && ex.getCause() != null )
+        {
+            return ex.getCause();
         }
+
+        return ex;
     }
 
 
@@ -150,7 +178,7 @@ public final class SimpleMethodInvoker
 
         try
         {
-            desiredClass = Class.forName( className );
+            desiredClass = InvokerCache.forName( className );
         }
         catch ( Throwable    ex )
         {
@@ -174,6 +202,54 @@ public final class SimpleMethodInvoker
     }
 
 
+    /**
+     *    For the dynamic calls that get made millions of times.  Returns
+     *    a Function that calls the getter for the given property
+     *    (getName() or isName() for "name") on whatever it is applied to.
+     *    <p>
+     *    Where possible this is a class generated by LambdaMetafactory,
+     *    so the JIT can inline it like an ordinary call.  Primitive
+     *    results come back boxed.  Getters are cached, so asking again
+     *    is cheap, but hold on to the Function in hot loops anyway.
+     */
+    @SuppressWarnings( "unchecked" )
+    public static <T,R> Function<T,R> getterFor( final Class<T>    type,
+                                                 final String      propertyName )
+        throws
+            UtilException
+    {
+        try
+        {
+            return (Function<T,R>) LambdaAccessors.getterFor( type, propertyName );
+        }
+        catch ( Throwable    ex )
+        {
+            throw new InvokerException().cantCreateGetter( type, propertyName, ex );
+        }
+    }
+
+
+    /**
+     *    The Supplier equivalent of construct(Class): returns a factory
+     *    that calls the no-args constructor of the given class.  See
+     *    getterFor() for how it is made.
+     */
+    @SuppressWarnings( "unchecked" )
+    public static <T> Supplier<T> factoryFor( final Class<T>    type )
+        throws
+            UtilException
+    {
+        try
+        {
+            return (Supplier<T>) LambdaAccessors.factoryFor( type );
+        }
+        catch ( Throwable    ex )
+        {
+            throw new InvokerException().cantConstruct( type, ex );
+        }
+    }
+
+
     /**
      *    Invoke an arbitrary 'no args' method on an arbitrary object.
      *
@@ -384,12 +460,12 @@ public final class SimpleMethodInvoker
             classes = new Class[ parameterTypes.length ];
             for ( int ii = 0; ii < parameterTypes.length; ii ++ )
             {
-                classes[ii] = Class.forName( parameterTypes[ii] );
+                classes[ii] = InvokerCache.forName( parameterTypes[ii] );
             }
         }
 
         return invokeMethod( null,
-                             Class.forName( objClass ),
+                             InvokerCache.forName( objClass ),
                              methodName,
                              args,
                              classes );
@@ -407,18 +483,18 @@ public final class SimpleMethodInvoker
         try
         {
             //
-            //    We need to instantiate our Method object, given the
+            //    We need to find our method handle, given the
             //    methodName requested and its parameterTypes, that
             //    is, it's method signature.
             //
-            Method    method;
-            method = objClass.getMethod( methodName, parameterTypes );
+            MethodHandle    method;
+            method = InvokerCache.getMethod( objClass, methodName, parameterTypes );
 
             //
             //    Finally invoke the method we want on the object with
             //    the appropriate arguments.
             //
-            return method.invoke( obj, args );
+            return method.invokeExact( obj, args );
         }
         catch ( Throwable    ex )
         {
@@ -453,18 +529,18 @@ public final class SimpleMethodInvoker
         try
         {
             //
-            //    We need to instantiate our constructor object, given
+            //    We need to find our constructor handle, given
             //    the parameter types, that is, it's method signature.
             //
-            Constructor<T>    constructor;
-            constructor = desiredClass.getConstructor( parameterTypes );
+            MethodHandle    constructor;
+            constructor = InvokerCache.getConstructor( desiredClass, parameterTypes );
 
 
             //
             //    Finally invoke the method we want on the object with
             //    the appropriate arguments.
             //
-            return constructor.newInstance( args );
+            return desiredClass.cast( constructor.invokeExact( args ) );
         }
         catch ( Throwable    ex )
         {
@@ -20,8 +20,14 @@ package com.samsix.util.weak;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeListenerProxy;
 import java.beans.PropertyChangeSupport;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
 
 
 /**
@@ -29,12 +35,18 @@ import java.lang.ref.WeakReference;
  * the references to a property change listener, making them not GC-able. This
  * class holds a weak reference to a PropertyChangeListener and removes it if
  * it's not there.
+ * <p>
+ * Removal no longer waits for the next event to be fired at a dead wrapper.
+ * Every delegate reference is registered with a shared ReferenceQueue, and a
+ * single daemon thread detaches the wrappers of collected listeners from their
+ * PropertyChangeSupport in batches, so sources that rarely fire don't
+ * accumulate dead wrappers.
  */
 public class WeakPropertyChangeListener implements PropertyChangeListener
 {
-    private final WeakReference<PropertyChangeListener>    _delegate;
-    private final PropertyChangeSupport                    _source;
-    private final String                                   _propertyName;
+    private final ListenerReference       _delegate;
+    private final PropertyChangeSupport   _source;
+    private final String                  _propertyName;
 
 
 
@@ -50,7 +62,7 @@ public class WeakPropertyChangeListener implements PropertyChangeListener
                                        final PropertyChangeSupport     source,
                                        final String                    propertyName )
     {
-        _delegate     = new WeakReference<PropertyChangeListener>( listener );
+        _delegate     = Reaper.INSTANCE.register( listener, this );
         _source       = source;
         _propertyName = propertyName;
     }
@@ -77,8 +89,17 @@ public class WeakPropertyChangeListener implements PropertyChangeListener
 
         listener.propertyChange( evt );
     }
-    
-    
+
+
+    /**
+     *    @return true if the listener we are delegating to has not been gc'd.
+     */
+    public boolean isAlive()
+    {
+        return _delegate.get() != null;
+    }
+
+
     public void remove()
     {
         if ( _propertyName == null )
@@ -88,6 +109,215 @@ public class WeakPropertyChangeListener implements PropertyChangeListener
         else
         {
             _source.removePropertyChangeListener( _propertyName, this );
-        }        
+        }
+    }
+
+
+    /**
+     *    Counts the weak listeners currently attached to the given source,
+     *    split into those whose delegate is still reachable and those whose
+     *    delegate has been gc'd but which have not yet been reaped.
+     */
+    public static ListenerCount countListeners( final PropertyChangeSupport    source )
+    {
+        int    live = 0;
+        int    dead = 0;
+
+        for ( PropertyChangeListener    listener : source.getPropertyChangeListeners() )
+        {
+            //
+            //    Listeners added for a single property come back wrapped in
+            //    a proxy.
+            //
+            if ( listener instanceof PropertyChangeListenerProxy )
+            {
+                listener = ( (PropertyChangeListenerProxy) listener ).getListener();
+            }
+
+            if ( ! ( listener instanceof WeakPropertyChangeListener ) )
+            {
+                continue;
+            }
+
+            if ( ( (WeakPropertyChangeListener) listener ).isAlive() )
+            {
+                live++;
+            }
+            else
+            {
+                dead++;
+            }
+        }
+
+        return new ListenerCount( live, dead );
+    }
+
+
+    /**
+     *    Snapshot of the weak listeners attached to a single source.
+     */
+    public static final class ListenerCount
+    {
+        private final int    _live;
+        private final int    _dead;
+
+
+        ListenerCount( final int    live,
+                       final int    dead )
+        {
+            _live = live;
+            _dead = dead;
+        }
+
+
+        public int getLive()
+        {
+            return _live;
+        }
+
+
+        public int getDead()
+        {
+            return _dead;
+        }
+
+
+        @Override
+        public String toString()
+        {
+            return "live=" + _live + ", dead=" + _dead;
+        }
+    }
+
+
+    /**
+     *    The weak reference to the delegate.  It holds on to its wrapper
+     *    so the reaper can find the source to detach it from once the
+     *    delegate is gc'd.
+     */
+    private static final class ListenerReference
+        extends
+            WeakReference<PropertyChangeListener>
+    {
+        private final WeakPropertyChangeListener    _wrapper;
+
+
+        ListenerReference( final PropertyChangeListener                       listener,
+                           final WeakPropertyChangeListener                   wrapper,
+                           final ReferenceQueue<? super PropertyChangeListener>  queue )
+        {
+            super( listener, queue );
+
+            _wrapper = wrapper;
+        }
+    }
+
+
+    /**
+     *    Shared daemon thread that drains the reference queue and removes
+     *    dead wrappers, grouped by source.
+     */
+    private static final class Reaper
+        implements
+            Runnable
+    {
+        static final Reaper    INSTANCE = new Reaper();
+
+        /**
+         *    Maximum number of dead wrappers removed in one pass.
+         */
+        private static final int    BATCH_SIZE = 256;
+
+        private final ReferenceQueue<PropertyChangeListener>    _queue;
+        private volatile Thread                                 _thread;
+
+
+        private Reaper()
+        {
+            _queue = new ReferenceQueue<PropertyChangeListener>();
+        }
+
+
+        ListenerReference register( final PropertyChangeListener        listener,
+                                    final WeakPropertyChangeListener    wrapper )
+        {
+            if ( _thread == null )
+            {
+                start();
+            }
+
+            return new ListenerReference( listener, wrapper, _queue );
+        }
+
+
+        private synchronized void start()
+        {
+            if ( _thread != null )
+            {
+                return;
+            }
+
+            Thread    thread = new Thread( this, "WeakPropertyChangeListener Reaper" );
+            thread.setDaemon( true );
+            thread.start();
+
+            _thread = thread;
+        }
+
+
+        @Override
+        public void run()
+        {
+            List<ListenerReference>    batch = new ArrayList<ListenerReference>( BATCH_SIZE );
+
+            for (;;)
+            {
+                try
+                {
+                    //
+                    //    Block for the first one, then take whatever else
+                    //    has piled up behind it.
+                    //
+                    batch.add( (ListenerReference) _queue.remove() );
+
+                    ListenerReference    ref;
+                    while ( batch.size() < BATCH_SIZE
+                            && ( ref = (ListenerReference) _queue.poll() ) != null )
+                    {
+                        batch.add( ref );
+                    }
+
+                    reap( batch );
+                }
+                catch ( InterruptedException    ex )
+                {
+                    //
+                    //    Nobody should be interrupting us, keep reaping.
+                    //
+                }
+                catch ( Throwable    ex )
+                {
+                    Logger.getLogger( WeakPropertyChangeListener.class )
+                          .error( "Failed to remove dead property change listeners", ex );
+                }
+                finally
+                {
+                    batch.clear();
+                }
+            }
+        }
+
+
+        /**
+         *    PropertyChangeSupport has no way to remove several listeners at
+         *    once, so each wrapper is detached on its own.
+         */
+        private void reap( final List<ListenerReference>    batch )
+        {
+            for ( ListenerReference    ref : batch )
+            {
+                ref._wrapper.remove();
+            }
+        }
     }
 }
@@ -0,0 +1,203 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.samsix.util.FileTreeUtils.TreeStats;
+
+
+/**
+ *    Deleting and copying a tree of small files with FileTreeUtils, against
+ *    the single threaded recursion OsUtils.delete used to do and a single
+ *    threaded walkFileTree copy.  Each operation is one whole tree, so
+ *    files per second is files / the score.  Run with
+ *    <pre>
+ *    mvn test-compile -P benchmark -Dbenchmark=FileTreeBenchmark
+ *    </pre>
+ *    The tree is made under java.io.tmpdir; point that at the disk to be
+ *    measured with -Djava.io.tmpdir in the benchmark's JVM arguments.
+ */
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class FileTreeBenchmark
+{
+    /**
+     *    Files in each of the 100 directories
+     */
+    @Param( { "200" } )
+    public int      filesPerDirectory;
+
+    private Path    _base;
+    private Path    _source;
+    private Path    _target;
+
+
+    @Setup( Level.Trial )
+    public void createSource()
+        throws IOException
+    {
+        _base   = Files.createTempDirectory( "FileTreeBenchmark" );
+        _source = createTree( _base.resolve( "source" ) );
+        _target = _base.resolve( "target" );
+    }
+
+
+    /**
+     *    Each delete gets a fresh copy to delete, and each copy a clear target.
+     */
+    @Setup( Level.Iteration )
+    public void createTarget()
+        throws IOException
+    {
+        FileTreeUtils.deleteTree( _target, null );
+        FileTreeUtils.copyTree( _source, _target, null );
+    }
+
+
+    @TearDown( Level.Trial )
+    public void deleteAll()
+        throws IOException
+    {
+        FileTreeUtils.deleteTree( _base, null );
+    }
+
+
+    @Benchmark
+    public TreeStats deleteParallel()
+        throws IOException
+    {
+        return FileTreeUtils.deleteTree( _target, null );
+    }
+
+
+    @Benchmark
+    public void deleteRecursive()
+    {
+        delete( _target.toFile() );
+    }
+
+
+    @Benchmark
+    public TreeStats copyParallel()
+        throws IOException
+    {
+        FileTreeUtils.deleteTree( _target, null );
+
+        return FileTreeUtils.copyTree( _source, _target, null );
+    }
+
+
+    @Benchmark
+    public void copyWalk()
+        throws IOException
+    {
+        FileTreeUtils.deleteTree( _target, null );
+
+        Files.walkFileTree( _source, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory( final Path                   dir,
+                                                      final BasicFileAttributes    attrs )
+                throws
+                    IOException
+            {
+                Files.createDirectories( _target.resolve( _source.relativize( dir ) ) );
+                return FileVisitResult.CONTINUE;
+            }
+
+
+            @Override
+            public FileVisitResult visitFile( final Path                   file,
+                                              final BasicFileAttributes    attrs )
+                throws
+                    IOException
+            {
+                Files.copy( file,
+                            _target.resolve( _source.relativize( file ) ),
+                            StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.COPY_ATTRIBUTES );
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+    }
+
+
+    private Path createTree( final Path    root )
+        throws
+            IOException
+    {
+        byte[]    content = new byte[1024];
+
+        for( int    dir = 0; dir < 100; dir++ )
+        {
+            Path    directory = Files.createDirectories( root.resolve( "d" + dir / 10 ).resolve( "d" + dir ) );
+
+            for( int    file = 0; file < filesPerDirectory; file++ )
+            {
+                Files.write( directory.resolve( "f" + file ), content );
+            }
+        }
+
+        return root;
+    }
+
+
+    /**
+     *    What OsUtils.delete used to do.
+     */
+    private static void delete( final File    file )
+    {
+        if( ! file.isDirectory() )
+        {
+            file.delete();
+            return;
+        }
+
+        String[]    contents = file.list();
+
+        if( contents != null )
+        {
+            for( String    name : contents )
+            {
+                delete( new File( file, name ) );
+            }
+        }
+
+        file.delete();
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.samsix.util.FileTreeUtils.ProgressListener;
+import com.samsix.util.FileTreeUtils.TreeStats;
+
+
+public class FileTreeUtilsTest
+{
+    @Rule
+    public TemporaryFolder    _folder = new TemporaryFolder();
+
+    private ForkJoinPool      _pool;
+    private Path              _root;
+
+    /**
+     *    Set by protect, to be undone after the test.
+     */
+    private Path              _protected;
+
+
+    @Before
+    public void setUp()
+    {
+        _pool = new ForkJoinPool( 4 );
+        _root = _folder.getRoot().toPath();
+    }
+
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        if( _protected != null )
+        {
+            unprotect( _protected );
+        }
+
+        _pool.shutdown();
+    }
+
+
+    @Test
+    public void deletesTrees()
+        throws Exception
+    {
+        Path    tree = createTree( _root.resolve( "tree" ), 3, 3, 300 );
+
+        TreeStats    stats = FileTreeUtils.deleteTree( tree, null, _pool );
+
+        assertFalse( Files.exists( tree ) );
+        assertEquals( ( 1 + 3 + 3 * 3 ) * 300, stats.getFiles() );
+        assertEquals( 1 + 3 + 3 * 3, stats.getDirectories() );
+        assertEquals( stats.getFiles() * 10, stats.getBytes() );
+        assertEquals( 0, stats.getFailures() );
+    }
+
+
+    @Test
+    public void deletesSingleFiles()
+        throws Exception
+    {
+        Path    file = Files.write( _root.resolve( "file" ), new byte[100] );
+
+        TreeStats    stats = FileTreeUtils.deleteTree( file, null, _pool );
+
+        assertFalse( Files.exists( file ) );
+        assertEquals( 1, stats.getFiles() );
+        assertEquals( 100, stats.getBytes() );
+    }
+
+
+    @Test
+    public void ignoresMissingTrees()
+        throws Exception
+    {
+        assertEquals( 0, FileTreeUtils.deleteTree( _root.resolve( "missing" ), null, _pool ).getFiles() );
+    }
+
+
+    @Test
+    public void deletesLinksNotWhatTheyPointTo()
+        throws Exception
+    {
+        Path    outside = createTree( _root.resolve( "outside" ), 0, 0, 5 );
+        Path    tree    = createTree( _root.resolve( "tree" ), 1, 0, 5 );
+
+        Files.createSymbolicLink( tree.resolve( "link" ), outside );
+        Files.createSymbolicLink( tree.resolve( "d0" ).resolve( "file-link" ), outside.resolve( "f0" ) );
+
+        FileTreeUtils.deleteTree( tree, null, _pool );
+
+        assertFalse( Files.exists( tree ) );
+        assertEquals( 5, outside.toFile().list().length );
+    }
+
+
+    @Test
+    public void reportsProgress()
+        throws Exception
+    {
+        Path                    tree  = createTree( _root.resolve( "tree" ), 4, 0, 1000 );
+        final AtomicInteger     calls = new AtomicInteger();
+        final AtomicLong        most  = new AtomicLong();
+
+        TreeStats    stats = FileTreeUtils.deleteTree( tree, new ProgressListener()
+        {
+            @Override
+            public void progress( final TreeStats    progress )
+            {
+                calls.incrementAndGet();
+
+                synchronized( most )
+                {
+                    most.set( Math.max( most.get(), progress.getFiles() ) );
+                }
+            }
+        }, _pool );
+
+        //
+        //    At least once per batch of files, and once at the end.
+        //
+        assertTrue( calls.get() > 5000 / 256 );
+        assertEquals( 5000, most.get() );
+        assertEquals( 5000, stats.getFiles() );
+    }
+
+
+    @Test
+    public void stopsAtTheFirstFailure()
+        throws Exception
+    {
+        Path    tree = createTree( _root.resolve( "tree" ), 5, 0, 300 );
+
+        protect( tree.resolve( "d2" ).resolve( "f7" ) );
+
+        try
+        {
+            FileTreeUtils.deleteTree( tree, null, _pool );
+            fail( "Expected the delete to fail" );
+        }
+        catch( IOException    ex )
+        {
+            assertTrue( ex.getMessage().contains( "f7" ) );
+        }
+
+        assertTrue( Files.exists( tree.resolve( "d2" ).resolve( "f7" ) ) );
+    }
+
+
+    @Test
+    public void keepsGoingAfterFailuresWhenAsked()
+        throws Exception
+    {
+        Path    tree = createTree( _root.resolve( "tree" ), 5, 0, 300 );
+
+        protect( tree.resolve( "d2" ).resolve( "f7" ) );
+
+        try
+        {
+            FileTreeUtils.deleteTree( tree, null, true, _pool );
+            fail( "Expected the delete to fail" );
+        }
+        catch( IOException    ex )
+        {
+            assertTrue( ex.getMessage().contains( "f7" ) );
+
+            //
+            //    The directories it left non-empty aren't failures of their own.
+            //
+            assertEquals( 0, ex.getSuppressed().length );
+        }
+
+        for( int    index = 0; index < 5; index++ )
+        {
+            assertEquals( index == 2, Files.exists( tree.resolve( "d" + index ) ) );
+        }
+
+        assertArrayEquals( new String[] { "f7" }, tree.resolve( "d2" ).toFile().list() );
+    }
+
+
+    @Test
+    public void osUtilsDeleteIsBestEffort()
+        throws Exception
+    {
+        Path    tree = createTree( _root.resolve( "tree" ), 5, 0, 300 );
+
+        protect( tree.resolve( "d2" ).resolve( "f7" ) );
+
+        //
+        //    Logs rather than throws.
+        //
+        OsUtils.delete( tree.toFile() );
+
+        assertArrayEquals( new String[] { "d2" }, tree.toFile().list() );
+        assertArrayEquals( new String[] { "f7" }, tree.resolve( "d2" ).toFile().list() );
+    }
+
+
+    @Test
+    public void copiesTrees()
+        throws Exception
+    {
+        Path    source = createTree( _root.resolve( "source" ), 3, 2, 300 );
+        Path    target = _root.resolve( "target" );
+        Path    file   = source.resolve( "d1" ).resolve( "d0" ).resolve( "f3" );
+
+        Files.write( file, "changed".getBytes( "UTF-8" ) );
+        Files.setLastModifiedTime( file, FileTime.fromMillis( 1000000000000L ) );
+        Files.createSymbolicLink( source.resolve( "link" ), source.resolve( "d0" ) );
+
+        TreeStats    stats = FileTreeUtils.copyTree( source, target, null, _pool );
+
+        assertEquals( ( 1 + 3 + 3 * 2 ) * 300 + 1, stats.getFiles() );
+        assertEquals( 1 + 3 + 3 * 2, stats.getDirectories() );
+        assertSameTree( source, target );
+
+        Path    copied = target.resolve( "d1" ).resolve( "d0" ).resolve( "f3" );
+
+        assertEquals( "changed", new String( Files.readAllBytes( copied ), "UTF-8" ) );
+        assertEquals( 1000000000000L, Files.getLastModifiedTime( copied ).toMillis() );
+        assertTrue( Files.isSymbolicLink( target.resolve( "link" ) ) );
+        assertEquals( source.resolve( "d0" ), Files.readSymbolicLink( target.resolve( "link" ) ) );
+    }
+
+
+    @Test
+    public void copyReplacesExistingFiles()
+        throws Exception
+    {
+        Path    source = createTree( _root.resolve( "source" ), 1, 0, 10 );
+        Path    target = createTree( _root.resolve( "target" ), 1, 0, 20 );
+
+        Files.write( target.resolve( "d0" ).resolve( "f0" ), new byte[1000] );
+
+        FileTreeUtils.copyTree( source, target, null, _pool );
+
+        assertArrayEquals( Files.readAllBytes( source.resolve( "d0" ).resolve( "f0" ) ),
+                           Files.readAllBytes( target.resolve( "d0" ).resolve( "f0" ) ) );
+        assertEquals( 20, target.resolve( "d0" ).toFile().list().length );
+    }
+
+
+    @Test
+    public void copyStopsAtTheFirstFailure()
+        throws Exception
+    {
+        Path    source = createTree( _root.resolve( "source" ), 1, 0, 10 );
+        Path    target = _root.resolve( "target" );
+
+        //
+        //    A non-empty directory where a file is to go can't be replaced.
+        //
+        Files.createDirectories( target.resolve( "d0" ).resolve( "f3" ).resolve( "x" ) );
+
+        try
+        {
+            FileTreeUtils.copyTree( source, target, null, _pool );
+            fail( "Expected the copy to fail" );
+        }
+        catch( IOException    ex )
+        {
+            assertTrue( ex.getMessage().contains( "f3" ) );
+        }
+    }
+
+
+    @Test
+    public void copiesFiles()
+        throws Exception
+    {
+        Path              source = createTree( _root.resolve( "source" ), 0, 0, 600 );
+        Path              target = Files.createDirectory( _root.resolve( "target" ) );
+        Map<Path,Path>    files  = new HashMap<Path,Path>();
+
+        for( int    index = 0; index < 600; index += 2 )
+        {
+            files.put( source.resolve( "f" + index ), target.resolve( "g" + index ) );
+        }
+
+        TreeStats    stats = FileTreeUtils.copyFiles( files, null, _pool );
+
+        assertEquals( 300, stats.getFiles() );
+        assertEquals( 3000, stats.getBytes() );
+        assertEquals( 300, target.toFile().list().length );
+
+        for( Map.Entry<Path,Path>    entry : files.entrySet() )
+        {
+            assertArrayEquals( Files.readAllBytes( entry.getKey() ), Files.readAllBytes( entry.getValue() ) );
+        }
+    }
+
+
+    /**
+     *    Makes root with files f0.. of 10 bytes each, and directories d0..
+     *    in it, each with the same files and subdirectories d0.., which
+     *    have the same files.
+     */
+    static Path createTree( final Path    root,
+                            final int     directories,
+                            final int     subdirectories,
+                            final int     files )
+        throws
+            IOException
+    {
+        Files.createDirectories( root );
+
+        for( int    index = 0; index < files; index++ )
+        {
+            byte[]    content = new byte[10];
+
+            content[0] = (byte) index;
+            content[1] = (byte) root.hashCode();
+
+            Files.write( root.resolve( "f" + index ), content );
+        }
+
+        for( int    index = 0; index < directories; index++ )
+        {
+            createTree( root.resolve( "d" + index ), subdirectories, 0, files );
+        }
+
+        return root;
+    }
+
+
+    private static void assertSameTree( final Path    expected,
+                                        final Path    actual )
+        throws
+            IOException
+    {
+        String[]    names = expected.toFile().list();
+
+        assertEquals( actual.toString(), names.length, actual.toFile().list().length );
+
+        for( String    name : names )
+        {
+            Path    from = expected.resolve( name );
+            Path    to   = actual.resolve( name );
+
+            if( Files.isSymbolicLink( from ) )
+            {
+                assertTrue( Files.isSymbolicLink( to ) );
+            }
+            else if( Files.isDirectory( from, LinkOption.NOFOLLOW_LINKS ) )
+            {
+                assertSameTree( from, to );
+            }
+            else
+            {
+                assertArrayEquals( to.toString(), Files.readAllBytes( from ), Files.readAllBytes( to ) );
+            }
+        }
+    }
+
+
+    /**
+     *    Makes the file impossible to delete: by taking away write access
+     *    to its directory, or as root, where that doesn't stop anything, by
+     *    making it immutable.  Skips the test if neither works.
+     */
+    private void protect( final Path    file )
+        throws
+            Exception
+    {
+        if( ! "root".equals( System.getProperty( "user.name" ) ) )
+        {
+            Assume.assumeTrue( file.getParent().toFile().setWritable( false ) );
+        }
+        else
+        {
+            Assume.assumeTrue( chattr( "+i", file ) );
+        }
+
+        _protected = file;
+    }
+
+
+    private static void unprotect( final Path    file )
+        throws
+            Exception
+    {
+        if( ! "root".equals( System.getProperty( "user.name" ) ) )
+        {
+            file.getParent().toFile().setWritable( true );
+        }
+        else
+        {
+            chattr( "-i", file );
+        }
+    }
+
+
+    private static boolean chattr( final String    flag,
+                                   final Path      file )
+    {
+        try
+        {
+            return new ProcessBuilder( "chattr", flag, file.toString() ).start().waitFor() == 0;
+        }
+        catch( Exception    ex )
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ *    Runs real processes through sh, so only where there is one.
+ */
+public class ProcessRunnerTest
+{
+    private static final long    TIMEOUT = 10;
+
+    @Rule
+    public TemporaryFolder    _folder = new TemporaryFolder();
+
+
+    @Before
+    public void setUp()
+    {
+        Assume.assumeFalse( OsUtils.isWindows() );
+    }
+
+
+    @Test
+    public void capturesOutputErrorAndExitCode()
+        throws Exception
+    {
+        ProcessResult    result = get( new ProcessRunner( 1 ).run( "sh", "-c", "echo out; echo err >&2; exit 3" ) );
+
+        assertEquals( "out\n", result.getOutput() );
+        assertEquals( "err\n", result.getError() );
+        assertEquals( 3, result.getExitCode() );
+        assertFalse( result.isSuccess() );
+    }
+
+
+    @Test
+    public void drainsBothStreamsAtOnce()
+        throws Exception
+    {
+        //
+        //    Far more than a pipe holds, on stderr first, so reading stdout
+        //    to the end before stderr would hang.
+        //
+        ProcessResult    result = get( new ProcessRunner( 1 ).run( "sh", "-c", "head -c 1000000 /dev/zero >&2;"
+                                                                              + " head -c 2000000 /dev/zero" ) );
+
+        assertEquals( 2000000, result.getOutputBytes().length );
+        assertEquals( 1000000, result.getErrorBytes().length );
+        assertTrue( result.isSuccess() );
+    }
+
+
+    @Test
+    public void copiesToGivenStreams()
+        throws Exception
+    {
+        ByteArrayOutputStream    stdout = new ByteArrayOutputStream();
+        ProcessResult            result = get( new ProcessRunner( 1 ).run( new ProcessBuilder( "echo", "hello" ),
+                                                                           stdout,
+                                                                           null ) );
+
+        assertEquals( "hello\n", stdout.toString( "UTF-8" ) );
+        assertEquals( 0, result.getOutputBytes().length );
+        assertEquals( 0, result.getErrorBytes().length );
+    }
+
+
+    @Test
+    public void keepsToMaxProcesses()
+        throws Exception
+    {
+        ProcessRunner                             runner  = new ProcessRunner( 2 );
+        List<CompletableFuture<ProcessResult>>    futures = new ArrayList<CompletableFuture<ProcessResult>>();
+
+        for( int    index = 0; index < 6; index++ )
+        {
+            futures.add( runner.run( "sleep", "0.3" ) );
+        }
+
+        assertEquals( 2, runner.getRunning() );
+        assertEquals( 4, runner.getPending() );
+
+        long    start = System.currentTimeMillis();
+
+        for( CompletableFuture<ProcessResult>    future : futures )
+        {
+            assertTrue( get( future ).isSuccess() );
+        }
+
+        //
+        //    Three rounds of two.
+        //
+        assertTrue( System.currentTimeMillis() - start >= 800 );
+
+        //
+        //    The last future completes just before its slot is given back.
+        //
+        for( long    deadline = System.currentTimeMillis() + 1000;
+             runner.getRunning() > 0 && System.currentTimeMillis() < deadline; )
+        {
+            Thread.sleep( 10 );
+        }
+
+        assertEquals( 0, runner.getRunning() );
+        assertEquals( 0, runner.getPending() );
+    }
+
+
+    @Test
+    public void killsProcessesThatRunTooLong()
+        throws Exception
+    {
+        ProcessRunner    runner = new ProcessRunner( 1 );
+        long             start  = System.currentTimeMillis();
+
+        runner.setTimeout( 200 );
+
+        try
+        {
+            get( runner.run( "sleep", "30" ) );
+            fail( "Expected a timeout" );
+        }
+        catch( ExecutionException    ex )
+        {
+            assertTrue( ex.getCause() instanceof TimeoutException );
+        }
+
+        assertTrue( System.currentTimeMillis() - start < 5000 );
+
+        //
+        //    The slot was given back.
+        //
+        assertTrue( get( runner.run( "true" ) ).isSuccess() );
+    }
+
+
+    @Test
+    public void cancelsTimeoutsOfFinishedProcesses()
+        throws Exception
+    {
+        ProcessRunner    runner = new ProcessRunner( 4 );
+
+        runner.setTimeout( TimeUnit.HOURS.toMillis( 1 ) );
+
+        for( int    index = 0; index < 20; index++ )
+        {
+            get( runner.run( "true" ) );
+        }
+
+        Field    timer = ProcessRunner.class.getDeclaredField( "_timer" );
+        timer.setAccessible( true );
+
+        //
+        //    The timeouts are cancelled as the futures complete, which can be
+        //    just after get returns.
+        //
+        ScheduledThreadPoolExecutor    executor = (ScheduledThreadPoolExecutor) timer.get( null );
+        long                           end      = System.currentTimeMillis() + 5000;
+
+        while( ! executor.getQueue().isEmpty() && System.currentTimeMillis() < end )
+        {
+            Thread.sleep( 10 );
+        }
+
+        assertEquals( 0, executor.getQueue().size() );
+    }
+
+
+    @Test
+    public void cancellingKillsTheProcess()
+        throws Exception
+    {
+        ProcessRunner                       runner = new ProcessRunner( 1 );
+        CompletableFuture<ProcessResult>    future = runner.run( "sleep", "30" );
+
+        Thread.sleep( 100 );
+        assertTrue( future.cancel( true ) );
+
+        //
+        //    Only gets to run once the killed one has given its slot back.
+        //
+        assertTrue( get( runner.run( "true" ) ).isSuccess() );
+    }
+
+
+    @Test
+    public void cancelledWhileQueuedNeverStarts()
+        throws Exception
+    {
+        ProcessRunner                       runner  = new ProcessRunner( 1 );
+        File                                marker  = new File( _folder.getRoot(), "marker" );
+        CompletableFuture<ProcessResult>    running = runner.run( "sleep", "0.2" );
+        CompletableFuture<ProcessResult>    queued  = runner.run( "touch", marker.getPath() );
+
+        assertTrue( queued.cancel( false ) );
+
+        get( running );
+        assertTrue( get( runner.run( "true" ) ).isSuccess() );
+
+        assertFalse( marker.exists() );
+        assertEquals( 0, runner.getPending() );
+    }
+
+
+    @Test
+    public void failsWhenTheCommandCantStart()
+        throws Exception
+    {
+        ProcessRunner    runner = new ProcessRunner( 1 );
+
+        try
+        {
+            get( runner.run( new File( _folder.getRoot(), "missing" ).getPath() ) );
+            fail( "Expected a failure" );
+        }
+        catch( ExecutionException    ex )
+        {
+            assertTrue( ex.getCause() instanceof IOException );
+        }
+
+        assertTrue( get( runner.run( "true" ) ).isSuccess() );
+    }
+
+
+    @Test
+    public void launchedProcessesDontTakeASlot()
+        throws Exception
+    {
+        ProcessRunner                       runner   = new ProcessRunner( 1 );
+        CompletableFuture<ProcessResult>    launched = runner.launch(
+            new ProcessBuilder( "sh", "-c", "head -c 5000000 /dev/zero; head -c 5000000 /dev/zero >&2; sleep 1" ) );
+
+        ProcessResult    result = get( runner.run( "echo", "hi" ) );
+
+        assertEquals( "hi\n", result.getOutput() );
+        assertFalse( launched.isDone() );
+
+        //
+        //    Its output was read, or it would never get to exit.
+        //
+        ProcessResult    launchedResult = get( launched );
+
+        assertTrue( launchedResult.isSuccess() );
+        assertEquals( 0, launchedResult.getOutputBytes().length );
+        assertEquals( 0, launchedResult.getErrorBytes().length );
+    }
+
+
+    @Test
+    public void launchedProcessesHaveNoTimeout()
+        throws Exception
+    {
+        ProcessRunner    runner = new ProcessRunner( 1 );
+
+        runner.setTimeout( 100 );
+
+        assertTrue( get( runner.launch( new ProcessBuilder( "sleep", "0.5" ) ) ).isSuccess() );
+    }
+
+
+    @Test( expected = IOException.class )
+    public void launchThrowsWhenTheCommandCantStart()
+        throws Exception
+    {
+        new ProcessRunner( 1 ).launch( new ProcessBuilder( new File( _folder.getRoot(), "missing" ).getPath() ) );
+    }
+
+
+    private static ProcessResult get( final CompletableFuture<ProcessResult>    future )
+        throws
+            Exception
+    {
+        return future.get( TIMEOUT, TimeUnit.SECONDS );
+    }
+}
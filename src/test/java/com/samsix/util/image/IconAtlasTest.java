@@ -0,0 +1,256 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.image;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+public class IconAtlasTest
+{
+    @Rule
+    public TemporaryFolder    _folder = new TemporaryFolder();
+
+    private String            _red;
+    private String            _green;
+    private String            _blue;
+    private String            _missing;
+    private File              _cache;
+
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        _red     = writeIcon( "red.png", 16, 16, 0xffff0000 );
+        _green   = writeIcon( "green.png", 24, 24, 0xff00ff00 );
+        _blue    = writeIcon( "blue.png", 16, 8, 0xff0000ff );
+        _missing = new File( _folder.getRoot(), "missing.png" ).toURI().toString();
+        _cache   = new File( _folder.getRoot(), "icons.atlas" );
+    }
+
+
+    @Test
+    public void buildsFromPaths()
+    {
+        IconAtlas    atlas = IconAtlas.build( Arrays.asList( _red, _green, _blue, _missing ) );
+
+        assertEquals( new HashSet<String>( Arrays.asList( _red, _green, _blue ) ), atlas.getPaths() );
+        assertIcon( atlas, _red, 16, 16, 0xffff0000 );
+        assertIcon( atlas, _green, 24, 24, 0xff00ff00 );
+        assertIcon( atlas, _blue, 16, 8, 0xff0000ff );
+        assertFalse( atlas.contains( _missing ) );
+        assertNull( atlas.getIcon( _missing ) );
+    }
+
+
+    @Test
+    public void savesAndLoads()
+        throws Exception
+    {
+        IconAtlas    built = IconAtlas.build( Arrays.asList( _red, _green, _blue, _missing ) );
+
+        built.save( _cache );
+
+        IconAtlas    loaded = IconAtlas.load( _cache );
+
+        assertEquals( built.getPaths(), loaded.getPaths() );
+        assertIcon( loaded, _red, 16, 16, 0xffff0000 );
+        assertIcon( loaded, _green, 24, 24, 0xff00ff00 );
+        assertIcon( loaded, _blue, 16, 8, 0xff0000ff );
+
+        //
+        //    Saving again replaces it, leaving no temporary files behind.
+        //
+        IconAtlas.build( Arrays.asList( _red ) ).save( _cache );
+
+        assertEquals( new HashSet<String>( Arrays.asList( _red ) ), IconAtlas.load( _cache ).getPaths() );
+        assertEquals( 4, _folder.getRoot().list().length );
+    }
+
+
+    @Test( expected = IOException.class )
+    public void rejectsWhatIsntAnAtlas()
+        throws Exception
+    {
+        write( _cache, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 } );
+
+        IconAtlas.load( _cache );
+    }
+
+
+    /**
+     *    The cache is used when it was built from the same paths, including
+     *    ones that couldn't be read then, whatever order they come in.
+     */
+    @Test
+    public void loadsFromTheCacheForTheSamePaths()
+        throws Exception
+    {
+        IconAtlas.loadOrBuild( _cache, Arrays.asList( _red, _green, _missing ) );
+
+        //
+        //    Gone, so only the cache has it.
+        //
+        assertTrue( new File( _folder.getRoot(), "red.png" ).delete() );
+
+        IconAtlas    atlas = IconAtlas.loadOrBuild( _cache, Arrays.asList( _missing, _green, _red ) );
+
+        assertIcon( atlas, _red, 16, 16, 0xffff0000 );
+        assertIcon( atlas, _green, 24, 24, 0xff00ff00 );
+        assertFalse( atlas.contains( _missing ) );
+    }
+
+
+    @Test
+    public void rebuildsWhenThePathsChange()
+        throws Exception
+    {
+        IconAtlas.loadOrBuild( _cache, Arrays.asList( _red, _green ) );
+
+        List<String>    paths = Arrays.asList( _red, _blue );
+        IconAtlas       atlas = IconAtlas.loadOrBuild( _cache, paths );
+
+        assertEquals( new HashSet<String>( paths ), atlas.getPaths() );
+        assertIcon( atlas, _blue, 16, 8, 0xff0000ff );
+        assertFalse( atlas.contains( _green ) );
+
+        //
+        //    And the cache file was rewritten for the new paths.
+        //
+        assertEquals( new HashSet<String>( paths ), IconAtlas.load( _cache ).getPaths() );
+
+        //
+        //    Dropping one is a change too.
+        //
+        assertEquals( new HashSet<String>( Arrays.asList( _red ) ),
+                      IconAtlas.loadOrBuild( _cache, Arrays.asList( _red ) ).getPaths() );
+    }
+
+
+    @Test
+    public void rebuildsOverAnUnreadableCache()
+        throws Exception
+    {
+        write( _cache, new byte[] { 1, 2, 3 } );
+
+        IconAtlas    atlas = IconAtlas.loadOrBuild( _cache, Arrays.asList( _red ) );
+
+        assertIcon( atlas, _red, 16, 16, 0xffff0000 );
+        assertEquals( atlas.getPaths(), IconAtlas.load( _cache ).getPaths() );
+    }
+
+
+    @Test
+    public void buildsFromADirectory()
+        throws Exception
+    {
+        File    directory = _folder.newFolder( "icons", "16x16" );
+
+        ImageIO.write( image( 16, 16, 0xffff0000 ), "png", new File( directory, "red.png" ) );
+        write( new File( directory, "notes.txt" ), new byte[] { 'x' } );
+
+        IconAtlas    atlas = IconAtlas.build( directory.getParentFile(), "incorsIcons/" );
+
+        assertEquals( new HashSet<String>( Arrays.asList( "incorsIcons/16x16/red.png" ) ), atlas.getPaths() );
+        assertIcon( atlas, "incorsIcons/16x16/red.png", 16, 16, 0xffff0000 );
+    }
+
+
+    private static void assertIcon( final IconAtlas    atlas,
+                                    final String       path,
+                                    final int          width,
+                                    final int          height,
+                                    final int          argb )
+    {
+        ImageIcon    icon = atlas.getIcon( path );
+
+        assertEquals( path, width, icon.getIconWidth() );
+        assertEquals( path, height, icon.getIconHeight() );
+
+        BufferedImage    image = (BufferedImage) icon.getImage();
+
+        assertEquals( path, argb, image.getRGB( 0, 0 ) );
+        assertEquals( path, argb, image.getRGB( width - 1, height - 1 ) );
+    }
+
+
+    /**
+     *    @return the icon's path, as a file: URL
+     */
+    private String writeIcon( final String    name,
+                              final int       width,
+                              final int       height,
+                              final int       argb )
+        throws
+            IOException
+    {
+        File    file = new File( _folder.getRoot(), name );
+
+        ImageIO.write( image( width, height, argb ), "png", file );
+
+        return file.toURI().toString();
+    }
+
+
+    private static BufferedImage image( final int    width,
+                                        final int    height,
+                                        final int    argb )
+    {
+        BufferedImage    image = new BufferedImage( width, height, BufferedImage.TYPE_INT_ARGB );
+
+        for( int    y = 0; y < height; y++ )
+        {
+            for( int    x = 0; x < width; x++ )
+            {
+                image.setRGB( x, y, argb );
+            }
+        }
+
+        return image;
+    }
+
+
+    private static void write( final File      file,
+                               final byte[]    bytes )
+        throws
+            IOException
+    {
+        FileOutputStream    out = new FileOutputStream( file );
+
+        try
+        {
+            out.write( bytes );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
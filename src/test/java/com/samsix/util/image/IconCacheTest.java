@@ -0,0 +1,146 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.image;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+
+import javax.swing.ImageIcon;
+
+import org.junit.Test;
+
+
+public class IconCacheTest
+{
+    @Test
+    public void findsWhatWasPut()
+    {
+        IconCache    cache = new IconCache( 4 );
+        ImageIcon    icon  = icon();
+
+        assertNull( cache.get( "a" ) );
+
+        cache.put( "a", icon );
+
+        assertSame( icon, cache.get( "a" ) );
+    }
+
+
+    @Test
+    public void keepsIconsThatFallOffTheStrongTier()
+    {
+        IconCache      cache = new IconCache( 2 );
+        ImageIcon[]    icons = new ImageIcon[10];
+
+        for( int    index = 0; index < icons.length; index++ )
+        {
+            icons[index] = icon();
+            cache.put( "icon" + index, icons[index] );
+        }
+
+        //
+        //    Still strongly held here, so the soft tier can't lose them.
+        //
+        for( int    index = 0; index < icons.length; index++ )
+        {
+            assertSame( icons[index], cache.get( "icon" + index ) );
+        }
+    }
+
+
+    @Test
+    public void cachesWithAStrongSizeOfZero()
+    {
+        IconCache    cache = new IconCache( 4 );
+        ImageIcon    a     = icon();
+        ImageIcon    b     = icon();
+
+        cache.put( "a", a );
+        cache.setStrongSize( 0 );
+        cache.put( "b", b );
+
+        assertSame( a, cache.get( "a" ) );
+        assertSame( b, cache.get( "b" ) );
+
+        //
+        //    Getting it promotes it, which with no strong tier demotes it
+        //    straight back.
+        //
+        assertSame( b, cache.get( "b" ) );
+        assertEquals( 0, cache.getStrongSize() );
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeSizes()
+    {
+        new IconCache( 4 ).setStrongSize( -1 );
+    }
+
+
+    /**
+     *    Puts from many threads demote each other's entries; none may be
+     *    lost on the way to the soft tier.
+     */
+    @Test
+    public void losesNothingUnderConcurrentPuts()
+        throws Exception
+    {
+        final IconCache      cache = new IconCache( 1 );
+        final ImageIcon[]    icons = new ImageIcon[2000];
+
+        for( int    index = 0; index < icons.length; index++ )
+        {
+            icons[index] = icon();
+        }
+
+        Thread[]    threads = new Thread[4];
+
+        for( int    number = 0; number < threads.length; number++ )
+        {
+            final int    first = number;
+
+            threads[number] = new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for( int    index = first; index < icons.length; index += 4 )
+                    {
+                        cache.put( "icon" + index, icons[index] );
+                        cache.get( "icon" + ( ( index * 7 ) % icons.length ) );
+                    }
+                }
+            } );
+
+            threads[number].start();
+        }
+
+        for( Thread    thread : threads )
+        {
+            thread.join();
+        }
+
+        for( int    index = 0; index < icons.length; index++ )
+        {
+            assertSame( "icon" + index, icons[index], cache.get( "icon" + index ) );
+        }
+    }
+
+
+    private static ImageIcon icon()
+    {
+        return new ImageIcon( new BufferedImage( 1, 1, BufferedImage.TYPE_INT_ARGB ) );
+    }
+}
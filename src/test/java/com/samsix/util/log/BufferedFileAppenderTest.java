@@ -0,0 +1,404 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.log;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+public class BufferedFileAppenderTest
+{
+    private static final long      TIMEOUT = 10;
+    private static final String    BACKUP  = "app\\.log\\.\\d{8}-\\d{6}\\.\\d{3}(-\\d+)?";
+
+    @Rule
+    public TemporaryFolder          _folder = new TemporaryFolder();
+
+    private Logger                  _logger;
+    private File                    _file;
+    private BufferedFileAppender    _appender;
+
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        _logger = Logger.getLogger( BufferedFileAppenderTest.class );
+        _logger.setAdditivity( false );
+        _logger.setLevel( Level.ALL );
+
+        _file = new File( _folder.getRoot(), "app.log" );
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        _logger.removeAllAppenders();
+
+        if( _appender != null )
+        {
+            _appender.close();
+        }
+    }
+
+
+    @Test
+    public void buffersUntilFlushed()
+        throws Exception
+    {
+        attach( false, 64 * 1024, 0 );
+
+        log( 0, 10 );
+
+        assertEquals( 0, _file.length() );
+
+        _appender.flush();
+
+        assertEquals( lines( 0, 10 ), read( _file ) );
+    }
+
+
+    @Test
+    public void writesWhenTheBufferFills()
+        throws Exception
+    {
+        attach( false, 1024, 0 );
+
+        log( 0, 2000 );
+
+        long    length = _file.length();
+
+        assertTrue( "wrote " + length, length > 0 && length < size( lines( 0, 2000 ) ) );
+
+        _appender.close();
+
+        assertEquals( lines( 0, 2000 ), read( _file ) );
+    }
+
+
+    @Test
+    public void flushesOnTheInterval()
+        throws Exception
+    {
+        attach( false, 64 * 1024, 20 );
+
+        log( 0, 3 );
+
+        long    deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos( TIMEOUT );
+
+        while( _file.length() == 0 && System.nanoTime() < deadline )
+        {
+            Thread.sleep( 10 );
+        }
+
+        assertEquals( lines( 0, 3 ), read( _file ) );
+    }
+
+
+    @Test
+    public void flushesAtTheFlushLevel()
+        throws Exception
+    {
+        attach( false, 64 * 1024, 0 );
+
+        _logger.info( "info" );
+        _logger.warn( "warn" );
+
+        assertEquals( 0, _file.length() );
+
+        _logger.error( "error" );
+
+        assertEquals( Arrays.asList( "info", "warn", "error" ), read( _file ) );
+
+        _appender.setFlushLevel( Level.WARN );
+        _logger.warn( "warn again" );
+
+        assertEquals( Arrays.asList( "info", "warn", "error", "warn again" ), read( _file ) );
+
+        _appender.setFlushLevel( null );
+        _logger.fatal( "fatal" );
+
+        assertEquals( 4, read( _file ).size() );
+    }
+
+
+    @Test
+    public void rollsAtTheMaximumSize()
+        throws Exception
+    {
+        attach( false, 256, 0 );
+
+        _appender.setMaxFileSize( 1000 );
+        _appender.setMaxBackupIndex( 100 );
+
+        log( 0, 2000 );
+
+        _appender.close();
+        drainTimer();
+
+        File[]    backups = backups();
+
+        assertEquals( size( lines( 0, 2000 ) ) / 1000, backups.length );
+
+        List<String>    all = new ArrayList<String>();
+
+        for( File    backup : backups )
+        {
+            assertTrue( backup + " " + backup.length(), backup.length() >= 1000 );
+            assertTrue( backup + " " + backup.length(), backup.length() < 1100 );
+            all.addAll( read( backup ) );
+        }
+
+        all.addAll( read( _file ) );
+
+        assertEquals( lines( 0, 2000 ), all );
+    }
+
+
+    /**
+     *    What is already in a file appended to counts toward its size.
+     */
+    @Test
+    public void countsWhatIsAppendedTo()
+        throws Exception
+    {
+        write( _file, new byte[990] );
+
+        attach( true, 256, 0 );
+
+        _appender.setMaxFileSize( 1000 );
+
+        _logger.info( "first line" );
+        _logger.info( "second line" );
+
+        _appender.close();
+        drainTimer();
+
+        assertEquals( 1, backups().length );
+        assertEquals( 990 + "first line\n".length(), backups()[0].length() );
+        assertEquals( Arrays.asList( "second line" ), read( _file ) );
+    }
+
+
+    @Test
+    public void prunesOnlyItsOwnBackups()
+        throws Exception
+    {
+        File    rolling = new File( _folder.getRoot(), "app.log.1" );
+        File    other   = new File( _folder.getRoot(), "app.log.20120314" );
+        File    sibling = new File( _folder.getRoot(), "other.log.20120314-093015.123" );
+
+        write( rolling, new byte[1] );
+        write( other, new byte[1] );
+        write( sibling, new byte[1] );
+
+        attach( false, 64 * 1024, 0 );
+
+        _appender.setMaxBackupIndex( 2 );
+
+        for( int    index = 0; index < 5; index++ )
+        {
+            _logger.info( "line " + index );
+            _appender.rollOver();
+        }
+
+        drainTimer();
+
+        File[]    backups = backups();
+
+        assertEquals( 2, backups.length );
+        assertEquals( lines( 3, 1 ), read( backups[0] ) );
+        assertEquals( lines( 4, 1 ), read( backups[1] ) );
+
+        assertTrue( rolling.exists() );
+        assertTrue( other.exists() );
+        assertTrue( sibling.exists() );
+    }
+
+
+    @Test
+    public void namesBackupsByTimestamp()
+        throws Exception
+    {
+        attach( false, 64 * 1024, 0 );
+
+        _appender.setMaxBackupIndex( 100 );
+
+        for( int    index = 0; index < 20; index++ )
+        {
+            _logger.info( "line " + index );
+            _appender.rollOver();
+        }
+
+        drainTimer();
+
+        File[]    backups = backups();
+
+        //
+        //    Rolls in the same millisecond get a count.
+        //
+        assertEquals( 20, backups.length );
+
+        for( int    index = 0; index < backups.length; index++ )
+        {
+            assertEquals( lines( index, 1 ), read( backups[index] ) );
+        }
+
+        assertEquals( 0, _file.length() );
+    }
+
+
+    private void attach( final boolean    append,
+                         final int        bufferSize,
+                         final long       flushInterval )
+        throws
+            IOException
+    {
+        _appender = new BufferedFileAppender( new PatternLayout( "%m%n" ),
+                                              _file.getPath(),
+                                              append,
+                                              bufferSize,
+                                              flushInterval );
+        _logger.addAppender( _appender );
+    }
+
+
+    private void log( final int    first,
+                      final int    count )
+    {
+        for( int    index = first; index < first + count; index++ )
+        {
+            _logger.info( "line " + index );
+        }
+    }
+
+
+    private static List<String> lines( final int    first,
+                                       final int    count )
+    {
+        List<String>    lines = new ArrayList<String>();
+
+        for( int    index = first; index < first + count; index++ )
+        {
+            lines.add( "line " + index );
+        }
+
+        return lines;
+    }
+
+
+    /**
+     *    Backups oldest first.
+     */
+    private File[] backups()
+    {
+        File[]    backups = _folder.getRoot().listFiles( new FilenameFilter()
+        {
+            @Override
+            public boolean accept( final File      dir,
+                                   final String    name )
+            {
+                return name.matches( BACKUP );
+            }
+        } );
+
+        Arrays.sort( backups, BufferedFileAppender.BACKUP_ORDER );
+
+        return backups;
+    }
+
+
+    private static int size( final List<String>    lines )
+    {
+        int    size = 0;
+
+        for( String    line : lines )
+        {
+            size += line.length() + 1;
+        }
+
+        return size;
+    }
+
+
+    private static List<String> read( final File    file )
+        throws
+            IOException
+    {
+        return Files.readAllLines( file.toPath(), Charset.defaultCharset() );
+    }
+
+
+    private static void write( final File      file,
+                               final byte[]    bytes )
+        throws
+            IOException
+    {
+        FileOutputStream    out = new FileOutputStream( file );
+
+        try
+        {
+            out.write( bytes );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+
+    /**
+     *    Waits for what the appenders have handed their timer thread so far.
+     */
+    private static void drainTimer()
+        throws
+            Exception
+    {
+        Field    field = BufferedFileAppender.class.getDeclaredField( "_timer" );
+
+        field.setAccessible( true );
+
+        ScheduledThreadPoolExecutor    timer = (ScheduledThreadPoolExecutor) field.get( null );
+
+        timer.submit( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // nothing
+            }
+        } ).get( TIMEOUT, TimeUnit.SECONDS );
+    }
+
+}
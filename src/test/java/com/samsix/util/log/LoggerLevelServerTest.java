@@ -0,0 +1,151 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.log;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class LoggerLevelServerTest
+{
+    private static final long      TIMEOUT = 10;
+    private static final String    NAME    = LoggerLevelServerTest.class.getName();
+
+    private LoggerLevelServer    _server;
+    private Socket               _socket;
+    private BufferedReader       _in;
+    private PrintWriter          _out;
+
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        Logger.getLogger( NAME ).setLevel( Level.WARN );
+        Logger.getLogger( LoggerControl.class ).setLevel( Level.WARN );
+
+        _server = new LoggerLevelServer( 0 );
+        connect();
+    }
+
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        _socket.close();
+        _server.close();
+
+        Logger.getLogger( NAME ).setLevel( null );
+        Logger.getLogger( LoggerControl.class ).setLevel( null );
+        LoggerControl.levelsChanged();
+    }
+
+
+    @Test
+    public void answersCommands()
+        throws Exception
+    {
+        assertTrue( send( "list" ).contains( NAME + ": WARN" ) );
+        assertEquals( Arrays.asList( "WARN" ), send( "get " + NAME ) );
+        assertEquals( Arrays.asList( NAME + ": WARN -> DEBUG" ), send( "SET " + NAME + " debug" ) );
+        assertEquals( Level.DEBUG, Logger.getLogger( NAME ).getLevel() );
+        assertEquals( Arrays.asList( NAME + ": DEBUG -> inherited " + LogManager.getRootLogger().getLevel() ),
+                      send( "reset " + NAME ) );
+        assertNull( Logger.getLogger( NAME ).getLevel() );
+    }
+
+
+    @Test
+    public void reportsErrorsAndCarriesOn()
+        throws Exception
+    {
+        assertTrue( send( "set " + NAME + " LOUD" ).get( 0 ).startsWith( "ERROR Unknown level [LOUD]" ) );
+        assertTrue( send( "get " + NAME + ".missing" ).get( 0 ).startsWith( "ERROR No logger" ) );
+        assertTrue( send( "frobnicate" ).get( 0 ).startsWith( "ERROR Expected list" ) );
+        assertTrue( send( "get" ).get( 0 ).startsWith( "ERROR Expected list" ) );
+
+        assertNull( LogManager.exists( NAME + ".missing" ) );
+        assertEquals( Arrays.asList( "WARN" ), send( "get " + NAME ) );
+    }
+
+
+    @Test
+    public void hangsUpOnQuit()
+        throws Exception
+    {
+        _out.print( "quit\n" );
+        _out.flush();
+
+        assertNull( _in.readLine() );
+
+        //
+        //    And takes the next connection.
+        //
+        _socket.close();
+        connect();
+
+        assertEquals( Arrays.asList( "WARN" ), send( "get " + NAME ) );
+    }
+
+
+    /**
+     *    @return the answer's lines, without the empty line that ends it
+     */
+    private List<String> send( final String    command )
+        throws
+            Exception
+    {
+        _out.print( command + "\n" );
+        _out.flush();
+
+        List<String>    answer = new ArrayList<String>();
+        String          line;
+
+        while( ( line = _in.readLine() ) != null && ! line.isEmpty() )
+        {
+            answer.add( line );
+        }
+
+        return answer;
+    }
+
+
+    private void connect()
+        throws
+            Exception
+    {
+        _socket = new Socket( InetAddress.getLoopbackAddress(), _server.getPort() );
+        _socket.setSoTimeout( (int) TimeUnit.SECONDS.toMillis( TIMEOUT ) );
+        _in = new BufferedReader( new InputStreamReader( _socket.getInputStream(), StandardCharsets.UTF_8 ) );
+        _out = new PrintWriter( new OutputStreamWriter( _socket.getOutputStream(), StandardCharsets.UTF_8 ) );
+    }
+}
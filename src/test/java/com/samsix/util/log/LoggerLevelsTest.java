@@ -0,0 +1,252 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.log;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class LoggerLevelsTest
+{
+    private static final long      TIMEOUT = 10;
+    private static final String    PARENT  = LoggerLevelsTest.class.getName();
+    private static final String    CHILD   = PARENT + ".child";
+
+    private final LoggerLevels    _levels = new LoggerLevels();
+
+    private Level                 _rootLevel;
+
+
+    @Before
+    public void setUp()
+    {
+        _rootLevel = LogManager.getRootLogger().getLevel();
+
+        Logger.getLogger( PARENT ).setLevel( Level.WARN );
+        Logger.getLogger( CHILD ).setLevel( null );
+        LoggerControl.levelsChanged();
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        LogManager.getRootLogger().setLevel( _rootLevel );
+        Logger.getLogger( PARENT ).setLevel( null );
+        Logger.getLogger( CHILD ).setLevel( null );
+        LoggerControl.levelsChanged();
+    }
+
+
+    @Test
+    public void setsLevels()
+    {
+        assertEquals( CHILD + ": inherited -> DEBUG", _levels.setLevel( CHILD, "debug" ) );
+        assertEquals( Level.DEBUG, Logger.getLogger( CHILD ).getLevel() );
+        assertEquals( "DEBUG", _levels.getEffectiveLevel( CHILD ) );
+
+        assertEquals( CHILD + ": DEBUG -> ERROR", _levels.setLevel( CHILD.replace( '.', '/' ), "ERROR" ) );
+        assertEquals( Level.ERROR, Logger.getLogger( CHILD ).getLevel() );
+
+        assertTrue( Arrays.asList( _levels.getLoggerLevels() ).contains( CHILD + ": ERROR" ) );
+        assertTrue( Arrays.asList( _levels.getLoggerLevels() ).contains( PARENT + ": WARN" ) );
+    }
+
+
+    @Test
+    public void resetsToTheParentsLevel()
+    {
+        _levels.setLevel( CHILD, "DEBUG" );
+
+        assertEquals( CHILD + ": DEBUG -> inherited WARN", _levels.resetLevel( CHILD ) );
+        assertNull( Logger.getLogger( CHILD ).getLevel() );
+        assertEquals( "WARN", _levels.getEffectiveLevel( CHILD ) );
+        assertFalse( Arrays.asList( _levels.getLoggerLevels() ).contains( CHILD + ": DEBUG" ) );
+    }
+
+
+    @Test
+    public void rejectsUnknownLevels()
+    {
+        try
+        {
+            _levels.setLevel( CHILD, "DEBIG" );
+            fail( "Expected a failure" );
+        }
+        catch( IllegalArgumentException    ex )
+        {
+            assertTrue( ex.getMessage(), ex.getMessage().contains( "DEBIG" ) );
+        }
+
+        assertNull( Logger.getLogger( CHILD ).getLevel() );
+    }
+
+
+    @Test
+    public void handlesTheRootLogger()
+    {
+        String    root = LogManager.getRootLogger().getName();
+
+        assertEquals( root + ": " + _rootLevel + " -> INFO", _levels.setLevel( root, "INFO" ) );
+        assertEquals( "INFO", _levels.getEffectiveLevel( root ) );
+        assertEquals( root + ": INFO", _levels.getLoggerLevels()[0] );
+
+        try
+        {
+            _levels.resetLevel( root );
+            fail( "Expected a failure" );
+        }
+        catch( IllegalArgumentException    ex )
+        {
+            assertEquals( Level.INFO, LogManager.getRootLogger().getLevel() );
+        }
+    }
+
+
+    /**
+     *    Looking up a logger by a mistyped name mustn't leave a logger behind.
+     */
+    @Test
+    public void doesntCreateLoggersItLooksUp()
+    {
+        String    name = PARENT + ".typo";
+
+        for( String    command : new String[] { "get", "reset" } )
+        {
+            try
+            {
+                if( "get".equals( command ) )
+                {
+                    _levels.getEffectiveLevel( name );
+                }
+                else
+                {
+                    _levels.resetLevel( name );
+                }
+
+                fail( "Expected " + command + " to fail" );
+            }
+            catch( IllegalArgumentException    ex )
+            {
+                assertTrue( ex.getMessage(), ex.getMessage().contains( name ) );
+            }
+
+            assertNull( LogManager.exists( name ) );
+        }
+    }
+
+
+    @Test
+    public void cachedLevelsFollowChanges()
+    {
+        CachedLevel    level = CachedLevel.forLogger( Logger.getLogger( CHILD ) );
+
+        assertFalse( level.isInfoEnabled() );
+
+        LoggerControl.setLoggingLevel( CHILD, Level.DEBUG );
+
+        assertTrue( level.isInfoEnabled() );
+        assertTrue( level.isDebugEnabled() );
+        assertFalse( level.isTraceEnabled() );
+
+        _levels.setLevel( PARENT, "TRACE" );
+
+        assertFalse( level.isTraceEnabled() );
+
+        _levels.resetLevel( CHILD );
+
+        assertTrue( level.isTraceEnabled() );
+        assertTrue( level.isInfoEnabled() );
+
+        Logger.getLogger( PARENT ).setLevel( Level.ERROR );
+
+        assertTrue( "Not refreshed yet", level.isInfoEnabled() );
+
+        LoggerControl.levelsChanged();
+
+        assertFalse( level.isInfoEnabled() );
+        assertFalse( level.isDebugEnabled() );
+    }
+
+
+    /**
+     *    Whatever order the threads' refreshes run in, the cache ends up
+     *    agreeing with the last change.
+     */
+    @Test
+    public void concurrentChangesEndUpCurrent()
+        throws Exception
+    {
+        final CachedLevel       level = CachedLevel.forLogger( Logger.getLogger( CHILD ) );
+        final CountDownLatch    start = new CountDownLatch( 1 );
+        Thread[]                threads = new Thread[4];
+
+        for( int    index = 0; index < threads.length; index++ )
+        {
+            final Level    set = index % 2 == 0 ? Level.DEBUG : Level.ERROR;
+
+            threads[index] = new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                    }
+                    catch( InterruptedException    ex )
+                    {
+                        return;
+                    }
+
+                    for( int    count = 0; count < 500; count++ )
+                    {
+                        LoggerControl.setLoggingLevel( CHILD, set );
+                    }
+                }
+            } );
+            threads[index].start();
+        }
+
+        Logger.getLogger( LoggerControl.class ).setLevel( Level.OFF );
+
+        try
+        {
+            start.countDown();
+
+            for( Thread    thread : threads )
+            {
+                thread.join( TimeUnit.SECONDS.toMillis( TIMEOUT ) );
+            }
+        }
+        finally
+        {
+            Logger.getLogger( LoggerControl.class ).setLevel( null );
+        }
+
+        assertEquals( Logger.getLogger( CHILD ).isDebugEnabled(), level.isDebugEnabled() );
+        assertEquals( Logger.getLogger( CHILD ).isInfoEnabled(), level.isInfoEnabled() );
+    }
+}
@@ -0,0 +1,561 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.log;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.EnhancedPatternLayout;
+import org.apache.log4j.HTMLLayout;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.SimpleLayout;
+import org.apache.log4j.TTCCLayout;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.varia.StringMatchFilter;
+import org.apache.log4j.xml.XMLLayout;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class RingBufferAppenderTest
+{
+    private static final long    TIMEOUT = 10;
+
+    private Logger                _logger;
+    private RingBufferAppender    _appender;
+
+
+    @Before
+    public void setUp()
+    {
+        _logger = Logger.getLogger( RingBufferAppenderTest.class );
+        _logger.setAdditivity( false );
+        _logger.setLevel( Level.ALL );
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        _logger.removeAllAppenders();
+
+        if( _appender != null )
+        {
+            _appender.close();
+        }
+    }
+
+
+    @Test
+    public void writesEventsInOrder()
+    {
+        Sink    sink = attach( new Sink(), 16, RingBufferAppender.OverflowPolicy.BLOCK );
+
+        for( int    index = 0; index < 1000; index++ )
+        {
+            _logger.info( "event " + index );
+        }
+
+        _appender.close();
+
+        assertEquals( 1000, sink.size() );
+
+        for( int    index = 0; index < 1000; index++ )
+        {
+            assertEquals( "event " + index, sink.getMessage( index ) );
+        }
+
+        assertEquals( 0, _appender.getDroppedCount() );
+        assertEquals( 0, _appender.getPending() );
+        assertEquals( 16, _appender.getCapacity() );
+    }
+
+
+    @Test
+    public void roundsCapacityUpToAPowerOfTwo()
+    {
+        attach( new Sink(), 1000, RingBufferAppender.OverflowPolicy.BLOCK );
+
+        assertEquals( 1024, _appender.getCapacity() );
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidCapacity()
+    {
+        new RingBufferAppender( new Sink(), 0, RingBufferAppender.OverflowPolicy.BLOCK );
+    }
+
+
+    @Test
+    public void blockingLosesNothingFromManyThreads()
+        throws Exception
+    {
+        final Sink    sink = attach( new Sink(), 8, RingBufferAppender.OverflowPolicy.BLOCK );
+
+        Thread[]    threads = new Thread[4];
+
+        for( int    index = 0; index < threads.length; index++ )
+        {
+            final int    number = index;
+
+            threads[index] = new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for( int    count = 0; count < 5000; count++ )
+                    {
+                        _logger.info( number + " " + count );
+                    }
+                }
+            } );
+
+            threads[index].start();
+        }
+
+        for( Thread    thread : threads )
+        {
+            thread.join();
+        }
+
+        _appender.close();
+
+        assertEquals( 20000, sink.size() );
+        assertEquals( 0, _appender.getDroppedCount() );
+
+        //
+        //    Each thread's events in the order it logged them.
+        //
+        int[]    next = new int[threads.length];
+
+        for( int    index = 0; index < sink.size(); index++ )
+        {
+            String[]    words  = sink.getMessage( index ).split( " " );
+            int         number = Integer.parseInt( words[0] );
+
+            assertEquals( next[number]++, Integer.parseInt( words[1] ) );
+        }
+    }
+
+
+    @Test
+    public void droppingCountsAndReportsWhatIsLost()
+        throws Exception
+    {
+        Sink    sink = attach( new Sink(), 4, RingBufferAppender.OverflowPolicy.DROP );
+
+        sink.hold();
+        _logger.info( "first" );
+        sink.awaitHeld();
+
+        //
+        //    The writer is stuck on the first, so four fit and the rest go.
+        //
+        for( int    index = 0; index < 20; index++ )
+        {
+            _logger.info( "event " + index );
+        }
+
+        assertEquals( 16, _appender.getDroppedCount() );
+        assertEquals( 4, _appender.getPending() );
+
+        sink.release();
+        _appender.close();
+
+        assertEquals( 6, sink.size() );
+        assertEquals( "first", sink.getMessage( 0 ) );
+
+        for( int    index = 0; index < 4; index++ )
+        {
+            assertEquals( "event " + index, sink.getMessage( index + 1 ) );
+        }
+
+        LoggingEvent    report = sink.get( 5 );
+
+        assertEquals( Level.WARN, report.getLevel() );
+        assertTrue( report.getRenderedMessage(), report.getRenderedMessage().startsWith( "RingBufferAppender: Dropped 16 " ) );
+        assertTrue( sink.isClosed() );
+    }
+
+
+    @Test
+    public void dropsOnlyBelowTheDiscardThreshold()
+        throws Exception
+    {
+        Sink    sink = attach( new Sink(), 4, RingBufferAppender.OverflowPolicy.DROP_BELOW_LEVEL );
+
+        sink.hold();
+        _logger.info( "first" );
+        sink.awaitHeld();
+
+        for( int    index = 0; index < 4; index++ )
+        {
+            _logger.info( "event " + index );
+        }
+
+        _logger.info( "dropped" );
+        assertEquals( 1, _appender.getDroppedCount() );
+
+        Thread    thread = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                _logger.error( "kept" );
+            }
+        } );
+
+        thread.start();
+        thread.join( 200 );
+
+        //
+        //    Still waiting for room.
+        //
+        assertTrue( thread.isAlive() );
+
+        sink.release();
+        thread.join( TimeUnit.SECONDS.toMillis( TIMEOUT ) );
+        assertFalse( thread.isAlive() );
+
+        _appender.close();
+
+        List<String>    messages = sink.getMessages();
+
+        assertTrue( messages.toString(), messages.contains( "kept" ) );
+        assertFalse( messages.toString(), messages.contains( "dropped" ) );
+        assertEquals( 1, _appender.getDroppedCount() );
+    }
+
+
+    @Test
+    public void ignoresEventsAfterClose()
+    {
+        Sink    sink = attach( new Sink(), 16, RingBufferAppender.OverflowPolicy.BLOCK );
+
+        _logger.info( "before" );
+        _appender.close();
+        _logger.info( "after" );
+
+        assertEquals( 1, sink.size() );
+        assertEquals( "before", sink.getMessage( 0 ) );
+        assertTrue( sink.isClosed() );
+    }
+
+
+    /**
+     *    Events accepted while the appender is being closed are either
+     *    written or counted as dropped, never lost without a trace.
+     */
+    @Test
+    public void closeAccountsForEveryAcceptedEvent()
+        throws Exception
+    {
+        for( RingBufferAppender.OverflowPolicy    policy : RingBufferAppender.OverflowPolicy.values() )
+        {
+            Sink    sink = attach( new Sink(), 8, policy );
+
+            //
+            //    Filters run after the closed check, so this counts exactly
+            //    what got in.
+            //
+            final AtomicInteger    accepted = new AtomicInteger();
+
+            _appender.addFilter( new Filter()
+            {
+                @Override
+                public int decide( final LoggingEvent    event )
+                {
+                    accepted.incrementAndGet();
+                    return NEUTRAL;
+                }
+            } );
+
+            Thread[]    threads = new Thread[4];
+
+            for( int    index = 0; index < threads.length; index++ )
+            {
+                threads[index] = new Thread( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        for( int    count = 0; count < 20000; count++ )
+                        {
+                            _logger.info( "event" );
+                        }
+                    }
+                } );
+
+                threads[index].start();
+            }
+
+            Thread.sleep( 20 );
+            _appender.close();
+
+            for( Thread    thread : threads )
+            {
+                thread.join();
+            }
+
+            int    written = 0;
+
+            for( String    message : sink.getMessages() )
+            {
+                if( "event".equals( message ) )
+                {
+                    written++;
+                }
+            }
+
+            assertEquals( policy.toString(), accepted.get(), written + _appender.getDroppedCount() );
+            assertEquals( policy.toString(), 0, _appender.getPending() );
+
+            _logger.removeAllAppenders();
+        }
+    }
+
+
+    @Test
+    public void capturesLocationOnTheLoggingThread()
+        throws Exception
+    {
+        Sink    sink = attach( new Sink(), 16, RingBufferAppender.OverflowPolicy.BLOCK );
+
+        _appender.setLocationInfo( true );
+
+        Thread    thread = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                _logger.info( "here" );
+            }
+        }, "Logging Thread" );
+
+        thread.start();
+        thread.join();
+        _appender.close();
+
+        LoggingEvent    event = sink.get( 0 );
+
+        assertEquals( "Logging Thread", event.getThreadName() );
+        assertEquals( "run", event.getLocationInformation().getMethodName() );
+        assertTrue( event.getLocationInformation().getClassName(),
+                    event.getLocationInformation().getClassName().startsWith( RingBufferAppenderTest.class.getName() ) );
+    }
+
+
+    @Test
+    public void appliesThresholdAndFilters()
+    {
+        Sink    sink = attach( new Sink(), 16, RingBufferAppender.OverflowPolicy.BLOCK );
+
+        StringMatchFilter    filter = new StringMatchFilter();
+
+        filter.setStringToMatch( "secret" );
+        filter.setAcceptOnMatch( false );
+
+        _appender.setThreshold( Level.INFO );
+        _appender.addFilter( filter );
+
+        _logger.debug( "too low" );
+        _logger.info( "shown" );
+        _logger.warn( "a secret" );
+        _logger.error( "also shown" );
+
+        _appender.close();
+
+        assertEquals( 2, sink.size() );
+        assertEquals( "shown", sink.getMessage( 0 ) );
+        assertEquals( "also shown", sink.getMessage( 1 ) );
+    }
+
+
+    @Test
+    public void knowsWhichLayoutsNeedLocation()
+    {
+        assertTrue( needs( "%C %m%n" ) );
+        assertTrue( needs( "%d %-5p [%F:%L] %m%n" ) );
+        assertTrue( needs( "%-20.30M" ) );
+        assertTrue( needs( "%l" ) );
+        assertTrue( needs( "%%%L" ) );
+
+        assertFalse( needs( "%d %-5p [%t] %c - %m%n" ) );
+        assertFalse( needs( "%%L %%C" ) );
+        assertFalse( needs( "100%" ) );
+        assertFalse( needs( "Class %c{1}" ) );
+
+        assertTrue( RingBufferAppender.needsLocationInfo( new EnhancedPatternLayout( "%d %C{1}.%M %m%n" ) ) );
+        assertFalse( RingBufferAppender.needsLocationInfo( new EnhancedPatternLayout( "%d %m%n" ) ) );
+
+        XMLLayout    xml = new XMLLayout();
+
+        assertFalse( RingBufferAppender.needsLocationInfo( xml ) );
+        xml.setLocationInfo( true );
+        assertTrue( RingBufferAppender.needsLocationInfo( xml ) );
+
+        HTMLLayout    html = new HTMLLayout();
+
+        assertFalse( RingBufferAppender.needsLocationInfo( html ) );
+        html.setLocationInfo( true );
+        assertTrue( RingBufferAppender.needsLocationInfo( html ) );
+
+        assertFalse( RingBufferAppender.needsLocationInfo( new SimpleLayout() ) );
+        assertFalse( RingBufferAppender.needsLocationInfo( new TTCCLayout() ) );
+        assertFalse( RingBufferAppender.needsLocationInfo( null ) );
+    }
+
+
+    private static boolean needs( final String    pattern )
+    {
+        return RingBufferAppender.needsLocationInfo( new PatternLayout( pattern ) );
+    }
+
+
+    private Sink attach( final Sink                                 sink,
+                         final int                                  capacity,
+                         final RingBufferAppender.OverflowPolicy    policy )
+    {
+        if( _appender != null )
+        {
+            _appender.close();
+        }
+
+        _appender = new RingBufferAppender( sink, capacity, policy );
+        _logger.addAppender( _appender );
+
+        return sink;
+    }
+
+
+    /**
+     *    Keeps what it is given, and can be made to stop on an event until
+     *    released, to fill the buffer behind it.
+     */
+    private static class Sink
+        extends
+            AppenderSkeleton
+    {
+        private final List<LoggingEvent>    _events = new ArrayList<LoggingEvent>();
+
+        private volatile CountDownLatch     _held;
+        private volatile CountDownLatch     _release;
+
+
+        void hold()
+        {
+            _held    = new CountDownLatch( 1 );
+            _release = new CountDownLatch( 1 );
+        }
+
+
+        void awaitHeld()
+            throws InterruptedException
+        {
+            assertTrue( _held.await( TIMEOUT, TimeUnit.SECONDS ) );
+        }
+
+
+        void release()
+        {
+            _release.countDown();
+        }
+
+
+        @Override
+        protected void append( final LoggingEvent    event )
+        {
+            CountDownLatch    release = _release;
+
+            if( release != null )
+            {
+                _held.countDown();
+
+                try
+                {
+                    release.await( TIMEOUT, TimeUnit.SECONDS );
+                }
+                catch( InterruptedException    ex )
+                {
+                    Thread.currentThread().interrupt();
+                }
+
+                _release = null;
+            }
+
+            _events.add( event );
+        }
+
+
+        synchronized int size()
+        {
+            return _events.size();
+        }
+
+
+        synchronized LoggingEvent get( final int    index )
+        {
+            return _events.get( index );
+        }
+
+
+        String getMessage( final int    index )
+        {
+            return get( index ).getRenderedMessage();
+        }
+
+
+        synchronized List<String> getMessages()
+        {
+            List<String>    messages = new ArrayList<String>();
+
+            for( LoggingEvent    event : _events )
+            {
+                messages.add( event.getRenderedMessage() );
+            }
+
+            return messages;
+        }
+
+
+        boolean isClosed()
+        {
+            return closed;
+        }
+
+
+        @Override
+        public void close()
+        {
+            closed = true;
+        }
+
+
+        @Override
+        public boolean requiresLayout()
+        {
+            return false;
+        }
+    }
+}
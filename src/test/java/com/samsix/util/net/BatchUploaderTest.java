@@ -0,0 +1,445 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.net;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+
+public class BatchUploaderTest
+{
+    private static final long    TIMEOUT = 10;
+
+    @Rule
+    public TemporaryFolder    _folder = new TemporaryFolder();
+
+    private TestHttpServer    _server;
+
+    /**
+     *    What has arrived, by uploadId
+     */
+    private final ConcurrentMap<String,Received>    _received = new ConcurrentHashMap<String,Received>();
+
+    /**
+     *    How many more requests to answer with a 500
+     */
+    private final AtomicInteger    _failuresLeft = new AtomicInteger();
+
+
+    private static final class Received
+    {
+        final AtomicInteger    _chunks = new AtomicInteger();
+
+        String                 _fileName;
+        String                 _owner;
+        byte[]                 _content;
+    }
+
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        _server = new TestHttpServer();
+
+        _server.handle( "/upload", new HttpHandler()
+        {
+            @Override
+            public void handle( final HttpExchange    exchange )
+                throws
+                    IOException
+            {
+                byte[]    body = TestHttpServer.readFully( exchange.getRequestBody() );
+
+                if( _failuresLeft.getAndDecrement() > 0 )
+                {
+                    TestHttpServer.respond( exchange, 500, new byte[0] );
+                    return;
+                }
+
+                receive( exchange.getRequestHeaders().getFirst( "Content-Type" ), body );
+                TestHttpServer.respond( exchange, 200, "ok".getBytes( StandardCharsets.UTF_8 ) );
+            }
+        } );
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        _server.close();
+    }
+
+
+    @Test
+    public void uploadsSmallFilesAsOneChunk()
+        throws Exception
+    {
+        Path             file     = createFile( "small.bin", 1000 );
+        BatchUploader    uploader = new BatchUploader( _server.url( "/upload" ), 2 );
+
+        uploader.addFormField( "owner", "test" );
+        uploader.upload( file ).get( TIMEOUT, TimeUnit.SECONDS );
+
+        assertEquals( 1, _received.size() );
+
+        Received    received = _received.values().iterator().next();
+
+        assertEquals( "small.bin", received._fileName );
+        assertEquals( "test", received._owner );
+        assertEquals( 1, received._chunks.get() );
+        assertArrayEquals( Files.readAllBytes( file ), received._content );
+        assertEquals( 1000, uploader.getBytesSent() );
+
+        uploader.shutdown();
+    }
+
+
+    @Test
+    public void splitsLargeFilesIntoChunks()
+        throws Exception
+    {
+        Path             file     = createFile( "large.bin", 5500 );
+        BatchUploader    uploader = new BatchUploader( _server.url( "/upload" ), 4 );
+
+        final AtomicLong       lastSent = new AtomicLong();
+        final AtomicInteger    finished = new AtomicInteger();
+
+        uploader.setChunkSize( 1000 );
+        uploader.setProgressListener( new BatchUploader.ProgressListener()
+        {
+            @Override
+            public void progress( final Path    path,
+                                  final long    bytesSent,
+                                  final long    totalBytes )
+            {
+                assertEquals( 5500, totalBytes );
+
+                synchronized( lastSent )
+                {
+                    lastSent.set( Math.max( lastSent.get(), bytesSent ) );
+                }
+            }
+
+
+            @Override
+            public void finished( final Path    path,
+                                  final long    totalBytes,
+                                  final long    millis )
+            {
+                finished.incrementAndGet();
+            }
+        } );
+
+        uploader.upload( file ).get( TIMEOUT, TimeUnit.SECONDS );
+
+        Received    received = _received.values().iterator().next();
+
+        assertEquals( 6, received._chunks.get() );
+        assertArrayEquals( Files.readAllBytes( file ), received._content );
+        assertEquals( 5500, lastSent.get() );
+        assertEquals( 1, finished.get() );
+
+        uploader.shutdown();
+    }
+
+
+    @Test
+    public void listenerFailuresDontStopTheUpload()
+        throws Exception
+    {
+        Path             file     = createFile( "listened.bin", 3000 );
+        BatchUploader    uploader = new BatchUploader( _server.url( "/upload" ), 2 );
+
+        uploader.setChunkSize( 1000 );
+        uploader.setProgressListener( new BatchUploader.ProgressListener()
+        {
+            @Override
+            public void progress( final Path    path,
+                                  final long    bytesSent,
+                                  final long    totalBytes )
+            {
+                throw new IllegalStateException( "progress" );
+            }
+
+
+            @Override
+            public void finished( final Path    path,
+                                  final long    totalBytes,
+                                  final long    millis )
+            {
+                throw new IllegalStateException( "finished" );
+            }
+        } );
+
+        uploader.upload( file ).get( TIMEOUT, TimeUnit.SECONDS );
+
+        assertArrayEquals( Files.readAllBytes( file ), _received.values().iterator().next()._content );
+
+        //
+        //    The file was counted as done, so the threads go.
+        //
+        uploader.shutdown();
+
+        Field    field = BatchUploader.class.getDeclaredField( "_executor" );
+        field.setAccessible( true );
+
+        assertTrue( ( (ExecutorService) field.get( uploader ) ).awaitTermination( TIMEOUT, TimeUnit.SECONDS ) );
+    }
+
+
+    @Test
+    public void uploadsManyFiles()
+        throws Exception
+    {
+        Map<Path,byte[]>    files    = new HashMap<Path,byte[]>();
+        BatchUploader       uploader = new BatchUploader( _server.url( "/upload" ), 4 );
+
+        uploader.setChunkSize( 4096 );
+
+        for( int    index = 0; index < 20; index++ )
+        {
+            Path    file = createFile( "file" + index, index * 1000 );
+            files.put( file, Files.readAllBytes( file ) );
+        }
+
+        uploader.uploadAll( files.keySet() ).get( TIMEOUT, TimeUnit.SECONDS );
+
+        assertEquals( 20, _received.size() );
+
+        for( Received    received : _received.values() )
+        {
+            assertArrayEquals( received._fileName,
+                               files.get( _folder.getRoot().toPath().resolve( received._fileName ) ),
+                               received._content );
+        }
+
+        uploader.shutdown();
+    }
+
+
+    @Test
+    public void retriesFailedChunks()
+        throws Exception
+    {
+        Path             file     = createFile( "retried.bin", 3000 );
+        BatchUploader    uploader = new BatchUploader( _server.url( "/upload" ), 1 );
+
+        uploader.setChunkSize( 1000 );
+        uploader.setRetryDelay( 10 );
+        _failuresLeft.set( 2 );
+
+        uploader.upload( file ).get( TIMEOUT, TimeUnit.SECONDS );
+
+        assertArrayEquals( Files.readAllBytes( file ), _received.values().iterator().next()._content );
+        assertEquals( 5, _server.getRequestCount() );
+
+        uploader.shutdown();
+    }
+
+
+    @Test
+    public void failsAfterMaxRetries()
+        throws Exception
+    {
+        Path             file     = createFile( "failed.bin", 100 );
+        BatchUploader    uploader = new BatchUploader( _server.url( "/upload" ), 1 );
+
+        uploader.setMaxRetries( 2 );
+        uploader.setRetryDelay( 10 );
+        _failuresLeft.set( Integer.MAX_VALUE );
+
+        try
+        {
+            uploader.upload( file ).get( TIMEOUT, TimeUnit.SECONDS );
+            fail( "Expected the upload to fail" );
+        }
+        catch( ExecutionException    ex )
+        {
+            assertTrue( ex.getCause() instanceof IOException );
+        }
+
+        assertEquals( 3, _server.getRequestCount() );
+
+        uploader.shutdown();
+    }
+
+
+    @Test
+    public void failsForMissingFiles()
+        throws Exception
+    {
+        BatchUploader    uploader = new BatchUploader( _server.url( "/upload" ), 1 );
+
+        try
+        {
+            uploader.upload( _folder.getRoot().toPath().resolve( "missing" ) ).get( TIMEOUT, TimeUnit.SECONDS );
+            fail( "Expected the upload to fail" );
+        }
+        catch( ExecutionException    ex )
+        {
+            assertTrue( ex.getCause() instanceof IOException );
+        }
+
+        uploader.shutdown();
+    }
+
+
+    @Test
+    public void rejectsUploadsAfterShutdown()
+        throws Exception
+    {
+        BatchUploader    uploader = new BatchUploader( _server.url( "/upload" ), 1 );
+
+        uploader.shutdown();
+
+        try
+        {
+            uploader.upload( createFile( "late.bin", 10 ) ).get( TIMEOUT, TimeUnit.SECONDS );
+            fail( "Expected the upload to be rejected" );
+        }
+        catch( ExecutionException    ex )
+        {
+            assertTrue( ex.getCause() instanceof RejectedExecutionException );
+        }
+
+        assertEquals( 0, _server.getRequestCount() );
+    }
+
+
+    @Test
+    public void retriesStillRunAfterShutdown()
+        throws Exception
+    {
+        Path             file     = createFile( "shutdown.bin", 100 );
+        BatchUploader    uploader = new BatchUploader( _server.url( "/upload" ), 1 );
+
+        uploader.setRetryDelay( 50 );
+        _failuresLeft.set( 1 );
+
+        //
+        //    The first attempt fails, so its retry is scheduled after
+        //    shutdown.
+        //
+        CompletableFuture<Void>    future = uploader.upload( file );
+        uploader.shutdown();
+
+        future.get( TIMEOUT, TimeUnit.SECONDS );
+
+        assertArrayEquals( Files.readAllBytes( file ), _received.values().iterator().next()._content );
+        assertEquals( 2, _server.getRequestCount() );
+    }
+
+
+    private Path createFile( final String    name,
+                             final int       size )
+        throws
+            IOException
+    {
+        byte[]    content = new byte[size];
+
+        new Random( size ).nextBytes( content );
+
+        return Files.write( _folder.getRoot().toPath().resolve( name ), content );
+    }
+
+
+    /**
+     *    Pulls the fields and file part out of a multipart/form-data body
+     *    and puts the chunk where it goes.
+     */
+    private void receive( final String    contentType,
+                          final byte[]    body )
+    {
+        String                 boundary = "--" + contentType.substring( contentType.indexOf( "boundary=" ) + 9 );
+        String                 text     = new String( body, StandardCharsets.ISO_8859_1 );
+        Map<String,String>     fields   = new HashMap<String,String>();
+        byte[]                 chunk    = null;
+
+        for( String    part : text.split( Pattern.quote( boundary ) ) )
+        {
+            int    headerEnd = part.indexOf( "\r\n\r\n" );
+
+            if( headerEnd < 0 )
+            {
+                continue;
+            }
+
+            String    headers = part.substring( 0, headerEnd );
+            String    content = part.substring( headerEnd + 4, part.length() - 2 );
+            int       start   = headers.indexOf( "name=\"" ) + 6;
+            String    name    = headers.substring( start, headers.indexOf( '"', start ) );
+
+            if( headers.contains( "filename=" ) )
+            {
+                chunk = content.getBytes( StandardCharsets.ISO_8859_1 );
+            }
+            else
+            {
+                fields.put( name, new String( content.getBytes( StandardCharsets.ISO_8859_1 ), StandardCharsets.UTF_8 ) );
+            }
+        }
+
+        Received    received = new Received();
+        Received    existing = _received.putIfAbsent( fields.get( "uploadId" ), received );
+
+        if( existing != null )
+        {
+            received = existing;
+        }
+
+        synchronized( received )
+        {
+            if( received._content == null )
+            {
+                received._fileName = fields.get( "fileName" );
+                received._owner    = fields.get( "owner" );
+                received._content  = new byte[Integer.parseInt( fields.get( "totalSize" ) )];
+            }
+
+            int    offset = Integer.parseInt( fields.get( "offset" ) );
+
+            System.arraycopy( chunk, 0, received._content, offset, chunk.length );
+        }
+
+        received._chunks.incrementAndGet();
+    }
+}
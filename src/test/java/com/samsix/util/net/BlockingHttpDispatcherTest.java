@@ -0,0 +1,384 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.net;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.samsix.util.net.SimpleHttpClient.Response;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+
+public class BlockingHttpDispatcherTest
+{
+    private static final long    TIMEOUT = 10;
+
+    private TestHttpServer    _server;
+    private TestHttpServer    _other;
+
+    /**
+     *    Requests being handled right now by either server, and the most
+     *    there have been at once.
+     */
+    private final AtomicInteger    _inFlight    = new AtomicInteger();
+    private final AtomicInteger    _maxInFlight = new AtomicInteger();
+
+    /**
+     *    What /block waits on
+     */
+    private final CountDownLatch    _release = new CountDownLatch( 1 );
+
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        _server = new TestHttpServer();
+        _other  = new TestHttpServer();
+
+        HttpHandler    counting = new HttpHandler()
+        {
+            @Override
+            public void handle( final HttpExchange    exchange )
+                throws
+                    IOException
+            {
+                int    inFlight = _inFlight.incrementAndGet();
+
+                try
+                {
+                    while( true )
+                    {
+                        int    max = _maxInFlight.get();
+
+                        if( inFlight <= max || _maxInFlight.compareAndSet( max, inFlight ) )
+                        {
+                            break;
+                        }
+                    }
+
+                    if( exchange.getRequestURI().getPath().equals( "/block" ) )
+                    {
+                        _release.await( TIMEOUT, TimeUnit.SECONDS );
+                    }
+                    else
+                    {
+                        Thread.sleep( 20 );
+                    }
+                }
+                catch( InterruptedException    ex )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                finally
+                {
+                    _inFlight.decrementAndGet();
+                }
+
+                TestHttpServer.respond( exchange, 200, new byte[] { 'o', 'k' } );
+            }
+        };
+
+        for( TestHttpServer    server : new TestHttpServer[] { _server, _other } )
+        {
+            server.handle( "/count", counting );
+            server.handle( "/block", counting );
+        }
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        _release.countDown();
+        _server.close();
+        _other.close();
+    }
+
+
+    @Test
+    public void completesEveryRequest()
+        throws Exception
+    {
+        BlockingHttpDispatcher               client  = new BlockingHttpDispatcher( new SimpleHttpClient() );
+        List<CompletableFuture<Response>>    futures = new ArrayList<CompletableFuture<Response>>();
+
+        for( int    index = 0; index < 100; index++ )
+        {
+            futures.add( client.get( _server.url( "/status?code=" + ( 200 + index % 2 ) ), null ) );
+        }
+
+        for( int    index = 0; index < futures.size(); index++ )
+        {
+            assertEquals( 200 + index % 2, futures.get( index ).get( TIMEOUT, TimeUnit.SECONDS ).getStatus() );
+        }
+
+        assertEquals( 100, _server.getRequestCount() );
+        assertEquals( 0, client.getRunning() );
+        assertEquals( 0, client.getPending() );
+    }
+
+
+    @Test
+    public void keepsToMaxPerHost()
+        throws Exception
+    {
+        BlockingHttpDispatcher    client = new BlockingHttpDispatcher( new SimpleHttpClient(), 32, 3 );
+
+        waitForAll( submit( client, _server, "/count", 30 ) );
+
+        assertEquals( 3, _maxInFlight.get() );
+    }
+
+
+    @Test
+    public void keepsToMaxConcurrent()
+        throws Exception
+    {
+        BlockingHttpDispatcher               client  = new BlockingHttpDispatcher( new SimpleHttpClient(), 4, 4 );
+        List<CompletableFuture<Response>>    futures = submit( client, _server, "/count", 20 );
+
+        futures.addAll( submit( client, _other, "/count", 20 ) );
+        waitForAll( futures );
+
+        assertEquals( 4, _maxInFlight.get() );
+    }
+
+
+    @Test
+    public void busyHostDoesNotHoldUpOthers()
+        throws Exception
+    {
+        BlockingHttpDispatcher               client  = new BlockingHttpDispatcher( new SimpleHttpClient(), 4, 1 );
+        List<CompletableFuture<Response>>    blocked = submit( client, _server, "/block", 3 );
+
+        //
+        //    One of those is running and the others are waiting behind it,
+        //    but there are slots to spare for another host.
+        //
+        Response    response = client.get( _other.url( "/echo" ), null ).get( TIMEOUT, TimeUnit.SECONDS );
+
+        assertEquals( 200, response.getStatus() );
+        assertEquals( 2, client.getPending() );
+
+        _release.countDown();
+        waitForAll( blocked );
+    }
+
+
+    @Test
+    public void callbacksCanWaitOnOtherRequests()
+        throws Exception
+    {
+        //
+        //    With a single slot, the second request can only run if the
+        //    first gave its slot back before running the callback.
+        //
+        final BlockingHttpDispatcher    client = new BlockingHttpDispatcher( new SimpleHttpClient(), 1, 1 );
+
+        CompletableFuture<Integer>    nested = client.get( _server.url( "/echo" ), null ).thenApply(
+            new Function<Response,Integer>()
+            {
+                @Override
+                public Integer apply( final Response    response )
+                {
+                    return client.get( _server.url( "/status?code=202" ), null ).join().getStatus();
+                }
+            } );
+
+        assertEquals( 202, nested.get( TIMEOUT, TimeUnit.SECONDS ).intValue() );
+    }
+
+
+    @Test
+    public void callbacksDontRunOnRequestThreads()
+        throws Exception
+    {
+        BlockingHttpDispatcher    client = new BlockingHttpDispatcher( new SimpleHttpClient(), 1, 1 );
+
+        CompletableFuture<String>    thread = client.get( _server.url( "/block" ), null ).thenApply(
+            new Function<Response,String>()
+            {
+                @Override
+                public String apply( final Response    response )
+                {
+                    return Thread.currentThread().getName();
+                }
+            } );
+
+        _release.countDown();
+
+        assertFalse( thread.get( TIMEOUT, TimeUnit.SECONDS ), thread.get().startsWith( "BlockingHttpDispatcher" ) );
+    }
+
+
+    @Test
+    public void keepsThreadsToMaxConcurrent()
+        throws Exception
+    {
+        BlockingHttpDispatcher    client = new BlockingHttpDispatcher( new SimpleHttpClient(), 4, 4 );
+
+        waitForAll( submit( client, _server, "/count", 40 ) );
+
+        Field    field = BlockingHttpDispatcher.class.getDeclaredField( "_executor" );
+        field.setAccessible( true );
+
+        assertTrue( ( (ThreadPoolExecutor) field.get( client ) ).getLargestPoolSize() <= 4 );
+    }
+
+
+    @Test
+    public void shutdownFinishesWhatIsQueued()
+        throws Exception
+    {
+        BlockingHttpDispatcher               client  = new BlockingHttpDispatcher( new SimpleHttpClient(), 1, 1 );
+        List<CompletableFuture<Response>>    blocked = submit( client, _server, "/block", 3 );
+
+        client.shutdown();
+
+        assertTrue( client.isShutdown() );
+
+        try
+        {
+            client.get( _server.url( "/echo" ), null ).get( TIMEOUT, TimeUnit.SECONDS );
+            fail( "Expected the request to be rejected" );
+        }
+        catch( ExecutionException    ex )
+        {
+            assertTrue( ex.getCause() instanceof RejectedExecutionException );
+        }
+
+        _release.countDown();
+        waitForAll( blocked );
+
+        Field    field = BlockingHttpDispatcher.class.getDeclaredField( "_executor" );
+        field.setAccessible( true );
+
+        assertTrue( ( (ThreadPoolExecutor) field.get( client ) ).awaitTermination( TIMEOUT, TimeUnit.SECONDS ) );
+        assertEquals( 3, _server.getRequestCount() );
+    }
+
+
+    @Test
+    public void cancelledRequestsAreNotSent()
+        throws Exception
+    {
+        BlockingHttpDispatcher         client  = new BlockingHttpDispatcher( new SimpleHttpClient(), 1, 1 );
+        CompletableFuture<Response>    running = client.get( _server.url( "/block" ), null );
+        CompletableFuture<Response>    waiting = client.get( _server.url( "/echo" ), null );
+
+        assertTrue( waiting.cancel( false ) );
+
+        _release.countDown();
+        running.get( TIMEOUT, TimeUnit.SECONDS );
+
+        //
+        //    Anything after the cancelled one still gets its turn.
+        //
+        client.get( _server.url( "/status?code=204" ), null ).get( TIMEOUT, TimeUnit.SECONDS );
+
+        assertEquals( 2, _server.getRequestCount() );
+        assertEquals( 0, client.getPending() );
+    }
+
+
+    @Test
+    public void failsOnMalformedUrls()
+        throws Exception
+    {
+        try
+        {
+            new BlockingHttpDispatcher( new SimpleHttpClient() ).get( "nonsense", null ).get( TIMEOUT, TimeUnit.SECONDS );
+            fail( "Expected a failure" );
+        }
+        catch( ExecutionException    ex )
+        {
+            assertTrue( ex.getCause() instanceof MalformedURLException );
+        }
+    }
+
+
+    @Test
+    public void failsWhenItCantConnect()
+        throws Exception
+    {
+        ServerSocket    socket = new ServerSocket( 0 );
+        int             port   = socket.getLocalPort();
+        socket.close();
+
+        try
+        {
+            new BlockingHttpDispatcher( new SimpleHttpClient() ).get( "http://127.0.0.1:" + port + "/", null )
+                                                                .get( TIMEOUT, TimeUnit.SECONDS );
+            fail( "Expected a failure" );
+        }
+        catch( ExecutionException    ex )
+        {
+            assertTrue( ex.getCause() instanceof IOException );
+        }
+    }
+
+
+    @Test( expected = IllegalArgumentException.class )
+    public void rejectsInvalidLimits()
+    {
+        new BlockingHttpDispatcher( new SimpleHttpClient(), 0, 1 );
+    }
+
+
+    private static List<CompletableFuture<Response>> submit( final BlockingHttpDispatcher    client,
+                                                              final TestHttpServer            server,
+                                                              final String                    path,
+                                                              final int                       count )
+    {
+        List<CompletableFuture<Response>>    futures = new ArrayList<CompletableFuture<Response>>();
+
+        for( int    index = 0; index < count; index++ )
+        {
+            futures.add( client.get( server.url( path ), null ) );
+        }
+
+        return futures;
+    }
+
+
+    private static void waitForAll( final List<CompletableFuture<Response>>    futures )
+        throws
+            Exception
+    {
+        for( CompletableFuture<Response>    future : futures )
+        {
+            assertEquals( 200, future.get( TIMEOUT, TimeUnit.SECONDS ).getStatus() );
+        }
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.net;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class CidrTrieTest
+{
+    /**
+     *    Not multiples of 64, and the last ones big enough for the parallel
+     *    versions to split.
+     */
+    private static final int[]    SIZES = { 0, 1, 63, 65, 130, 1000, 50001 };
+
+
+    @Test
+    public void findsTheLongestIpv4Prefix()
+        throws Exception
+    {
+        CidrTrie<String>    trie = CidrTrie.<String>empty().with( "10.0.0.0/8", "a" )
+                                                           .with( "10.1.0.0/16", "b" )
+                                                           .with( "10.1.2.0/24", "c" )
+                                                           .with( "10.1.2.3/32", "d" );
+
+        assertEquals( "a", trie.lookup( address( "10.200.0.1" ) ) );
+        assertEquals( "b", trie.lookup( address( "10.1.200.1" ) ) );
+        assertEquals( "c", trie.lookup( address( "10.1.2.4" ) ) );
+        assertEquals( "d", trie.lookup( address( "10.1.2.3" ) ) );
+        assertNull( trie.lookup( address( "11.0.0.1" ) ) );
+        assertNull( trie.lookup( address( "9.255.255.255" ) ) );
+        assertEquals( "c", trie.lookupIpv4( ipv4( "10.1.2.255" ) ) );
+        assertEquals( 4, trie.size() );
+    }
+
+
+    @Test
+    public void findsTheLongestIpv6Prefix()
+        throws Exception
+    {
+        CidrTrie<String>    trie = CidrTrie.<String>empty().with( "2001:db8::/32", "a" )
+                                                           .with( "2001:db8:1::/48", "b" )
+                                                           .with( "2001:db8:1:2::/64", "c" )
+                                                           .with( "2001:db8:1:2:8000::/65", "d" )
+                                                           .with( "2001:db8:1:2::1/128", "e" );
+
+        assertEquals( "a", trie.lookup( address( "2001:db8:ffff::1" ) ) );
+        assertEquals( "b", trie.lookup( address( "2001:db8:1:ffff::1" ) ) );
+        assertEquals( "c", trie.lookup( address( "2001:db8:1:2::2" ) ) );
+        assertEquals( "c", trie.lookup( address( "2001:db8:1:2:7fff:ffff:ffff:ffff" ) ) );
+        assertEquals( "d", trie.lookup( address( "2001:db8:1:2:8000::" ) ) );
+        assertEquals( "d", trie.lookup( address( "2001:db8:1:2:ffff:ffff:ffff:ffff" ) ) );
+        assertEquals( "e", trie.lookup( address( "2001:db8:1:2::1" ) ) );
+        assertNull( trie.lookup( address( "2001:db9::1" ) ) );
+        assertEquals( "e", trie.lookupIpv6( 0x20010db800010002L, 1 ) );
+    }
+
+
+    @Test
+    public void keepsIpv4AndIpv6Apart()
+        throws Exception
+    {
+        CidrTrie<String>    trie = CidrTrie.<String>empty().with( "::/0", "six" );
+
+        assertEquals( "six", trie.lookup( address( "::1" ) ) );
+        assertNull( trie.lookup( address( "10.0.0.1" ) ) );
+
+        trie = trie.with( "0.0.0.0/0", "four" );
+
+        assertEquals( "four", trie.lookup( address( "10.0.0.1" ) ) );
+        assertEquals( "six", trie.lookup( address( "::1" ) ) );
+
+        //
+        //    InetAddress turns mapped addresses into IPv4 ones.
+        //
+        assertEquals( "four", trie.lookup( address( "::ffff:10.0.0.1" ) ) );
+    }
+
+
+    @Test
+    public void snapshotsDontChange()
+        throws Exception
+    {
+        CidrTrie<String>    empty  = CidrTrie.empty();
+        CidrTrie<String>    first  = empty.with( "10.0.0.0/8", "a" );
+        CidrTrie<String>    second = first.with( "10.1.0.0/16", "b" );
+        CidrTrie<String>    third  = second.with( "10.0.0.0/8", "replaced" );
+
+        assertTrue( empty.isEmpty() );
+        assertNull( empty.lookup( address( "10.1.0.1" ) ) );
+
+        assertEquals( 1, first.size() );
+        assertEquals( "a", first.lookup( address( "10.1.0.1" ) ) );
+
+        assertEquals( 2, second.size() );
+        assertEquals( "b", second.lookup( address( "10.1.0.1" ) ) );
+        assertEquals( "a", second.lookup( address( "10.2.0.1" ) ) );
+
+        assertEquals( 2, third.size() );
+        assertEquals( "replaced", third.lookup( address( "10.2.0.1" ) ) );
+        assertEquals( "a", second.lookup( address( "10.2.0.1" ) ) );
+    }
+
+
+    @Test( expected = IllegalArgumentException.class )
+    public void rejectsNullValues()
+    {
+        CidrTrie.<String>empty().with( "10.0.0.0/8", null );
+    }
+
+
+    @Test
+    public void agreesWithALinearScan()
+    {
+        Random                    random = new Random( 42 );
+        List<InetAddressBlock>    blocks = new ArrayList<InetAddressBlock>();
+        CidrTrie<Integer>         trie   = CidrTrie.empty();
+
+        for( int    index = 0; index < 300; index++ )
+        {
+            //
+            //    Few enough distinct prefixes that blocks nest and repeat.
+            //
+            int                 base  = random.nextInt( 16 ) << 28 | random.nextInt( 256 ) << 16;
+            InetAddressBlock    block = InetAddressBlock.valueOf( toLiteral( base ) + "/" + random.nextInt( 33 ) );
+
+            blocks.add( block );
+            trie = trie.with( block, index );
+        }
+
+        int[]    addresses = randomAddresses( random, 20000 );
+
+        for( int    address : addresses )
+        {
+            assertEquals( toLiteral( address ), linearLookup( blocks, address ), trie.lookupIpv4( address ) );
+        }
+    }
+
+
+    @Test
+    public void matchesBatches()
+    {
+        CidrTrie<Boolean>    trie = CidrTrie.valueOf( Arrays.asList( "10.0.0.0/9", "192.168.0.0/16" ) );
+        Random               random = new Random( 7 );
+
+        for( int    size : SIZES )
+        {
+            int[]     addresses = randomAddresses( random, size );
+            long[]    expected  = expectedBitmap( trie, addresses );
+            int       matched   = cardinality( expected );
+
+            long[]    bitmap = filled( size );
+            assertEquals( matched, trie.matchIpv4( addresses, bitmap ) );
+            assertArrayEquals( "size " + size, expected, bitmap );
+
+            bitmap = filled( size );
+            assertEquals( matched, trie.matchIpv4Parallel( addresses, bitmap ) );
+            assertArrayEquals( "parallel size " + size, expected, bitmap );
+        }
+    }
+
+
+    @Test
+    public void matchesBuffersFromTheirPosition()
+    {
+        CidrTrie<Boolean>    trie   = CidrTrie.valueOf( Arrays.asList( "10.0.0.0/9", "192.168.0.0/16" ) );
+        Random               random = new Random( 11 );
+
+        for( int    size : SIZES )
+        {
+            int[]     addresses = randomAddresses( random, size );
+            long[]    expected  = expectedBitmap( trie, addresses );
+
+            for( ByteOrder    order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN } )
+            {
+                //
+                //    Five bytes of something else first, so the addresses
+                //    aren't even aligned.
+                //
+                ByteBuffer    buffer = ByteBuffer.allocate( 5 + size * 4 + 3 ).order( order );
+
+                buffer.put( new byte[] { -1, -1, -1, -1, -1 } );
+
+                for( int    address : addresses )
+                {
+                    buffer.putInt( address );
+                }
+
+                buffer.position( 5 );
+                buffer.limit( 5 + size * 4 );
+
+                long[]    bitmap = filled( size );
+                assertEquals( cardinality( expected ), trie.matchIpv4( buffer, bitmap ) );
+                assertArrayEquals( order + " size " + size, expected, bitmap );
+
+                bitmap = filled( size );
+                assertEquals( cardinality( expected ), trie.matchIpv4Parallel( buffer, bitmap ) );
+                assertArrayEquals( order + " parallel size " + size, expected, bitmap );
+
+                assertEquals( 5, buffer.position() );
+            }
+        }
+    }
+
+
+    @Test
+    public void looksUpBatches()
+    {
+        CidrTrie<String>    trie   = CidrTrie.<String>empty().with( "10.0.0.0/8", "a" ).with( "10.64.0.0/10", "b" );
+        Random              random = new Random( 13 );
+
+        for( int    size : SIZES )
+        {
+            int[]       addresses = randomAddresses( random, size );
+            String[]    expected  = new String[size];
+            int         matched   = 0;
+
+            for( int    index = 0; index < size; index++ )
+            {
+                expected[index] = trie.lookupIpv4( addresses[index] );
+                matched += expected[index] != null ? 1 : 0;
+            }
+
+            String[]    values = new String[size];
+            Arrays.fill( values, "stale" );
+            assertEquals( matched, trie.lookupIpv4( addresses, values ) );
+            assertArrayEquals( expected, values );
+
+            values = new String[size];
+            Arrays.fill( values, "stale" );
+            assertEquals( matched, trie.lookupIpv4Parallel( addresses, values ) );
+            assertArrayEquals( expected, values );
+
+            ByteBuffer    buffer = ByteBuffer.allocate( 8 + size * 4 );
+
+            buffer.position( 8 );
+            for( int    address : addresses )
+            {
+                buffer.putInt( address );
+            }
+            buffer.position( 8 );
+
+            values = new String[size];
+            assertEquals( matched, trie.lookupIpv4( buffer, values ) );
+            assertArrayEquals( expected, values );
+        }
+    }
+
+
+    @Test( expected = IllegalArgumentException.class )
+    public void rejectsSmallBitmaps()
+    {
+        CidrTrie.valueOf( Arrays.asList( "10.0.0.0/8" ) ).matchIpv4( new int[65], new long[1] );
+    }
+
+
+    @Test( expected = IllegalArgumentException.class )
+    public void rejectsSmallValueArrays()
+    {
+        CidrTrie.valueOf( Arrays.asList( "10.0.0.0/8" ) ).lookupIpv4( new int[3], new Boolean[2] );
+    }
+
+
+    /**
+     *    Random addresses, half of them inside 10/8 or 192.168/16 so
+     *    there is something to match.
+     */
+    static int[] randomAddresses( final Random    random,
+                                  final int       count )
+    {
+        int[]    addresses = new int[count];
+
+        for( int    index = 0; index < count; index++ )
+        {
+            switch( random.nextInt( 4 ) )
+            {
+                case 0:
+                    addresses[index] = 0x0a000000 | random.nextInt( 1 << 24 );
+                    break;
+
+                case 1:
+                    addresses[index] = 0xc0a80000 | random.nextInt( 1 << 16 );
+                    break;
+
+                default:
+                    addresses[index] = random.nextInt();
+            }
+        }
+
+        return addresses;
+    }
+
+
+    static long[] expectedBitmap( final CidrTrie<?>    trie,
+                                  final int[]          addresses )
+    {
+        long[]    bitmap = new long[( addresses.length + 63 ) / 64];
+
+        for( int    index = 0; index < addresses.length; index++ )
+        {
+            if( trie.lookupIpv4( addresses[index] ) != null )
+            {
+                bitmap[index / 64] |= 1L << index;
+            }
+        }
+
+        return bitmap;
+    }
+
+
+    /**
+     *    A bitmap of the right size with every bit set, so bits that should
+     *    be cleared show up.
+     */
+    static long[] filled( final int    count )
+    {
+        long[]    bitmap = new long[( count + 63 ) / 64];
+
+        Arrays.fill( bitmap, -1L );
+
+        return bitmap;
+    }
+
+
+    static int cardinality( final long[]    bitmap )
+    {
+        int    count = 0;
+
+        for( long    word : bitmap )
+        {
+            count += Long.bitCount( word );
+        }
+
+        return count;
+    }
+
+
+    /**
+     *    @return the index of the longest block containing the address, the
+     *            last one added if the same block was added more than once
+     */
+    private static Integer linearLookup( final List<InetAddressBlock>    blocks,
+                                         final int                       address )
+    {
+        Integer    found  = null;
+        int        length = -1;
+
+        for( int    index = 0; index < blocks.size(); index++ )
+        {
+            InetAddressBlock    block = blocks.get( index );
+
+            if( block.matchesIpv4( address ) && block.getMaskLength() >= length )
+            {
+                found  = index;
+                length = block.getMaskLength();
+            }
+        }
+
+        return found;
+    }
+
+
+    static InetAddress address( final String    literal )
+        throws
+            Exception
+    {
+        return InetAddress.getByAddress( NetUtils.ipLiteralToBytes( literal ) );
+    }
+
+
+    static int ipv4( final String    literal )
+    {
+        return NetUtils.ipv4ToInt( NetUtils.ipLiteralToBytes( literal ) );
+    }
+
+
+    static String toLiteral( final int    address )
+    {
+        return ( address >>> 24 ) + "." + ( ( address >>> 16 ) & 0xff ) + "." + ( ( address >>> 8 ) & 0xff )
+               + "." + ( address & 0xff );
+    }
+}
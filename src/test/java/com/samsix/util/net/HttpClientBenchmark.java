@@ -0,0 +1,110 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.net;
+
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ *    Requests per second against a TestHttpServer through SimpleHttpClient,
+ *    with connections kept alive, against a new connection for every
+ *    request as ConnectionHelper used to make.  Run with
+ *    <pre>
+ *    mvn test-compile -P benchmark -Dbenchmark=HttpClientBenchmark
+ *    </pre>
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@Threads( 4 )
+@State( Scope.Benchmark )
+public class HttpClientBenchmark
+{
+    /**
+     *    Keeps the connection from being reused, as if each request were
+     *    made on a fresh one.
+     */
+    private static final Map<String,String>    CLOSE = Collections.singletonMap( "Connection", "close" );
+
+    private TestHttpServer      _server;
+    private SimpleHttpClient    _client;
+    private String              _smallUrl;
+    private String              _largeUrl;
+
+
+    @Setup( Level.Trial )
+    public void setUp()
+        throws IOException
+    {
+        _server   = new TestHttpServer();
+        _client   = new SimpleHttpClient();
+        _smallUrl = _server.url( "/gzip?size=100" );
+        _largeUrl = _server.url( "/gzip?size=100000" );
+    }
+
+
+    @TearDown( Level.Trial )
+    public void tearDown()
+    {
+        _server.close();
+    }
+
+
+    @Benchmark
+    public byte[] keepAliveSmall()
+        throws IOException
+    {
+        return _client.get( _smallUrl, null ).getBody();
+    }
+
+
+    @Benchmark
+    public byte[] keepAliveLargeGzipped()
+        throws IOException
+    {
+        return _client.get( _largeUrl, null ).getBody();
+    }
+
+
+    @Benchmark
+    public byte[] newConnectionSmall()
+        throws IOException
+    {
+        return _client.execute( "GET", _smallUrl, CLOSE, null, null ).getBody();
+    }
+
+
+    @Benchmark
+    public byte[] newConnectionLargeGzipped()
+        throws IOException
+    {
+        return _client.execute( "GET", _largeUrl, CLOSE, null, null ).getBody();
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.net;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class InetAddressBlockTest
+{
+    @Test
+    public void matchesEverythingAtSlashZero()
+        throws Exception
+    {
+        InetAddressBlock    six  = InetAddressBlock.valueOf( "2001:db8::/0" );
+        InetAddressBlock    four = InetAddressBlock.valueOf( "10.1.2.3/0" );
+
+        assertSix( six, true, "::", "::1", "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff", "2001:db9::" );
+        assertFour( four, true, "0.0.0.0", "255.255.255.255", "10.1.2.3" );
+
+        //
+        //    Never across families.
+        //
+        assertFalse( six.matchesLiteral( "10.0.0.1" ) );
+        assertFalse( four.matchesLiteral( "::1" ) );
+        assertFalse( six.matches( CidrTrieTest.address( "10.0.0.1" ) ) );
+        assertFalse( four.matches( CidrTrieTest.address( "::1" ) ) );
+    }
+
+
+    @Test
+    public void matchesAtSlash64()
+        throws Exception
+    {
+        InetAddressBlock    block = InetAddressBlock.valueOf( "2001:db8:1:2:ffff::1/64" );
+
+        assertSix( block, true, "2001:db8:1:2::", "2001:db8:1:2:ffff:ffff:ffff:ffff", "2001:db8:1:2:8000::" );
+        assertSix( block, false, "2001:db8:1:3::", "2001:db8:1:1:ffff:ffff:ffff:ffff", "::" );
+    }
+
+
+    @Test
+    public void matchesAtSlash65()
+        throws Exception
+    {
+        InetAddressBlock    low  = InetAddressBlock.valueOf( "2001:db8:1:2::/65" );
+        InetAddressBlock    high = InetAddressBlock.valueOf( "2001:db8:1:2:8000::/65" );
+
+        assertSix( low, true, "2001:db8:1:2::", "2001:db8:1:2:7fff:ffff:ffff:ffff" );
+        assertSix( low, false, "2001:db8:1:2:8000::", "2001:db8:1:3::" );
+
+        assertSix( high, true, "2001:db8:1:2:8000::", "2001:db8:1:2:ffff:ffff:ffff:ffff" );
+        assertSix( high, false, "2001:db8:1:2:7fff:ffff:ffff:ffff", "2001:db8:1:3:8000::" );
+    }
+
+
+    @Test
+    public void matchesAtSlash128()
+        throws Exception
+    {
+        InetAddressBlock    block = InetAddressBlock.valueOf( "2001:db8::1/128" );
+
+        assertSix( block, true, "2001:db8::1", "2001:0db8:0:0:0:0:0:1" );
+        assertSix( block, false, "2001:db8::", "2001:db8::2", "2001:db8::1:1", "2001:db9::1" );
+
+        InetAddressBlock    last = InetAddressBlock.valueOf( "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff/128" );
+
+        assertSix( last, true, "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff" );
+        assertSix( last, false, "ffff:ffff:ffff:ffff:ffff:ffff:ffff:fffe", "7fff:ffff:ffff:ffff:ffff:ffff:ffff:ffff" );
+    }
+
+
+    @Test
+    public void matchesIpv4Boundaries()
+        throws Exception
+    {
+        assertFour( InetAddressBlock.valueOf( "192.168.2.7/24" ), true, "192.168.2.0", "192.168.2.255" );
+        assertFour( InetAddressBlock.valueOf( "192.168.2.7/24" ), false, "192.168.1.255", "192.168.3.0" );
+        assertFour( InetAddressBlock.valueOf( "192.168.2.7/32" ), true, "192.168.2.7" );
+        assertFour( InetAddressBlock.valueOf( "192.168.2.7/32" ), false, "192.168.2.6", "192.168.2.8" );
+        assertFour( InetAddressBlock.valueOf( "128.0.0.0/1" ), true, "128.0.0.0", "255.255.255.255" );
+        assertFour( InetAddressBlock.valueOf( "128.0.0.0/1" ), false, "127.255.255.255", "0.0.0.0" );
+        assertFour( InetAddressBlock.valueOf( "10.0.0.0/255.255.240.0" ), true, "10.0.15.255" );
+        assertFour( InetAddressBlock.valueOf( "10.0.0.0/255.255.240.0" ), false, "10.0.16.0" );
+    }
+
+
+    /**
+     *    "::ffff:a.b.c.d" is the IPv4 address, as InetAddress has it, so it
+     *    matches IPv4 blocks and not IPv6 ones.
+     */
+    @Test
+    public void treatsMappedAddressesAsIpv4()
+        throws Exception
+    {
+        InetAddressBlock    four = InetAddressBlock.valueOf( "192.168.2.0/24" );
+        InetAddressBlock    six  = InetAddressBlock.valueOf( "::/0" );
+
+        assertTrue( four.matchesLiteral( "::ffff:192.168.2.7" ) );
+        assertTrue( four.matchesLiteral( "::FFFF:c0a8:0207" ) );
+        assertFalse( four.matchesLiteral( "::ffff:192.168.3.7" ) );
+        assertTrue( four.matches( CidrTrieTest.address( "::ffff:192.168.2.7" ) ) );
+
+        assertFalse( six.matchesLiteral( "::ffff:192.168.2.7" ) );
+        assertFalse( six.matches( CidrTrieTest.address( "::ffff:192.168.2.7" ) ) );
+
+        //
+        //    Only ::ffff: is mapped; the deprecated compatible form isn't.
+        //
+        assertFalse( four.matchesLiteral( "::192.168.2.7" ) );
+        assertTrue( InetAddressBlock.valueOf( "::/96" ).matchesLiteral( "::192.168.2.7" ) );
+    }
+
+
+    @Test
+    public void rejectsWhatIsntALiteral()
+    {
+        InetAddressBlock    block = InetAddressBlock.valueOf( "::/0" );
+
+        assertFalse( block.matchesLiteral( "" ) );
+        assertFalse( block.matchesLiteral( "localhost" ) );
+        assertFalse( block.matchesLiteral( "1:2:3:4:5:6:7:8:9" ) );
+        assertFalse( block.matchesLiteral( "::1 " ) );
+    }
+
+
+    @Test( expected = IllegalArgumentException.class )
+    public void rejectsLongIpv6Masks()
+    {
+        InetAddressBlock.valueOf( "::/129" );
+    }
+
+
+    @Test( expected = IllegalArgumentException.class )
+    public void rejectsLongIpv4Masks()
+    {
+        InetAddressBlock.valueOf( "10.0.0.0/33" );
+    }
+
+
+    /**
+     *    Against the BigInteger arithmetic it replaced, for every mask
+     *    length.
+     */
+    @Test
+    public void agreesWithBigIntegerMasking()
+        throws Exception
+    {
+        Random    random = new Random( 3 );
+
+        for( int    length = 0; length <= 128; length++ )
+        {
+            byte[]              base  = randomBytes( random );
+            InetAddressBlock    block = InetAddressBlock.valueOf( InetAddress.getByAddress( base ).getHostAddress()
+                                                                  + "/" + length );
+            BigInteger          mask  = BigInteger.ONE.shiftLeft( 128 )
+                                                      .subtract( BigInteger.ONE.shiftLeft( 128 - length ) );
+            BigInteger          network = new BigInteger( 1, base ).and( mask );
+
+            for( int    index = 0; index < 200; index++ )
+            {
+                byte[]    address = randomBytes( random );
+
+                if( index % 2 == 0 )
+                {
+                    //
+                    //    Half of them near the network, flipping one bit.
+                    //
+                    address = network.flipBit( random.nextInt( 128 ) ).toByteArray();
+                    address = pad( address );
+                }
+
+                boolean    expected = new BigInteger( 1, address ).and( mask ).equals( network );
+
+                assertEquals( block + " " + new BigInteger( 1, address ).toString( 16 ),
+                              expected,
+                              block.matchesIpv6( NetUtils.bytesToLong( address, 0 ),
+                                                 NetUtils.bytesToLong( address, 8 ) ) );
+                assertEquals( expected, block.matches( address ) );
+            }
+        }
+    }
+
+
+    private static void assertSix( final InetAddressBlock    block,
+                                   final boolean             expected,
+                                   final String...           literals )
+        throws
+            Exception
+    {
+        for( String    literal : literals )
+        {
+            byte[]    bytes = NetUtils.ipLiteralToBytes( literal );
+
+            assertEquals( block + " " + literal, expected, block.matchesLiteral( literal ) );
+            assertEquals( block + " " + literal, expected, block.matches( bytes ) );
+            assertEquals( block + " " + literal, expected, block.matches( InetAddress.getByAddress( bytes ) ) );
+            assertEquals( block + " " + literal,
+                          expected,
+                          block.matchesIpv6( NetUtils.bytesToLong( bytes, 0 ), NetUtils.bytesToLong( bytes, 8 ) ) );
+        }
+    }
+
+
+    private static void assertFour( final InetAddressBlock    block,
+                                    final boolean             expected,
+                                    final String...           literals )
+        throws
+            Exception
+    {
+        for( String    literal : literals )
+        {
+            byte[]    bytes = NetUtils.ipLiteralToBytes( literal );
+
+            assertEquals( block + " " + literal, expected, block.matchesLiteral( literal ) );
+            assertEquals( block + " " + literal, expected, block.matches( bytes ) );
+            assertEquals( block + " " + literal, expected, block.matches( InetAddress.getByAddress( bytes ) ) );
+            assertEquals( block + " " + literal, expected, block.matchesIpv4( NetUtils.ipv4ToInt( bytes ) ) );
+        }
+    }
+
+
+    private static byte[] randomBytes( final Random    random )
+    {
+        byte[]    bytes = new byte[16];
+
+        random.nextBytes( bytes );
+
+        return bytes;
+    }
+
+
+    /**
+     *    BigInteger.toByteArray drops leading zeros and may add a sign byte.
+     */
+    private static byte[] pad( final byte[]    bytes )
+    {
+        byte[]    padded = new byte[16];
+        int       length = Math.min( 16, bytes.length );
+
+        System.arraycopy( bytes, bytes.length - length, padded, 16 - length, length );
+
+        return padded;
+    }
+}
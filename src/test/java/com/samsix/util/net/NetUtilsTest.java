@@ -0,0 +1,170 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.net;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+
+import org.junit.Test;
+
+
+public class NetUtilsTest
+{
+    private static final String[]    VALID_IPV4 = { "0.0.0.0",
+                                                    "127.0.0.1",
+                                                    "192.168.2.7",
+                                                    "255.255.255.255",
+                                                    "010.001.000.009" };
+
+    private static final String[]    INVALID_IPV4 = { "",
+                                                      "1",
+                                                      "1.2.3",
+                                                      "1.2.3.4.5",
+                                                      "1.2.3.",
+                                                      ".1.2.3",
+                                                      "1..2.3",
+                                                      "256.1.1.1",
+                                                      "1.2.3.1000",
+                                                      "1.2.3.-4",
+                                                      "1.2.3.4 ",
+                                                      "a.b.c.d" };
+
+    private static final String[]    VALID_IPV6 = { "::",
+                                                    "::1",
+                                                    "1::",
+                                                    "1:2:3:4:5:6:7:8",
+                                                    "2620:0:2d0:200::7",
+                                                    "fe80::1:2",
+                                                    "1::8",
+                                                    "1:2:3:4:5:6:7::",
+                                                    "::2:3:4:5:6:7:8",
+                                                    "1:2:3::6:7:8",
+                                                    "ABCD:ef01:2345:6789:abcd:EF01:2345:6789",
+                                                    "::ffff:192.168.2.7",
+                                                    "::192.168.2.7",
+                                                    "1:2:3:4:5:6:1.2.3.4",
+                                                    "1::5:6:1.2.3.4",
+                                                    "0000:0000:0000:0000:0000:0000:0000:0001" };
+
+    private static final String[]    INVALID_IPV6 = { "",
+                                                      ":",
+                                                      ":::",
+                                                      "1",
+                                                      "1:2:3:4:5:6:7",
+                                                      "1:2:3:4:5:6:7:8:9",
+                                                      "1:2:3:4:5:6:7:8::",
+                                                      "::1:2:3:4:5:6:7:8",
+                                                      "1:2:3:4::5:6:7:8",
+                                                      "1::2::3",
+                                                      "1:::2",
+                                                      ":1:2:3:4:5:6:7",
+                                                      "1:2:3:4:5:6:7:",
+                                                      "12345::",
+                                                      "g::",
+                                                      "::1.2.3",
+                                                      "::1.2.3.4:5",
+                                                      "1:2:3:4:5:6:7:1.2.3.4",
+                                                      "::256.1.1.1",
+                                                      "[::1]",
+                                                      "fe80::1%eth0" };
+
+
+    @Test
+    public void parsesIpv4Literals()
+        throws Exception
+    {
+        for( String    text : VALID_IPV4 )
+        {
+            byte[]    bytes    = InetAddress.getByName( text ).getAddress();
+            long      expected = NetUtils.ipv4ToInt( bytes ) & 0xffffffffL;
+
+            assertEquals( text, expected, NetUtils.parseIpv4Literal( text ) );
+        }
+    }
+
+
+    @Test
+    public void rejectsInvalidIpv4Literals()
+    {
+        for( String    text : INVALID_IPV4 )
+        {
+            assertEquals( text, -1, NetUtils.parseIpv4Literal( text ) );
+        }
+    }
+
+
+    @Test
+    public void parsesIpv4LiteralInRange()
+    {
+        assertEquals( 0x7f000001L, NetUtils.parseIpv4Literal( "[127.0.0.1]", 1, 10 ) );
+    }
+
+
+    @Test
+    public void parsesIpv6Literals()
+        throws Exception
+    {
+        for( String    text : VALID_IPV6 )
+        {
+            long[]    halves = new long[2];
+
+            assertTrue( text, NetUtils.parseIpv6Literal( text, halves ) );
+            assertArrayEquals( text, toHalves( text ), halves );
+        }
+    }
+
+
+    @Test
+    public void rejectsInvalidIpv6Literals()
+    {
+        for( String    text : INVALID_IPV6 )
+        {
+            long[]    halves = new long[] { 17, 42 };
+
+            assertFalse( text, NetUtils.parseIpv6Literal( text, halves ) );
+            assertArrayEquals( "halves left alone for " + text, new long[] { 17, 42 }, halves );
+        }
+    }
+
+
+    @Test
+    public void parsesIpv6LiteralInRange()
+    {
+        long[]    halves = new long[2];
+
+        assertTrue( NetUtils.parseIpv6Literal( "[::1]", 1, 4, halves ) );
+        assertArrayEquals( new long[] { 0, 1 }, halves );
+    }
+
+
+    /**
+     *    What InetAddress makes of text, as NetUtils.parseIpv6Literal's halves.
+     */
+    private static long[] toHalves( final String    text )
+        throws Exception
+    {
+        byte[]    bytes = InetAddress.getByName( text ).getAddress();
+
+        if( bytes.length == 4 )
+        {
+            //
+            //    InetAddress turns "::ffff:a.b.c.d" into an Inet4Address.
+            //
+            return new long[] { 0, 0xffff00000000L | ( NetUtils.ipv4ToInt( bytes ) & 0xffffffffL ) };
+        }
+
+        return new long[] { NetUtils.bytesToLong( bytes, 0 ), NetUtils.bytesToLong( bytes, 8 ) };
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.net;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.samsix.util.net.SimpleHttpClient.Response;
+
+
+public class SimpleHttpClientTest
+{
+    private TestHttpServer      _server;
+    private SimpleHttpClient    _client;
+
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        _server = new TestHttpServer();
+        _client = new SimpleHttpClient();
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        _server.close();
+    }
+
+
+    @Test
+    public void getPutsParametersOnTheQuery()
+        throws Exception
+    {
+        Map<String,String>    params = new LinkedHashMap<String,String>();
+        params.put( "a", "1" );
+        params.put( "b", "x y&z" );
+
+        Response    response = _client.get( _server.url( "/echo" ), params );
+
+        assertEquals( 200, response.getStatus() );
+        assertTrue( response.isOk() );
+        assertEquals( "GET", response.getHeader( "X-Method" ) );
+        assertEquals( "a=1&b=x+y%26z", response.getHeader( "X-Query" ) );
+        assertEquals( 0, response.getBody().length );
+    }
+
+
+    @Test
+    public void getAddsToAnExistingQuery()
+        throws Exception
+    {
+        Response    response = _client.get( _server.url( "/echo?a=1" ), Collections.singletonMap( "b", "2" ) );
+
+        assertEquals( "a=1&b=2", response.getHeader( "X-Query" ) );
+    }
+
+
+    @Test
+    public void postFormEncodesTheBodyOnceAsUtf8()
+        throws Exception
+    {
+        Map<String,String>    params = new LinkedHashMap<String,String>();
+        params.put( "name", "caf\u00e9" );
+        params.put( "note", "100%" );
+
+        Response    response = _client.postForm( _server.url( "/echo" ), params );
+
+        assertEquals( "POST", response.getHeader( "X-Method" ) );
+        assertEquals( SimpleHttpClient.FORM_CONTENT_TYPE, response.getHeader( "X-Content-Type" ) );
+        assertEquals( "name=caf%C3%A9&note=100%25", response.getBodyAsString() );
+    }
+
+
+    @Test
+    public void postSendsTheBytesAsGiven()
+        throws Exception
+    {
+        byte[]    body = new byte[100000];
+
+        for( int    index = 0; index < body.length; index++ )
+        {
+            body[index] = (byte) index;
+        }
+
+        Response    response = _client.post( _server.url( "/echo" ), "application/octet-stream", body );
+
+        assertEquals( "application/octet-stream", response.getHeader( "X-Content-Type" ) );
+        assertArrayEquals( body, response.getBody() );
+    }
+
+
+    @Test
+    public void unzipsGzippedResponses()
+        throws Exception
+    {
+        Response    response = _client.get( _server.url( "/gzip?size=50000" ), null );
+
+        assertEquals( "gzip", response.getHeader( "Content-Encoding" ) );
+        assertArrayEquals( TestHttpServer.text( 50000 ), response.getBody() );
+    }
+
+
+    @Test
+    public void errorStatusesComeBackWithTheirBody()
+        throws Exception
+    {
+        Response    response = _client.get( _server.url( "/status?code=404" ), null );
+
+        assertEquals( 404, response.getStatus() );
+        assertFalse( response.isOk() );
+        assertEquals( "status 404", response.getBodyAsString() );
+
+        response = _client.get( _server.url( "/status?code=500" ), null );
+
+        assertEquals( 500, response.getStatus() );
+        assertEquals( "status 500", response.getBodyAsString() );
+    }
+
+
+    @Test
+    public void reusesConnections()
+        throws Exception
+    {
+        for( int    index = 0; index < 20; index++ )
+        {
+            _client.get( _server.url( "/echo" ), null );
+            _client.get( _server.url( "/gzip" ), null );
+            _client.get( _server.url( "/status?code=404" ), null );
+            _client.post( _server.url( "/echo" ), "text/plain", "hello".getBytes( StandardCharsets.UTF_8 ) );
+        }
+
+        assertEquals( 80, _server.getRequestCount() );
+        assertEquals( 1, _server.getConnectionCount() );
+    }
+
+
+    @Test
+    public void sendsDefaultHeaders()
+        throws Exception
+    {
+        _client.setDefaultHeader( "User-Agent", "s6-util test" );
+
+        assertEquals( "s6-util test", _client.get( _server.url( "/echo" ), null ).getHeader( "X-User-Agent" ) );
+
+        Response    response = _client.execute( "GET",
+                                                _server.url( "/echo" ),
+                                                Collections.singletonMap( "User-Agent", "override" ),
+                                                null,
+                                                null );
+
+        assertEquals( "override", response.getHeader( "X-User-Agent" ) );
+    }
+
+
+    @Test
+    public void timesOutSlowResponses()
+        throws Exception
+    {
+        _client.setReadTimeout( 200 );
+
+        long    start = System.currentTimeMillis();
+
+        try
+        {
+            _client.get( _server.url( "/slow?ms=1000" ), null );
+            fail( "Expected a timeout" );
+        }
+        catch( SocketTimeoutException    ex )
+        {
+            assertTrue( System.currentTimeMillis() - start < 900 );
+        }
+    }
+
+
+    @Test( expected = IllegalArgumentException.class )
+    public void rejectsNegativeTimeouts()
+    {
+        _client.setConnectTimeout( -1 );
+    }
+}
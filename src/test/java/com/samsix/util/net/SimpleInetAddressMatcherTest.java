@@ -0,0 +1,148 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.net;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class SimpleInetAddressMatcherTest
+{
+    private static final SimpleInetAddressMatcher    MATCHER
+        = SimpleInetAddressMatcher.valueOf( Arrays.asList( "10.0.0.0/9",
+                                                           "192.168.0.0/255.255.0.0",
+                                                           "192.168.2.7/32",
+                                                           "2001:db8::/32" ) );
+
+
+    @Test
+    public void isNullWithoutBlocks()
+    {
+        assertNull( SimpleInetAddressMatcher.valueOf( null ) );
+        assertNull( SimpleInetAddressMatcher.valueOf( Collections.<String>emptyList() ) );
+    }
+
+
+    @Test
+    public void matchesAddresses()
+        throws Exception
+    {
+        assertTrue( MATCHER.matchesAny( CidrTrieTest.address( "10.127.255.255" ) ) );
+        assertTrue( MATCHER.matchesAny( CidrTrieTest.address( "192.168.200.1" ) ) );
+        assertTrue( MATCHER.matchesAny( CidrTrieTest.address( "2001:db8:ffff::1" ) ) );
+        assertTrue( MATCHER.matchesAny( CidrTrieTest.address( "::ffff:10.0.0.1" ) ) );
+
+        assertFalse( MATCHER.matchesAny( CidrTrieTest.address( "10.128.0.0" ) ) );
+        assertFalse( MATCHER.matchesAny( CidrTrieTest.address( "2001:db9::1" ) ) );
+        assertTrue( MATCHER.matchesNone( CidrTrieTest.address( "8.8.8.8" ) ) );
+        assertFalse( MATCHER.matchesNone( CidrTrieTest.address( "10.0.0.1" ) ) );
+    }
+
+
+    @Test
+    public void matchesAllOnlyWhenEveryBlockDoes()
+        throws Exception
+    {
+        SimpleInetAddressMatcher    nested = SimpleInetAddressMatcher.valueOf( Arrays.asList( "10.0.0.0/8",
+                                                                                            "10.1.0.0/16" ) );
+
+        assertTrue( nested.matchesAll( CidrTrieTest.address( "10.1.2.3" ) ) );
+        assertFalse( nested.matchesAll( CidrTrieTest.address( "10.2.2.3" ) ) );
+        assertFalse( MATCHER.matchesAll( CidrTrieTest.address( "192.168.2.7" ) ) );
+    }
+
+
+    /**
+     *    The batch versions against one InetAddress at a time, for sizes
+     *    that aren't multiples of 64 and some big enough to be split.
+     */
+    @Test
+    public void matchesBatches()
+        throws Exception
+    {
+        Random    random = new Random( 5 );
+
+        for( int    size : new int[] { 0, 1, 63, 64, 65, 127, 1000, 40001 } )
+        {
+            int[]     addresses = CidrTrieTest.randomAddresses( random, size );
+            long[]    expected  = new long[( size + 63 ) / 64];
+
+            for( int    index = 0; index < size; index++ )
+            {
+                if( MATCHER.matchesAny( InetAddress.getByAddress( toBytes( addresses[index] ) ) ) )
+                {
+                    expected[index / 64] |= 1L << index;
+                }
+            }
+
+            int    matched = CidrTrieTest.cardinality( expected );
+
+            ByteBuffer    buffer = ByteBuffer.allocate( 4 + size * 4 );
+
+            buffer.putInt( 0 );
+            for( int    address : addresses )
+            {
+                buffer.putInt( address );
+            }
+            buffer.position( 4 );
+
+            long[]    bitmap = CidrTrieTest.filled( size );
+            assertEquals( matched, MATCHER.matchesAny( addresses, bitmap ) );
+            assertArrayEquals( "size " + size, expected, bitmap );
+
+            bitmap = CidrTrieTest.filled( size );
+            assertEquals( matched, MATCHER.matchesAnyParallel( addresses, bitmap ) );
+            assertArrayEquals( "parallel size " + size, expected, bitmap );
+
+            bitmap = CidrTrieTest.filled( size );
+            assertEquals( matched, MATCHER.matchesAny( buffer, bitmap ) );
+            assertArrayEquals( "buffer size " + size, expected, bitmap );
+
+            bitmap = CidrTrieTest.filled( size );
+            assertEquals( matched, MATCHER.matchesAnyParallel( buffer, bitmap ) );
+            assertArrayEquals( "parallel buffer size " + size, expected, bitmap );
+
+            assertEquals( 4, buffer.position() );
+        }
+    }
+
+
+    @Test( expected = IllegalArgumentException.class )
+    public void rejectsSmallBitmaps()
+    {
+        MATCHER.matchesAny( new int[64 * 3 + 1], new long[3] );
+    }
+
+
+    @Test
+    public void listsItsBlocks()
+    {
+        assertEquals( "{10.0.0.0/9|192.168.0.0/16|192.168.2.7/32|2001:db8:0:0:0:0:0:0/32}", MATCHER.toString() );
+    }
+
+
+    private static byte[] toBytes( final int    address )
+    {
+        return new byte[] { (byte) ( address >>> 24 ), (byte) ( address >>> 16 ), (byte) ( address >>> 8 ),
+                            (byte) address };
+    }
+}
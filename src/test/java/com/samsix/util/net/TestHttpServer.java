@@ -0,0 +1,320 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.net;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ *    An HTTP server on the loopback address for the client tests and
+ *    benchmarks, on a free port.  Out of the box it answers:
+ *    <pre>
+ *    /echo              the request body back, with X-Method, X-Query,
+ *                       X-Content-Type and X-User-Agent headers saying
+ *                       what came in
+ *    /gzip?size=n       n bytes of text, gzipped if the client accepts it
+ *    /status?code=n     status n with a short body
+ *    /slow?ms=n         an empty 200 after n milliseconds
+ *    </pre>
+ *    Tests add handlers of their own with handle().  It counts requests and
+ *    remembers the client ports it has seen, which is how tests tell
+ *    whether connections were reused.
+ */
+public class TestHttpServer
+{
+    static
+    {
+        //
+        //    The JDK server writes the headers and body separately, which
+        //    without TCP_NODELAY meets the client's delayed ACK and costs
+        //    ~40ms a request.  Read once, when the server classes load.
+        //
+        System.setProperty( "sun.net.httpserver.nodelay", "true" );
+    }
+
+    private final HttpServer         _server;
+    private final ExecutorService    _executor;
+    private final AtomicInteger      _requests    = new AtomicInteger();
+    private final Set<Integer>       _clientPorts = Collections.newSetFromMap( new ConcurrentHashMap<Integer,Boolean>() );
+
+
+    public TestHttpServer()
+        throws
+            IOException
+    {
+        _server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 ), 50 );
+
+        final AtomicInteger    threadCount = new AtomicInteger();
+
+        _executor = Executors.newCachedThreadPool( new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( final Runnable    runnable )
+            {
+                Thread    thread = new Thread( runnable, "TestHttpServer " + threadCount.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+
+        _server.setExecutor( _executor );
+
+        handle( "/echo", new HttpHandler()
+        {
+            @Override
+            public void handle( final HttpExchange    exchange )
+                throws
+                    IOException
+            {
+                byte[]    body = readFully( exchange.getRequestBody() );
+
+                exchange.getResponseHeaders().add( "X-Method", exchange.getRequestMethod() );
+                addHeader( exchange, "X-Query", exchange.getRequestURI().getRawQuery() );
+                addHeader( exchange, "X-Content-Type", exchange.getRequestHeaders().getFirst( "Content-Type" ) );
+                addHeader( exchange, "X-User-Agent", exchange.getRequestHeaders().getFirst( "User-Agent" ) );
+
+                respond( exchange, 200, body );
+            }
+        } );
+
+        handle( "/gzip", new HttpHandler()
+        {
+            @Override
+            public void handle( final HttpExchange    exchange )
+                throws
+                    IOException
+            {
+                byte[]    body = text( queryInt( exchange, "size", 1000 ) );
+                String    accept = exchange.getRequestHeaders().getFirst( "Accept-Encoding" );
+
+                if( accept == null || ! accept.contains( "gzip" ) )
+                {
+                    respond( exchange, 200, body );
+                    return;
+                }
+
+                ByteArrayOutputStream    zipped = new ByteArrayOutputStream();
+                GZIPOutputStream         output = new GZIPOutputStream( zipped );
+                output.write( body );
+                output.close();
+
+                exchange.getResponseHeaders().add( "Content-Encoding", "gzip" );
+                respond( exchange, 200, zipped.toByteArray() );
+            }
+        } );
+
+        handle( "/status", new HttpHandler()
+        {
+            @Override
+            public void handle( final HttpExchange    exchange )
+                throws
+                    IOException
+            {
+                int    code = queryInt( exchange, "code", 200 );
+
+                respond( exchange, code, ( "status " + code ).getBytes( StandardCharsets.UTF_8 ) );
+            }
+        } );
+
+        handle( "/slow", new HttpHandler()
+        {
+            @Override
+            public void handle( final HttpExchange    exchange )
+                throws
+                    IOException
+            {
+                try
+                {
+                    Thread.sleep( queryInt( exchange, "ms", 1000 ) );
+                }
+                catch( InterruptedException    ex )
+                {
+                    Thread.currentThread().interrupt();
+                }
+
+                respond( exchange, 200, new byte[0] );
+            }
+        } );
+
+        _server.start();
+    }
+
+
+    /**
+     *    Adds or replaces the handler for a path.  Requests to it are
+     *    counted like any other.
+     */
+    public void handle( final String         path,
+                        final HttpHandler    handler )
+    {
+        try
+        {
+            _server.removeContext( path );
+        }
+        catch( IllegalArgumentException    ex )
+        {
+            //    Wasn't one
+        }
+
+        _server.createContext( path, new HttpHandler()
+        {
+            @Override
+            public void handle( final HttpExchange    exchange )
+                throws
+                    IOException
+            {
+                _requests.incrementAndGet();
+                _clientPorts.add( exchange.getRemoteAddress().getPort() );
+
+                try
+                {
+                    handler.handle( exchange );
+                }
+                finally
+                {
+                    exchange.close();
+                }
+            }
+        } );
+    }
+
+
+    public String url( final String    path )
+    {
+        return "http://" + _server.getAddress().getHostString() + ":" + _server.getAddress().getPort() + path;
+    }
+
+
+    public int getRequestCount()
+    {
+        return _requests.get();
+    }
+
+
+    /**
+     *    @return how many different client ports requests came from, i.e.
+     *            roughly how many connections were opened
+     */
+    public int getConnectionCount()
+    {
+        return _clientPorts.size();
+    }
+
+
+    public void close()
+    {
+        _server.stop( 0 );
+        _executor.shutdownNow();
+    }
+
+
+    public static void respond( final HttpExchange    exchange,
+                                final int             status,
+                                final byte[]          body )
+        throws
+            IOException
+    {
+        exchange.sendResponseHeaders( status, body.length == 0 ? -1 : body.length );
+
+        if( body.length > 0 )
+        {
+            OutputStream    output = exchange.getResponseBody();
+            output.write( body );
+            output.close();
+        }
+    }
+
+
+    public static byte[] readFully( final InputStream    input )
+        throws
+            IOException
+    {
+        ByteArrayOutputStream    output = new ByteArrayOutputStream();
+        byte[]                   buffer = new byte[8192];
+        int                      count;
+
+        while( ( count = input.read( buffer ) ) != -1 )
+        {
+            output.write( buffer, 0, count );
+        }
+
+        return output.toByteArray();
+    }
+
+
+    /**
+     *    @return size bytes of repetitive text, which zips well
+     */
+    public static byte[] text( final int    size )
+    {
+        byte[]    pattern = "The quick brown fox jumps over the lazy dog. ".getBytes( StandardCharsets.US_ASCII );
+        byte[]    text    = new byte[size];
+
+        for( int    index = 0; index < size; index++ )
+        {
+            text[index] = pattern[index % pattern.length];
+        }
+
+        return text;
+    }
+
+
+    private static void addHeader( final HttpExchange    exchange,
+                                   final String          name,
+                                   final String          value )
+    {
+        if( value != null )
+        {
+            exchange.getResponseHeaders().add( name, value );
+        }
+    }
+
+
+    private static int queryInt( final HttpExchange    exchange,
+                                 final String          name,
+                                 final int             defaultValue )
+    {
+        String    query = exchange.getRequestURI().getRawQuery();
+
+        if( query == null )
+        {
+            return defaultValue;
+        }
+
+        for( String    pair : query.split( "&" ) )
+        {
+            if( pair.startsWith( name + "=" ) )
+            {
+                return Integer.parseInt( pair.substring( name.length() + 1 ) );
+            }
+        }
+
+        return defaultValue;
+    }
+}
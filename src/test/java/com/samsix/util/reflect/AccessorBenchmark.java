@@ -0,0 +1,163 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.reflect;
+
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ *    Calling a getter and a no-args constructor through the accessors from
+ *    SimpleMethodInvoker.getterFor/factoryFor, against doing the same with
+ *    Method.invoke, Constructor.newInstance and MethodHandles, with direct
+ *    calls as the baseline.  Run with
+ *    <pre>
+ *    mvn test-compile -P benchmark -Dbenchmark=AccessorBenchmark
+ *    </pre>
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class AccessorBenchmark
+{
+    public static class Bean
+    {
+        private final String    _name;
+
+
+        public Bean()
+        {
+            this( "bean" );
+        }
+
+
+        public Bean( final String    name )
+        {
+            _name = name;
+        }
+
+
+        public String getName()
+        {
+            return _name;
+        }
+    }
+
+
+    private Bean                      _bean;
+
+    private Function<Bean,String>     _getter;
+    private Supplier<Bean>            _factory;
+
+    private Method                    _method;
+    private Constructor<Bean>         _constructor;
+
+    private MethodHandle              _getterHandle;
+    private MethodHandle              _constructorHandle;
+
+
+    @Setup
+    public void setUp()
+        throws Exception
+    {
+        _bean = new Bean( "benchmark" );
+
+        _getter  = SimpleMethodInvoker.getterFor( Bean.class, "name" );
+        _factory = SimpleMethodInvoker.factoryFor( Bean.class );
+
+        _method      = Bean.class.getMethod( "getName" );
+        _constructor = Bean.class.getConstructor();
+
+        _getterHandle      = MethodHandles.publicLookup().unreflect( _method );
+        _constructorHandle = MethodHandles.publicLookup().findConstructor( Bean.class,
+                                                                           MethodType.methodType( void.class ) );
+    }
+
+
+    @Benchmark
+    public String getDirect()
+    {
+        return _bean.getName();
+    }
+
+
+    @Benchmark
+    public String getLambda()
+    {
+        return _getter.apply( _bean );
+    }
+
+
+    @Benchmark
+    public Object getReflection()
+        throws Exception
+    {
+        return _method.invoke( _bean );
+    }
+
+
+    @Benchmark
+    public String getMethodHandle()
+        throws Throwable
+    {
+        return (String) _getterHandle.invokeExact( _bean );
+    }
+
+
+    @Benchmark
+    public Bean constructDirect()
+    {
+        return new Bean();
+    }
+
+
+    @Benchmark
+    public Bean constructLambda()
+    {
+        return _factory.get();
+    }
+
+
+    @Benchmark
+    public Bean constructReflection()
+        throws Exception
+    {
+        return _constructor.newInstance();
+    }
+
+
+    @Benchmark
+    public Bean constructMethodHandle()
+        throws Throwable
+    {
+        return (Bean) _constructorHandle.invokeExact();
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.reflect;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+
+public class ClassMetadataIndexTest
+{
+    @Test
+    public void findsExactMatches()
+        throws Exception
+    {
+        assertParameters( find( "g", Object.class ), Object.class );
+        assertParameters( find( "g", CharSequence.class ), CharSequence.class );
+        assertParameters( find( "p", int.class ), int.class );
+    }
+
+
+    @Test
+    public void findsWidenedCalls()
+        throws Exception
+    {
+        assertParameters( find( "f", String.class ), CharSequence.class );
+        assertParameters( find( "f", StringBuilder.class ), CharSequence.class );
+
+        Method    add = ClassMetadataIndex.forClass( ArrayList.class ).findMethod( "add",
+                                                                               new Class<?>[] { String.class } );
+
+        assertEquals( boolean.class, add.getReturnType() );
+        assertParameters( add, Object.class );
+    }
+
+
+    @Test
+    public void picksTheMostSpecificOverload()
+        throws Exception
+    {
+        assertParameters( find( "g", String.class ), String.class );
+        assertParameters( find( "g", StringBuilder.class ), CharSequence.class );
+        assertParameters( find( "g", Integer.class ), Object.class );
+        assertParameters( find( "h", Integer.class, String.class ), Integer.class, Object.class );
+        assertParameters( find( "h", String.class, Integer.class ), Object.class, Integer.class );
+    }
+
+
+    @Test
+    public void matchesPrimitivesAndTheirWrappers()
+        throws Exception
+    {
+        assertParameters( find( "p", Integer.class ), int.class );
+    }
+
+
+    @Test
+    public void rejectsAmbiguousCalls()
+    {
+        assertAmbiguous( "h", Integer.class, Integer.class );
+
+        //
+        //    String is both, and neither is more specific.
+        //
+        assertAmbiguous( "k", String.class );
+    }
+
+
+    @Test
+    public void failsWhenNothingApplies()
+    {
+        try
+        {
+            find( "f", Integer.class );
+            fail( "Expected a failure" );
+        }
+        catch( NoSuchMethodException    ex )
+        {
+            assertTrue( ex.getMessage(), ! ex.getMessage().contains( "ambiguous" ) );
+        }
+    }
+
+
+    @Test
+    public void invokerUsesTheIndex()
+        throws Exception
+    {
+        List<String>    list = new ArrayList<String>();
+
+        assertEquals( Boolean.TRUE, SimpleMethodInvoker.invoke( list, "add", "item" ) );
+        assertEquals( "item", list.get( 0 ) );
+        assertEquals( "charSequence", SimpleMethodInvoker.invoke( new Overloads(), "f", "text" ) );
+    }
+
+
+    private static Method find( final String         name,
+                                final Class<?>...    types )
+        throws
+            NoSuchMethodException
+    {
+        return ClassMetadataIndex.forClass( Overloads.class ).findMethod( name, types );
+    }
+
+
+    private static void assertParameters( final Method         method,
+                                          final Class<?>...    types )
+    {
+        assertArrayEquals( method.toString(), types, method.getParameterTypes() );
+    }
+
+
+    private static void assertAmbiguous( final String         name,
+                                         final Class<?>...    types )
+    {
+        try
+        {
+            fail( "Expected an ambiguous call, got " + find( name, types ) );
+        }
+        catch( NoSuchMethodException    ex )
+        {
+            assertTrue( ex.getMessage(), ex.getMessage().contains( "ambiguous" ) );
+        }
+    }
+
+
+    public static class Overloads
+    {
+        public String f( final CharSequence    value )
+        {
+            return "charSequence";
+        }
+
+
+        public String g( final Object    value )
+        {
+            return "object";
+        }
+
+
+        public String g( final CharSequence    value )
+        {
+            return "charSequence";
+        }
+
+
+        public String g( final String    value )
+        {
+            return "string";
+        }
+
+
+        public String h( final Integer    lhs,
+                         final Object     rhs )
+        {
+            return "integer, object";
+        }
+
+
+        public String h( final Object     lhs,
+                         final Integer    rhs )
+        {
+            return "object, integer";
+        }
+
+
+        public String k( final Comparable<?>    value )
+        {
+            return "comparable";
+        }
+
+
+        public String k( final CharSequence    value )
+        {
+            return "charSequence";
+        }
+
+
+        public int p( final int    value )
+        {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ ***************************************************************************
+ *
+ * Copyright (c) 2001-2012 Sam Six.  All rights reserved.
+ *
+ * Company:      http://www.samsix.com
+ *
+ ***************************************************************************
+ */
+package com.samsix.util.reflect;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationTargetException;
+
+import org.junit.Test;
+
+import com.samsix.util.UtilException;
+
+
+/**
+ *    What comes out of the invokes when things go wrong is what came out
+ *    of Method.invoke and Constructor.newInstance, which callers unwrap.
+ */
+public class SimpleMethodInvokerTest
+{
+    @Test
+    public void invokesMethods()
+        throws Exception
+    {
+        Target    target = new Target();
+
+        assertEquals( "done", SimpleMethodInvoker.invoke( target, "done" ) );
+        assertEquals( "echo", SimpleMethodInvoker.invoke( target, "echo", "echo" ) );
+        assertEquals( "text", SimpleMethodInvoker.invoke( target, "echo", "text", CharSequence.class ) );
+        assertEquals( 6, SimpleMethodInvoker.invokeStaticMethod( Target.class, "twice", 3 ) );
+        assertEquals( "made", SimpleMethodInvoker.construct( Target.class, "made", String.class )._value );
+    }
+
+
+    @Test
+    public void wrapsWhatMethodsThrow()
+    {
+        try
+        {
+            SimpleMethodInvoker.invoke( new Target(), "fail", "broken" );
+            fail( "Expected a failure" );
+        }
+        catch( UtilException    ex )
+        {
+            assertTargetException( ex, IllegalStateException.class, "broken" );
+        }
+    }
+
+
+    @Test
+    public void wrapsWhatStaticMethodsThrow()
+        throws Exception
+    {
+        try
+        {
+            SimpleMethodInvoker.invokeStaticMethod( Target.class.getName(),
+                                                    "failStatic",
+                                                    new Object[] { "static" },
+                                                    new String[] { String.class.getName() } );
+            fail( "Expected a failure" );
+        }
+        catch( UtilException    ex )
+        {
+            assertTargetException( ex, UnsupportedOperationException.class, "static" );
+        }
+    }
+
+
+    @Test
+    public void wrapsWhatConstructorsThrow()
+    {
+        try
+        {
+            SimpleMethodInvoker.construct( Target.class, "bad", String.class );
+            fail( "Expected a failure" );
+        }
+        catch( UtilException    ex )
+        {
+            assertTargetException( ex, IllegalArgumentException.class, "bad" );
+        }
+    }
+
+
+    /**
+     *    These went through Class.newInstance(), which doesn't wrap.
+     */
+    @Test
+    public void passesOnWhatNoArgsConstructorsThrow()
+    {
+        try
+        {
+            SimpleMethodInvoker.construct( Exploding.class );
+            fail( "Expected a failure" );
+        }
+        catch( UtilException    ex )
+        {
+            assertTrue( String.valueOf( ex.getCause() ), ex.getCause() instanceof IllegalStateException );
+        }
+
+        try
+        {
+            SimpleMethodInvoker.construct( Exploding.class.getName() );
+            fail( "Expected a failure" );
+        }
+        catch( UtilException    ex )
+        {
+            assertTrue( String.valueOf( ex.getCause() ), ex.getCause() instanceof IllegalStateException );
+        }
+    }
+
+
+    @Test
+    public void missingMethodsAreNotWrapped()
+    {
+        try
+        {
+            SimpleMethodInvoker.invoke( new Target(), "missing" );
+            fail( "Expected a failure" );
+        }
+        catch( UtilException    ex )
+        {
+            assertTrue( String.valueOf( ex.getCause() ), ex.getCause() instanceof NoSuchMethodException );
+        }
+    }
+
+
+    @Test
+    public void badCallsAreNotWrapped()
+    {
+        try
+        {
+            SimpleMethodInvoker.invoke( new Target(), "echo", 12, String.class );
+            fail( "Expected a failure" );
+        }
+        catch( UtilException    ex )
+        {
+            assertTrue( String.valueOf( ex.getCause() ), ex.getCause() instanceof ClassCastException );
+        }
+
+        try
+        {
+            SimpleMethodInvoker.invokeStaticMethod( Target.class.getName(),
+                                                    "echo",
+                                                    new Object[] { "no target" },
+                                                    new String[] { String.class.getName() } );
+            fail( "Expected a failure" );
+        }
+        catch( UtilException    ex )
+        {
+            assertTrue( String.valueOf( ex.getCause() ), ex.getCause() instanceof NullPointerException );
+        }
+        catch( ClassNotFoundException    ex )
+        {
+            throw new AssertionError( ex );
+        }
+    }
+
+
+    private static void assertTargetException( final UtilException                 ex,
+                                               final Class<? extends Throwable>    type,
+                                               final String                        message )
+    {
+        Throwable    cause = ex.getCause();
+
+        assertTrue( String.valueOf( cause ), cause instanceof InvocationTargetException );
+        assertSame( type, cause.getCause().getClass() );
+        assertEquals( message, cause.getCause().getMessage() );
+    }
+
+
+    public static class Target
+    {
+        final String    _value;
+
+
+        public Target()
+        {
+            this( "" );
+        }
+
+
+        public Target( final String    value )
+        {
+            if( "bad".equals( value ) )
+            {
+                throw new IllegalArgumentException( value );
+            }
+
+            _value = value;
+        }
+
+
+        public String done()
+        {
+            return "done";
+        }
+
+
+        public String echo( final CharSequence    text )
+        {
+            return text.toString();
+        }
+
+
+        public void fail( final String    message )
+        {
+            throw new IllegalStateException( message );
+        }
+
+
+        public static void failStatic( final String    message )
+        {
+            throw new UnsupportedOperationException( message );
+        }
+
+
+        public static int twice( final Integer    value )
+        {
+            return value * 2;
+        }
+    }
+
+
+    public static class Exploding
+    {
+        public Exploding()
+        {
+            throw new IllegalStateException( "exploded" );
+        }
+    }
+}